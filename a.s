@@ -0,0 +1,368 @@
+    .globl garble
+garble:
+    enter $96, $0
+    movq %rbx, -24(%rbp)
+    movq %r12, -32(%rbp)
+    movq %r13, -40(%rbp)
+    movq %r14, -48(%rbp)
+    movq %r15, -56(%rbp)
+    movq %rdi, -8(%rbp)
+    movq %rsi, %rdi
+    /* Nop */
+    /* Nop */
+    /* CopyInst */
+    xorq %rcx, %rcx
+    /* CopyInst */
+    movq %rcx, %r8
+    /* Nop */
+    /* Nop */
+    /* CopyInst */
+    xorq %r9, %r9
+    /* CopyInst */
+    movq %r9, -16(%rbp)
+L1:
+    /* Nop */
+    /* Nop */
+    /* CopyInst */
+    xorq %r9, %r9
+    /* CompareInst */
+    movq -8(%rbp), %r11
+    cmpq %r9, %r11
+    /* JumpInst */
+    je L14
+    /* CopyInst */
+    xorq %r9, %r9
+L2:
+    /* Nop */
+    /* JumpInst */
+    cmpq $1, %r9
+    je L11
+    /* Nop */
+    /* Nop */
+    /* Nop */
+    /* Nop */
+    /* Nop */
+    /* Nop */
+    /* Nop */
+    /* CopyInst */
+    movq $2, %r12
+    /* BinaryOperator */
+    movq -8(%rbp), %rax
+    cqto
+    idivq %r12
+    movq %rax, %r13
+    /* CopyInst */
+    movq $2, %r14
+    /* BinaryOperator */
+    movq %r13, %r15
+    imulq %r14, %r15
+    /* BinaryOperator */
+    movq -8(%rbp), %rbx
+    subq %r15, %rbx
+    /* CopyInst */
+    movq %rbx, %r12
+    /* Nop */
+    /* Nop */
+    /* Nop */
+    /* CopyInst */
+    movq $2, %r13
+    /* BinaryOperator */
+    movq %rdi, %rax
+    cqto
+    idivq %r13
+    movq %rax, %r14
+    /* CopyInst */
+    movq $2, %r15
+    /* BinaryOperator */
+    movq %r14, %rbx
+    imulq %r15, %rbx
+    /* BinaryOperator */
+    movq %rdi, %r13
+    subq %rbx, %r13
+    /* CopyInst */
+    movq %r13, %r14
+    /* Nop */
+    /* CopyInst */
+    movq $1, %r15
+    /* CompareInst */
+    cmpq %r15, %r12
+    /* JumpInst */
+    je L10
+    /* CopyInst */
+    xorq %r13, %r13
+L3:
+    /* Nop */
+    /* JumpInst */
+    cmpq $1, %r13
+    je L9
+    /* Nop */
+    /* CopyInst */
+    xorq %r15, %r15
+    /* CompareInst */
+    cmpq %r15, %r12
+    /* JumpInst */
+    je L8
+    /* CopyInst */
+    xorq %r15, %r15
+L4:
+    /* Nop */
+    /* JumpInst */
+    cmpq $1, %r15
+    je L7
+    /* Nop */
+    /* Nop */
+    /* CopyInst */
+    movq $2, %rbx
+    /* BinaryOperator */
+    movq %r8, %rsi
+    imulq %rbx, %rsi
+    /* CopyInst */
+    movq %rsi, %r8
+L5:
+    /* Nop */
+L6:
+    /* Nop */
+    /* Nop */
+    /* Nop */
+    /* CopyInst */
+    movq $2, %rsi
+    /* BinaryOperator */
+    movq -8(%rbp), %rax
+    cqto
+    idivq %rsi
+    movq %rax, %rbx
+    /* CopyInst */
+    movq %rbx, -8(%rbp)
+    /* Nop */
+    /* Nop */
+    /* CopyInst */
+    movq $2, %rsi
+    /* BinaryOperator */
+    movq %rdi, %rax
+    cqto
+    idivq %rsi
+    movq %rax, %rbx
+    /* CopyInst */
+    movq %rbx, %rdi
+    /* Nop */
+    /* Nop */
+    /* CopyInst */
+    movq $1, %rsi
+    /* BinaryOperator */
+    movq -16(%rbp), %rbx
+    addq %rsi, %rbx
+    /* CopyInst */
+    movq %rbx, -16(%rbp)
+    jmp L1
+L7:
+    /* Nop */
+    /* Nop */
+    /* CopyInst */
+    movq $2, %rsi
+    /* BinaryOperator */
+    movq %r8, %rbx
+    imulq %rsi, %rbx
+    /* CopyInst */
+    movq $1, %rsi
+    /* BinaryOperator */
+    movq %rbx, %rcx
+    addq %rsi, %rcx
+    /* CopyInst */
+    movq %rcx, %r8
+    jmp L5
+L8:
+    /* Nop */
+    /* CopyInst */
+    movq $1, %rsi
+    /* CompareInst */
+    cmpq %rsi, %r14
+    sete %al
+    movzbq %al, %rax
+    movq %rax, %rcx
+    /* CopyInst */
+    movq %rcx, %r15
+    jmp L4
+L9:
+    /* Nop */
+    /* Nop */
+    /* CopyInst */
+    movq $2, %rsi
+    /* BinaryOperator */
+    movq %r8, %rcx
+    imulq %rsi, %rcx
+    /* CopyInst */
+    movq $1, %rsi
+    /* BinaryOperator */
+    movq %rcx, %rbx
+    addq %rsi, %rbx
+    /* CopyInst */
+    movq %rbx, %r8
+    jmp L6
+L10:
+    /* Nop */
+    /* CopyInst */
+    xorq %rcx, %rcx
+    /* CompareInst */
+    cmpq %rcx, %r14
+    sete %al
+    movzbq %al, %rax
+    movq %rax, %rsi
+    /* CopyInst */
+    movq %rsi, %r13
+    jmp L3
+L11:
+    /* Nop */
+    /* Nop */
+    /* Nop */
+    /* CopyInst */
+    xorq %rcx, %rcx
+    /* CopyInst */
+    movq %rcx, %rsi
+L12:
+    /* Nop */
+    /* Nop */
+    /* CopyInst */
+    xorq %rcx, %rcx
+    /* CompareInst */
+    movq -16(%rbp), %r11
+    cmpq %rcx, %r11
+    /* JumpInst */
+    je L13
+    /* Nop */
+    /* Nop */
+    /* Nop */
+    /* Nop */
+    /* CopyInst */
+    movq $2, %rcx
+    /* BinaryOperator */
+    movq %rsi, %rbx
+    imulq %rcx, %rbx
+    /* Nop */
+    /* Nop */
+    /* CopyInst */
+    movq $2, %rcx
+    /* BinaryOperator */
+    movq %r8, %rax
+    cqto
+    idivq %rcx
+    movq %rax, %r14
+    /* CopyInst */
+    movq $2, %rcx
+    /* BinaryOperator */
+    movq %r14, %r13
+    imulq %rcx, %r13
+    /* BinaryOperator */
+    movq %r8, %rcx
+    subq %r13, %rcx
+    /* BinaryOperator */
+    movq %rbx, %r12
+    addq %rcx, %r12
+    /* CopyInst */
+    movq %r12, %rsi
+    /* Nop */
+    /* Nop */
+    /* CopyInst */
+    movq $2, %rcx
+    /* BinaryOperator */
+    movq %r8, %rax
+    cqto
+    idivq %rcx
+    movq %rax, %r15
+    /* CopyInst */
+    movq %r15, %r8
+    /* Nop */
+    /* Nop */
+    /* CopyInst */
+    movq $1, %rcx
+    /* BinaryOperator */
+    movq -16(%rbp), %r14
+    subq %rcx, %r14
+    /* CopyInst */
+    movq %r14, -16(%rbp)
+    jmp L12
+L13:
+    /* Nop */
+    /* Nop */
+    /* ReturnInst */
+    movq %rsi, %rax
+    movq -24(%rbp), %rbx
+    movq -32(%rbp), %r12
+    movq -40(%rbp), %r13
+    movq -48(%rbp), %r14
+    movq -56(%rbp), %r15
+    leave
+    ret
+L14:
+    /* Nop */
+    /* CopyInst */
+    xorq %rcx, %rcx
+    /* CompareInst */
+    cmpq %rcx, %rdi
+    sete %al
+    movzbq %al, %rax
+    movq %rax, %rsi
+    /* CopyInst */
+    movq %rsi, %r9
+    jmp L2
+    .globl main
+main:
+    enter $48, $0
+    movq %rbx, -8(%rbp)
+    /* Nop */
+    /* Nop */
+    /* CopyInst */
+    xorq %rsi, %rsi
+    /* CopyInst */
+    movq %rsi, %rbx
+L15:
+    /* Nop */
+    /* Nop */
+    /* CopyInst */
+    movq $40, %rdi
+    /* CompareInst */
+    cmpq %rdi, %rbx
+    setge %al
+    movzbq %al, %rax
+    movq %rax, %rcx
+    /* JumpInst */
+    jge L16
+    /* Nop */
+    /* Nop */
+    /* Nop */
+    /* Nop */
+    /* Nop */
+    /* CallInst */
+    call readChar
+    movq %rax, %r8
+    /* CopyInst */
+    movq %r8, %r9
+    /* Nop */
+    /* CopyInst */
+    movq $7, %rsi
+    /* Nop */
+    /* BinaryOperator */
+    movq %rsi, %rdi
+    addq %rbx, %rdi
+    /* CallInst */
+    movq %rdi, %rsi
+    movq %r9, %rdi
+    call garble
+    movq %rax, %rcx
+    /* CallInst */
+    movq %rcx, %rdi
+    call printChar
+    /* Nop */
+    /* Nop */
+    /* CopyInst */
+    movq $1, %r8
+    /* BinaryOperator */
+    movq %rbx, %rsi
+    addq %r8, %rsi
+    /* CopyInst */
+    movq %rsi, %rbx
+    jmp L15
+L16:
+    /* Nop */
+    movq -8(%rbp), %rbx
+    leave
+    ret
@@ -0,0 +1,26 @@
+package crux.bench;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with the allocation rate next to the throughput. Build them with
+ * {@code mvn -Pbench package} and run
+ * <pre>
+ *   java -cp target/crux-1.0-jar-with-dependencies.jar crux.bench.BenchmarkMain [jmh options]
+ * </pre>
+ * The options are those of JMH, e.g. {@code StageBenchmarks.parse -p input=codegen}.
+ */
+public final class BenchmarkMain {
+  private BenchmarkMain() {}
+
+  public static void main(String[] args) throws CommandLineOptionException, RunnerException {
+    var options = new OptionsBuilder().parent(new CommandLineOptions(args))
+        .addProfiler(GCProfiler.class).build();
+    new Runner(options).run();
+  }
+}
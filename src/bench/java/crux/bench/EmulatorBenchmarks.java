@@ -0,0 +1,74 @@
+package crux.bench;
+
+import crux.ast.ParseTreeLower;
+import crux.ast.types.TypeChecker;
+import crux.ir.ASTLower;
+import crux.ir.Emulator;
+import crux.ir.Program;
+import crux.ir.bytecode.BytecodeEmulator;
+import crux.ir.jvm.JvmEmulator;
+import crux.ir.opt.PassManager;
+import crux.pt.CruxLexer;
+import crux.pt.CruxParser;
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.CommonTokenStream;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the execution of CPU bound programs by the emulators. The programs are in
+ * {@code crux/bench}, and are compiled once in the setup, with or without the default passes.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class EmulatorBenchmarks {
+  @Param({"fib", "sieve", "loops"})
+  public String program;
+
+  @Param({"interpreter", "bytecode", "jvm"})
+  public String engine;
+
+  @Param({"false", "true"})
+  public boolean optimize;
+
+  private Program ir;
+
+  @Setup
+  public void setup() throws IOException {
+    var source = Inputs.read(String.format("crux/bench/%s.crx", program));
+    var parser =
+        new CruxParser(new CommonTokenStream(new CruxLexer(CharStreams.fromString(source))));
+    var ast = new ParseTreeLower(new PrintStream(OutputStream.nullOutputStream()))
+        .lower(parser.program());
+    new TypeChecker().check(ast);
+    ir = new ASTLower().lower(ast);
+    if (optimize)
+      PassManager.parse(PassManager.DEFAULT_PASSES).run(ir);
+  }
+
+  @Benchmark
+  public void run() {
+    var input = new ByteArrayInputStream(new byte[0]);
+    var output = OutputStream.nullOutputStream();
+    switch (engine) {
+      case "bytecode":
+        new BytecodeEmulator(ir, input, output).run();
+        break;
+      case "jvm":
+        new JvmEmulator(ir, input, output).run();
+        break;
+      default:
+        new Emulator(ir, input, output).run();
+        break;
+    }
+  }
+}
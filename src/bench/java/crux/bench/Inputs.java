@@ -0,0 +1,68 @@
+package crux.bench;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * The sources that the benchmarks compile: the programs of a stage of the test corpus, e.g.
+ * {@code "codegen"}, or a synthetic program with a number of functions, e.g.
+ * {@code "synthetic-200"}.
+ */
+final class Inputs {
+  private Inputs() {}
+
+  static List<String> load(String name) throws IOException {
+    if (name.startsWith("synthetic-"))
+      return List.of(synthetic(Integer.parseInt(name.substring("synthetic-".length()))));
+
+    var folder = String.format("crux/stages/%s/", name);
+    var sources = new ArrayList<String>();
+    try (var index = new BufferedReader(new InputStreamReader(resource(folder + "index.txt"),
+        StandardCharsets.UTF_8))) {
+      for (String line; (line = index.readLine()) != null;) {
+        if (line.endsWith(".crx"))
+          sources.add(read(folder + line));
+      }
+    }
+    return sources;
+  }
+
+  static String read(String resourceName) throws IOException {
+    try (var in = resource(resourceName)) {
+      return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+    }
+  }
+
+  /**
+   * Returns a program with a chain of {@code functions} functions, each with a loop over a global
+   * array, branches and a call of the one before it.
+   */
+  static String synthetic(int functions) {
+    var builder = new StringBuilder("int g[16];\n\n");
+    for (int k = 0; k < functions; k++) {
+      builder.append(String.format("int f%d(int n) {\n", k));
+      builder.append("  int i;\n  int s;\n  i = 0;\n  s = n;\n");
+      builder.append("  loop {\n    if (i >= 16) {\n      break;\n    }\n");
+      builder.append(String.format("    s = s + i * %d;\n", k % 7 + 1));
+      builder.append("    if (s > 1000) {\n      s = s - 1000;\n    } else {\n");
+      builder.append("      s = s + 3;\n    }\n");
+      builder.append("    g[i] = s;\n    i = i + 1;\n  }\n");
+      if (k > 0)
+        builder.append(String.format("  s = s + f%d(g[3]);\n", k - 1));
+      builder.append("  return s;\n}\n\n");
+    }
+    builder.append(String.format("void main() {\n  printInt(f%d(1));\n  println();\n}\n",
+        functions - 1));
+    return builder.toString();
+  }
+
+  private static InputStream resource(String name) {
+    return Objects.requireNonNull(Inputs.class.getClassLoader().getResourceAsStream(name), name);
+  }
+}
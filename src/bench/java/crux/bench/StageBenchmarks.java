@@ -0,0 +1,153 @@
+package crux.bench;
+
+import crux.ast.DeclarationList;
+import crux.ast.ParseTreeLower;
+import crux.ast.types.TypeChecker;
+import crux.backend.CodeGen;
+import crux.ir.ASTLower;
+import crux.ir.Program;
+import crux.pt.CruxLexer;
+import crux.pt.CruxParser;
+import org.antlr.v4.runtime.BailErrorStrategy;
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.CommonTokenStream;
+import org.antlr.v4.runtime.atn.PredictionMode;
+import org.antlr.v4.runtime.misc.ParseCancellationException;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures every stage of the compiler on its own, over all programs of an input set. Each
+ * operation runs one stage on every program that the earlier stages accept, and the inputs of a
+ * stage are prepared by the earlier ones in the setup.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class StageBenchmarks {
+  @Param({"parse-tree", "ast", "type-check", "ir", "codegen", "synthetic-10", "synthetic-500"})
+  public String input;
+
+  private final PrintStream nowhere = new PrintStream(OutputStream.nullOutputStream());
+  private List<String> sources;
+  private List<CruxParser.ProgramContext> parseTrees;
+  private List<DeclarationList> asts;
+  private List<DeclarationList> typedAsts;
+  private List<Program> programs;
+
+  @Setup
+  public void setup() throws IOException {
+    sources = Inputs.load(input);
+    parseTrees = new ArrayList<>();
+    for (var source : sources) {
+      var parser = parser(source);
+      parser.removeErrorListeners();
+      var tree = parser.program();
+      if (parser.getNumberOfSyntaxErrors() == 0)
+        parseTrees.add(tree);
+    }
+    asts = new ArrayList<>();
+    for (var tree : parseTrees) {
+      var lower = new ParseTreeLower(nowhere);
+      var ast = lower.lower(tree);
+      if (!lower.hasEncounteredError())
+        asts.add(ast);
+    }
+    typedAsts = new ArrayList<>();
+    for (var ast : asts) {
+      var checker = new TypeChecker();
+      checker.check(ast);
+      if (checker.getErrors().isEmpty())
+        typedAsts.add(ast);
+    }
+    programs = new ArrayList<>();
+    for (var ast : typedAsts)
+      programs.add(new ASTLower().lower(ast));
+  }
+
+  @Benchmark
+  public void lex(Blackhole bh) {
+    for (var source : sources) {
+      var tokens = new CommonTokenStream(new CruxLexer(CharStreams.fromString(source)));
+      tokens.fill();
+      bh.consume(tokens);
+    }
+  }
+
+  /**
+   * Lexes and parses with full LL prediction.
+   */
+  @Benchmark
+  public void parseLL(Blackhole bh) {
+    for (var source : sources) {
+      var parser = parser(source);
+      parser.removeErrorListeners();
+      bh.consume(parser.program());
+    }
+  }
+
+  /**
+   * Lexes and parses with SLL prediction, and with LL if that fails, as the driver does.
+   */
+  @Benchmark
+  public void parseSLL(Blackhole bh) {
+    for (var source : sources) {
+      var parser = parser(source);
+      parser.removeErrorListeners();
+      parser.getInterpreter().setPredictionMode(PredictionMode.SLL);
+      parser.setErrorHandler(new BailErrorStrategy());
+      try {
+        bh.consume(parser.program());
+      } catch (ParseCancellationException e) {
+        parser = parser(source);
+        parser.removeErrorListeners();
+        bh.consume(parser.program());
+      }
+    }
+  }
+
+  @Benchmark
+  public void lowerParseTree(Blackhole bh) {
+    for (var tree : parseTrees)
+      bh.consume(new ParseTreeLower(nowhere).lower(tree));
+  }
+
+  @Benchmark
+  public void typeCheck(Blackhole bh) {
+    for (var ast : asts) {
+      var checker = new TypeChecker();
+      checker.check(ast);
+      bh.consume(checker.getErrors());
+    }
+  }
+
+  @Benchmark
+  public void lowerAst(Blackhole bh) {
+    for (var ast : typedAsts)
+      bh.consume(new ASTLower().lower(ast));
+  }
+
+  /**
+   * Generates the assembly into a stream that drops it, so the time is that of generating and
+   * emitting the text without any file system writes.
+   */
+  @Benchmark
+  public void codegen() {
+    for (var program : programs)
+      new CodeGen(program, OutputStream.nullOutputStream()).genCode();
+  }
+
+  private static CruxParser parser(String source) {
+    return new CruxParser(new CommonTokenStream(new CruxLexer(CharStreams.fromString(source))));
+  }
+}
@@ -0,0 +1,221 @@
+package crux;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Compiles many files in one JVM, in parallel on a work stealing pool. Every input gets its own
+ * {@link Driver} and its own directory below the output directory, which mirrors the path of the
+ * input without the {@code .crx}: {@code a/b.crx} is compiled to {@code <dir>/a/b/a.s}, and the
+ * output of the emulator, if any, goes to {@code <dir>/a/b/output.txt}. A file that fails does not
+ * stop the others, the report names the stage in which it failed.
+ * <p>
+ * The arguments that end in {@code .crx} are the inputs, {@code @file} reads more of them from a
+ * manifest with one file per line. All other arguments are passed to {@link Compiler#handleArgs}
+ * for every input, except {@code -o}, which would make all inputs write the same file.
+ */
+public final class BatchCompiler {
+  /**
+   * The outcome of one input.
+   */
+  static final class Result {
+    final String file;
+    final State state;
+    final Driver.Stage stage;
+    final long millis;
+    final String errors;
+
+    Result(String file, State state, Driver.Stage stage, long millis, String errors) {
+      this.file = file;
+      this.state = state;
+      this.stage = stage;
+      this.millis = millis;
+      this.errors = errors;
+    }
+  }
+
+  private final List<String> options;
+  private final String outputDirectory;
+  private final int parallelism;
+
+  /**
+   * Throws {@link IllegalArgumentException} if {@code options} contain {@code -o}.
+   */
+  public BatchCompiler(List<String> options, String outputDirectory, int parallelism) {
+    if (options.contains("-o"))
+      throw new IllegalArgumentException(
+          "-o cannot be used in batch mode, every input writes a.s to its own directory");
+    this.options = options;
+    this.outputDirectory = outputDirectory;
+    this.parallelism = parallelism;
+  }
+
+  public static void main(String[] args) {
+    var options = new ArrayList<String>();
+    var inputs = new ArrayList<String>();
+    String outputDirectory = ".";
+    int parallelism = Runtime.getRuntime().availableProcessors();
+    try {
+      for (int i = 0; i < args.length; i++) {
+        var arg = args[i];
+        if (arg.equals("--help")) {
+          displayHelp();
+          return;
+        } else if (arg.equals("--output-dir")) {
+          outputDirectory = args[++i];
+        } else if (arg.equals("--jobs")) {
+          parallelism = Integer.parseInt(args[++i]);
+        } else if (arg.startsWith("@")) {
+          readManifest(arg.substring(1), inputs);
+        } else if (arg.endsWith(".crx")) {
+          inputs.add(arg);
+        } else {
+          options.add(arg);
+        }
+      }
+    } catch (IOException e) {
+      System.err.println("error: " + e.getMessage());
+      System.exit(-1);
+    }
+    if (inputs.isEmpty()) {
+      displayHelp();
+      System.exit(-1);
+    }
+
+    BatchCompiler batch;
+    try {
+      batch = new BatchCompiler(options, outputDirectory, parallelism);
+    } catch (IllegalArgumentException e) {
+      System.err.println("error: " + e.getMessage());
+      System.exit(-1);
+      return;
+    }
+    var results = batch.compile(inputs);
+    boolean compiled = report(results, System.out);
+    if (options.contains("--cache-dir"))
+      CompileCache.printStats(System.out);
+    if (!compiled)
+      System.exit(-1);
+  }
+
+  /**
+   * Compiles {@code inputs} and returns their results in the same order.
+   */
+  public List<Result> compile(List<String> inputs) {
+    var pool = new ForkJoinPool(parallelism);
+    try {
+      var tasks = new ArrayList<Callable<Result>>();
+      for (var input : inputs)
+        tasks.add(() -> compile(input));
+      var results = new ArrayList<Result>();
+      for (Future<Result> future : pool.invokeAll(tasks))
+        results.add(future.get());
+      return results;
+    } catch (InterruptedException | ExecutionException e) {
+      throw new RuntimeException("batch compilation was interrupted", e);
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  /**
+   * Prints a line for every input that failed and a summary. Returns true if all inputs compiled.
+   */
+  public static boolean report(List<Result> results, PrintStream out) {
+    int failed = 0;
+    long millis = 0;
+    for (var result : results) {
+      millis += result.millis;
+      if (result.state == State.Finished)
+        continue;
+      failed++;
+      if (result.stage == null)
+        out.printf("%s: failed%n", result.file);
+      else
+        out.printf("%s: failed in %s%n", result.file, result.stage);
+      for (var line : result.errors.split("\\R"))
+        out.printf("  %s%n", line);
+    }
+    out.printf("%d of %d files compiled, %d failed, %d ms of compile time%n",
+        results.size() - failed, results.size(), failed, millis);
+    return failed == 0;
+  }
+
+  private Result compile(String input) {
+    long start = System.nanoTime();
+    var directory = outputDirectory(input);
+    var outBytes = new ByteArrayOutputStream();
+    var errBytes = new ByteArrayOutputStream();
+    var out = new PrintStream(outBytes);
+    var err = new PrintStream(errBytes);
+    var driver = new Driver(new ByteArrayInputStream(new byte[0]), out, err);
+    State state;
+    try {
+      Files.createDirectories(directory);
+      var args = new ArrayList<>(options);
+      args.add("--output-dir");
+      args.add(directory.toString());
+      args.add(input);
+      if (Compiler.handleArgs(driver, args.toArray(new String[0]), out))
+        state = driver.run();
+      else
+        state = State.Finished;
+    } catch (Throwable e) {
+      // A file that crashes the compiler or the emulator fails alone
+      err.println("error: " + e);
+      state = State.Error;
+    }
+    out.flush();
+    err.flush();
+
+    if (outBytes.size() > 0) {
+      try {
+        Files.write(directory.resolve("output.txt"), outBytes.toByteArray());
+      } catch (IOException e) {
+        err.printf("error: cannot write output: %s%n", e.getMessage());
+        state = State.Error;
+      }
+    }
+    return new Result(input, state, driver.getStage(), (System.nanoTime() - start) / 1000000,
+        errBytes.toString().trim());
+  }
+
+  /**
+   * Returns the directory of {@code input} below the output directory. Absolute paths lose their
+   * root, and {@code ..} becomes {@code __} so that every input stays inside the output directory.
+   */
+  private Path outputDirectory(String input) {
+    var name = input.endsWith(".crx") ? input.substring(0, input.length() - 4) : input;
+    var path = Paths.get(name).normalize();
+    var directory = Paths.get(outputDirectory);
+    for (var part : path) {
+      var s = part.toString();
+      directory = directory.resolve(s.equals("..") ? "__" : s);
+    }
+    return directory;
+  }
+
+  private static void readManifest(String manifest, List<String> inputs) throws IOException {
+    for (var line : Files.readAllLines(Paths.get(manifest))) {
+      line = line.trim();
+      if (!line.isEmpty() && !line.startsWith("#"))
+        inputs.add(line);
+    }
+  }
+
+  private static void displayHelp() {
+    System.out.println("usage: <crux> --batch [options] [file.crx | @manifest]...");
+    System.out.println("options:");
+    System.out.println("--output-dir <dir>\t\tWrite the outputs of a/b.crx to <dir>/a/b.");
+    System.out.println("--jobs <n>\t\t\tThe number of files compiled in parallel.");
+    System.out.println("Other options are those of <crux>, except -o, and apply to every file.");
+  }
+}
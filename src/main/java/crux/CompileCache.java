@@ -0,0 +1,256 @@
+package crux;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+
+/**
+ * An on-disk cache of the outputs of the compiler stages: the typed AST, the IR and the assembly.
+ * Entries are files named by the SHA-256 of the source, the version of the compiler and the flags
+ * that change the output, so a cache is shared safely by different compilers and jobs. Entries are
+ * written to a temporary file and moved in place, and the least recently used ones are deleted when
+ * the cache grows beyond its size.
+ */
+public final class CompileCache {
+  public static final long DEFAULT_SIZE = 256L << 20;
+
+  static final String TYPED_AST = ".typedast.bin";
+  static final String IR = ".ir.bin";
+  static final String ASSEMBLY = ".s";
+
+  /**
+   * Writes the contents of an entry.
+   */
+  interface Writer {
+    void write(OutputStream out) throws IOException;
+  }
+
+  private static final LongAdder lookups = new LongAdder();
+  private static final LongAdder typedAstHits = new LongAdder();
+  private static final LongAdder irHits = new LongAdder();
+  private static final LongAdder assemblyHits = new LongAdder();
+  private static final LongAdder stores = new LongAdder();
+  private static final LongAdder evictions = new LongAdder();
+  private static String compilerVersion;
+
+  private final Path directory;
+  private final long maxBytes;
+
+  public CompileCache(String directory, long maxBytes) {
+    this.directory = Paths.get(directory);
+    this.maxBytes = maxBytes;
+  }
+
+  /**
+   * Returns the key of {@code source}, which is also the key of its typed AST.
+   */
+  static String key(byte[] source) {
+    var digest = sha256();
+    digest.update(compilerVersion().getBytes());
+    digest.update((byte) 0);
+    digest.update(source);
+    return hex(digest.digest());
+  }
+
+  /**
+   * Returns the key of an output that also depends on {@code flags}: the IR on the IR passes, and
+   * the assembly on those and the options of the backend.
+   */
+  static String key(String key, String flags) {
+    var digest = sha256();
+    digest.update(key.getBytes());
+    digest.update((byte) 0);
+    digest.update(flags.getBytes());
+    return hex(digest.digest());
+  }
+
+  /**
+   * Returns the entry mapped into memory, or null if it is not cached.
+   */
+  ByteBuffer read(String key, String kind) throws IOException {
+    var file = path(key, kind);
+    try (var channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      var data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      touch(file);
+      return data;
+    } catch (NoSuchFileException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Copies the entry to {@code target}. Returns false if it is not cached.
+   */
+  boolean copy(String key, String kind, Path target) throws IOException {
+    var file = path(key, kind);
+    try {
+      Files.copy(file, target, StandardCopyOption.REPLACE_EXISTING);
+      touch(file);
+      return true;
+    } catch (NoSuchFileException e) {
+      return false;
+    }
+  }
+
+  void write(String key, String kind, Writer writer) throws IOException {
+    Files.createDirectories(directory);
+    var temp = Files.createTempFile(directory, key, ".tmp");
+    try {
+      try (var out = new BufferedOutputStream(Files.newOutputStream(temp))) {
+        writer.write(out);
+      }
+      Files.move(temp, path(key, kind), StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+      stores.increment();
+    } finally {
+      Files.deleteIfExists(temp);
+    }
+  }
+
+  /**
+   * Deletes the least recently used entries until the cache fits in its size.
+   */
+  void evict() throws IOException {
+    var entries = new ArrayList<Path>();
+    var times = new ArrayList<FileTime>();
+    long size = 0;
+    try (Stream<Path> files = Files.list(directory)) {
+      for (var file : (Iterable<Path>) files::iterator) {
+        // Temporary files are renamed by the compilers that write them
+        if (file.toString().endsWith(".tmp"))
+          continue;
+        BasicFileAttributes attributes;
+        try {
+          attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        } catch (NoSuchFileException e) {
+          // Evicted by another compiler since the listing
+          continue;
+        }
+        if (!attributes.isRegularFile())
+          continue;
+        entries.add(file);
+        times.add(attributes.lastModifiedTime());
+        size += attributes.size();
+      }
+    } catch (NoSuchFileException e) {
+      // The cache directory itself is gone
+      return;
+    }
+    if (size <= maxBytes)
+      return;
+
+    var order = new ArrayList<Integer>();
+    for (int k = 0; k < entries.size(); k++)
+      order.add(k);
+    order.sort(Comparator.comparing(times::get));
+    for (int k : order) {
+      if (size <= maxBytes)
+        break;
+      try {
+        size -= Files.size(entries.get(k));
+        Files.delete(entries.get(k));
+        evictions.increment();
+      } catch (NoSuchFileException e) {
+        // Evicted by another compiler
+      }
+    }
+  }
+
+  /**
+   * Counts a lookup, and the hit in {@code kind} if it is not null.
+   */
+  static void count(String kind) {
+    lookups.increment();
+    if (TYPED_AST.equals(kind))
+      typedAstHits.increment();
+    else if (IR.equals(kind))
+      irHits.increment();
+    else if (ASSEMBLY.equals(kind))
+      assemblyHits.increment();
+  }
+
+  /**
+   * Prints the hits and misses of all caches in this JVM.
+   */
+  public static void printStats(PrintStream out) {
+    long hits = typedAstHits.sum() + irHits.sum() + assemblyHits.sum();
+    out.printf("cache lookups %d hits %d (assembly %d ir %d typed ast %d) misses %d stores %d "
+        + "evictions %d%n", lookups.sum(), hits, assemblyHits.sum(), irHits.sum(),
+        typedAstHits.sum(), lookups.sum() - hits, stores.sum(), evictions.sum());
+  }
+
+  private Path path(String key, String kind) {
+    return directory.resolve(key + kind);
+  }
+
+  private static void touch(Path file) {
+    try {
+      Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+    } catch (IOException e) {
+      // Only the order of eviction suffers
+    }
+  }
+
+  /**
+   * Returns true if the build of the compiler can be identified. Otherwise the entries of different
+   * builds would share their keys, so the cache must not be used.
+   */
+  static boolean isSupported() {
+    return !compilerVersion().isEmpty();
+  }
+
+  /**
+   * Identifies the build of the compiler by the size and time of its jar, or of the newest class
+   * file if it runs from a directory. Returns an empty string if it cannot be determined.
+   */
+  private static synchronized String compilerVersion() {
+    if (compilerVersion == null) {
+      compilerVersion = "";
+      try {
+        var location = Paths.get(CompileCache.class.getProtectionDomain().getCodeSource()
+            .getLocation().toURI());
+        long count = 0;
+        long size = 0;
+        long time = 0;
+        try (Stream<Path> files = Files.walk(location)) {
+          for (var file : (Iterable<Path>) files::iterator) {
+            if (!Files.isRegularFile(file))
+              continue;
+            count++;
+            size += Files.size(file);
+            time = Math.max(time, Files.getLastModifiedTime(file).toMillis());
+          }
+        }
+        if (count > 0)
+          compilerVersion = String.format("%d:%d:%d", count, size, time);
+      } catch (Exception e) {
+        // The cache is disabled, see isSupported
+      }
+    }
+    return compilerVersion;
+  }
+
+  private static MessageDigest sha256() {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static String hex(byte[] bytes) {
+    var builder = new StringBuilder();
+    for (byte b : bytes)
+      builder.append(String.format("%02x", b));
+    return builder.toString();
+  }
+}
@@ -0,0 +1,356 @@
+package crux;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Phaser;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A compile server that keeps one JVM running for many jobs, so the JIT compiled compiler and the
+ * DFA cache that ANTLR shares between all instances of the parser stay warm. A job has the command
+ * line arguments of {@link Compiler} and runs with its own {@link Driver}, on a pool of worker
+ * threads, with its output captured and sent back.
+ * <p>
+ * Requests and responses are frames on stdin and stdout, or on the connections of a loopback socket
+ * with {@code --port}. Numbers are big endian and strings modified UTF-8, as written by
+ * {@link DataOutputStream}. A request is a kind byte and an id:
+ * <pre>
+ *   'J' id:int argc:int arg:utf* source:bytes input:bytes   compile or emulate a job
+ *   'S' id:int                                               the statistics as text
+ *   'Q' id:int                                               stop after the running jobs
+ * </pre>
+ * where bytes is a length, -1 for none, and that many bytes. The source takes the place of the
+ * input file, the input is read by the emulator. Files named in the arguments are relative to the
+ * directory of the server, and jobs that write files should have different {@code --output-dir}s.
+ * The responses come in the order in which the jobs finish:
+ * <pre>
+ *   id:int status:byte micros:long out:bytes err:bytes
+ * </pre>
+ * with status {@link #SUCCESS}, {@link #ERROR} for a compile error or {@link #CRASH} if the job
+ * threw. The time is from the arrival of the request to its response.
+ */
+public final class CompileServer {
+  public static final byte JOB = 'J';
+  public static final byte STATS = 'S';
+  public static final byte QUIT = 'Q';
+
+  public static final byte SUCCESS = 0;
+  public static final byte ERROR = 1;
+  public static final byte CRASH = 2;
+
+  /**
+   * A response to a request.
+   */
+  public static final class Response {
+    public final int id;
+    public final byte status;
+    public final long micros;
+    public final byte[] out;
+    public final byte[] err;
+
+    Response(int id, byte status, long micros, byte[] out, byte[] err) {
+      this.id = id;
+      this.status = status;
+      this.micros = micros;
+      this.out = out;
+      this.err = err;
+    }
+
+    public static Response read(DataInputStream in) throws IOException {
+      int id = in.readInt();
+      byte status = in.readByte();
+      long micros = in.readLong();
+      return new Response(id, status, micros, readBytes(in), readBytes(in));
+    }
+
+    void write(DataOutputStream out) throws IOException {
+      out.writeInt(id);
+      out.writeByte(status);
+      out.writeLong(micros);
+      writeBytes(out, this.out);
+      writeBytes(out, err);
+    }
+  }
+
+  /**
+   * Counts the latencies in buckets of powers of two microseconds.
+   */
+  static final class LatencyHistogram {
+    private final AtomicLongArray buckets = new AtomicLongArray(64);
+
+    void record(long micros) {
+      buckets.incrementAndGet(64 - Long.numberOfLeadingZeros(micros));
+    }
+
+    /**
+     * Returns the upper bound of the bucket that holds the quantile {@code q}, or 0 if it is empty.
+     */
+    long quantile(double q) {
+      long count = 0;
+      for (int k = 0; k < buckets.length(); k++)
+        count += buckets.get(k);
+      long rank = (long) Math.ceil(q * count);
+      for (int k = 0; k < buckets.length() && count > 0; k++) {
+        rank -= buckets.get(k);
+        if (rank <= 0)
+          return 1L << k;
+      }
+      return 0;
+    }
+
+    void print(PrintStream out, String name) {
+      out.printf("%s p50 %dus p90 %dus p99 %dus max %dus%n", name, quantile(0.5), quantile(0.9),
+          quantile(0.99), quantile(1));
+      for (int k = 0; k < buckets.length(); k++) {
+        if (buckets.get(k) != 0)
+          out.printf("  < %dus %d%n", 1L << k, buckets.get(k));
+      }
+    }
+  }
+
+  private final ExecutorService workers;
+  private final LongAdder requests = new LongAdder();
+  private final LongAdder succeeded = new LongAdder();
+  private final LongAdder failed = new LongAdder();
+  private final LongAdder crashed = new LongAdder();
+  private final LongAdder active = new LongAdder();
+  private final LatencyHistogram queueLatency = new LatencyHistogram();
+  private final LatencyHistogram jobLatency = new LatencyHistogram();
+  private volatile boolean quit = false;
+
+  public CompileServer(int threads) {
+    workers = Executors.newFixedThreadPool(threads, r -> {
+      var thread = new Thread(r, "crux-worker");
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  public static void main(String[] args) {
+    int port = -1;
+    int threads = Runtime.getRuntime().availableProcessors();
+    for (int i = 0; i < args.length; i++) {
+      switch (args[i]) {
+        case "--port":
+          port = Integer.parseInt(args[++i]);
+          break;
+        case "--threads":
+          threads = Integer.parseInt(args[++i]);
+          break;
+        default:
+          System.out.println("usage: <crux> --server [options]");
+          System.out.println("options:");
+          System.out.println("--port <port>\t\tListen on a loopback port, 0 for any, not stdin.");
+          System.out.println("--threads <n>\t\tThe number of worker threads.");
+          return;
+      }
+    }
+
+    var server = new CompileServer(threads);
+    try {
+      if (port < 0)
+        server.serve(System.in, System.out);
+      else
+        server.listen(port);
+    } catch (IOException e) {
+      System.err.println("error: " + e.getMessage());
+    } finally {
+      server.shutdown();
+    }
+  }
+
+  /**
+   * Accepts connections on the loopback {@code port} and serves each one on its own thread until a
+   * quit request.
+   */
+  public void listen(int port) throws IOException {
+    // Not a try-with-resources socket, the connection that reads a quit request closes it to stop
+    // the accept loop
+    var socket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+    try {
+      System.err.printf("listening on port %d%n", socket.getLocalPort());
+      while (!quit) {
+        Socket connection;
+        try {
+          connection = socket.accept();
+        } catch (SocketException e) {
+          break;
+        }
+        var thread = new Thread(() -> {
+          try (connection) {
+            serve(connection.getInputStream(), connection.getOutputStream());
+          } catch (IOException e) {
+            // The client went away
+          }
+          if (quit) {
+            try {
+              socket.close();
+            } catch (IOException e) {
+              // Already closed
+            }
+          }
+        }, "crux-connection");
+        thread.setDaemon(true);
+        thread.start();
+      }
+    } finally {
+      socket.close();
+    }
+  }
+
+  /**
+   * Reads requests from {@code in} until its end or a quit request, and writes the responses to
+   * {@code out}. Returns once the responses to all its jobs are written.
+   */
+  public void serve(InputStream in, OutputStream out) throws IOException {
+    var requestStream = new DataInputStream(new BufferedInputStream(in));
+    var responseStream = new DataOutputStream(new BufferedOutputStream(out));
+    var pending = new Phaser(1);
+    try {
+      while (!quit) {
+        int kind = requestStream.read();
+        if (kind < 0)
+          break;
+        int id = requestStream.readInt();
+        long arrival = System.nanoTime();
+        if (kind == JOB) {
+          var args = new String[requestStream.readInt()];
+          for (int k = 0; k < args.length; k++)
+            args[k] = requestStream.readUTF();
+          byte[] source = readBytes(requestStream);
+          byte[] input = readBytes(requestStream);
+          requests.increment();
+          pending.register();
+          workers.execute(() -> {
+            try {
+              respond(responseStream, run(id, args, source, input, arrival));
+            } finally {
+              pending.arriveAndDeregister();
+            }
+          });
+        } else if (kind == STATS) {
+          var stats = new ByteArrayOutputStream();
+          printStats(new PrintStream(stats, true));
+          respond(responseStream, new Response(id, SUCCESS, micros(arrival), stats.toByteArray(),
+              new byte[0]));
+        } else if (kind == QUIT) {
+          quit = true;
+        } else {
+          throw new IOException(String.format("unknown request kind %d", kind));
+        }
+      }
+    } finally {
+      pending.arriveAndAwaitAdvance();
+    }
+  }
+
+  /**
+   * Stops the worker threads after the jobs that were accepted.
+   */
+  public void shutdown() {
+    workers.shutdown();
+    try {
+      workers.awaitTermination(1, TimeUnit.MINUTES);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  public void printStats(PrintStream out) {
+    out.printf("requests %d succeeded %d failed %d crashed %d active %d%n", requests.sum(),
+        succeeded.sum(), failed.sum(), crashed.sum(), active.sum());
+    out.printf("parses %d ll-fallbacks %d%n", Driver.getParseCount(), Driver.getLLFallbackCount());
+    queueLatency.print(out, "queued");
+    jobLatency.print(out, "total");
+  }
+
+  /**
+   * Writes a job request, see the class comment. {@code source} and {@code input} may be null.
+   */
+  public static void writeJob(DataOutputStream out, int id, String[] args, byte[] source,
+      byte[] input) throws IOException {
+    out.writeByte(JOB);
+    out.writeInt(id);
+    out.writeInt(args.length);
+    for (String arg : args)
+      out.writeUTF(arg);
+    writeBytes(out, source);
+    writeBytes(out, input);
+  }
+
+  private Response run(int id, String[] args, byte[] source, byte[] input, long arrival) {
+    queueLatency.record(micros(arrival));
+    active.increment();
+    var outBytes = new ByteArrayOutputStream();
+    var errBytes = new ByteArrayOutputStream();
+    var out = new PrintStream(outBytes);
+    var err = new PrintStream(errBytes);
+    byte status;
+    try {
+      var driver = new Driver(new ByteArrayInputStream(input == null ? new byte[0] : input), out,
+          err);
+      if (source != null) {
+        driver.setInputFile(String.format("<job %d>", id));
+        driver.setInputStream(new ByteArrayInputStream(source));
+      }
+      if (!Compiler.handleArgs(driver, args, out))
+        status = SUCCESS;
+      else
+        status = driver.run() == State.Finished ? SUCCESS : ERROR;
+    } catch (Throwable e) {
+      // Every job gets a response, even if it runs out of stack or memory
+      err.println("error: " + e.getMessage());
+      e.printStackTrace(err);
+      status = CRASH;
+    } finally {
+      active.decrement();
+    }
+    out.flush();
+    err.flush();
+
+    (status == SUCCESS ? succeeded : status == ERROR ? failed : crashed).increment();
+    long micros = micros(arrival);
+    jobLatency.record(micros);
+    return new Response(id, status, micros, outBytes.toByteArray(), errBytes.toByteArray());
+  }
+
+  private static void respond(DataOutputStream out, Response response) {
+    synchronized (out) {
+      try {
+        response.write(out);
+        out.flush();
+      } catch (IOException e) {
+        // The client went away, the remaining jobs still run to completion
+      }
+    }
+  }
+
+  private static long micros(long since) {
+    return (System.nanoTime() - since) / 1000;
+  }
+
+  private static byte[] readBytes(DataInputStream in) throws IOException {
+    int length = in.readInt();
+    if (length < 0)
+      return null;
+    var bytes = new byte[length];
+    in.readFully(bytes);
+    return bytes;
+  }
+
+  private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+    if (bytes == null) {
+      out.writeInt(-1);
+    } else {
+      out.writeInt(bytes.length);
+      out.write(bytes);
+    }
+  }
+}
@@ -0,0 +1,215 @@
+package crux;
+
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The time and memory that the stages of a compilation took, and the sizes of what they produced.
+ * Time and allocation are those of the thread that ran the driver. The peak heap is process-wide,
+ * that of the whole JVM while the stage ran, so it is -1 for a stage that overlapped with a stage of
+ * another compilation, e.g. in the compile server or a batch.
+ */
+public final class CompileStats {
+  /**
+   * The measurements of one stage.
+   */
+  public static final class StageRecord {
+    public final String stage;
+    public final long wallNanos;
+    public final long cpuNanos;
+    public final long allocatedBytes;
+    public final long peakHeapBytes;
+
+    StageRecord(String stage, long wallNanos, long cpuNanos, long allocatedBytes,
+        long peakHeapBytes) {
+      this.stage = stage;
+      this.wallNanos = wallNanos;
+      this.cpuNanos = cpuNanos;
+      this.allocatedBytes = allocatedBytes;
+      this.peakHeapBytes = peakHeapBytes;
+    }
+  }
+
+  /**
+   * Measures a stage from its creation to {@link #stop}. Values that the JVM cannot measure are
+   * -1.
+   */
+  static final class Probe {
+    //The peak usage of the heap pools is reset by a probe that measures alone
+    private static final Object heapLock = new Object();
+    private static int heapProbes = 0;
+    private static long heapProbesStarted = 0;
+
+    private static final java.lang.management.ThreadMXBean threads =
+        ManagementFactory.getThreadMXBean();
+    private static final List<MemoryPoolMXBean> heapPools = new ArrayList<>();
+
+    static {
+      for (var pool : ManagementFactory.getMemoryPoolMXBeans()) {
+        if (pool.getType() == MemoryType.HEAP)
+          heapPools.add(pool);
+      }
+    }
+
+    private final long wall;
+    private final long cpu;
+    private final long allocated;
+    private final boolean heap;
+    private boolean exclusive = false;
+    private long started;
+
+    /**
+     * Measures the peak heap as well if {@code heap}, which resets the peak usage of the JVM.
+     */
+    Probe(boolean heap) {
+      this.heap = heap && !heapPools.isEmpty();
+      if (this.heap) {
+        synchronized (heapLock) {
+          started = ++heapProbesStarted;
+          exclusive = heapProbes++ == 0;
+          if (exclusive) {
+            for (var pool : heapPools)
+              pool.resetPeakUsage();
+          }
+        }
+      }
+      wall = System.nanoTime();
+      cpu = cpuTime();
+      allocated = allocatedBytes();
+    }
+
+    StageRecord stop(String stage) {
+      long cpuNow = cpuTime();
+      long allocatedNow = allocatedBytes();
+      long peak = -1;
+      if (heap) {
+        synchronized (heapLock) {
+          heapProbes--;
+          //No other probe started while this one ran
+          if (exclusive && heapProbesStarted == started) {
+            peak = 0;
+            for (var pool : heapPools)
+              peak += pool.getPeakUsage().getUsed();
+          }
+        }
+      }
+      return new StageRecord(stage, System.nanoTime() - wall, cpu < 0 ? -1 : cpuNow - cpu,
+          allocated < 0 ? -1 : allocatedNow - allocated, peak);
+    }
+
+    private static long cpuTime() {
+      return threads.isCurrentThreadCpuTimeSupported() ? threads.getCurrentThreadCpuTime() : -1;
+    }
+
+    private static long allocatedBytes() {
+      if (threads instanceof com.sun.management.ThreadMXBean) {
+        var sunThreads = (com.sun.management.ThreadMXBean) threads;
+        if (sunThreads.isThreadAllocatedMemorySupported()
+            && sunThreads.isThreadAllocatedMemoryEnabled())
+          return sunThreads.getThreadAllocatedBytes(Thread.currentThread().getId());
+      }
+      return -1;
+    }
+  }
+
+  private final ArrayList<StageRecord> stages = new ArrayList<>();
+  private final LinkedHashMap<String, Long> sizes = new LinkedHashMap<>();
+  private final LinkedHashMap<String, Long> functionSizes = new LinkedHashMap<>();
+
+  public List<StageRecord> getStages() {
+    return Collections.unmodifiableList(stages);
+  }
+
+  /**
+   * Returns the sizes by name: {@code tokens}, {@code ast nodes}, {@code ir instructions},
+   * {@code asm lines} and {@code asm bytes}, for the stages that ran.
+   */
+  public Map<String, Long> getSizes() {
+    return Collections.unmodifiableMap(sizes);
+  }
+
+  /**
+   * Returns the number of IR instructions of every function.
+   */
+  public Map<String, Long> getFunctionSizes() {
+    return Collections.unmodifiableMap(functionSizes);
+  }
+
+  void addStage(StageRecord record) {
+    stages.add(record);
+  }
+
+  void setSize(String name, long size) {
+    sizes.put(name, size);
+  }
+
+  void setFunctionSize(String function, long size) {
+    functionSizes.put(function, size);
+  }
+
+  public void print(PrintStream out) {
+    out.printf("%-10s %10s %10s %14s %14s%n", "stage", "wall ms", "cpu ms", "allocated KB",
+        "peak heap KB");
+    long wall = 0;
+    long cpu = 0;
+    long allocated = 0;
+    long peak = 0;
+    for (var record : stages) {
+      out.printf("%-10s %10.2f %10.2f %14d %14d%n", record.stage, record.wallNanos / 1e6,
+          record.cpuNanos / 1e6, record.allocatedBytes >> 10, record.peakHeapBytes >> 10);
+      wall += record.wallNanos;
+      cpu += record.cpuNanos;
+      allocated += record.allocatedBytes;
+      peak = Math.max(peak, record.peakHeapBytes);
+    }
+    out.printf("%-10s %10.2f %10.2f %14d %14d%n", "total", wall / 1e6, cpu / 1e6, allocated >> 10,
+        peak >> 10);
+    for (var size : sizes.entrySet())
+      out.printf("%s %d%n", size.getKey(), size.getValue());
+    for (var record : stages) {
+      if (record.stage.equals("codegen") && sizes.containsKey("asm bytes") && record.wallNanos > 0)
+        out.printf("asm MB/s %.1f%n", sizes.get("asm bytes") * 1e3 / record.wallNanos);
+    }
+    for (var size : functionSizes.entrySet())
+      out.printf("  %s %d%n", size.getKey(), size.getValue());
+  }
+
+  public void printJson(PrintStream out) {
+    var builder = new StringBuilder("{\"stages\":[");
+    var separator = "";
+    for (var record : stages) {
+      builder.append(separator).append(String.format("{\"stage\":\"%s\",\"wallNanos\":%d,"
+          + "\"cpuNanos\":%d,\"allocatedBytes\":%d,\"peakHeapBytes\":%d}", record.stage,
+          record.wallNanos, record.cpuNanos, record.allocatedBytes, record.peakHeapBytes));
+      separator = ",";
+    }
+    builder.append("],\"sizes\":");
+    appendJson(builder, sizes);
+    builder.append(",\"functions\":");
+    appendJson(builder, functionSizes);
+    out.println(builder.append('}'));
+  }
+
+  private static void appendJson(StringBuilder builder, Map<String, Long> values) {
+    builder.append('{');
+    var separator = "";
+    for (var value : values.entrySet()) {
+      builder.append(separator).append('"');
+      for (char c : value.getKey().toCharArray()) {
+        if (c == '"' || c == '\\')
+          builder.append('\\');
+        builder.append(c);
+      }
+      builder.append("\":").append(value.getValue());
+      separator = ",";
+    }
+    builder.append('}');
+  }
+}
@@ -1,6 +1,10 @@
 package crux;
 
 import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
 
 /**
  * This Class is the Entry point for the project, it contains the main function.
@@ -10,14 +14,25 @@ public final class Compiler {
   private static Driver driver = new Driver();
 
   public static void main(String[] args) {
+    if (args.length > 0 && args[0].equals("--server")) {
+      CompileServer.main(Arrays.copyOfRange(args, 1, args.length));
+      return;
+    }
+    if (args.length > 0 && args[0].equals("--batch")) {
+      BatchCompiler.main(Arrays.copyOfRange(args, 1, args.length));
+      return;
+    }
     try {
-      if (!handleArgs(args)) {
+      if (!handleArgs(driver, args, System.out)) {
         return;
       }
 
       var result = driver.run();
       if (result == State.Error)
         System.exit(-1);
+    } catch (UncheckedIOException e) {
+      e.printStackTrace();
+      System.exit(-1);
     } catch (Exception e) {
       System.err.println("error: " + e.getMessage());
       e.printStackTrace();
@@ -26,17 +41,19 @@ public final class Compiler {
 
   /**
    * This method handle parsing the command line args and enable the compiler's stage flag based on
-   * the parsed input
+   * the parsed input. Returns false if there is nothing to compile, e.g. for {@code --help}. Errors
+   * are thrown, a file that cannot be read as an {@link UncheckedIOException}, so that the
+   * {@link CompileServer} can use it for its jobs.
    */
-  private static boolean handleArgs(String[] args) {
+  static boolean handleArgs(Driver driver, String[] args, PrintStream out) {
     for (var i = 0; i < args.length; ++i) {
       var arg = args[i];
       switch (arg) {
         case "--help":
-          displayHelp();
+          displayHelp(out);
           return false;
         case "--authors":
-          displayAuthors();
+          displayAuthors(out);
           return false;
         case "--check-types":
           driver.enableTypeCheck();
@@ -53,6 +70,9 @@ public final class Compiler {
         case "--serialize":
           driver.enableSerialize();
           break;
+        case "--serialize-binary":
+          driver.enableBinarySerialize();
+          break;
         case "--print-ir":
           driver.enablePrintIR();
           break;
@@ -62,32 +82,71 @@ public final class Compiler {
         case "--debug-emulator":
           driver.enableDebugEmulator();
           break;
+        case "--emulator-bytecode":
+          driver.enableBytecodeEmulator();
+          break;
+        case "--emulator-jvm":
+          driver.enableJvmEmulator();
+          break;
         case "--read-ast":
-          try {
-            driver.readAST(new FileInputStream(args[i + 1]));
-          } catch (Exception e) {
-            e.printStackTrace();
-            System.exit(-1);
-          }
-          i++;
+          driver.readAST(openFile(args[++i]));
           break;
         case "--read-type":
-          try {
-            driver.readASTTYPE(new FileInputStream(args[i + 1]));
-          } catch (Exception e) {
-            e.printStackTrace();
-            System.exit(-1);
-          }
-          i++;
+          driver.readASTTYPE(openFile(args[++i]));
           break;
         case "--read-ir":
-          try {
-            driver.readIR(new FileInputStream(args[i + 1]));
-          } catch (Exception e) {
-            e.printStackTrace();
-            System.exit(-1);
-          }
-          i++;
+          driver.readIR(openFile(args[++i]));
+          break;
+        case "--parse-ll":
+          driver.setParseMode(Driver.ParseMode.LL);
+          break;
+        case "-O":
+          driver.enableOptimization();
+          break;
+        case "--passes":
+          driver.setPasses(args[++i]);
+          break;
+        case "--pass-stats":
+          driver.enablePassStats();
+          break;
+        case "--trace-emulator":
+          driver.setEmulatorTraceFile(args[++i]);
+          break;
+        case "--profile-emulator":
+          driver.setEmulatorProfileFile(args[++i]);
+          break;
+        case "--profile-top":
+          driver.setEmulatorProfileTop(Integer.parseInt(args[++i]));
+          break;
+        case "--cache-dir":
+          driver.setCacheDirectory(args[++i]);
+          break;
+        case "--cache-size":
+          driver.setCacheSize(Long.parseLong(args[++i]) << 20);
+          break;
+        case "--cache-stats":
+          driver.enableCacheStats();
+          break;
+        case "--no-peephole":
+          driver.disablePeephole();
+          break;
+        case "--peephole-stats":
+          driver.enablePeepholeStats();
+          break;
+        case "--stats":
+          driver.enableStats();
+          break;
+        case "--stats-json":
+          driver.enableStatsJson();
+          break;
+        case "--output-dir":
+          driver.setOutputDirectory(args[++i]);
+          break;
+        case "-o":
+          driver.setAssemblyFile(args[++i]);
+          break;
+        case "-c":
+          driver.enableObjectOutput();
           break;
         case "--emulator-input": {
           if (driver.hasEmulatorInputFile())
@@ -108,41 +167,72 @@ public final class Compiler {
     }
 
     if (!driver.hasInputFile()) {
-      displayHelp();
+      displayHelp(out);
       throw new RuntimeException("no input file.");
     }
 
     return true;
   }
 
-  private static void displayHelp() {
-    System.out.println("usage: <crux> [options] [file]");
-    System.out.println("options:");
-    System.out.println("--help\t\t\t\tDisplay this information.");
-    System.out.println("--authors\t\t\tDisplay the list of authors.");
-    System.out.println("--check-types\t\t\tPerform a type check for the input program.");
-    System.out
+  private static FileInputStream openFile(String name) {
+    try {
+      return new FileInputStream(name);
+    } catch (IOException e) {
+      throw new UncheckedIOException(String.format("cannot read file '%s'", name), e);
+    }
+  }
+
+  private static void displayHelp(PrintStream out) {
+    out.println("usage: <crux> [options] [file]");
+    out.println("options:");
+    out.println("--help\t\t\t\tDisplay this information.");
+    out.println("--authors\t\t\tDisplay the list of authors.");
+    out.println("--check-types\t\t\tPerform a type check for the input program.");
+    out
         .println("--include-types\t\t\tInclude type information in printed ast (see --print-ast).");
-    System.out.println("--print-pt\t\t\tPrint the parse tree to stdout.");
-    System.out.println("--print-ast\t\t\tPrint the abstract syntax tree to stdout.");
-    System.out.println(
+    out.println("--print-pt\t\t\tPrint the parse tree to stdout.");
+    out.println("--print-ast\t\t\tPrint the abstract syntax tree to stdout.");
+    out.println(
         "--serialize\t\t\tDump serialized versions of compiler represenatations out to files.");
-    System.out.println("--print-ir\t\t\tDump dot compatible representation of IR.");
-    System.out.println("--emulator\t\t\tRun Emulator on IR.");
-    System.out.println("--debug-emulator\t\tRun Emulator on IR with debugging turned on.");
-    System.out.println("--emulator-input <input file>\tInput File for the emulator");
-    System.out.println("--read-ast <input file>\t\tRead serialized version of AST in,");
-    System.out.println("--read-type <input file>\tRead serialized version of type-checked AST in,");
-    System.out.println("--read-ir <input file>\t\tRead serialized version of IR/CFG in,");
+    out.println("--serialize-binary\t\tLike --serialize, in the compact binary format.");
+    out.println("--print-ir\t\t\tDump dot compatible representation of IR.");
+    out.println("--emulator\t\t\tRun Emulator on IR.");
+    out.println("--debug-emulator\t\tRun Emulator on IR with debugging turned on.");
+    out.println("--emulator-bytecode\t\tRun Emulator on IR compiled to register bytecode.");
+    out.println("--emulator-jvm\t\t\tRun Emulator on IR compiled to JVM bytecode.");
+    out.println("--emulator-input <input file>\tInput File for the emulator");
+    out.println("--trace-emulator <trace file>\tRun Emulator on IR and write a binary trace.");
+    out.println("--profile-emulator <file>\tRun Emulator on IR, print a profile and write the");
+    out.println("\t\t\t\tcollapsed call stacks to <file> for flame graphs.");
+    out.println("--profile-top <n>\t\tThe number of entries in each table of the profile.");
+    out.println("--parse-ll\t\t\tParse with full LL prediction only, without SLL first.");
+    out.println("-O\t\t\t\tRun the default optimization passes on the IR.");
+    out.println("--passes <pass,...>\t\tRun the listed optimization passes on the IR.");
+    out.println("--pass-stats\t\t\tPrint time and instruction count after every pass.");
+    out.println("--read-ast <input file>\t\tRead serialized version of AST in,");
+    out.println("--read-type <input file>\tRead serialized version of type-checked AST in,");
+    out.println("--read-ir <input file>\t\tRead serialized version of IR/CFG in,");
+    out.println("--cache-dir <dir>\t\tReuse the typed AST, IR and assembly cached in <dir>.");
+    out.println("--cache-size <MB>\t\tThe size of the cache, 256 MB by default.");
+    out.println("--cache-stats\t\t\tPrint the hits and misses of the cache.");
+    out.println("--no-peephole\t\t\tWrite the assembly without the peephole optimizer.");
+    out.println("--peephole-stats\t\tPrint how often each peephole rule applied.");
+    out.println("--stats\t\t\t\tPrint time, allocation and output size of every stage.");
+    out.println("--stats-json\t\t\tPrint the statistics of --stats as JSON.");
+    out.println("--output-dir <dir>\t\tWrite a.s and the serialized files to <dir>.");
+    out.println("-o <file>\t\t\tWrite the assembly to <file> instead of a.s.");
+    out.println("-c\t\t\t\tWrite an ELF object a.o instead of assembly, link with gcc.");
+    out.println("--batch [options] <file>...\tCompile many files in parallel, see --batch --help.");
+    out.println("--server [options]\t\tRun as a compile server, see --server --help.");
   }
 
-  private static void displayAuthors() {
+  private static void displayAuthors(PrintStream out) {
     var separator = "";
     for (var author : Authors.all) {
-      System.out.print(separator);
-      System.out.printf("name: %s%n", author.name);
-      System.out.printf("student id: %s%n", author.studentId);
-      System.out.printf("UCINetID: %s%n", author.uciNetId);
+      out.print(separator);
+      out.printf("name: %s%n", author.name);
+      out.printf("student id: %s%n", author.studentId);
+      out.printf("UCINetID: %s%n", author.uciNetId);
       separator = System.lineSeparator();
     }
   }
@@ -3,21 +3,48 @@ package crux;
 import crux.ast.ANTLRErrorRecorder;
 import crux.ast.ParseTreeLower;
 import crux.ast.DeclarationList;
+import crux.ast.Node;
 import crux.pt.CruxLexer;
 import crux.pt.CruxParser;
 import crux.ast.types.TypeChecker;
 import crux.ir.ASTLower;
+import crux.ir.ControlFlowGraph;
 import crux.printing.IRPrinter;
 import crux.ir.Program;
+import crux.ir.BinaryTraceListener;
+import crux.ir.DebugListener;
 import crux.ir.Emulator;
+import crux.ir.ProfileListener;
+import crux.ir.bytecode.BytecodeEmulator;
+import crux.ir.jvm.JvmEmulator;
+import crux.ir.opt.Pass;
+import crux.ir.opt.PassManager;
 import crux.backend.CodeGen;
+import crux.backend.ElfWriter;
+import crux.binary.AstDecoder;
+import crux.binary.AstEncoder;
+import crux.binary.BinaryFormat;
+import crux.binary.IrDecoder;
+import crux.binary.IrEncoder;
 import crux.printing.ASTPrinter;
 import crux.printing.ParseTreePrinter;
+import org.antlr.v4.runtime.BailErrorStrategy;
 import org.antlr.v4.runtime.CharStream;
 import org.antlr.v4.runtime.CharStreams;
 import org.antlr.v4.runtime.CommonTokenStream;
+import org.antlr.v4.runtime.DefaultErrorStrategy;
+import org.antlr.v4.runtime.atn.PredictionMode;
+import org.antlr.v4.runtime.misc.ParseCancellationException;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.stream.Collectors;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.Supplier;
 
 enum State {
@@ -36,6 +63,33 @@ public final class Driver {
     PARSE, AST, TYPECHECK, IR, CODEGEN;
   }
 
+  /**
+   * The engine that executes the IR when the emulator is enabled.
+   */
+  public enum EmulatorEngine {
+    INTERPRETER, BYTECODE, JVM;
+  }
+
+  /**
+   * How the parser predicts the alternatives of the grammar.
+   */
+  public enum ParseMode {
+    /**
+     * Full context LL prediction.
+     */
+    LL,
+    /**
+     * The faster SLL prediction that stops at the first syntax error, and full LL only for the
+     * inputs on which SLL fails. Both accept the same inputs, and the errors are those of LL. The
+     * benchmarks {@code parseLL} and {@code parseSLL} of {@code crux.bench.StageBenchmarks}
+     * compare the two.
+     */
+    SLL_THEN_LL;
+  }
+
+  private static final LongAdder parses = new LongAdder();
+  private static final LongAdder llFallbacks = new LongAdder();
+
   private final InputStream in;
   private final PrintStream out;
   private final PrintStream err;
@@ -46,13 +100,38 @@ public final class Driver {
   private boolean typeCheck = false;
   private boolean printIR = false;
   private boolean runEmulator = false;
+  private EmulatorEngine emulatorEngine = EmulatorEngine.INTERPRETER;
+  private boolean debugEmulator = false;
+  private String emulatorTraceFile = null;
+  private String emulatorProfileFile = null;
+  private int emulatorProfileTop = 20;
   private boolean serialize = false;
+  private boolean binarySerialize = false;
+  private PassManager passManager = null;
+  private boolean passStats = false;
+  private ParseMode parseMode = ParseMode.SLL_THEN_LL;
+  private String cacheDirectory = null;
+  private long cacheSize = CompileCache.DEFAULT_SIZE;
+  private CompileCache cache = null;
+  private boolean cacheStats = false;
+  private String sourceKey = null;
+  private String irKey = null;
+  private String assemblyKey = null;
+  private boolean irCached = false;
+  private boolean peephole = true;
+  private boolean peepholeStats = false;
+  private boolean objectOutput = false;
+  private CompileStats stats = null;
+  private boolean printStats = false;
+  private boolean printStatsJson = false;
 
   // Set this flag to false if earlier stages in your compiler do not work.
   private final boolean supportsEndToEnd = true;
 
   private String inputFile;
   private InputStream inputStream;
+  private String outputDirectory = null;
+  private String assemblyFile = null;
   private String emulatorInputFile = null;
   private InputStream emulatorInputStream = null;
 
@@ -60,6 +139,7 @@ public final class Driver {
   private DeclarationList ast;
   private Program irProgram;
   private Stage startStage = Stage.PARSE;
+  private Stage stage = null;
 
 
   Driver() {
@@ -80,6 +160,15 @@ public final class Driver {
     serialize = true;
   }
 
+  /**
+   * Serializes in the compact binary format to {@code ast.bin}, {@code typedast.bin} and
+   * {@code ir.bin} instead of using Java serialization.
+   */
+  public void enableBinarySerialize() {
+    serialize = true;
+    binarySerialize = true;
+  }
+
   public boolean hasSupportEndToEnd() {
     return supportsEndToEnd;
   }
@@ -111,7 +200,157 @@ public final class Driver {
 
   public void enableDebugEmulator() {
     runEmulator = true;
-    Emulator.DEBUG = true;
+    debugEmulator = true;
+  }
+
+  /**
+   * Runs the emulator and writes a binary execution trace to {@code traceFile}.
+   */
+  public void setEmulatorTraceFile(String traceFile) {
+    runEmulator = true;
+    emulatorTraceFile = traceFile;
+  }
+
+  /**
+   * Runs the emulator with a {@link crux.ir.ProfileListener}, which prints the most executed
+   * functions, call edges, instructions and branches to the error stream and writes the collapsed
+   * call stacks to {@code collapsedFile}.
+   */
+  public void setEmulatorProfileFile(String collapsedFile) {
+    runEmulator = true;
+    emulatorProfileFile = collapsedFile;
+  }
+
+  /**
+   * Sets the number of entries in each table of the profile, 20 by default.
+   */
+  public void setEmulatorProfileTop(int top) {
+    emulatorProfileTop = top;
+  }
+
+  public void enableBytecodeEmulator() {
+    runEmulator = true;
+    emulatorEngine = EmulatorEngine.BYTECODE;
+  }
+
+  public void enableJvmEmulator() {
+    runEmulator = true;
+    emulatorEngine = EmulatorEngine.JVM;
+  }
+
+  /**
+   * Runs the comma separated list of IR passes after lowering, see {@link PassManager#parse}.
+   */
+  public void setPasses(String passList) {
+    passManager = PassManager.parse(passList);
+  }
+
+  /**
+   * Runs the default optimization passes after lowering.
+   */
+  public void enableOptimization() {
+    setPasses(PassManager.DEFAULT_PASSES);
+  }
+
+  /**
+   * Prints the time and the instruction count after every IR pass to the error stream.
+   */
+  public void enablePassStats() {
+    passStats = true;
+  }
+
+  /**
+   * Writes the assembly without the peephole optimizer, see {@link crux.backend.Peephole}.
+   */
+  public void disablePeephole() {
+    peephole = false;
+  }
+
+  /**
+   * Writes an ELF relocatable object, {@code a.o} by default, instead of assembly, see
+   * {@link crux.backend.ElfWriter}.
+   */
+  public void enableObjectOutput() {
+    objectOutput = true;
+  }
+
+  /**
+   * Prints how often each rule of the peephole optimizer applied to the error stream.
+   */
+  public void enablePeepholeStats() {
+    peepholeStats = true;
+  }
+
+  public void setParseMode(ParseMode mode) {
+    parseMode = mode;
+  }
+
+  /**
+   * Returns the number of inputs parsed in this JVM.
+   */
+  public static long getParseCount() {
+    return parses.sum();
+  }
+
+  /**
+   * Returns the number of inputs for which SLL prediction failed and that were parsed again with
+   * LL, see {@link ParseMode#SLL_THEN_LL}.
+   */
+  public static long getLLFallbackCount() {
+    return llFallbacks.sum();
+  }
+
+  /**
+   * Caches the typed AST, the IR and the assembly in {@code dir}, and starts from the latest of
+   * them that is cached for the same source, see {@link CompileCache}. Only runs that print
+   * nothing but the output of the emulator use the cache, and only if the build of the compiler
+   * can be identified.
+   */
+  public void setCacheDirectory(String dir) {
+    cacheDirectory = dir;
+  }
+
+  /**
+   * Evicts the least recently used entries of the cache when it grows beyond {@code maxBytes}.
+   */
+  public void setCacheSize(long maxBytes) {
+    cacheSize = maxBytes;
+  }
+
+  /**
+   * Prints the hits and misses of the cache to the error stream after the run.
+   */
+  public void enableCacheStats() {
+    cacheStats = true;
+  }
+
+  /**
+   * Prints the time, the allocation and the peak heap of every stage and the sizes of their
+   * outputs to the error stream after the run, see {@link CompileStats}.
+   */
+  public void enableStats() {
+    printStats = true;
+  }
+
+  /**
+   * Like {@link #enableStats}, but prints the statistics as JSON.
+   */
+  public void enableStatsJson() {
+    printStatsJson = true;
+  }
+
+  /**
+   * Records the statistics of the next run in {@code stats} without printing them.
+   */
+  public void setStats(CompileStats stats) {
+    this.stats = stats;
+  }
+
+  /**
+   * Returns the statistics of the last run, or null if they were not enabled.
+   */
+  public CompileStats getStats() {
+    return stats;
   }
 
   public boolean hasInputFile() {
@@ -130,6 +369,21 @@ public final class Driver {
     this.inputStream = inputStream;
   }
 
+  /**
+   * Writes {@code a.s} and the serialized files to {@code dir} instead of the working directory.
+   */
+  public void setOutputDirectory(String dir) {
+    outputDirectory = dir;
+  }
+
+  /**
+   * Writes the assembly or object to {@code file} instead of {@code a.s} or {@code a.o} in the
+   * output directory.
+   */
+  public void setAssemblyFile(String file) {
+    assemblyFile = file;
+  }
+
   public void setEmulatorInputFile(String inputFile) {
     emulatorInputFile = inputFile;
   }
@@ -148,67 +402,237 @@ public final class Driver {
 
   public State run() {
     State state = State.Continue;
-    switch (startStage) {
+    if (stats == null && (printStats || printStatsJson))
+      stats = new CompileStats();
+    if (cacheDirectory != null && startStage == Stage.PARSE && !printPt && !printAst && !typeCheck
+        && !printIR && !serialize) {
+      if (CompileCache.isSupported()) {
+        cache = new CompileCache(cacheDirectory, cacheSize);
+        state = measure("cache", this::lookupCache);
+      } else {
+        err.println("warning: cannot identify the build of the compiler, the compile cache is "
+            + "disabled");
+      }
+    }
+    if (state == State.Continue) switch (startStage) {
       case PARSE:
-        state = parse();
+        stage = Stage.PARSE;
+        state = measure("parse", this::parse);
         if (state != State.Continue)
           break;
       case AST:
-        state = makeAST();
+        stage = Stage.AST;
+        state = measure("ast", this::makeAST);
         if (state != State.Continue)
           break;
       case TYPECHECK:
-        state = typeCheck();
+        stage = Stage.TYPECHECK;
+        state = measure("typecheck", this::typeCheck);
         if (state != State.Continue)
           break;
       case IR:
-        state = emitIR();
+        stage = Stage.IR;
+        state = irCached ? State.Continue : measure("ir", this::emitIR);
         if (state != State.Continue)
           break;
-        state = emulator();
+        state = runEmulator ? measure("emulator", this::emulator) : State.Continue;
         if (state != State.Continue)
           break;
       case CODEGEN:
-        state = emitASM();
+        stage = Stage.CODEGEN;
+        state = measure("codegen", this::emitASM);
     }
     if (state != State.Finished)
       state = State.Error;
+    if (sourceKey != null) {
+      try {
+        cache.evict();
+      } catch (IOException e) {
+        err.println("warning: cannot evict from the compile cache: " + e.getMessage());
+      }
+    }
+    if (cacheStats)
+      CompileCache.printStats(err);
+    if (printStatsJson)
+      stats.printJson(err);
+    else if (printStats)
+      stats.print(err);
     return state;
   }
 
+  /**
+   * Runs a stage, and records its time and allocation in the statistics and as a JFR event if
+   * either of them is enabled.
+   */
+  private State measure(String name, Supplier<State> stage) {
+    var event = new StageEvent();
+    if (stats == null && !event.isEnabled())
+      return stage.get();
+    // The JFR event has no peak heap, which would reset the peak usage of the JVM
+    var probe = new CompileStats.Probe(stats != null);
+    event.begin();
+    try {
+      return stage.get();
+    } finally {
+      var record = probe.stop(name);
+      if (stats != null)
+        stats.addStage(record);
+      event.stage = name;
+      event.input = inputFile;
+      event.cpuTime = record.cpuNanos;
+      event.allocated = record.allocatedBytes;
+      event.commit();
+    }
+  }
+
+  private static long countNodes(Node root) {
+    long count = 0;
+    var stack = new ArrayDeque<Node>();
+    stack.push(root);
+    while (!stack.isEmpty()) {
+      var node = stack.pop();
+      count++;
+      for (var child : node.getChildren()) {
+        if (child != null)
+          stack.push(child);
+      }
+    }
+    return count;
+  }
+
+  /**
+   * Looks up the source in the cache. Returns {@link State#Finished} if the assembly is cached,
+   * otherwise continues from the IR or the typed AST if one of them is cached.
+   */
+  private State lookupCache() {
+    byte[] source;
+    try {
+      source = inputStream != null ? inputStream.readAllBytes()
+          : Files.readAllBytes(Paths.get(inputFile));
+    } catch (IOException e) {
+      //Reported by the parser
+      return State.Continue;
+    }
+    inputStream = new ByteArrayInputStream(source);
+    sourceKey = CompileCache.key(source);
+    irKey = CompileCache.key(sourceKey, passManager == null ? ""
+        : passManager.getPasses().stream().map(Pass::getName).collect(Collectors.joining(",")));
+    assemblyKey = CompileCache.key(irKey, peephole ? "peephole" : "no-peephole");
+    try {
+      //The statistics of the peephole optimizer need the code to be generated
+      if (!runEmulator && !objectOutput && !peepholeStats
+          && cache.copy(assemblyKey, CompileCache.ASSEMBLY, assemblyPath())) {
+        CompileCache.count(CompileCache.ASSEMBLY);
+        stage = Stage.CODEGEN;
+        return State.Finished;
+      }
+      var data = cache.read(irKey, CompileCache.IR);
+      if (data != null) {
+        irProgram = IrDecoder.read(data);
+        irCached = true;
+        startStage = Stage.IR;
+        CompileCache.count(CompileCache.IR);
+        return State.Continue;
+      }
+      data = cache.read(sourceKey, CompileCache.TYPED_AST);
+      if (data != null) {
+        ast = AstDecoder.read(data);
+        startStage = Stage.IR;
+        CompileCache.count(CompileCache.TYPED_AST);
+        return State.Continue;
+      }
+    } catch (IOException e) {
+      err.println("warning: cannot read from the compile cache: " + e.getMessage());
+      irProgram = null;
+      irCached = false;
+      ast = null;
+      startStage = Stage.PARSE;
+    }
+    CompileCache.count(null);
+    return State.Continue;
+  }
+
+  private void storeCache(String key, String kind, CompileCache.Writer writer) {
+    try {
+      cache.write(key, kind, writer);
+    } catch (IOException e) {
+      err.println("warning: cannot write to the compile cache: " + e.getMessage());
+    }
+  }
+
+  /**
+   * Returns the stage that {@link #run} ran last, which is the one that failed if it returned an
+   * error or threw.
+   */
+  public Stage getStage() {
+    return stage;
+  }
+
   public void readASTTYPE(InputStream is) {
     try {
-      ObjectInputStream ois = new ObjectInputStream(is);
-      ast = (DeclarationList) ois.readObject();
-      ois.close();
+      ast = (DeclarationList) readSerialized(is, false);
       setStartStage(Stage.IR);
     } catch (Exception e) {
-      e.printStackTrace();
-      System.out.println("Failure to deserialize AST");
+      e.printStackTrace(err);
+      err.println("Failure to deserialize AST");
     }
   }
 
   public void readAST(InputStream is) {
     try {
-      ObjectInputStream ois = new ObjectInputStream(is);
-      ast = (DeclarationList) ois.readObject();
-      ois.close();
+      ast = (DeclarationList) readSerialized(is, false);
       setStartStage(Stage.TYPECHECK);
     } catch (Exception e) {
-      e.printStackTrace();
-      System.out.println("Failure to deserialize AST");
+      e.printStackTrace(err);
+      err.println("Failure to deserialize AST");
     }
   }
 
   public void readIR(InputStream is) {
     try {
-      ObjectInputStream ois = new ObjectInputStream(is);
-      irProgram = (Program) ois.readObject();
-      ois.close();
+      irProgram = (Program) readSerialized(is, true);
       setStartStage(Stage.CODEGEN);
     } catch (Exception e) {
-      e.printStackTrace();
-      System.out.println("Failure to deserialize IR");
+      e.printStackTrace(err);
+      err.println("Failure to deserialize IR");
+    }
+  }
+
+  /**
+   * Reads an AST or an IR program in the binary format or with Java serialization, depending on the
+   * first bytes of the input. Files are memory mapped.
+   */
+  private Object readSerialized(InputStream is, boolean isIR) throws Exception {
+    try (is) {
+      ByteBuffer data;
+      InputStream javaInput;
+      if (is instanceof FileInputStream) {
+        var channel = ((FileInputStream) is).getChannel();
+        data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        javaInput = is;
+      } else {
+        var bytes = is.readAllBytes();
+        data = ByteBuffer.wrap(bytes);
+        javaInput = new ByteArrayInputStream(bytes);
+      }
+      if (BinaryFormat.hasMagic(data))
+        return isIR ? IrDecoder.read(data) : AstDecoder.read(data);
+      return new ObjectInputStream(javaInput).readObject();
+    }
+  }
+
+  private void writeSerialized(String name, Object value) throws IOException {
+    try (var os = new BufferedOutputStream(
+        new FileOutputStream(outputFile(name + (binarySerialize ? ".bin" : ".ser"))))) {
+      if (!binarySerialize) {
+        var oos = new ObjectOutputStream(os);
+        oos.writeObject(value);
+        oos.flush();
+      } else if (value instanceof Program) {
+        IrEncoder.write((Program) value, os);
+      } else {
+        AstEncoder.write((DeclarationList) value, os);
+      }
     }
   }
 
@@ -220,9 +644,29 @@ public final class Driver {
     var parser = new CruxParser(tokenStream);
     parser.removeErrorListeners();
     var errorRecorder = new ANTLRErrorRecorder();
-    parser.addErrorListener(errorRecorder);
 
-    parseTree = parser.program();
+    parses.increment();
+    parseTree = null;
+    if (parseMode == ParseMode.SLL_THEN_LL) {
+      parser.getInterpreter().setPredictionMode(PredictionMode.SLL);
+      parser.setErrorHandler(new BailErrorStrategy());
+      try {
+        parseTree = parser.program();
+      } catch (ParseCancellationException e) {
+        //SLL failed, which is either a syntax error or a decision that needs the full context
+        llFallbacks.increment();
+        tokenStream.seek(0);
+        parser.reset();
+        parser.setErrorHandler(new DefaultErrorStrategy());
+        parser.getInterpreter().setPredictionMode(PredictionMode.LL);
+      }
+    }
+    if (parseTree == null) {
+      parser.addErrorListener(errorRecorder);
+      parseTree = parser.program();
+    }
+    if (stats != null)
+      stats.setSize("tokens", tokenStream.size());
 
     if (errorRecorder.getErrorMessages().size() > 0) {
       for (var message : errorRecorder.getErrorMessages()) {
@@ -247,6 +691,8 @@ public final class Driver {
     if (parseTreeLower.hasEncounteredError()) {
       return State.Error;
     }
+    if (stats != null)
+      stats.setSize("ast nodes", countNodes(ast));
 
     if (printAst) {
       var astPrinter = new ASTPrinter(out);
@@ -258,11 +704,9 @@ public final class Driver {
     }
     if (serialize) {
       try {
-        ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream("ast.ser"));
-        oos.writeObject(ast);
-        oos.close();
+        writeSerialized("ast", ast);
       } catch (Exception e) {
-        System.out.println("Failed to serialize AST");
+        err.println("Failed to serialize AST");
       }
     }
 
@@ -295,13 +739,13 @@ public final class Driver {
 
     if (serialize) {
       try {
-        ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream("typedast.ser"));
-        oos.writeObject(ast);
-        oos.close();
+        writeSerialized("typedast", ast);
       } catch (Exception e) {
-        System.out.println("Failed to serialize Typed AST");
+        err.println("Failed to serialize Typed AST");
       }
     }
+    if (sourceKey != null)
+      storeCache(sourceKey, CompileCache.TYPED_AST, os -> AstEncoder.write(ast, os));
 
     return typeCheck ? State.Finished : State.Continue;
   }
@@ -310,6 +754,24 @@ public final class Driver {
     var astLower = new ASTLower();
     irProgram = astLower.lower(ast);
 
+    if (passManager != null) {
+      if (passStats)
+        passManager.setStatsOutput(err);
+      passManager.run(irProgram);
+    }
+    if (stats != null) {
+      long instructions = 0;
+      for (var it = irProgram.getFunctions(); it.hasNext();) {
+        var f = it.next();
+        int size = ControlFlowGraph.reachable(f).size();
+        stats.setFunctionSize(f.getName(), size);
+        instructions += size;
+      }
+      stats.setSize("ir instructions", instructions);
+    }
+    if (irKey != null)
+      storeCache(irKey, CompileCache.IR, os -> IrEncoder.write(irProgram, os));
+
     if (printIR) {
       var printer = new IRPrinter(out);
       printer.print(irProgram);
@@ -318,11 +780,9 @@ public final class Driver {
 
     if (serialize) {
       try {
-        ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream("ir.ser"));
-        oos.writeObject(irProgram);
-        oos.close();
+        writeSerialized("ir", irProgram);
       } catch (Exception e) {
-        System.out.println("Failed to serialize IR");
+        err.println("Failed to serialize IR");
       }
     }
 
@@ -330,8 +790,19 @@ public final class Driver {
   }
 
   private State emitASM() {
-    var codegen = new CodeGen(irProgram);
+    var codegen = objectOutput ? new CodeGen(irProgram, new ElfWriter(assemblyPath()))
+        : new CodeGen(irProgram, assemblyPath());
+    if (!peephole)
+      codegen.disablePeephole();
     codegen.genCode();
+    if (peepholeStats && peephole)
+      codegen.getPeephole().printStats(err);
+    if (stats != null) {
+      stats.setSize("asm lines", codegen.getLineCount());
+      stats.setSize("asm bytes", codegen.getByteCount());
+    }
+    if (assemblyKey != null && !objectOutput)
+      storeCache(assemblyKey, CompileCache.ASSEMBLY, os -> Files.copy(assemblyPath(), os));
 
     return State.Finished;
   }
@@ -339,14 +810,64 @@ public final class Driver {
   private State emulator() {
     if (runEmulator) {
       var emulatorInput = openEmulatorInput();
-      var emulator = new Emulator(irProgram, emulatorInput, out);
-      emulator.run();
+      // Listeners are only supported by the instruction graph interpreter
+      var engine = debugEmulator || emulatorTraceFile != null || emulatorProfileFile != null
+          ? EmulatorEngine.INTERPRETER : emulatorEngine;
+      switch (engine) {
+        case BYTECODE:
+          new BytecodeEmulator(irProgram, emulatorInput, out).run();
+          break;
+        case JVM:
+          var jvm = new JvmEmulator(irProgram, emulatorInput, out);
+          for (String fallback : jvm.getFallbacks())
+            err.println("warning: " + fallback);
+          jvm.run();
+          break;
+        default:
+          var emulator = new Emulator(irProgram, emulatorInput, out);
+          if (debugEmulator)
+            emulator.addListener(new DebugListener(out));
+          try (var profile = emulatorProfileFile == null ? null
+              : Files.newBufferedWriter(Paths.get(emulatorProfileFile))) {
+            if (profile != null)
+              emulator.addListener(new ProfileListener(err, profile, emulatorProfileTop));
+            runTraced(emulator);
+          } catch (IOException e) {
+            throw new RuntimeException(
+                String.format("cannot write profile file '%s'", emulatorProfileFile), e);
+          }
+          break;
+      }
       return State.Finished;
     }
 
     return State.Continue;
   }
 
+  private void runTraced(Emulator emulator) {
+    if (emulatorTraceFile != null) {
+      try (var trace = new BinaryTraceListener(new FileOutputStream(emulatorTraceFile))) {
+        emulator.addListener(trace);
+        emulator.run();
+      } catch (IOException e) {
+        throw new RuntimeException(
+            String.format("cannot write trace file '%s'", emulatorTraceFile), e);
+      }
+    } else {
+      emulator.run();
+    }
+  }
+
+  private Path assemblyPath() {
+    if (assemblyFile != null)
+      return Paths.get(assemblyFile);
+    return Paths.get(outputFile(objectOutput ? "a.o" : "a.s"));
+  }
+
+  private String outputFile(String name) {
+    return outputDirectory == null ? name : new File(outputDirectory, name).getPath();
+  }
+
   private CharStream openInput() {
     if (inputStream == null) {
       try {
@@ -373,7 +894,7 @@ public final class Driver {
     } else if (emulatorInputStream != null) {
       return emulatorInputStream;
     } else {
-      return System.in;
+      return in;
     }
   }
 }
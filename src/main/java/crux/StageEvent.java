@@ -0,0 +1,32 @@
+package crux;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * A JFR event for a stage of a compilation, so that the stages show up in flight recordings next
+ * to the garbage collections and the samples of the threads that ran them.
+ */
+@Name("crux.Stage")
+@Label("Compiler Stage")
+@Category("Crux")
+@Description("A stage of a compilation by the driver")
+final class StageEvent extends jdk.jfr.Event {
+  @Label("Stage")
+  String stage;
+
+  @Label("Input")
+  String input;
+
+  @Label("CPU Time")
+  @Timespan
+  long cpuTime;
+
+  @Label("Allocated")
+  @DataAmount
+  long allocated;
+}
@@ -45,6 +45,13 @@ public final class SymbolTable {
       this.error = error;
     }
 
+    /**
+     * Creates a symbol outside of a symbol table, e.g. when a serialized program is read.
+     */
+    public static Symbol of(String name, Type type) {
+      return new Symbol(name, type);
+    }
+
     /**
      *
      * @return String the name
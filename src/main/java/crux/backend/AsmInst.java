@@ -0,0 +1,150 @@
+package crux.backend;
+
+import java.util.Arrays;
+
+/**
+ * A line of assembly: an instruction with its operands in AT&amp;T order, a label, a directive such
+ * as {@code .globl}, or a comment. The code generator emits a function as a list of these, so the
+ * {@link Peephole} optimizer can rewrite it before it is printed.
+ */
+public final class AsmInst {
+  public enum Kind {
+    INSTRUCTION, LABEL, DIRECTIVE, COMMENT;
+  }
+
+  private static final byte[] INDENT = CodePrinter.ascii("    ");
+  private static final byte[] SEPARATOR = CodePrinter.ascii(", ");
+  private static final Operand[] NO_OPERANDS = {};
+  private static final String[] NO_ARGUMENTS = {};
+
+  private final Kind kind;
+  private final Opcode opcode;
+  private final String text;
+  private final Operand[] operands;
+  private final String[] arguments;
+
+  private AsmInst(Kind kind, Opcode opcode, String text, Operand[] operands, String[] arguments) {
+    this.kind = kind;
+    this.opcode = opcode;
+    this.text = text;
+    this.operands = operands;
+    this.arguments = arguments;
+  }
+
+  public static AsmInst of(Opcode opcode, Operand... operands) {
+    return new AsmInst(Kind.INSTRUCTION, opcode, null, operands, NO_ARGUMENTS);
+  }
+
+  public static AsmInst label(String name) {
+    return new AsmInst(Kind.LABEL, null, name, NO_OPERANDS, NO_ARGUMENTS);
+  }
+
+  public static AsmInst directive(String name, String... arguments) {
+    return new AsmInst(Kind.DIRECTIVE, null, name, NO_OPERANDS, arguments);
+  }
+
+  public static AsmInst comment(String text) {
+    return new AsmInst(Kind.COMMENT, null, text, NO_OPERANDS, NO_ARGUMENTS);
+  }
+
+  public Kind getKind() {
+    return kind;
+  }
+
+  public boolean isInstruction() {
+    return kind == Kind.INSTRUCTION;
+  }
+
+  /**
+   * Returns the opcode of an instruction, or null.
+   */
+  public Opcode getOpcode() {
+    return opcode;
+  }
+
+  /**
+   * Returns the name of a label or directive, or the text of a comment.
+   */
+  public String getText() {
+    return text;
+  }
+
+  public int numOperands() {
+    return operands.length;
+  }
+
+  public Operand getOperand(int i) {
+    return operands[i];
+  }
+
+  /**
+   * Returns the arguments of a directive.
+   */
+  public String[] getArguments() {
+    return arguments.clone();
+  }
+
+  /**
+   * Returns true if this is the instruction {@code opcode} with exactly the given operands.
+   */
+  public boolean is(Opcode opcode, Operand... operands) {
+    return this.opcode == opcode && Arrays.equals(this.operands, operands);
+  }
+
+  /**
+   * Writes the line without the line break.
+   */
+  public void print(CodePrinter out) {
+    switch (kind) {
+      case LABEL:
+        out.write(text);
+        out.write(':');
+        return;
+      case COMMENT:
+        out.write(INDENT);
+        out.write("/* ");
+        out.write(text);
+        out.write(" */");
+        return;
+      case DIRECTIVE:
+        out.write(INDENT);
+        out.write(text);
+        for (int k = 0; k < arguments.length; k++) {
+          out.write(k == 0 ? " " : ", ");
+          out.write(arguments[k]);
+        }
+        return;
+      default:
+        out.write(INDENT);
+        out.write(opcode.getText());
+        for (int k = 0; k < operands.length; k++) {
+          if (k == 0)
+            out.write(' ');
+          else
+            out.write(SEPARATOR);
+          operands[k].print(out);
+        }
+    }
+  }
+
+  @Override
+  public String toString() {
+    var s = new StringBuilder();
+    switch (kind) {
+      case LABEL:
+        return text + ":";
+      case COMMENT:
+        return "    /* " + text + " */";
+      case DIRECTIVE:
+        s.append("    ").append(text);
+        if (arguments.length > 0)
+          s.append(' ').append(String.join(", ", arguments));
+        return s.toString();
+      default:
+        s.append("    ").append(opcode);
+        for (int k = 0; k < operands.length; k++)
+          s.append(k == 0 ? " " : ", ").append(operands[k]);
+        return s.toString();
+    }
+  }
+}
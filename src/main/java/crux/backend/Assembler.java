@@ -0,0 +1,443 @@
+package crux.backend;
+
+import java.util.*;
+
+import static crux.backend.Opcode.*;
+import static crux.backend.Register.*;
+
+/**
+ * Encodes the instructions that {@link CodeGen} emits into x86-64 machine code. Jumps to the labels
+ * of the program are resolved when the code is complete; calls and the {@code @GOTPCREL} addresses
+ * of globals are left as relocations for the linker, see {@link ElfWriter}.
+ * <p>
+ * Jumps always use a 32 bit displacement, so the size of an instruction does not depend on where
+ * its target ends up.
+ */
+final class Assembler {
+  /**
+   * A place in the code that the linker fills in with the address of {@code symbol}.
+   */
+  static final class Relocation {
+    static final int PLT32 = 4;
+    static final int GOTPCREL = 9;
+
+    final int offset;
+    final String symbol;
+    final int type;
+    final long addend;
+
+    Relocation(int offset, String symbol, int type, long addend) {
+      this.offset = offset;
+      this.symbol = symbol;
+      this.type = type;
+      this.addend = addend;
+    }
+  }
+
+  /**
+   * A function of the program, from {@code start} to {@code end} in the code.
+   */
+  static final class Function {
+    final String name;
+    final int start;
+    int end;
+
+    Function(String name, int start) {
+      this.name = name;
+      this.start = start;
+    }
+  }
+
+  private byte[] code = new byte[1 << 12];
+  private int size = 0;
+  private final HashMap<String, Integer> labels = new HashMap<>();
+  //The positions of the 32 bit displacements of the jumps and their labels
+  private final ArrayList<Integer> jumps = new ArrayList<>();
+  private final ArrayList<String> jumpTargets = new ArrayList<>();
+  private final ArrayList<Relocation> relocations = new ArrayList<>();
+  private final ArrayList<Function> functions = new ArrayList<>();
+  private final HashSet<String> globals = new HashSet<>();
+  private int instructions = 0;
+
+  /**
+   * Adds a line of assembly. Comments are skipped, and of the directives only {@code .globl} is
+   * handled here.
+   */
+  void add(AsmInst inst) {
+    switch (inst.getKind()) {
+      case LABEL:
+        String name = inst.getText();
+        if (labels.put(name, size) != null)
+          throw new IllegalStateException("label " + name + " is defined twice");
+        if (globals.contains(name)) {
+          endFunction();
+          functions.add(new Function(name, size));
+        }
+        return;
+      case DIRECTIVE:
+        if (inst.getText().equals(".globl"))
+          globals.add(inst.getArguments()[0]);
+        return;
+      case INSTRUCTION:
+        encode(inst);
+        instructions++;
+        return;
+      default:
+        break;
+    }
+  }
+
+  /**
+   * Resolves the jumps once all of the code is added.
+   */
+  void finish() {
+    endFunction();
+    for (int k = 0; k < jumps.size(); k++) {
+      Integer target = labels.get(jumpTargets.get(k));
+      if (target == null)
+        throw new IllegalStateException("jump to undefined label " + jumpTargets.get(k));
+      int at = jumps.get(k);
+      putInt(at, target - (at + 4));
+    }
+  }
+
+  private void endFunction() {
+    if (!functions.isEmpty())
+      functions.get(functions.size() - 1).end = size;
+  }
+
+  byte[] getCode() {
+    return Arrays.copyOf(code, size);
+  }
+
+  int getSize() {
+    return size;
+  }
+
+  int getInstructionCount() {
+    return instructions;
+  }
+
+  List<Function> getFunctions() {
+    return functions;
+  }
+
+  List<Relocation> getRelocations() {
+    return relocations;
+  }
+
+  private void encode(AsmInst inst) {
+    Opcode op = inst.getOpcode();
+    if (op.isSet()) {
+      //0f 90+cc /0, %al needs no REX prefix
+      put8(0x0f);
+      put8(0x90 + condition(op));
+      modRM(0, inst.getOperand(0));
+      return;
+    }
+    if (op.isConditionalJump()) {
+      put8(0x0f);
+      put8(0x80 + condition(op));
+      jump(inst.getOperand(0));
+      return;
+    }
+    Operand src = inst.numOperands() > 0 ? inst.getOperand(0) : null;
+    Operand dst = inst.numOperands() > 1 ? inst.getOperand(1) : null;
+    switch (op) {
+      case MOVQ:
+        if (src instanceof Operand.Immediate) {
+          long value = ((Operand.Immediate) src).getValue();
+          if (value != (int) value) {
+            //movabs
+            Register r = (Register) dst;
+            rex(true, null, null, r);
+            put8(0xb8 + (r.getNumber() & 7));
+            put64(value);
+          } else {
+            rex(true, null, null, dst);
+            put8(0xc7);
+            modRM(0, dst);
+            put32(value);
+          }
+        } else if (src instanceof Register) {
+          binary(0x89, (Register) src, dst);
+        } else {
+          binary(0x8b, (Register) dst, src);
+        }
+        return;
+      case MOVZBQ:
+        rex(true, dst, null, src);
+        put8(0x0f);
+        put8(0xb6);
+        modRM(((Register) dst).getNumber(), src);
+        return;
+      case LEAQ:
+        binary(0x8d, (Register) dst, src);
+        return;
+      case ADDQ:
+        arithmetic(0x01, 0, src, dst);
+        return;
+      case SUBQ:
+        arithmetic(0x29, 5, src, dst);
+        return;
+      case CMPQ:
+        arithmetic(0x39, 7, src, dst);
+        return;
+      case XORQ:
+        arithmetic(0x31, 6, src, dst);
+        return;
+      case IMULQ:
+        if (src instanceof Operand.Immediate) {
+          long value = ((Operand.Immediate) src).getValue();
+          rex(true, dst, null, dst);
+          put8(0x69);
+          modRM(((Register) dst).getNumber(), dst);
+          put32(value);
+        } else {
+          rex(true, dst, null, src);
+          put8(0x0f);
+          put8(0xaf);
+          modRM(((Register) dst).getNumber(), src);
+        }
+        return;
+      case IDIVQ:
+        rex(true, null, null, src);
+        put8(0xf7);
+        modRM(7, src);
+        return;
+      case CQTO:
+        put8(0x48);
+        put8(0x99);
+        return;
+      case PUSHQ:
+        if (src instanceof Register) {
+          rex(false, null, null, src);
+          put8(0x50 + (((Register) src).getNumber() & 7));
+        } else if (src instanceof Operand.Immediate) {
+          put8(0x68);
+          put32(((Operand.Immediate) src).getValue());
+        } else {
+          rex(false, null, null, src);
+          put8(0xff);
+          modRM(6, src);
+        }
+        return;
+      case JMP:
+        put8(0xe9);
+        jump(src);
+        return;
+      case CALL:
+        put8(0xe8);
+        relocate(((Operand.Symbol) src).getName(), Relocation.PLT32);
+        return;
+      case ENTER:
+        enter(((Operand.Immediate) src).getValue());
+        return;
+      case LEAVE:
+        put8(0xc9);
+        return;
+      case RET:
+        put8(0xc3);
+        return;
+      default:
+        throw new IllegalArgumentException("cannot encode " + inst);
+    }
+  }
+
+  /**
+   * Encodes an instruction with a register and a register or memory operand, {@code op /r}.
+   */
+  private void binary(int op, Register reg, Operand rm) {
+    rex(true, reg, null, rm);
+    put8(op);
+    modRM(reg.getNumber(), rm);
+  }
+
+  /**
+   * Encodes {@code add}, {@code sub}, {@code cmp} or {@code xor} in AT&amp;T operand order. The
+   * register to memory form is {@code op}, the memory to register form is {@code op + 2}, and the
+   * immediate forms use {@code ext} as the register field.
+   */
+  private void arithmetic(int op, int ext, Operand src, Operand dst) {
+    if (src instanceof Operand.Immediate) {
+      long value = ((Operand.Immediate) src).getValue();
+      rex(true, null, null, dst);
+      if (value == (byte) value) {
+        put8(0x83);
+        modRM(ext, dst);
+        put8((int) value);
+      } else {
+        put8(0x81);
+        modRM(ext, dst);
+        put32(value);
+      }
+    } else if (src instanceof Register) {
+      binary(op, (Register) src, dst);
+    } else {
+      binary(op + 2, (Register) dst, src);
+    }
+  }
+
+  /**
+   * Encodes {@code enter $size, $0}, or the instructions it stands for if the frame is larger than
+   * the 16 bits of its operand.
+   */
+  private void enter(long frameSize) {
+    if (frameSize <= 0xffff) {
+      put8(0xc8);
+      put8((int) frameSize);
+      put8((int) (frameSize >> 8));
+      put8(0);
+      return;
+    }
+    //pushq %rbp; movq %rsp, %rbp; subq $size, %rsp
+    put8(0x55);
+    binary(0x89, RSP, RBP);
+    arithmetic(0x29, 5, Operand.imm(frameSize), RSP);
+  }
+
+  private void jump(Operand target) {
+    jumps.add(size);
+    jumpTargets.add(((Operand.Symbol) target).getName());
+    put32(0);
+  }
+
+  private void relocate(String symbol, int type) {
+    //The displacement is relative to the end of the instruction, 4 bytes after it
+    relocations.add(new Relocation(size, symbol, type, -4));
+    put32(0);
+  }
+
+  private static int condition(Opcode op) {
+    switch (op) {
+      case SETE:
+      case JE:
+        return 0x4;
+      case SETNE:
+      case JNE:
+        return 0x5;
+      case SETL:
+      case JL:
+        return 0xc;
+      case SETGE:
+      case JGE:
+        return 0xd;
+      case SETLE:
+      case JLE:
+        return 0xe;
+      default:
+        return 0xf;
+    }
+  }
+
+  /**
+   * Emits the REX prefix for the registers in the reg field, the index and the r/m field, if one is
+   * needed.
+   */
+  private void rex(boolean wide, Operand reg, Register index, Operand rm) {
+    int rex = wide ? 0x48 : 0x40;
+    if (reg instanceof Register && ((Register) reg).getNumber() >= 8)
+      rex |= 0x4;
+    if (rm instanceof Operand.Memory) {
+      var memory = (Operand.Memory) rm;
+      index = memory.getIndex();
+      if (memory.getBase() != RIP && memory.getBase().getNumber() >= 8)
+        rex |= 0x1;
+    } else if (rm instanceof Register && ((Register) rm).getNumber() >= 8) {
+      rex |= 0x1;
+    }
+    if (index != null && index.getNumber() >= 8)
+      rex |= 0x2;
+    if (rex != 0x40)
+      put8(rex);
+  }
+
+  /**
+   * Emits the ModRM byte with {@code reg} in its reg field, and the SIB byte, displacement or
+   * relocation that the register or memory operand {@code rm} needs.
+   */
+  private void modRM(int reg, Operand rm) {
+    reg = (reg & 7) << 3;
+    if (rm instanceof Register) {
+      put8(0xc0 | reg | (((Register) rm).getNumber() & 7));
+      return;
+    }
+    var memory = (Operand.Memory) rm;
+    Register base = memory.getBase();
+    if (base == RIP) {
+      put8(reg | 0x5);
+      if (memory.getSymbol() == null)
+        throw new IllegalArgumentException("%rip relative address without a symbol");
+      relocate(memory.getSymbol(), Relocation.GOTPCREL);
+      return;
+    }
+    long displacement = memory.getDisplacement();
+    int b = base.getNumber() & 7;
+    int mod;
+    //%rbp and %r13 as a base always have a displacement
+    if (displacement == 0 && b != 5)
+      mod = 0x00;
+    else if (displacement == (byte) displacement)
+      mod = 0x40;
+    else
+      mod = 0x80;
+    Register index = memory.getIndex();
+    if (index != null || b == 4) {
+      //A SIB byte, without an index if it is %rsp
+      put8(mod | reg | 0x4);
+      int i = index == null ? 0x4 : index.getNumber() & 7;
+      put8(scale(memory.getScale()) << 6 | i << 3 | b);
+    } else {
+      put8(mod | reg | b);
+    }
+    if (mod == 0x40)
+      put8((int) displacement);
+    else if (mod == 0x80)
+      put32(displacement);
+  }
+
+  private static int scale(int scale) {
+    switch (scale) {
+      case 1:
+        return 0;
+      case 2:
+        return 1;
+      case 4:
+        return 2;
+      case 8:
+        return 3;
+      default:
+        throw new IllegalArgumentException("invalid scale " + scale);
+    }
+  }
+
+  private void put32(long value) {
+    if (value != (int) value)
+      throw new IllegalArgumentException(value + " does not fit in 32 bits");
+    ensure(4);
+    putInt(size, (int) value);
+    size += 4;
+  }
+
+  private void put64(long value) {
+    ensure(8);
+    putInt(size, (int) value);
+    putInt(size + 4, (int) (value >>> 32));
+    size += 8;
+  }
+
+  private void putInt(int at, int value) {
+    for (int k = 0; k < 4; k++)
+      code[at + k] = (byte) (value >>> (8 * k));
+  }
+
+  private void put8(int b) {
+    ensure(1);
+    code[size++] = (byte) b;
+  }
+
+  private void ensure(int n) {
+    if (size + n > code.length)
+      code = Arrays.copyOf(code, Math.max(2 * code.length, size + n));
+  }
+}
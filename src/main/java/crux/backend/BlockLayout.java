@@ -0,0 +1,88 @@
+package crux.backend;
+
+import crux.ir.BasicBlock;
+import crux.ir.ControlFlowGraph;
+import crux.ir.Function;
+import crux.ir.Instruction;
+import crux.ir.insts.JumpInst;
+import crux.ir.insts.ReturnInst;
+
+import java.util.*;
+
+/**
+ * Puts the basic blocks of a function in the order in which {@link CodeGen} emits them. A block is
+ * followed by its fall through successor whenever that one has not been placed yet, so most blocks
+ * need no jump at their end. The targets of jumps are placed later, from a worklist.
+ * <p>
+ * The successors of a {@link ReturnInst} are never executed and only the blocks that can be reached
+ * from the start are part of the layout.
+ */
+final class BlockLayout {
+  private final ControlFlowGraph graph;
+  private final ArrayList<BasicBlock> blocks = new ArrayList<>();
+  private final ArrayList<Instruction> order = new ArrayList<>();
+  private final boolean[] needsLabel;
+
+  BlockLayout(Function f) {
+    graph = new ControlFlowGraph(f);
+    needsLabel = new boolean[graph.numBlocks()];
+    if (graph.numBlocks() == 0)
+      return;
+
+    var placed = new boolean[graph.numBlocks()];
+    var worklist = new ArrayDeque<BasicBlock>();
+    worklist.push(graph.getEntry());
+    while (!worklist.isEmpty()) {
+      BasicBlock b = worklist.pop();
+      // Place a chain of blocks that fall through into each other
+      while (b != null && !placed[b.getIndex()]) {
+        placed[b.getIndex()] = true;
+        blocks.add(b);
+        order.addAll(b.getInstructions());
+        if (b.last() instanceof JumpInst)
+          worklist.push(graph.blockOf(b.last().getNext(1)));
+        Instruction next = fallThrough(b.last());
+        b = next == null ? null : graph.blockOf(next);
+      }
+    }
+
+    // Labels are needed for jump targets, and where the block before does not fall through
+    for (int k = 0; k < blocks.size(); k++) {
+      Instruction last = blocks.get(k).last();
+      if (last instanceof JumpInst)
+        needsLabel[graph.blockOf(last.getNext(1)).getIndex()] = true;
+      Instruction next = fallThrough(last);
+      if (next != null && (k + 1 == blocks.size() || next != blocks.get(k + 1).first()))
+        needsLabel[graph.blockOf(next).getIndex()] = true;
+    }
+  }
+
+  /**
+   * Returns the successor on the fall through (or false) edge of {@code i}, or null if there is none.
+   */
+  static Instruction fallThrough(Instruction i) {
+    return i instanceof ReturnInst ? null : i.getNext(0);
+  }
+
+  ControlFlowGraph getGraph() {
+    return graph;
+  }
+
+  /**
+   * Returns the blocks in emission order.
+   */
+  List<BasicBlock> getBlocks() {
+    return blocks;
+  }
+
+  /**
+   * Returns all instructions in emission order.
+   */
+  List<Instruction> getInstructions() {
+    return order;
+  }
+
+  boolean needsLabel(BasicBlock b) {
+    return needsLabel[b.getIndex()];
+  }
+}
@@ -6,8 +6,13 @@ import crux.ir.*;
 import crux.ir.insts.*;
 import crux.printing.IRValueFormatter;
 
+import java.io.OutputStream;
+import java.nio.file.Path;
 import java.util.*;
 
+import static crux.backend.Opcode.*;
+import static crux.backend.Register.*;
+
 
 /**
  * Convert the CFG into Assembly Instructions
@@ -15,13 +20,78 @@ import java.util.*;
 public final class CodeGen extends InstVisitor {
   private final Program p;
   private final CodePrinter out;
-  private List<String> argReg = Arrays.asList("%rdi", "%rsi", "%rdx", "%rcx", "%r8", "%r9");
+  private final ElfWriter object;
+  //The assembly of the function that is generated, before the peephole optimizer
+  private final ArrayList<AsmInst> code = new ArrayList<>();
+  private Peephole peephole = new Peephole();
+  private List<Register> argReg = Arrays.asList(RDI, RSI, RDX, RCX, R8, R9);
   public CodeGen(Program p) {
-    this.p = p;
     // Do not change the file name that is outputted or it will
     // break the grader!
+    this(p, "a.s");
+  }
 
-    out = new CodePrinter("a.s");
+  /**
+   * Writes the assembly to {@code fileName}, e.g. when the driver has an output directory.
+   */
+  public CodeGen(Program p, String fileName) {
+    this(p, new CodePrinter(fileName));
+  }
+
+  public CodeGen(Program p, Path path) {
+    this(p, new CodePrinter(path));
+  }
+
+  /**
+   * Writes the assembly to {@code out}, which is closed by {@link #genCode()}.
+   */
+  public CodeGen(Program p, OutputStream out) {
+    this(p, new CodePrinter(out));
+  }
+
+  /**
+   * Writes a relocatable object instead of assembly, see {@link ElfWriter}.
+   */
+  public CodeGen(Program p, ElfWriter object) {
+    this.p = p;
+    this.out = null;
+    this.object = object;
+  }
+
+  private CodeGen(Program p, CodePrinter out) {
+    this.p = p;
+    this.out = out;
+    this.object = null;
+  }
+
+  /**
+   * Writes the assembly as it is generated, without the {@link Peephole} optimizer.
+   */
+  public void disablePeephole() {
+    peephole = null;
+  }
+
+  /**
+   * Returns the peephole optimizer with the counts of its rules, or null if it is disabled.
+   */
+  public Peephole getPeephole() {
+    return peephole;
+  }
+
+  /**
+   * Returns the number of lines of assembly written so far, or the number of instructions of an
+   * object.
+   */
+  public int getLineCount() {
+    return out != null ? out.getLineCount() : object.getInstructionCount();
+  }
+
+  /**
+   * Returns the number of bytes of assembly written so far, or the size of the object once it is
+   * written.
+   */
+  public long getByteCount() {
+    return out != null ? out.getByteCount() : object.getByteCount();
   }
 
   /**
@@ -40,302 +110,379 @@ public final class CodeGen extends InstVisitor {
       }
       String name = symbol.getName();
       long size = g.getNumElement().getValue() * 8;
-      out.printCode(".comm " + name + ", " + size + ", 8" );
+      write(AsmInst.directive(".comm", name, String.valueOf(size), "8"));
     }
     int count[] = new int[1];
     for(Iterator<Function> fun_it = p.getFunctions(); fun_it.hasNext();){
       Function f = fun_it.next();
       genCode(f, count);
-      varMap.clear();
-      varcount=0;
     }
-    out.close();
-  }
-  HashMap<Variable, Integer> varMap = new HashMap<Variable, Integer>();
-  int varcount = 0;
-  Integer getStackSlot(Variable v) {
-    if (!varMap.containsKey(v)) {
-      varcount++;
-      varMap.put(v, varcount);
+    if (out != null)
+      out.close();
+    else
+      object.close();
+  }
+
+  private void write(AsmInst inst) {
+    if (out != null)
+      out.print(inst);
+    else
+      object.add(inst);
+  }
+  //Register allocation and frame layout of the function that is generated
+  RegisterAllocator alloc;
+  int calleeSaveSlot;
+  int callerSaveSlot;
+
+  /**
+   * Returns the operand for the location of {@code v}, a register or a slot in the frame.
+   */
+  Operand loc(Variable v) {
+    Register reg = alloc.getRegister(v);
+    if (reg != null)
+      return reg;
+    return slot(alloc.getSpillSlot(v));
+  }
+
+  static Operand slot(int slot) {
+    return Operand.mem(-slot * 8, RBP);
+  }
+
+  Operand callerSaveSlot(Register register) {
+    return slot(callerSaveSlot + RegisterAllocator.CALLER_SAVED.indexOf(register));
+  }
+
+  void emit(Opcode op, Operand... operands) {
+    code.add(AsmInst.of(op, operands));
+  }
+
+  static boolean isReg(Operand operand) {
+    return operand instanceof Register;
+  }
+
+  /**
+   * Moves between registers and memory, going through {@code %r10} for memory to memory moves.
+   */
+  void move(Operand src, Operand dst) {
+    if (src.equals(dst))
+      return;
+    if (!isReg(src) && !isReg(dst)) {
+      emit(MOVQ, src, R10);
+      src = R10;
+    }
+    emit(MOVQ, src, dst);
+  }
+
+  /**
+   * Performs the moves {@code dsts[k] = srcs[k]} as if they happened at the same time. A cycle of
+   * moves is broken by copying one source to {@code %r11}.
+   */
+  void parallelMove(List<Operand> srcs, List<Operand> dsts) {
+    var src = new ArrayList<Operand>();
+    var dst = new ArrayList<Operand>();
+    for (int k = 0; k < srcs.size(); k++) {
+      if (!srcs.get(k).equals(dsts.get(k))) {
+        src.add(srcs.get(k));
+        dst.add(dsts.get(k));
+      }
     }
-    return varMap.get(v);
-  }
-
-  HashMap<Instruction, String> InstMap =new HashMap<Instruction, String>();
-  ArrayList<Instruction> inst = new ArrayList<>();
-
-  private void visitBody(Instruction i){
-    //Keep track of instructions to visit in a stack (like a DFS)
-    //Visit current instruction on stack, then push the next instructions onto stack
-    while(i!=null){
-        //if it has label and is visited, jmp to its label instead.
-      if(InstMap.containsKey(i)){
-          if(inst.contains(i)) {
-              out.printCode("jmp " + InstMap.get(i));
-              return;
-          }else{
-              //if not visited but has label, print label
-              out.printLabel(InstMap.get(i)+":");
-              i.accept(this);
-              inst.add(i);
-          }
-      }else {
-          i.accept(this);
+    while (!dst.isEmpty()) {
+      int ready = -1;
+      for (int k = 0; k < dst.size() && ready < 0; k++) {
+        if (!src.contains(dst.get(k)))
+          ready = k;
       }
-      Instruction in= i.getNext(0);
-      if(in==null){
+      if (ready >= 0) {
+        move(src.remove(ready), dst.remove(ready));
+      } else {
+        Operand blocked = dst.get(0);
+        emit(MOVQ, blocked, R11);
+        for (int k = 0; k < src.size(); k++) {
+          if (src.get(k).equals(blocked))
+            src.set(k, R11);
+        }
+      }
+    }
+  }
+
+  HashMap<Instruction, Operand.Symbol> InstMap =new HashMap<Instruction, Operand.Symbol>();
+
+  /**
+   * Emits the blocks of the function in layout order. A block that does not fall through into the
+   * next one ends with a jump, or with the epilogue at the end of a void function.
+   */
+  private void emitBlocks(BlockLayout layout) {
+    var blocks = layout.getBlocks();
+    for (int k = 0; k < blocks.size(); k++) {
+      BasicBlock b = blocks.get(k);
+      if (layout.needsLabel(b))
+        code.add(AsmInst.label(InstMap.get(b.first()).getName()));
+      for (Instruction i : b.getInstructions())
+        i.accept(this);
+      if (b.last() instanceof ReturnInst)
+        continue;
+      Instruction next = BlockLayout.fallThrough(b.last());
+      if (next == null) {
         //Print epilogue
-        out.printCode("leave");
-        out.printCode("ret");
-        return;
+        epilogue();
+      } else if (k + 1 == blocks.size() || blocks.get(k + 1).first() != next) {
+        emit(JMP, InstMap.get(next));
       }
-      visitBody(in);
-      i = i.getNext(1);
     }
   }
+
+  private void epilogue() {
+    var saved = alloc.getUsedCalleeSaved();
+    for (int k = 0; k < saved.size(); k++)
+      emit(MOVQ, slot(calleeSaveSlot + k), saved.get(k));
+    emit(LEAVE);
+    emit(RET);
+  }
+
   private void genCode(Function f, int count[]){
-    //Assign labels to jump targets f.assignLabels(count);
-    //then store it in a global variable
-    HashMap<Instruction, String> var = f.assignLabels(count);
-    InstMap.putAll(var);
-    out.printCode(".globl " + f.getName());
-    out.printLabel(f.getName() + ":");
+    //Lay out the blocks and assign labels to the ones that are jumped to
+    var layout = new BlockLayout(f);
+    InstMap.clear();
+    for (BasicBlock b : layout.getBlocks()) {
+      if (layout.needsLabel(b))
+        InstMap.put(b.first(), Operand.sym("L" + (++count[0])));
+    }
+    alloc = new RegisterAllocator(f, layout);
+    code.add(AsmInst.directive(".globl", f.getName()));
+    code.add(AsmInst.label(f.getName()));
+    //The frame holds the spilled variables, the callee saved registers that are used, and a slot
+    //for each caller saved register to keep it during calls
+    calleeSaveSlot = alloc.getNumSpillSlots() + 1;
+    callerSaveSlot = calleeSaveSlot + alloc.getUsedCalleeSaved().size();
+    int numSlots = callerSaveSlot - 1 + RegisterAllocator.CALLER_SAVED.size();
     //Print prologue such that stack is 16 byte aligned
-    int numSlots =  f.getNumTempVars()+f.getNumTempAddressVars();
     numSlots = (numSlots + 1) & ~1; //round up to nearest even number
-    out.printCode("enter $(8 * " + numSlots + "), $0");
-    //Move arguments from registers to local variable
+    emit(ENTER, Operand.imm(8 * numSlots), Operand.imm(0));
+    var saved = alloc.getUsedCalleeSaved();
+    for (int k = 0; k < saved.size(); k++)
+      emit(MOVQ, saved.get(k), slot(calleeSaveSlot + k));
+    //Move arguments from registers and the stack to their locations
     List<LocalVar> args= f.getArguments();
+    var srcs = new ArrayList<Operand>();
+    var dsts = new ArrayList<Operand>();
     for(int i=0;i<args.size();i++){
-      int offset;
-      int varSlots = getStackSlot(args.get(i));
       if(i<6){
-        offset = -varSlots * 8;
-        out.printCode("movq " + argReg.get(i)+ ", " + offset + "(%rbp)");
+        srcs.add(argReg.get(i));
       }else{
-        int argRegOffset = 16 + 8* (args.size()-i);
-        offset = -varSlots * 8;
-        out.printCode("movq "+ argRegOffset + "(%rbp), %r10");
-        out.printCode("movq %r10, " + offset + "(%rbp)");
+        //Arguments after the sixth are pushed by the caller, the seventh is the closest one
+        srcs.add(Operand.mem(16 + 8 * (i - 6), RBP));
       }
+      dsts.add(loc(args.get(i)));
     }
+    parallelMove(srcs, dsts);
     //Generate code for function body
-    Instruction i = f.getStart();
-    visitBody(i);
+    emitBlocks(layout);
+    boolean returnsValue = f.getFuncType().getRet().getClass() != VoidType.class;
+    for (AsmInst inst : peephole == null ? code : peephole.run(code, returnsValue))
+      write(inst);
+    code.clear();
   }
 
   public void visit(AddressAt i) {
-    out.printCode("/* AddressAt */");
+    code.add(AsmInst.comment("AddressAt"));
     LocalVar varOffset = i.getOffset();
     Symbol symbol = i.getBase();
     String name = symbol.getName();
-    out.printCode("movq "+ name+ "@GOTPCREL(%rip) , %r11");
+    emit(MOVQ, Operand.Memory.gotpcrel(name), R11);
     if(varOffset!=null){
-      int offsetCount = getStackSlot(varOffset);
-      int stackOffset = -offsetCount*8;
-      out.printCode("movq " + stackOffset + "(%rbp), %r10" );// Load offset
-      out.printCode("imulq $8, %r10");// Multiply offset by 8
-      out.printCode("addq %r10, %r11"); // Add array base address with offset
+      emit(MOVQ, loc(varOffset), R10);// Load offset
+      // Add array base address with offset * 8
+      emit(LEAQ, Operand.Memory.indexed(0, R11, R10, 8), R11);
     }
-    AddressVar dst = i.getDst();
-    int dstCount = getStackSlot(dst);
-    int dstOffset = -dstCount*8;
-    out.printCode("movq %r11, " + dstOffset + "(%rbp)");
+    move(R11, loc(i.getDst()));
   }
 
   public void visit(BinaryOperator i) {
-    out.printCode("/* BinaryOperator */");
-    Variable dst = i.getDst();
-    Variable lhs = i.getLeftOperand();
-    Variable rhs = i.getRightOperand();
-    int dstslot = getStackSlot(dst);
-    int lhsslot = getStackSlot(lhs);
-    int rhsslot = getStackSlot(rhs);
-    int dstoffset = -dstslot * 8;
-    int lhsoffset = -lhsslot * 8;
-    int rhsoffset = -rhsslot * 8;
+    code.add(AsmInst.comment("BinaryOperator"));
+    Operand dst = loc(i.getDst());
+    Operand lhs = loc(i.getLeftOperand());
+    Operand rhs = loc(i.getRightOperand());
 
+    if (i.getOperator() == BinaryOperator.Op.Div) {
+      emit(MOVQ, lhs, RAX);
+      emit(CQTO);
+      emit(IDIVQ, rhs);
+      move(RAX, dst);
+      return;
+    }
+    Opcode op = null;
     switch(i.getOperator()) {
       case Add:
-        out.printCode("movq "+lhsoffset+"(%rbp), %r10");
-        out.printCode("addq "+rhsoffset+"(%rbp), %r10");
-        out.printCode("movq %r10, "+ dstoffset+"(%rbp)");
+        op = ADDQ;
         break;
       case Sub:
-        out.printCode("movq "+lhsoffset+"(%rbp), %r10");
-        out.printCode("subq "+rhsoffset+"(%rbp), %r10");
-        out.printCode("movq %r10, "+ dstoffset+"(%rbp)");
+        op = SUBQ;
         break;
       case Mul:
-        out.printCode("movq "+lhsoffset+"(%rbp), %r10");
-        out.printCode("imulq "+rhsoffset+"(%rbp), %r10");
-        out.printCode("movq %r10, "+ dstoffset+"(%rbp)");
-        break;
-      case Div:
-        out.printCode("movq "+lhsoffset+"(%rbp), %rax");
-        out.printCode("cqto");
-        out.printCode("idivq " + rhsoffset + "(%rbp)");
-        out.printCode("movq %rax, "+ dstoffset+"(%rbp)");
+        op = IMULQ;
         break;
     }
+    //Compute in the destination register unless it is also the right operand
+    Operand acc = isReg(dst) && !dst.equals(rhs) ? dst : R10;
+    move(lhs, acc);
+    emit(op, rhs, acc);
+    move(acc, dst);
   }
 
   public void visit(CompareInst i) {
-    out.printCode("/* CompareInst */");
-    Variable dst = i.getDst();
-    Variable lhs = i.getLeftOperand();
-    Variable rhs = i.getRightOperand();
-    int dstslot = getStackSlot(dst);
-    int lhsslot = getStackSlot(lhs);
-    int rhsslot = getStackSlot(rhs);
-    int dstoffset = -dstslot * 8;
-    int lhsoffset = -lhsslot * 8;
-    int rhsoffset = -rhsslot * 8;
-    out.printCode("movq $0, %rax");//false
-    out.printCode("movq $1, %r10");//true
-    out.printCode("movq "+lhsoffset+"(%rbp), %r11");
-    out.printCode("cmp "+rhsoffset+"(%rbp), %r11"); //lfs-rhs
+    code.add(AsmInst.comment("CompareInst"));
+    Operand dst = loc(i.getDst());
+    Operand lhs = loc(i.getLeftOperand());
+    Operand rhs = loc(i.getRightOperand());
+    if (!isReg(lhs)) {
+      emit(MOVQ, lhs, R11);
+      lhs = R11;
+    }
+    emit(CMPQ, rhs, lhs); //lhs-rhs
+    Opcode set = null;
     switch(i.getPredicate()){
       case GE:
-        out.printCode("cmovge %r10, %rax");
+        set = SETGE;
         break;
       case GT:
-        out.printCode("cmovg %r10, %rax");
+        set = SETG;
         break;
       case LE:
-        out.printCode("cmovle %r10, %rax");
+        set = SETLE;
         break;
       case LT:
-        out.printCode("cmovl %r10, %rax");
+        set = SETL;
         break;
       case NE:
-        out.printCode("cmovne %r10, %rax");
+        set = SETNE;
         break;
       case EQ:
-        out.printCode("cmove %r10, %rax");
+        set = SETE;
         break;
     }
-    out.printCode("movq %rax, "+ dstoffset+"(%rbp)");
+    emit(set, AL);
+    emit(MOVZBQ, AL, RAX);
+    move(RAX, dst);
   }
 
   public void visit(CopyInst i) {
-    out.printCode("/* CopyInst */");
-    Variable dst = i.getDstVar();
+    code.add(AsmInst.comment("CopyInst"));
+    Operand dst = loc(i.getDstVar());
+    long value;
     if(i.getSrcValue().getClass() == IntegerConstant.class){
-      IntegerConstant scr = (IntegerConstant)i.getSrcValue();
-      out.printCode("movq $" + scr.getValue() + ", %r10" );
+      value = ((IntegerConstant)i.getSrcValue()).getValue();
     }else if(i.getSrcValue().getClass() == BooleanConstant.class){
-      BooleanConstant scr = (BooleanConstant)i.getSrcValue();
-      int bool=0;
-      if(scr.getValue()){
-        bool =1;
-      }
-      out.printCode("movq $" + bool + ", %r10" );
+      value = ((BooleanConstant)i.getSrcValue()).getValue() ? 1 : 0;
     }else{
-      Variable src = (Variable)i.getSrcValue();
-      int srcslot = getStackSlot(src);
-      int srcoffset = -srcslot * 8;
-      out.printCode("movq " + srcoffset + "(%rbp)" + ", %r10" );
+      move(loc((Variable)i.getSrcValue()), dst);
+      return;
+    }
+    //Only 32 bit immediates can be stored to memory directly
+    if (isReg(dst) || value == (int) value) {
+      emit(MOVQ, Operand.imm(value), dst);
+    } else {
+      emit(MOVQ, Operand.imm(value), R10);
+      emit(MOVQ, R10, dst);
     }
-    int dstslot = getStackSlot(dst);
-    int dstoffset = -dstslot * 8;
-    out.printCode("movq %r10, "+ dstoffset+"(%rbp)");
   }
 
   public void visit(JumpInst i) {
-    out.printCode("/* JumpInst */");
-    LocalVar pred = i.getPredicate();
-    int predslot = getStackSlot(pred);
-    int predoffset = -predslot * 8;
-    out.printCode("movq " + predoffset + "(%rbp), " + "%r10");
-    out.printCode("cmp $1, %r10");
-    String trueLabel = InstMap.get(i.getNext(1));
-    out.printCode("je " + trueLabel);
+    code.add(AsmInst.comment("JumpInst"));
+    emit(CMPQ, Operand.imm(1), loc(i.getPredicate()));
+    Operand trueLabel = InstMap.get(i.getNext(1));
+    emit(JE, trueLabel);
   }
 
   public void visit(LoadInst i) {
-    out.printCode("/* LoadInst */");
-    LocalVar dst  = i.getDst();
-    AddressVar scr = i.getSrcAddress();
-    int scrslot = getStackSlot(scr);
-    int scroffset = -scrslot * 8;
-    int dstslot = getStackSlot(dst);
-    int dstoffset = -dstslot * 8;
-    out.printCode("movq " + scroffset +"(%rbp), %r10");
-    out.printCode("movq 0(%r10), %r11");
-    out.printCode("movq %r11, " + dstoffset + "(%rbp)");
+    code.add(AsmInst.comment("LoadInst"));
+    Operand src = loc(i.getSrcAddress());
+    Operand dst = loc(i.getDst());
+    if (!isReg(src)) {
+      emit(MOVQ, src, R10);
+      src = R10;
+    }
+    if (isReg(dst)) {
+      emit(MOVQ, Operand.mem(0, (Register) src), dst);
+    } else {
+      emit(MOVQ, Operand.mem(0, (Register) src), R11);
+      emit(MOVQ, R11, dst);
+    }
   }
 
   public void visit(NopInst i) {
-    out.printCode("/* Nop */");
+    code.add(AsmInst.comment("Nop"));
   }
 
   public void visit(StoreInst i) {
-    out.printCode("/* StoreInst */");
-    LocalVar scr  = i.getSrcValue();
-    AddressVar dst = i.getDestAddress();
-    int scrslot = getStackSlot(scr);
-    int scroffset = -scrslot * 8;
-    int dstslot = getStackSlot(dst);
-    int dstoffset = -dstslot * 8;
-    out.printCode("movq " + scroffset +"(%rbp), %r10");
-    out.printCode("movq " + dstoffset + "(%rbp), %r11");
-    out.printCode("movq %r10, 0(%r11)");
+    code.add(AsmInst.comment("StoreInst"));
+    Operand src = loc(i.getSrcValue());
+    Operand dst = loc(i.getDestAddress());
+    if (!isReg(src)) {
+      emit(MOVQ, src, R10);
+      src = R10;
+    }
+    if (!isReg(dst)) {
+      emit(MOVQ, dst, R11);
+      dst = R11;
+    }
+    emit(MOVQ, src, Operand.mem(0, (Register) dst));
   }
 
   public void visit(ReturnInst i) {
-    out.printCode("/* ReturnInst */");
+    code.add(AsmInst.comment("ReturnInst"));
     LocalVar returnValue = i.getReturnValue();
-    int retslot = getStackSlot(returnValue);
-    int retoffset = -retslot * 8;
     //we need to make sure, that the value we want to return is in register %rax
     // and then return from the function
-    out.printCode("movq " + retoffset + "(%rbp), %rax");
-    out.printCode("leave");
-    out.printCode("ret");
+    if (returnValue != null)
+      move(loc(returnValue), RAX);
+    epilogue();
   }
 
   public void visit(CallInst i) {
-    out.printCode("/* CallInst */");
+    code.add(AsmInst.comment("CallInst"));
+    //Keep the caller saved registers that are still needed after the call
+    List<Register> saved = alloc.getSavedAround(i);
+    for (Register r : saved)
+      emit(MOVQ, r, callerSaveSlot(r));
     //movq all of the arguments to their correct locations (see Slide 13).
     List<LocalVar> params =  i.getParams();
-    for (int j=0; j< params.size();j++){
-      int slot = getStackSlot(params.get(j));
-      int offset = -slot * 8;
-      if(j<6){
-        out.printCode("movq " + offset+ "(%rbp), " + argReg.get(j));
-      }else{
-	int argRegOffset = 16 + 8* (j-6);
-  	out.printCode("movq "+ offset+ "(%rbp), %r10");
-        out.printCode("movq %r10, " + argRegOffset + "(%rbp)"); 
-      }
+    //Arguments after the sixth are pushed in reverse order, keeping the stack 16 byte aligned
+    int stackArgs = Math.max(0, params.size() - 6);
+    int padding = stackArgs % 2;
+    if (padding != 0)
+      emit(SUBQ, Operand.imm(8), RSP);
+    for (int j = params.size() - 1; j >= 6; j--)
+      emit(PUSHQ, loc(params.get(j)));
+    var srcs = new ArrayList<Operand>();
+    var dsts = new ArrayList<Operand>();
+    for (int j = 0; j < Math.min(6, params.size()); j++) {
+      srcs.add(loc(params.get(j)));
+      dsts.add(argReg.get(j));
     }
+    parallelMove(srcs, dsts);
     //call func
     //func is the label of the function.
     Symbol symbol = i.getCallee();
     String func = symbol.getName();
-    out.printCode("call "+ func);
+    emit(CALL, Operand.sym(func));
+    if (stackArgs + padding > 0)
+      emit(ADDQ, Operand.imm(8 * (stackArgs + padding)), RSP);
     //If the function is not void, the return value is in %rax and you should movq it into the stack.
     FuncType funcType = (FuncType) symbol.getType();
     if(funcType.getRet().getClass() != VoidType.class){
-      LocalVar dst = i.getDst();
-      int slot = getStackSlot(dst);
-      int offset = -slot * 8;
-      out.printCode("movq %rax, "+offset+"(%rbp)");
+      move(RAX, loc(i.getDst()));
     }
+    for (Register r : saved)
+      emit(MOVQ, callerSaveSlot(r), r);
   }
 
   public void visit(UnaryNotInst i) {
-    out.printCode("/* UnaryNotInst */");
-    LocalVar inner = i.getInner();
-    LocalVar dst = i.getDst();
-    int innerslot = getStackSlot(inner);
-    int inneroffset = -innerslot * 8;
-    int dstslot = getStackSlot(dst);
-    int dstoffset = -dstslot * 8;
-    out.printCode("movq $1, %r11");
-    out.printCode("movq " + inneroffset+ "(%rbp), " + "%r10");
-    out.printCode("subq %r10, %r11");
-    out.printCode("movq %r11, " + dstoffset + "(%rbp)");
+    code.add(AsmInst.comment("UnaryNotInst"));
+    Operand inner = loc(i.getInner());
+    Operand dst = loc(i.getDst());
+    Operand acc = isReg(dst) ? dst : R10;
+    move(inner, acc);
+    emit(XORQ, Operand.imm(1), acc);
+    move(acc, dst);
   }
 }
@@ -1,29 +1,171 @@
 package crux.backend;
 
-import java.util.*;
 import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 
-public class CodePrinter {
-  PrintStream out;
+/**
+ * Writes assembly into a byte buffer that is flushed to an output stream when it is full, so
+ * printing an instruction does not build any strings. The output is a file, or any stream, e.g. a
+ * {@link ByteArrayOutputStream} to keep the assembly in memory. The stream is closed with the
+ * printer.
+ */
+public class CodePrinter implements Closeable {
+  private static final int BUFFER_SIZE = 1 << 16;
+  private final OutputStream out;
+  private final byte[] buffer = new byte[BUFFER_SIZE];
+  private int position = 0;
+  private long bytes = 0;
+  private int lines = 0;
 
   public CodePrinter(String name) {
+    this(Paths.get(name));
+  }
+
+  public CodePrinter(Path path) {
+    this(open(path));
+  }
+
+  public CodePrinter(OutputStream out) {
+    this.out = out;
+  }
+
+  private static OutputStream open(Path path) {
     try {
-      out = new PrintStream(name);
-    } catch (Exception e) {
-      e.printStackTrace();
-      System.exit(-1);
+      return Files.newOutputStream(path);
+    } catch (IOException e) {
+      throw new UncheckedIOException(String.format("cannot write file '%s'", path), e);
     }
   }
 
+  static byte[] ascii(String s) {
+    return s.getBytes(StandardCharsets.US_ASCII);
+  }
+
   public void printLabel(String s) {
-    out.println(s);
+    write(s);
+    newLine();
+  }
+
+  public void print(AsmInst inst) {
+    inst.print(this);
+    newLine();
   }
 
   public void printCode(String s) {
-    out.println("    " + s);
+    write("    ");
+    write(s);
+    newLine();
+  }
+
+  private void newLine() {
+    write('\n');
+    lines++;
+  }
+
+  void write(char c) {
+    if (position == buffer.length)
+      flushBuffer();
+    buffer[position++] = (byte) c;
+  }
+
+  void write(byte[] b) {
+    if (b.length > buffer.length - position) {
+      flushBuffer();
+      if (b.length > buffer.length) {
+        writeOut(b, b.length);
+        return;
+      }
+    }
+    System.arraycopy(b, 0, buffer, position, b.length);
+    position += b.length;
   }
 
+  /**
+   * Writes the characters of {@code s}, which have to be ASCII.
+   */
+  void write(String s) {
+    int n = s.length();
+    if (n > buffer.length - position) {
+      write(ascii(s));
+      return;
+    }
+    for (int k = 0; k < n; k++)
+      buffer[position++] = (byte) s.charAt(k);
+  }
+
+  /**
+   * Writes the decimal digits of {@code value}.
+   */
+  void write(long value) {
+    if (value == Long.MIN_VALUE) {
+      write(Long.toString(value));
+      return;
+    }
+    if (buffer.length - position < 20)
+      flushBuffer();
+    if (value < 0) {
+      buffer[position++] = '-';
+      value = -value;
+    }
+    int end = position + digits(value);
+    for (int k = end - 1; k >= position; k--) {
+      buffer[k] = (byte) ('0' + value % 10);
+      value /= 10;
+    }
+    position = end;
+  }
+
+  private static int digits(long value) {
+    int n = 1;
+    for (long limit = 10; n < 19 && value >= limit; limit *= 10)
+      n++;
+    return n;
+  }
+
+  private void flushBuffer() {
+    writeOut(buffer, position);
+    position = 0;
+  }
+
+  private void writeOut(byte[] b, int length) {
+    try {
+      out.write(b, 0, length);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    bytes += length;
+  }
+
+  public int getLineCount() {
+    return lines;
+  }
+
+  /**
+   * Returns the number of bytes of assembly written so far.
+   */
+  public long getByteCount() {
+    return bytes + position;
+  }
+
+  public void flush() {
+    flushBuffer();
+    try {
+      out.flush();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  @Override
   public void close() {
-    out.close();
+    flushBuffer();
+    try {
+      out.close();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
   }
 }
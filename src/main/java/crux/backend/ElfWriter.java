@@ -0,0 +1,300 @@
+package crux.backend;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * Writes the assembly of a program as an ELF64 relocatable object for x86-64 Linux, so it can be
+ * linked with {@code runtime.c} without running an assembler:
+ * <pre>
+ *   gcc a.o src/runtime/runtime.c
+ * </pre>
+ * The instructions are encoded by the {@link Assembler} into {@code .text}, and the {@code .comm}
+ * globals get space in {@code .bss}. Functions and globals are global symbols; every other name
+ * that is called is an undefined symbol for the linker, e.g. {@code printInt}.
+ */
+public final class ElfWriter implements Closeable {
+  private static final int SHT_PROGBITS = 1;
+  private static final int SHT_SYMTAB = 2;
+  private static final int SHT_STRTAB = 3;
+  private static final int SHT_RELA = 4;
+  private static final int SHT_NOBITS = 8;
+  private static final int SHF_WRITE = 1;
+  private static final int SHF_ALLOC = 2;
+  private static final int SHF_EXECINSTR = 4;
+  private static final int SHF_INFO_LINK = 0x40;
+  private static final int STB_GLOBAL = 1;
+  private static final int STT_OBJECT = 1;
+  private static final int STT_FUNC = 2;
+  //Section numbers, in the order in which the section headers are written
+  private static final int TEXT = 1;
+  private static final int BSS = 2;
+  private static final int SYMTAB = 4;
+  private static final int STRTAB = 5;
+  private static final int SHSTRTAB = 7;
+  private static final List<String> SECTIONS = List.of("", ".text", ".bss", ".rela.text",
+      ".symtab", ".strtab", ".note.GNU-stack", ".shstrtab");
+
+  private static final class Global {
+    final String name;
+    final long offset;
+    final long size;
+
+    Global(String name, long offset, long size) {
+      this.name = name;
+      this.offset = offset;
+      this.size = size;
+    }
+  }
+
+  private final OutputStream out;
+  private final Assembler assembler = new Assembler();
+  private final ArrayList<Global> globals = new ArrayList<>();
+  private long bssSize = 0;
+  private long bssAlign = 1;
+  private long bytes = 0;
+
+  public ElfWriter(Path path) {
+    this(open(path));
+  }
+
+  /**
+   * Writes the object to {@code out} when it is closed.
+   */
+  public ElfWriter(OutputStream out) {
+    this.out = out;
+  }
+
+  private static OutputStream open(Path path) {
+    try {
+      return Files.newOutputStream(path);
+    } catch (IOException e) {
+      throw new UncheckedIOException(String.format("cannot write file '%s'", path), e);
+    }
+  }
+
+  /**
+   * Adds a line of assembly. The {@code .comm} directives reserve space in {@code .bss}.
+   */
+  public void add(AsmInst inst) {
+    if (inst.getKind() == AsmInst.Kind.DIRECTIVE && inst.getText().equals(".comm")) {
+      var args = inst.getArguments();
+      long size = Long.parseLong(args[1]);
+      long align = args.length > 2 ? Long.parseLong(args[2]) : 1;
+      bssSize = (bssSize + align - 1) / align * align;
+      globals.add(new Global(args[0], bssSize, size));
+      bssSize += size;
+      bssAlign = Math.max(bssAlign, align);
+      return;
+    }
+    assembler.add(inst);
+  }
+
+  public int getInstructionCount() {
+    return assembler.getInstructionCount();
+  }
+
+  /**
+   * Returns the size of the object file, once it is written.
+   */
+  public long getByteCount() {
+    return bytes;
+  }
+
+  @Override
+  public void close() {
+    assembler.finish();
+    try (out) {
+      byte[] object = build();
+      out.write(object);
+      bytes = object.length;
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private byte[] build() {
+    var strtab = new StringTable();
+    var symtab = new Section();
+    var symbols = new HashMap<String, Integer>();
+    //The null symbol, all others are global
+    symtab.putBytes(new byte[24]);
+    for (var f : assembler.getFunctions()) {
+      symbols.put(f.name, symbols.size() + 1);
+      symbol(symtab, strtab.add(f.name), STT_FUNC, TEXT, f.start, f.end - f.start);
+    }
+    for (var g : globals) {
+      symbols.put(g.name, symbols.size() + 1);
+      symbol(symtab, strtab.add(g.name), STT_OBJECT, BSS, g.offset, g.size);
+    }
+    var rela = new Section();
+    for (var r : assembler.getRelocations()) {
+      Integer index = symbols.get(r.symbol);
+      if (index == null) {
+        index = symbols.size() + 1;
+        symbols.put(r.symbol, index);
+        symbol(symtab, strtab.add(r.symbol), 0, 0, 0, 0);
+      }
+      rela.putLong(r.offset);
+      rela.putLong((long) index << 32 | r.type);
+      rela.putLong(r.addend);
+    }
+
+    var shstrtab = new StringTable();
+    for (String name : SECTIONS)
+      shstrtab.add(name);
+    byte[] text = assembler.getCode();
+    //.bss has no contents in the file, and .note.GNU-stack is empty
+    var contents = new byte[][] {null, text, null, rela.toByteArray(), symtab.toByteArray(),
+        strtab.toByteArray(), new byte[0], shstrtab.toByteArray()};
+    var file = new Section();
+    file.putBytes(new byte[64]);
+    var offsets = new long[contents.length];
+    for (int k = 1; k < contents.length; k++) {
+      if (contents[k] == null)
+        continue;
+      file.align(16);
+      offsets[k] = file.size();
+      file.putBytes(contents[k]);
+    }
+    file.align(8);
+    long sectionHeaders = file.size();
+    file.putBytes(new byte[64]);
+    sectionHeader(file, shstrtab.offset(".text"), SHT_PROGBITS, SHF_ALLOC | SHF_EXECINSTR,
+        offsets[1], text.length, 0, 0, 16, 0);
+    sectionHeader(file, shstrtab.offset(".bss"), SHT_NOBITS, SHF_ALLOC | SHF_WRITE,
+        offsets[1] + text.length, bssSize, 0, 0, bssAlign, 0);
+    sectionHeader(file, shstrtab.offset(".rela.text"), SHT_RELA, SHF_INFO_LINK, offsets[3],
+        contents[3].length, SYMTAB, TEXT, 8, 24);
+    sectionHeader(file, shstrtab.offset(".symtab"), SHT_SYMTAB, 0, offsets[4], contents[4].length,
+        STRTAB, 1, 8, 24);
+    sectionHeader(file, shstrtab.offset(".strtab"), SHT_STRTAB, 0, offsets[5],
+        contents[5].length, 0, 0, 1, 0);
+    //An empty note that tells the linker that the stack does not have to be executable
+    sectionHeader(file, shstrtab.offset(".note.GNU-stack"), SHT_PROGBITS, 0, offsets[6], 0, 0, 0,
+        1, 0);
+    sectionHeader(file, shstrtab.offset(".shstrtab"), SHT_STRTAB, 0, offsets[7],
+        contents[7].length, 0, 0, 1, 0);
+
+    var header = ByteBuffer.wrap(file.buffer).order(ByteOrder.LITTLE_ENDIAN);
+    header.put(new byte[] {0x7f, 'E', 'L', 'F', 2, 1, 1, 0});
+    header.position(16);
+    header.putShort((short) 1); //ET_REL
+    header.putShort((short) 62); //EM_X86_64
+    header.putInt(1);
+    header.putLong(0); //entry
+    header.putLong(0); //program headers
+    header.putLong(sectionHeaders);
+    header.putInt(0);
+    header.putShort((short) 64);
+    header.putShort((short) 0);
+    header.putShort((short) 0);
+    header.putShort((short) 64);
+    header.putShort((short) SECTIONS.size());
+    header.putShort((short) SHSTRTAB);
+    return file.toByteArray();
+  }
+
+  private static void symbol(Section symtab, int name, int type, int section, long value,
+      long size) {
+    symtab.putInt(name);
+    symtab.putByte(STB_GLOBAL << 4 | type);
+    symtab.putByte(0);
+    symtab.putShort(section);
+    symtab.putLong(value);
+    symtab.putLong(size);
+  }
+
+  private static void sectionHeader(Section file, int name, int type, long flags, long offset,
+      long size, int link, int info, long align, long entrySize) {
+    file.putInt(name);
+    file.putInt(type);
+    file.putLong(flags);
+    file.putLong(0);
+    file.putLong(offset);
+    file.putLong(size);
+    file.putInt(link);
+    file.putInt(info);
+    file.putLong(align);
+    file.putLong(entrySize);
+  }
+
+  /**
+   * A growing little endian byte buffer.
+   */
+  private static class Section {
+    byte[] buffer = new byte[256];
+    int size = 0;
+
+    int size() {
+      return size;
+    }
+
+    void putByte(int b) {
+      if (size == buffer.length)
+        buffer = Arrays.copyOf(buffer, 2 * buffer.length);
+      buffer[size++] = (byte) b;
+    }
+
+    void putShort(int v) {
+      for (int k = 0; k < 2; k++)
+        putByte(v >>> (8 * k));
+    }
+
+    void putInt(int v) {
+      for (int k = 0; k < 4; k++)
+        putByte(v >>> (8 * k));
+    }
+
+    void putLong(long v) {
+      for (int k = 0; k < 8; k++)
+        putByte((int) (v >>> (8 * k)));
+    }
+
+    void putBytes(byte[] b) {
+      if (size + b.length > buffer.length)
+        buffer = Arrays.copyOf(buffer, Math.max(2 * buffer.length, size + b.length));
+      System.arraycopy(b, 0, buffer, size, b.length);
+      size += b.length;
+    }
+
+    void align(int alignment) {
+      while (size % alignment != 0)
+        putByte(0);
+    }
+
+    byte[] toByteArray() {
+      return Arrays.copyOf(buffer, size);
+    }
+  }
+
+  /**
+   * The names of a string table, which starts with an empty name.
+   */
+  private static final class StringTable extends Section {
+    private final HashMap<String, Integer> offsets = new HashMap<>();
+
+    StringTable() {
+      putByte(0);
+      offsets.put("", 0);
+    }
+
+    int add(String name) {
+      return offsets.computeIfAbsent(name, n -> {
+        int offset = size();
+        putBytes(n.getBytes(StandardCharsets.UTF_8));
+        putByte(0);
+        return offset;
+      });
+    }
+
+    int offset(String name) {
+      return offsets.get(name);
+    }
+  }
+}
@@ -0,0 +1,275 @@
+package crux.backend;
+
+import crux.ir.BasicBlock;
+import crux.ir.Function;
+import crux.ir.Instruction;
+import crux.ir.LocalVar;
+import crux.ir.Value;
+import crux.ir.Variable;
+import crux.ir.insts.CallInst;
+
+import java.util.*;
+
+/**
+ * Computes which variables are live at the start and the end of every block of a {@link
+ * BlockLayout}, and which variables are live across each call. The instructions are numbered in
+ * layout order, which gives every instruction a position for the live intervals of the {@link
+ * RegisterAllocator}.
+ * <p>
+ * Only a variable that is used in a block before it is assigned there can be live across the
+ * boundary of a block, most temporaries never are. The live sets hold just those variables as
+ * sorted arrays, so their size follows the number of live variables instead of the number of
+ * variables times the number of blocks.
+ */
+final class Liveness {
+  private static final int[] EMPTY = new int[0];
+  private final BlockLayout layout;
+  private final HashMap<Instruction, Integer> position = new HashMap<>();
+  private final ArrayList<Variable> variables = new ArrayList<>();
+  private final HashMap<Variable, Integer> variableIndex = new HashMap<>();
+  private final int[][] liveIn;
+  private final int[][] liveOut;
+  private final HashMap<CallInst, int[]> liveAcross = new HashMap<>();
+
+  Liveness(Function f, BlockLayout layout) {
+    this.layout = layout;
+    liveIn = new int[layout.getGraph().numBlocks()][];
+    liveOut = new int[liveIn.length][];
+    var order = layout.getInstructions();
+    for (int p = 0; p < order.size(); p++)
+      position.put(order.get(p), p);
+    for (LocalVar arg : f.getArguments())
+      index(arg);
+    for (Instruction i : order) {
+      for (Value v : i.getOperands()) {
+        if (v instanceof Variable)
+          index((Variable) v);
+      }
+      if (i.getDestination() != null)
+        index(i.getDestination());
+    }
+    solve();
+    findLiveAcrossCalls();
+  }
+
+  private void index(Variable v) {
+    if (!variableIndex.containsKey(v)) {
+      variableIndex.put(v, variables.size());
+      variables.add(v);
+    }
+  }
+
+  private void solve() {
+    var blocks = layout.getBlocks();
+    var uses = new int[liveIn.length][];
+    var defs = new int[liveIn.length][];
+    var global = new boolean[variables.size()];
+    var set = new IntSet(variables.size());
+    var defined = new IntSet(variables.size());
+    for (var b : blocks) {
+      set.clear();
+      defined.clear();
+      for (Instruction i : b.getInstructions()) {
+        for (Value v : i.getOperands()) {
+          if (v instanceof Variable && !defined.contains(variableIndex.get(v)))
+            set.add(variableIndex.get(v));
+        }
+        if (i.getDestination() != null)
+          defined.add(variableIndex.get(i.getDestination()));
+      }
+      uses[b.getIndex()] = set.toSortedArray();
+      for (int k : uses[b.getIndex()])
+        global[k] = true;
+      liveIn[b.getIndex()] = EMPTY;
+      liveOut[b.getIndex()] = EMPTY;
+    }
+    // Only the assignments of variables that can be live at a block boundary matter
+    for (var b : blocks) {
+      set.clear();
+      for (Instruction i : b.getInstructions()) {
+        if (i.getDestination() != null && global[variableIndex.get(i.getDestination())])
+          set.add(variableIndex.get(i.getDestination()));
+      }
+      defs[b.getIndex()] = set.toSortedArray();
+    }
+
+    // Most edges go forward in the layout, so the blocks start on the worklist in reverse
+    var worklist = new ArrayDeque<BasicBlock>();
+    var queued = new boolean[liveIn.length];
+    for (int k = blocks.size() - 1; k >= 0; k--) {
+      worklist.add(blocks.get(k));
+      queued[blocks.get(k).getIndex()] = true;
+    }
+    while (!worklist.isEmpty()) {
+      var b = worklist.poll();
+      queued[b.getIndex()] = false;
+      int[] out = EMPTY;
+      for (BasicBlock s : b.getSuccessors()) {
+        if (liveIn[s.getIndex()] != null)
+          out = union(out, liveIn[s.getIndex()]);
+      }
+      liveOut[b.getIndex()] = out;
+      int[] in = union(uses[b.getIndex()], difference(out, defs[b.getIndex()]));
+      if (Arrays.equals(in, liveIn[b.getIndex()]))
+        continue;
+      liveIn[b.getIndex()] = in;
+      for (BasicBlock p : b.getPredecessors()) {
+        if (liveIn[p.getIndex()] != null && !queued[p.getIndex()]) {
+          worklist.add(p);
+          queued[p.getIndex()] = true;
+        }
+      }
+    }
+  }
+
+  private static int[] union(int[] a, int[] b) {
+    if (a.length == 0)
+      return b;
+    if (b.length == 0)
+      return a;
+    var result = new int[a.length + b.length];
+    int i = 0;
+    int j = 0;
+    int n = 0;
+    while (i < a.length && j < b.length) {
+      if (a[i] < b[j])
+        result[n++] = a[i++];
+      else if (a[i] > b[j])
+        result[n++] = b[j++];
+      else {
+        result[n++] = a[i++];
+        j++;
+      }
+    }
+    while (i < a.length)
+      result[n++] = a[i++];
+    while (j < b.length)
+      result[n++] = b[j++];
+    return n == a.length ? a : n == b.length ? b : Arrays.copyOf(result, n);
+  }
+
+  private static int[] difference(int[] a, int[] b) {
+    if (a.length == 0 || b.length == 0)
+      return a;
+    var result = new int[a.length];
+    int j = 0;
+    int n = 0;
+    for (int k : a) {
+      while (j < b.length && b[j] < k)
+        j++;
+      if (j == b.length || b[j] != k)
+        result[n++] = k;
+    }
+    return n == a.length ? a : Arrays.copyOf(result, n);
+  }
+
+  private void findLiveAcrossCalls() {
+    var live = new IntSet(variables.size());
+    for (var b : layout.getBlocks()) {
+      live.clear();
+      for (int k : liveOut[b.getIndex()])
+        live.add(k);
+      for (int k = b.size() - 1; k >= 0; k--) {
+        Instruction i = b.get(k);
+        if (i.getDestination() != null)
+          live.remove(variableIndex.get(i.getDestination()));
+        if (i instanceof CallInst)
+          liveAcross.put((CallInst) i, live.toSortedArray());
+        for (Value v : i.getOperands()) {
+          if (v instanceof Variable)
+            live.add(variableIndex.get(v));
+        }
+      }
+    }
+  }
+
+  BlockLayout getLayout() {
+    return layout;
+  }
+
+  int getPosition(Instruction i) {
+    return position.get(i);
+  }
+
+  /**
+   * Returns all variables that appear in the function, arguments first.
+   */
+  List<Variable> getVariables() {
+    return variables;
+  }
+
+  int getVariableIndex(Variable v) {
+    return variableIndex.get(v);
+  }
+
+  /**
+   * Returns the indices of the variables that are live at the start of {@code b}, in increasing
+   * order.
+   */
+  int[] getLiveIn(BasicBlock b) {
+    return liveIn[b.getIndex()];
+  }
+
+  /**
+   * Returns the indices of the variables that are live at the end of {@code b}, in increasing
+   * order.
+   */
+  int[] getLiveOut(BasicBlock b) {
+    return liveOut[b.getIndex()];
+  }
+
+  /**
+   * Returns the indices of the variables that are live after {@code call} returns, except its own
+   * result.
+   */
+  int[] getLiveAcross(CallInst call) {
+    return liveAcross.get(call);
+  }
+
+  /**
+   * A set of the integers below a bound (Briggs and Torczon), which is cleared in constant time and
+   * iterated in the time of its size, so one set serves every block of a function.
+   */
+  private static final class IntSet {
+    private final int[] dense;
+    private final int[] sparse;
+    private int size = 0;
+
+    IntSet(int bound) {
+      dense = new int[bound];
+      sparse = new int[bound];
+    }
+
+    boolean contains(int k) {
+      int s = sparse[k];
+      return s < size && dense[s] == k;
+    }
+
+    void add(int k) {
+      if (!contains(k)) {
+        sparse[k] = size;
+        dense[size++] = k;
+      }
+    }
+
+    void remove(int k) {
+      if (contains(k)) {
+        int last = dense[--size];
+        dense[sparse[k]] = last;
+        sparse[last] = sparse[k];
+      }
+    }
+
+    void clear() {
+      size = 0;
+    }
+
+    int[] toSortedArray() {
+      if (size == 0)
+        return EMPTY;
+      int[] result = Arrays.copyOf(dense, size);
+      Arrays.sort(result);
+      return result;
+    }
+  }
+}
@@ -0,0 +1,44 @@
+package crux.backend;
+
+/**
+ * The instructions that the code generator emits.
+ */
+public enum Opcode {
+  MOVQ, MOVZBQ, LEAQ, ADDQ, SUBQ, IMULQ, IDIVQ, CQTO, CMPQ, XORQ, PUSHQ,
+  SETE, SETNE, SETL, SETLE, SETG, SETGE,
+  JE, JNE, JL, JLE, JG, JGE, JMP,
+  CALL, ENTER, LEAVE, RET;
+
+  private final String mnemonic = name().toLowerCase();
+  private final byte[] text = CodePrinter.ascii(mnemonic);
+
+  byte[] getText() {
+    return text;
+  }
+
+  public boolean isSet() {
+    return compareTo(SETE) >= 0 && compareTo(SETGE) <= 0;
+  }
+
+  public boolean isConditionalJump() {
+    return compareTo(JE) >= 0 && compareTo(JGE) <= 0;
+  }
+
+  public boolean isJump() {
+    return isConditionalJump() || this == JMP;
+  }
+
+  /**
+   * Returns the conditional jump on the condition of a {@code setcc}.
+   */
+  public Opcode toJump() {
+    if (!isSet())
+      throw new IllegalStateException(mnemonic + " has no condition");
+    return values()[JE.ordinal() + ordinal() - SETE.ordinal()];
+  }
+
+  @Override
+  public String toString() {
+    return mnemonic;
+  }
+}
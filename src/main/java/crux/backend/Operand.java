@@ -0,0 +1,212 @@
+package crux.backend;
+
+import java.util.Objects;
+
+/**
+ * An operand of an {@link AsmInst}: a {@link Register}, an immediate, a memory location or a
+ * symbol. Operands are values, two operands are equal if they print the same way.
+ */
+public interface Operand {
+  /**
+   * Writes the operand in AT&amp;T syntax.
+   */
+  void print(CodePrinter out);
+
+  static Immediate imm(long value) {
+    return Immediate.of(value);
+  }
+
+  static Memory mem(long displacement, Register base) {
+    return new Memory(null, displacement, base, null, 1);
+  }
+
+  static Symbol sym(String name) {
+    return new Symbol(name);
+  }
+
+  /**
+   * An integer constant, {@code $value}.
+   */
+  final class Immediate implements Operand {
+    private static final Immediate[] SMALL = new Immediate[64];
+    private final long value;
+
+    static {
+      for (int k = 0; k < SMALL.length; k++)
+        SMALL[k] = new Immediate(k);
+    }
+
+    private Immediate(long value) {
+      this.value = value;
+    }
+
+    public static Immediate of(long value) {
+      return value >= 0 && value < SMALL.length ? SMALL[(int) value] : new Immediate(value);
+    }
+
+    public long getValue() {
+      return value;
+    }
+
+    @Override
+    public void print(CodePrinter out) {
+      out.write('$');
+      out.write(value);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      return o instanceof Immediate && ((Immediate) o).value == value;
+    }
+
+    @Override
+    public int hashCode() {
+      return Long.hashCode(value);
+    }
+
+    @Override
+    public String toString() {
+      return "$" + value;
+    }
+  }
+
+  /**
+   * The memory at {@code displacement(base, index, scale)}. If it has a symbol, the address is
+   * the entry of the symbol in the global offset table, {@code symbol@GOTPCREL(%rip)}.
+   */
+  final class Memory implements Operand {
+    private static final byte[] GOTPCREL = CodePrinter.ascii("@GOTPCREL");
+    private final String symbol;
+    private final long displacement;
+    private final Register base;
+    private final Register index;
+    private final int scale;
+
+    private Memory(String symbol, long displacement, Register base, Register index, int scale) {
+      this.symbol = symbol;
+      this.displacement = displacement;
+      this.base = base;
+      this.index = index;
+      this.scale = scale;
+    }
+
+    public static Memory indexed(long displacement, Register base, Register index, int scale) {
+      return new Memory(null, displacement, base, index, scale);
+    }
+
+    public static Memory gotpcrel(String symbol) {
+      return new Memory(symbol, 0, Register.RIP, null, 1);
+    }
+
+    /**
+     * Returns the symbol of a {@code @GOTPCREL} address, or null.
+     */
+    public String getSymbol() {
+      return symbol;
+    }
+
+    public long getDisplacement() {
+      return displacement;
+    }
+
+    public Register getBase() {
+      return base;
+    }
+
+    /**
+     * Returns the index register, or null.
+     */
+    public Register getIndex() {
+      return index;
+    }
+
+    public int getScale() {
+      return scale;
+    }
+
+    /**
+     * Returns true if the address is computed from {@code r}.
+     */
+    public boolean uses(Register r) {
+      return base == r || index == r;
+    }
+
+    @Override
+    public void print(CodePrinter out) {
+      if (symbol != null) {
+        out.write(symbol);
+        out.write(GOTPCREL);
+      } else {
+        out.write(displacement);
+      }
+      out.write('(');
+      base.print(out);
+      if (index != null) {
+        out.write(',');
+        index.print(out);
+        out.write(',');
+        out.write(scale);
+      }
+      out.write(')');
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof Memory))
+        return false;
+      var m = (Memory) o;
+      return Objects.equals(symbol, m.symbol) && displacement == m.displacement && base == m.base
+          && index == m.index && scale == m.scale;
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(symbol, displacement, base, index, scale);
+    }
+
+    @Override
+    public String toString() {
+      var s = new StringBuilder();
+      s.append(symbol != null ? symbol + "@GOTPCREL" : Long.toString(displacement));
+      s.append('(').append(base);
+      if (index != null)
+        s.append(',').append(index).append(',').append(scale);
+      return s.append(')').toString();
+    }
+  }
+
+  /**
+   * A label or a function, the target of a jump or a call.
+   */
+  final class Symbol implements Operand {
+    private final String name;
+
+    private Symbol(String name) {
+      this.name = name;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    @Override
+    public void print(CodePrinter out) {
+      out.write(name);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      return o instanceof Symbol && ((Symbol) o).name.equals(name);
+    }
+
+    @Override
+    public int hashCode() {
+      return name.hashCode();
+    }
+
+    @Override
+    public String toString() {
+      return name;
+    }
+  }
+}
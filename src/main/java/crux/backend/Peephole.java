@@ -0,0 +1,434 @@
+package crux.backend;
+
+import java.io.PrintStream;
+import java.util.*;
+
+import static crux.backend.Opcode.*;
+import static crux.backend.Register.*;
+
+/**
+ * Rewrites the assembly of a function with a set of local rules, and counts how often each rule
+ * applied:
+ * <ul>
+ * <li>{@code self-move}: a move of a location to itself is removed.
+ * <li>{@code store-load}: a load of the location that the previous instruction stored a register
+ * to uses the register instead, or is removed if it loads into the same register.
+ * <li>{@code zero-xor}: {@code movq $0} into a register becomes {@code xorq}, unless the next
+ * instruction reads the flags.
+ * <li>{@code branch-fusion}: the {@code cmpq $1} and {@code je} on the boolean that a comparison
+ * just stored become a conditional jump on the flags of the comparison itself.
+ * <li>{@code dead-setup}: the {@code setcc}, {@code movzbq} and move that materialize the boolean
+ * of a fused comparison are removed if the register it is stored to is dead after the jump.
+ * <li>{@code jump-to-jump}: a jump to a label that is followed by a {@code jmp} goes to the target
+ * of that {@code jmp} instead.
+ * <li>{@code jump-to-next}: a jump to the label that directly follows it is removed.
+ * </ul>
+ * Comments are kept and are skipped when the rules look at neighboring instructions.
+ */
+public final class Peephole {
+  private static final List<Register> ARGUMENT_REGISTERS = List.of(RDI, RSI, RDX, RCX, R8, R9);
+  private static final List<Register> CALL_CLOBBERED =
+      List.of(RAX, RCX, RDX, RSI, RDI, R8, R9, R10, R11);
+  private static final List<Register> RETURN_LIVE = List.of(RBX, RBP, RSP, R12, R13, R14, R15);
+  private static final Operand.Immediate ONE = Operand.imm(1);
+
+  private final LinkedHashMap<String, Integer> hits = new LinkedHashMap<>();
+  private ArrayList<AsmInst> code;
+  private boolean returnsValue;
+  private final HashMap<String, Integer> labels = new HashMap<>();
+  //The setcc of the comparisons that were fused with a jump
+  private final ArrayList<AsmInst> fused = new ArrayList<>();
+
+  public Peephole() {
+    for (String rule : List.of("self-move", "store-load", "zero-xor", "branch-fusion",
+        "dead-setup", "jump-to-jump", "jump-to-next"))
+      hits.put(rule, 0);
+  }
+
+  /**
+   * Returns the number of times that each rule applied, in the order of the rules.
+   */
+  public Map<String, Integer> getHits() {
+    return Collections.unmodifiableMap(hits);
+  }
+
+  public void printStats(PrintStream out) {
+    for (var hit : hits.entrySet())
+      out.printf("%-16s %8d%n", hit.getKey(), hit.getValue());
+  }
+
+  /**
+   * Returns the optimized version of the assembly of a function. {@code %rax} is live at the
+   * {@code ret}s if the function {@code returnsValue}.
+   */
+  public List<AsmInst> run(List<AsmInst> function, boolean returnsValue) {
+    code = new ArrayList<>(function);
+    this.returnsValue = returnsValue;
+    fused.clear();
+    boolean changed = true;
+    while (changed) {
+      changed = false;
+      findLabels();
+      for (int i = 0; i < code.size(); i++)
+        changed |= rewrite(i);
+      if (changed)
+        code.removeIf(Objects::isNull);
+    }
+    if (!fused.isEmpty()) {
+      findLabels();
+      removeDeadSetups();
+      code.removeIf(Objects::isNull);
+    }
+    return code;
+  }
+
+  private void hit(String rule) {
+    hits.merge(rule, 1, Integer::sum);
+  }
+
+  /**
+   * Returns the index of the first entry after {@code i} that is not a comment, or -1.
+   */
+  private int next(int i) {
+    if (i < 0)
+      return -1;
+    for (int k = i + 1; k < code.size(); k++) {
+      if (code.get(k) != null && code.get(k).getKind() != AsmInst.Kind.COMMENT)
+        return k;
+    }
+    return -1;
+  }
+
+  private AsmInst at(int i) {
+    return i < 0 ? null : code.get(i);
+  }
+
+  private boolean rewrite(int i) {
+    var inst = code.get(i);
+    if (inst == null || !inst.isInstruction())
+      return false;
+    Opcode op = inst.getOpcode();
+    int n = next(i);
+    var next = at(n);
+
+    if (op == MOVQ && inst.getOperand(0).equals(inst.getOperand(1))) {
+      code.set(i, null);
+      hit("self-move");
+      return true;
+    }
+    if (op == MOVQ && isReg(inst.getOperand(0)) && isMemory(inst.getOperand(1))
+        && next != null && next.getOpcode() == MOVQ
+        && next.getOperand(0).equals(inst.getOperand(1)) && isReg(next.getOperand(1))) {
+      Operand reg = inst.getOperand(0);
+      code.set(n, next.getOperand(1).equals(reg) ? null : AsmInst.of(MOVQ, reg,
+          next.getOperand(1)));
+      hit("store-load");
+      return true;
+    }
+    if (op == MOVQ && inst.getOperand(0).equals(Operand.imm(0)) && isReg(inst.getOperand(1))
+        && !flagsRead(i)) {
+      code.set(i, AsmInst.of(XORQ, inst.getOperand(1), inst.getOperand(1)));
+      hit("zero-xor");
+      return true;
+    }
+    if (op.isSet() && inst.is(op, AL)) {
+      int zx = n;
+      int mov = next(zx);
+      int cmp = next(mov);
+      int je = next(cmp);
+      if (je >= 0 && at(zx).is(MOVZBQ, AL, RAX) && at(mov).getOpcode() == MOVQ
+          && at(mov).getOperand(0) == RAX && at(cmp).is(CMPQ, ONE, at(mov).getOperand(1))
+          && at(je).getOpcode() == JE) {
+        code.set(cmp, null);
+        code.set(je, AsmInst.of(op.toJump(), at(je).getOperand(0)));
+        fused.add(inst);
+        hit("branch-fusion");
+        return true;
+      }
+    }
+    if (op.isJump()) {
+      String target = target(inst);
+      String threaded = thread(target);
+      if (threaded != null && !threaded.equals(target)) {
+        code.set(i, AsmInst.of(op, Operand.sym(threaded)));
+        hit("jump-to-jump");
+        return true;
+      }
+      for (int k = n; k >= 0 && code.get(k).getKind() == AsmInst.Kind.LABEL; k = next(k)) {
+        if (code.get(k).getText().equals(target)) {
+          code.set(i, null);
+          hit("jump-to-next");
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  private static String target(AsmInst jump) {
+    return ((Operand.Symbol) jump.getOperand(0)).getName();
+  }
+
+  /**
+   * Returns the label that a jump to {@code label} ends up at after the {@code jmp}s that follow
+   * the labels, or null if they form a cycle.
+   */
+  private String thread(String label) {
+    var visited = new HashSet<String>();
+    while (visited.add(label)) {
+      var after = at(next(labelIndex(label)));
+      if (after == null || after.getOpcode() != JMP)
+        return label;
+      label = target(after);
+    }
+    return null;
+  }
+
+  /**
+   * Returns true if an instruction after {@code i} reads the flags before they are set again. The
+   * flags are never live across a label in the generated code.
+   */
+  private boolean flagsRead(int i) {
+    for (int k = next(i); k >= 0; k = next(k)) {
+      var inst = code.get(k);
+      if (!inst.isInstruction())
+        return false;
+      Opcode op = inst.getOpcode();
+      if (op.isSet() || op.isConditionalJump())
+        return true;
+      switch (op) {
+        case JMP:
+        case RET:
+        case CALL:
+        case CMPQ:
+        case ADDQ:
+        case SUBQ:
+        case IMULQ:
+        case XORQ:
+          return false;
+        default:
+          break;
+      }
+    }
+    return false;
+  }
+
+  private void findLabels() {
+    labels.clear();
+    for (int k = 0; k < code.size(); k++) {
+      if (code.get(k).getKind() == AsmInst.Kind.LABEL)
+        labels.put(code.get(k).getText(), k);
+    }
+  }
+
+  private int labelIndex(String name) {
+    return labels.getOrDefault(name, -1);
+  }
+
+  /**
+   * Removes the setcc, movzbq and move of the fused comparisons whose boolean is dead after the
+   * jump. Only registers are tracked, a boolean in a stack slot stays.
+   */
+  private void removeDeadSetups() {
+    var liveness = new RegisterLiveness();
+    var index = new IdentityHashMap<AsmInst, Integer>();
+    for (int k = 0; k < code.size(); k++)
+      index.put(code.get(k), k);
+    for (var setInst : fused) {
+      Integer set = index.get(setInst);
+      if (set == null)
+        continue;
+      int zx = next(set);
+      int mov = next(zx);
+      int jump = next(mov);
+      Operand dst = code.get(mov).getOperand(1);
+      if (!isReg(dst) || !code.get(jump).isInstruction()
+          || !code.get(jump).getOpcode().isConditionalJump())
+        continue;
+      var live = liveness.liveAfter(jump);
+      if (live.get(((Register) dst).ordinal()) || live.get(RAX.ordinal()))
+        continue;
+      code.set(set, null);
+      code.set(zx, null);
+      code.set(mov, null);
+      hit("dead-setup");
+    }
+  }
+
+  /**
+   * The registers that are live after each instruction, computed over the blocks of the function
+   * that the labels and jumps form. The registers are numbered by their ordinal.
+   */
+  private final class RegisterLiveness {
+    private final int[] blockOf;
+    private final ArrayList<Integer> starts = new ArrayList<>();
+    private final ArrayList<BitSet> liveIn = new ArrayList<>();
+
+    RegisterLiveness() {
+      blockOf = new int[code.size()];
+      boolean newBlock = true;
+      for (int k = 0; k < code.size(); k++) {
+        var inst = code.get(k);
+        if (inst != null && inst.getKind() == AsmInst.Kind.LABEL)
+          newBlock = true;
+        if (newBlock && inst != null) {
+          starts.add(k);
+          liveIn.add(new BitSet());
+          newBlock = false;
+        }
+        blockOf[k] = starts.size() - 1;
+        if (inst != null && inst.isInstruction() && endsBlock(inst.getOpcode()))
+          newBlock = true;
+      }
+      boolean changed = true;
+      while (changed) {
+        changed = false;
+        for (int b = starts.size() - 1; b >= 0; b--) {
+          var in = transfer(end(b), starts.get(b), liveOut(b));
+          if (!in.equals(liveIn.get(b))) {
+            liveIn.set(b, in);
+            changed = true;
+          }
+        }
+      }
+    }
+
+    BitSet liveAfter(int i) {
+      int b = blockOf[i];
+      return transfer(end(b), i + 1, liveOut(b));
+    }
+
+    private int end(int b) {
+      return b + 1 < starts.size() ? starts.get(b + 1) : code.size();
+    }
+
+    private BitSet liveOut(int b) {
+      var out = new BitSet();
+      int last = end(b) - 1;
+      while (last >= starts.get(b) && (code.get(last) == null || !code.get(last).isInstruction()))
+        last--;
+      var inst = last >= starts.get(b) ? code.get(last) : null;
+      Opcode op = inst == null ? null : inst.getOpcode();
+      if (op == RET)
+        return out;
+      if (op != null && op.isJump()) {
+        int label = labelIndex(target(inst));
+        if (label < 0) {
+          out.set(0, RIP.ordinal());
+          return out;
+        }
+        out.or(liveIn.get(blockOf[label]));
+        if (op == JMP)
+          return out;
+      }
+      if (b + 1 < starts.size())
+        out.or(liveIn.get(b + 1));
+      return out;
+    }
+
+    /**
+     * Returns the registers live before {@code from}, given those live before {@code to}.
+     */
+    private BitSet transfer(int to, int from, BitSet live) {
+      live = (BitSet) live.clone();
+      for (int k = to - 1; k >= from; k--) {
+        var inst = code.get(k);
+        if (inst != null && inst.isInstruction())
+          step(inst, live);
+      }
+      return live;
+    }
+  }
+
+  /**
+   * Updates the set of live registers from after {@code inst} to before it.
+   */
+  private void step(AsmInst inst, BitSet live) {
+    Opcode op = inst.getOpcode();
+    int n = inst.numOperands();
+    if (op.isSet()) {
+      //Only the low byte is set, but the generated code always extends it to all of %rax
+      live.clear(RAX.ordinal());
+      return;
+    }
+    if (op.isJump())
+      return;
+    switch (op) {
+      case MOVQ:
+      case MOVZBQ:
+      case LEAQ:
+        kill(inst.getOperand(1), live);
+        use(inst.getOperand(0), live);
+        useAddress(inst.getOperand(1), live);
+        return;
+      case XORQ:
+        if (inst.getOperand(0).equals(inst.getOperand(1))) {
+          kill(inst.getOperand(1), live);
+          return;
+        }
+        break;
+      case CQTO:
+        live.clear(RDX.ordinal());
+        live.set(RAX.ordinal());
+        return;
+      case IDIVQ:
+        live.set(RAX.ordinal());
+        live.set(RDX.ordinal());
+        use(inst.getOperand(0), live);
+        return;
+      case CALL:
+        for (Register r : CALL_CLOBBERED)
+          live.clear(r.ordinal());
+        for (Register r : ARGUMENT_REGISTERS)
+          live.set(r.ordinal());
+        return;
+      case RET:
+        for (Register r : RETURN_LIVE)
+          live.set(r.ordinal());
+        if (returnsValue)
+          live.set(RAX.ordinal());
+        return;
+      case LEAVE:
+        return;
+      default:
+        break;
+    }
+    //The remaining instructions read all of their operands
+    for (int k = 0; k < n; k++)
+      use(inst.getOperand(k), live);
+  }
+
+  private static void kill(Operand operand, BitSet live) {
+    if (isReg(operand))
+      live.clear(((Register) operand).getFull().ordinal());
+  }
+
+  private static void use(Operand operand, BitSet live) {
+    if (isReg(operand))
+      live.set(((Register) operand).getFull().ordinal());
+    else
+      useAddress(operand, live);
+  }
+
+  private static void useAddress(Operand operand, BitSet live) {
+    if (!isMemory(operand))
+      return;
+    var memory = (Operand.Memory) operand;
+    if (memory.getBase() != RIP)
+      live.set(memory.getBase().ordinal());
+    if (memory.getIndex() != null)
+      live.set(memory.getIndex().ordinal());
+  }
+
+  static boolean isReg(Operand operand) {
+    return operand instanceof Register;
+  }
+
+  static boolean isMemory(Operand operand) {
+    return operand instanceof Operand.Memory;
+  }
+
+  private static boolean endsBlock(Opcode op) {
+    return op.isJump() || op == RET;
+  }
+}
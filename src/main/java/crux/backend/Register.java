@@ -0,0 +1,47 @@
+package crux.backend;
+
+/**
+ * The general purpose registers of x86-64 with their encoding number, and {@code %al}, the low
+ * byte of {@code %rax} that {@code setcc} writes. {@code %rip} is only used as the base of an
+ * address.
+ */
+public enum Register implements Operand {
+  RAX("%rax", 0), RCX("%rcx", 1), RDX("%rdx", 2), RBX("%rbx", 3), RSP("%rsp", 4), RBP("%rbp", 5),
+  RSI("%rsi", 6), RDI("%rdi", 7), R8("%r8", 8), R9("%r9", 9), R10("%r10", 10), R11("%r11", 11),
+  R12("%r12", 12), R13("%r13", 13), R14("%r14", 14), R15("%r15", 15), AL("%al", 0),
+  RIP("%rip", 5);
+
+  private final String name;
+  private final byte[] text;
+  private final int number;
+
+  Register(String name, int number) {
+    this.name = name;
+    this.text = CodePrinter.ascii(name);
+    this.number = number;
+  }
+
+  /**
+   * Returns the number of the register in the encoding of instructions, from 0 to 15.
+   */
+  public int getNumber() {
+    return number;
+  }
+
+  /**
+   * Returns the 64 bit register that this register is a part of.
+   */
+  public Register getFull() {
+    return this == AL ? RAX : this;
+  }
+
+  @Override
+  public void print(CodePrinter out) {
+    out.write(text);
+  }
+
+  @Override
+  public String toString() {
+    return name;
+  }
+}
@@ -0,0 +1,176 @@
+package crux.backend;
+
+import crux.ir.Function;
+import crux.ir.Instruction;
+import crux.ir.Variable;
+import crux.ir.insts.CallInst;
+
+import java.util.*;
+
+/**
+ * Assigns a register or a stack slot to every variable of a function with linear scan allocation
+ * (Poletto and Sarkar). The live interval of a variable spans from the first to the last position
+ * where it is live, assigned or used, in the order in which the instructions are emitted.
+ * <p>
+ * Variables that are live across a call prefer callee saved registers, all others prefer caller
+ * saved registers, so few registers have to be saved around calls. {@code %rax} and {@code %rdx} are
+ * needed for division and return values, and {@code %r10} and {@code %r11} are scratch registers
+ * for the code generator, so none of them is allocated. When no register is free, the interval that
+ * ends last is spilled to a stack slot.
+ */
+final class RegisterAllocator {
+  static final List<Register> CALLEE_SAVED =
+      List.of(Register.RBX, Register.R12, Register.R13, Register.R14, Register.R15);
+  static final List<Register> CALLER_SAVED =
+      List.of(Register.RSI, Register.RDI, Register.RCX, Register.R8, Register.R9);
+
+  private final Liveness liveness;
+  private final HashMap<Variable, Register> registers = new HashMap<>();
+  private final HashMap<Variable, Integer> spillSlots = new HashMap<>();
+  private final TreeSet<Register> usedCalleeSaved = new TreeSet<>();
+
+  private static final class Interval {
+    final Variable var;
+    int start = Integer.MAX_VALUE;
+    int end = -1;
+    boolean crossesCall;
+    Register register;
+
+    Interval(Variable var) {
+      this.var = var;
+    }
+  }
+
+  RegisterAllocator(Function f, BlockLayout layout) {
+    liveness = new Liveness(f, layout);
+    allocate(buildIntervals(f));
+  }
+
+  private ArrayList<Interval> buildIntervals(Function f) {
+    var vars = liveness.getVariables();
+    var intervals = new ArrayList<Interval>();
+    for (Variable v : vars)
+      intervals.add(new Interval(v));
+    // Arguments are assigned by the prologue, before the first instruction
+    for (var arg : f.getArguments())
+      extend(intervals.get(liveness.getVariableIndex(arg)), 0);
+
+    // A variable that is live into or out of a block covers the start or the end of the block
+    for (var b : liveness.getLayout().getBlocks()) {
+      int from = liveness.getPosition(b.first());
+      int to = liveness.getPosition(b.last());
+      for (int k : liveness.getLiveIn(b))
+        extend(intervals.get(k), from);
+      for (int k : liveness.getLiveOut(b))
+        extend(intervals.get(k), to);
+      for (Instruction i : b.getInstructions()) {
+        int p = liveness.getPosition(i);
+        for (var v : i.getOperands()) {
+          if (v instanceof Variable)
+            extend(intervals.get(liveness.getVariableIndex((Variable) v)), p);
+        }
+        if (i.getDestination() != null)
+          extend(intervals.get(liveness.getVariableIndex(i.getDestination())), p);
+        if (i instanceof CallInst) {
+          for (int k : liveness.getLiveAcross((CallInst) i))
+            intervals.get(k).crossesCall = true;
+        }
+      }
+    }
+    return intervals;
+  }
+
+  private static void extend(Interval interval, int position) {
+    interval.start = Math.min(interval.start, position);
+    interval.end = Math.max(interval.end, position);
+  }
+
+  private void allocate(ArrayList<Interval> intervals) {
+    intervals.removeIf(i -> i.end < 0);
+    intervals.sort(Comparator.comparingInt((Interval i) -> i.start));
+
+    var freeCallee = new ArrayDeque<>(CALLEE_SAVED);
+    var freeCaller = new ArrayDeque<>(CALLER_SAVED);
+
+    var active = new PriorityQueue<Interval>(Comparator.comparingInt((Interval i) -> i.end));
+    for (Interval cur : intervals) {
+      while (!active.isEmpty() && active.peek().end < cur.start) {
+        Register r = active.poll().register;
+        (CALLEE_SAVED.contains(r) ? freeCallee : freeCaller).add(r);
+      }
+
+      var preferred = cur.crossesCall ? freeCallee : freeCaller;
+      var other = cur.crossesCall ? freeCaller : freeCallee;
+      if (!preferred.isEmpty()) {
+        cur.register = preferred.poll();
+      } else if (!other.isEmpty()) {
+        cur.register = other.poll();
+      } else {
+        // Spill the interval that ends last, which frees a register for the longest time
+        Interval victim = null;
+        for (Interval a : active) {
+          if (victim == null || a.end > victim.end)
+            victim = a;
+        }
+        if (victim != null && victim.end > cur.end) {
+          cur.register = victim.register;
+          victim.register = null;
+          active.remove(victim);
+          spill(victim);
+        } else {
+          spill(cur);
+          continue;
+        }
+      }
+      registers.put(cur.var, cur.register);
+      if (CALLEE_SAVED.contains(cur.register))
+        usedCalleeSaved.add(cur.register);
+      active.add(cur);
+    }
+  }
+
+  private void spill(Interval interval) {
+    registers.remove(interval.var);
+    spillSlots.put(interval.var, spillSlots.size() + 1);
+  }
+
+  /**
+   * Returns the register of {@code v}, or null if it lives in a stack slot.
+   */
+  Register getRegister(Variable v) {
+    return registers.get(v);
+  }
+
+  /**
+   * Returns the stack slot of {@code v}, numbered from 1, or 0 if it lives in a register.
+   */
+  int getSpillSlot(Variable v) {
+    return spillSlots.getOrDefault(v, 0);
+  }
+
+  int getNumSpillSlots() {
+    return spillSlots.size();
+  }
+
+  /**
+   * Returns the callee saved registers that are used and have to be restored before returning.
+   */
+  List<Register> getUsedCalleeSaved() {
+    return new ArrayList<>(usedCalleeSaved);
+  }
+
+  /**
+   * Returns the caller saved registers that hold a variable which is still needed after {@code
+   * call}, so they have to be saved around it.
+   */
+  List<Register> getSavedAround(CallInst call) {
+    var result = new ArrayList<Register>();
+    var vars = liveness.getVariables();
+    for (int k : liveness.getLiveAcross(call)) {
+      Register r = registers.get(vars.get(k));
+      if (r != null && CALLER_SAVED.contains(r) && !result.contains(r))
+        result.add(r);
+    }
+    return result;
+  }
+}
@@ -0,0 +1,130 @@
+package crux.binary;
+
+import crux.ast.*;
+import crux.ast.SymbolTable.Symbol;
+import crux.ast.types.Type;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+
+/**
+ * Reads a {@link DeclarationList} that was written by {@link AstEncoder}.
+ */
+public final class AstDecoder {
+  private final Decoder decoder;
+
+  private AstDecoder(Decoder decoder) {
+    this.decoder = decoder;
+  }
+
+  /**
+   * Reads the AST from {@code data}, which may be a memory mapped file, starting at its position.
+   */
+  public static DeclarationList read(ByteBuffer data) throws IOException {
+    try {
+      var reader = new AstDecoder(new Decoder(data, BinaryFormat.KIND_AST));
+      return (DeclarationList) reader.node();
+    } catch (RuntimeException e) {
+      throw new IOException("malformed binary AST", e);
+    }
+  }
+
+  private Symbol symbol() throws IOException {
+    return decoder.symbol(decoder.readInt());
+  }
+
+  @SuppressWarnings("unchecked")
+  private <T extends Node> ArrayList<T> nodes(int count) throws IOException {
+    var result = new ArrayList<T>(count);
+    for (int k = 0; k < count; k++)
+      result.add((T) node());
+    return result;
+  }
+
+  private Node node() throws IOException {
+    int tag = decoder.readInt();
+    if (tag == AstEncoder.NULL)
+      return null;
+    int line = decoder.readInt();
+    Position position = line == 0 ? null : new Position(line - 1);
+    Type type = decoder.type(decoder.readInt());
+
+    BaseNode n;
+    switch (tag) {
+      case AstEncoder.DECLARATION_LIST:
+        n = new DeclarationList(position, nodes(decoder.readInt()));
+        break;
+      case AstEncoder.STATEMENT_LIST:
+        n = new StatementList(position, nodes(decoder.readInt()));
+        break;
+      case AstEncoder.FUNCTION_DEFINITION: {
+        Symbol symbol = symbol();
+        var parameters = new ArrayList<Symbol>();
+        for (int count = decoder.readInt(); count > 0; count--)
+          parameters.add(symbol());
+        n = new FunctionDefinition(position, symbol, parameters, (StatementList) node());
+        break;
+      }
+      case AstEncoder.VARIABLE_DECLARATION:
+        n = new VariableDeclaration(position, symbol());
+        break;
+      case AstEncoder.ARRAY_DECLARATION:
+        n = new ArrayDeclaration(position, symbol());
+        break;
+      case AstEncoder.CALL: {
+        Symbol callee = symbol();
+        n = new Call(position, callee, nodes(decoder.readInt()));
+        break;
+      }
+      case AstEncoder.ASSIGNMENT: {
+        var location = (Expression) node();
+        n = new Assignment(position, location, (Expression) node());
+        break;
+      }
+      case AstEncoder.IF_ELSE_BRANCH: {
+        var condition = (Expression) node();
+        var thenBlock = (StatementList) node();
+        n = new IfElseBranch(position, condition, thenBlock, (StatementList) node());
+        break;
+      }
+      case AstEncoder.LOOP:
+        n = new Loop(position, (StatementList) node());
+        break;
+      case AstEncoder.BREAK:
+        n = new Break(position);
+        break;
+      case AstEncoder.CONTINUE:
+        n = new Continue(position);
+        break;
+      case AstEncoder.RETURN:
+        n = new Return(position, (Expression) node());
+        break;
+      case AstEncoder.OP_EXPR: {
+        var op = OpExpr.Operation.values()[decoder.readInt()];
+        var left = (Expression) node();
+        n = new OpExpr(position, op, left, (Expression) node());
+        break;
+      }
+      case AstEncoder.LITERAL_INT:
+        n = new LiteralInt(position, decoder.readSigned());
+        break;
+      case AstEncoder.LITERAL_BOOL:
+        n = new LiteralBool(position, decoder.readByte() != 0);
+        break;
+      case AstEncoder.VAR_ACCESS:
+        n = new VarAccess(position, symbol());
+        break;
+      case AstEncoder.ARRAY_ACCESS: {
+        Symbol base = symbol();
+        n = new ArrayAccess(position, base, (Expression) node());
+        break;
+      }
+      default:
+        throw new IOException(String.format("unknown node tag %d", tag));
+    }
+    if (type != null)
+      n.setType(type);
+    return n;
+  }
+}
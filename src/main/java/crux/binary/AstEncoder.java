@@ -0,0 +1,198 @@
+package crux.binary;
+
+import crux.ast.*;
+import crux.ast.SymbolTable.Symbol;
+import crux.ast.traversal.NodeVisitor;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes a {@link DeclarationList} in the {@link BinaryFormat}. The nodes are written in pre order,
+ * each one as its tag, its source line, its type (if it was type checked) and its own fields. Lists
+ * start with their length and a missing child is written as the tag {@link #NULL}.
+ */
+public final class AstEncoder implements NodeVisitor<Void> {
+  static final int NULL = 0;
+  static final int DECLARATION_LIST = 1;
+  static final int STATEMENT_LIST = 2;
+  static final int FUNCTION_DEFINITION = 3;
+  static final int VARIABLE_DECLARATION = 4;
+  static final int ARRAY_DECLARATION = 5;
+  static final int CALL = 6;
+  static final int ASSIGNMENT = 7;
+  static final int IF_ELSE_BRANCH = 8;
+  static final int LOOP = 9;
+  static final int BREAK = 10;
+  static final int CONTINUE = 11;
+  static final int RETURN = 12;
+  static final int OP_EXPR = 13;
+  static final int LITERAL_INT = 14;
+  static final int LITERAL_BOOL = 15;
+  static final int VAR_ACCESS = 16;
+  static final int ARRAY_ACCESS = 17;
+
+  private final Encoder encoder = new Encoder(BinaryFormat.KIND_AST);
+  private final Encoder.Bytes body = encoder.body;
+
+  private AstEncoder() {}
+
+  public static void write(DeclarationList ast, OutputStream out) throws IOException {
+    var writer = new AstEncoder();
+    ast.accept(writer);
+    writer.encoder.finish(out);
+  }
+
+  private void node(Node n) {
+    if (n == null)
+      body.writeVarint(NULL);
+    else
+      n.accept(this);
+  }
+
+  private void header(int tag, BaseNode n) {
+    body.writeVarint(tag);
+    body.writeVarint(n.getPosition() == null ? 0 : n.getPosition().line + 1L);
+    body.writeVarint(encoder.type(n.getType()));
+  }
+
+  private void symbol(Symbol s) {
+    body.writeVarint(encoder.symbol(s));
+  }
+
+  private void children(int tag, ListNode<?> list) {
+    header(tag, list);
+    var children = list.getChildren();
+    body.writeVarint(children.size());
+    for (Node child : children)
+      node(child);
+  }
+
+  @Override
+  public Void visit(ArrayAccess arrayAccess) {
+    header(ARRAY_ACCESS, arrayAccess);
+    symbol(arrayAccess.getBase());
+    node(arrayAccess.getIndex());
+    return null;
+  }
+
+  @Override
+  public Void visit(ArrayDeclaration arrayDeclaration) {
+    header(ARRAY_DECLARATION, arrayDeclaration);
+    symbol(arrayDeclaration.getSymbol());
+    return null;
+  }
+
+  @Override
+  public Void visit(Assignment assignment) {
+    header(ASSIGNMENT, assignment);
+    node(assignment.getLocation());
+    node(assignment.getValue());
+    return null;
+  }
+
+  @Override
+  public Void visit(Break brk) {
+    header(BREAK, brk);
+    return null;
+  }
+
+  @Override
+  public Void visit(Call call) {
+    header(CALL, call);
+    symbol(call.getCallee());
+    body.writeVarint(call.getArguments().size());
+    for (Expression argument : call.getArguments())
+      node(argument);
+    return null;
+  }
+
+  @Override
+  public Void visit(Continue cont) {
+    header(CONTINUE, cont);
+    return null;
+  }
+
+  @Override
+  public Void visit(DeclarationList declarationList) {
+    children(DECLARATION_LIST, declarationList);
+    return null;
+  }
+
+  @Override
+  public Void visit(FunctionDefinition functionDefinition) {
+    header(FUNCTION_DEFINITION, functionDefinition);
+    symbol(functionDefinition.getSymbol());
+    body.writeVarint(functionDefinition.getParameters().size());
+    for (Symbol parameter : functionDefinition.getParameters())
+      symbol(parameter);
+    node(functionDefinition.getStatements());
+    return null;
+  }
+
+  @Override
+  public Void visit(IfElseBranch ifElseBranch) {
+    header(IF_ELSE_BRANCH, ifElseBranch);
+    node(ifElseBranch.getCondition());
+    node(ifElseBranch.getThenBlock());
+    node(ifElseBranch.getElseBlock());
+    return null;
+  }
+
+  @Override
+  public Void visit(LiteralBool literalBool) {
+    header(LITERAL_BOOL, literalBool);
+    body.writeByte(literalBool.getValue() ? 1 : 0);
+    return null;
+  }
+
+  @Override
+  public Void visit(LiteralInt literalInt) {
+    header(LITERAL_INT, literalInt);
+    body.writeSigned(literalInt.getValue());
+    return null;
+  }
+
+  @Override
+  public Void visit(Loop loop) {
+    header(LOOP, loop);
+    node(loop.getBody());
+    return null;
+  }
+
+  @Override
+  public Void visit(OpExpr operation) {
+    header(OP_EXPR, operation);
+    body.writeVarint(operation.getOp().ordinal());
+    node(operation.getLeft());
+    node(operation.getRight());
+    return null;
+  }
+
+  @Override
+  public Void visit(Return ret) {
+    header(RETURN, ret);
+    node(ret.getValue());
+    return null;
+  }
+
+  @Override
+  public Void visit(StatementList statementList) {
+    children(STATEMENT_LIST, statementList);
+    return null;
+  }
+
+  @Override
+  public Void visit(VarAccess vaccess) {
+    header(VAR_ACCESS, vaccess);
+    symbol(vaccess.getSymbol());
+    return null;
+  }
+
+  @Override
+  public Void visit(VariableDeclaration variableDeclaration) {
+    header(VARIABLE_DECLARATION, variableDeclaration);
+    symbol(variableDeclaration.getSymbol());
+    return null;
+  }
+}
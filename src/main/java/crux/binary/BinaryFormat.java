@@ -0,0 +1,46 @@
+package crux.binary;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The compact binary format for serialized ASTs ({@link AstEncoder}) and IR programs
+ * ({@link IrEncoder}). A file starts with the magic bytes {@code CRUX}, a byte for the kind of
+ * content and the format version, followed by the string, type and symbol tables and the body.
+ * <p>
+ * All integers are unsigned LEB128 varints, signed values are zigzag encoded first. Strings, types
+ * and symbols are stored once in their tables and referred to by index everywhere else, where the
+ * type and symbol references are shifted by one so that 0 stands for null.
+ */
+public final class BinaryFormat {
+  private BinaryFormat() {}
+
+  static final byte[] MAGIC = {'C', 'R', 'U', 'X'};
+  static final byte KIND_AST = 'A';
+  static final byte KIND_IR = 'I';
+  /**
+   * The version that is written. Readers reject files with a newer version.
+   */
+  static final int VERSION = 1;
+
+  static final int TYPE_INT = 0;
+  static final int TYPE_BOOL = 1;
+  static final int TYPE_VOID = 2;
+  static final int TYPE_ARRAY = 3;
+  static final int TYPE_FUNC = 4;
+  static final int TYPE_LIST = 5;
+  static final int TYPE_ERROR = 6;
+
+  /**
+   * Returns true if {@code data} starts with the magic bytes of the binary format. The position of
+   * the buffer does not change.
+   */
+  public static boolean hasMagic(ByteBuffer data) {
+    if (data.remaining() < MAGIC.length)
+      return false;
+    for (int k = 0; k < MAGIC.length; k++) {
+      if (data.get(data.position() + k) != MAGIC[k])
+        return false;
+    }
+    return true;
+  }
+}
@@ -0,0 +1,142 @@
+package crux.binary;
+
+import crux.ast.SymbolTable.Symbol;
+import crux.ast.types.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+
+/**
+ * Reads the header and the tables of a binary file, and the varints of its body. The buffer can be
+ * a memory mapped file, strings are only decoded when they are used.
+ */
+final class Decoder {
+  private final ByteBuffer data;
+  private final int[] stringOffsets;
+  private final String[] strings;
+  private final Type[] types;
+  private final Symbol[] symbols;
+
+  Decoder(ByteBuffer data, byte kind) throws IOException {
+    this.data = data;
+    if (!BinaryFormat.hasMagic(data))
+      throw new IOException("not a binary crux file");
+    data.position(data.position() + BinaryFormat.MAGIC.length);
+    byte actualKind = data.get();
+    if (actualKind != kind)
+      throw new IOException(String.format("expected a binary %s file but found a binary %s file",
+          kindName(kind), kindName(actualKind)));
+    int version = readInt();
+    if (version > BinaryFormat.VERSION)
+      throw new IOException(String.format("unsupported binary format version %d", version));
+
+    stringOffsets = new int[readInt()];
+    strings = new String[stringOffsets.length];
+    for (int k = 0; k < stringOffsets.length; k++) {
+      stringOffsets[k] = data.position();
+      int length = readInt();
+      data.position(data.position() + length);
+    }
+
+    types = new Type[readInt()];
+    for (int k = 0; k < types.length; k++)
+      types[k] = readTypeEntry();
+
+    symbols = new Symbol[readInt()];
+    for (int k = 0; k < symbols.length; k++) {
+      String name = string(readInt());
+      symbols[k] = Symbol.of(name, type(readInt()));
+    }
+  }
+
+  private static String kindName(byte kind) {
+    return kind == BinaryFormat.KIND_AST ? "AST" : kind == BinaryFormat.KIND_IR ? "IR" : "unknown";
+  }
+
+  private Type readTypeEntry() throws IOException {
+    int tag = readInt();
+    long extra = readSigned();
+    var parts = new ArrayList<Type>();
+    for (int n = readInt(); n > 0; n--)
+      parts.add(type(readInt()));
+    switch (tag) {
+      case BinaryFormat.TYPE_INT:
+        return new IntType();
+      case BinaryFormat.TYPE_BOOL:
+        return new BoolType();
+      case BinaryFormat.TYPE_VOID:
+        return new VoidType();
+      case BinaryFormat.TYPE_ARRAY:
+        return new ArrayType(extra, parts.get(0));
+      case BinaryFormat.TYPE_FUNC:
+        return new FuncType(new TypeList(new ArrayList<>(parts.subList(1, parts.size()))),
+            parts.get(0));
+      case BinaryFormat.TYPE_LIST:
+        return new TypeList(parts);
+      case BinaryFormat.TYPE_ERROR:
+        return new ErrorType(string((int) extra));
+    }
+    throw new IOException(String.format("unknown type tag %d", tag));
+  }
+
+  int readByte() {
+    return data.get() & 0xFF;
+  }
+
+  long readVarint() throws IOException {
+    long value = 0;
+    for (int shift = 0; shift < 64; shift += 7) {
+      int b = readByte();
+      value |= (long) (b & 0x7F) << shift;
+      if ((b & 0x80) == 0)
+        return value;
+    }
+    throw new IOException("malformed varint");
+  }
+
+  long readSigned() throws IOException {
+    long value = readVarint();
+    return (value >>> 1) ^ -(value & 1);
+  }
+
+  int readInt() throws IOException {
+    long value = readVarint();
+    if (value > Integer.MAX_VALUE)
+      throw new IOException("count or index out of range");
+    return (int) value;
+  }
+
+  String string(int index) throws IOException {
+    if (index >= strings.length)
+      throw new IOException("string index out of range");
+    if (strings[index] == null) {
+      int position = data.position();
+      data.position(stringOffsets[index]);
+      var bytes = new byte[readInt()];
+      data.get(bytes);
+      data.position(position);
+      strings[index] = new String(bytes, StandardCharsets.UTF_8);
+    }
+    return strings[index];
+  }
+
+  /**
+   * Returns the type for the reference {@code ref}, null for 0.
+   */
+  Type type(int ref) throws IOException {
+    if (ref > types.length)
+      throw new IOException("type index out of range");
+    return ref == 0 ? null : types[ref - 1];
+  }
+
+  /**
+   * Returns the symbol for the reference {@code ref}, null for 0.
+   */
+  Symbol symbol(int ref) throws IOException {
+    if (ref > symbols.length)
+      throw new IOException("symbol index out of range");
+    return ref == 0 ? null : symbols[ref - 1];
+  }
+}
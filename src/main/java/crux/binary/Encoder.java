@@ -0,0 +1,163 @@
+package crux.binary;
+
+import crux.ast.SymbolTable.Symbol;
+import crux.ast.types.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Collects the tables and the body of a binary file and writes them in the order that the
+ * {@link Decoder} reads them. Types are shared by structure, symbols by identity.
+ */
+final class Encoder {
+  /**
+   * A growable byte array with varint output.
+   */
+  static final class Bytes {
+    private byte[] data = new byte[256];
+    private int size;
+
+    void writeByte(int b) {
+      if (size == data.length)
+        data = Arrays.copyOf(data, size * 2);
+      data[size++] = (byte) b;
+    }
+
+    void writeVarint(long value) {
+      while ((value & ~0x7FL) != 0) {
+        writeByte((int) (value & 0x7F) | 0x80);
+        value >>>= 7;
+      }
+      writeByte((int) value);
+    }
+
+    void writeSigned(long value) {
+      writeVarint((value << 1) ^ (value >> 63));
+    }
+
+    void writeBytes(byte[] bytes) {
+      for (byte b : bytes)
+        writeByte(b);
+    }
+
+    void writeTo(OutputStream out) throws IOException {
+      out.write(data, 0, size);
+    }
+  }
+
+  private final byte kind;
+  private final Bytes strings = new Bytes();
+  private final Bytes types = new Bytes();
+  private final Bytes symbols = new Bytes();
+  final Bytes body = new Bytes();
+  private final HashMap<String, Integer> stringIndex = new HashMap<>();
+  private final HashMap<String, Integer> typeIndex = new HashMap<>();
+  private final IdentityHashMap<Symbol, Integer> symbolIndex = new IdentityHashMap<>();
+
+  Encoder(byte kind) {
+    this.kind = kind;
+  }
+
+  int string(String s) {
+    Integer index = stringIndex.get(s);
+    if (index == null) {
+      index = stringIndex.size();
+      stringIndex.put(s, index);
+      var bytes = s.getBytes(StandardCharsets.UTF_8);
+      strings.writeVarint(bytes.length);
+      strings.writeBytes(bytes);
+    }
+    return index;
+  }
+
+  /**
+   * Returns the reference of {@code t}, 0 for null.
+   */
+  int type(Type t) {
+    if (t == null)
+      return 0;
+    String key = t.getClass().getSimpleName() + ":" + t;
+    Integer index = typeIndex.get(key);
+    if (index != null)
+      return index + 1;
+
+    // The types a type is made of come first in the table
+    var parts = new ArrayList<Integer>();
+    int tag;
+    long extra = 0;
+    if (t instanceof IntType) {
+      tag = BinaryFormat.TYPE_INT;
+    } else if (t instanceof BoolType) {
+      tag = BinaryFormat.TYPE_BOOL;
+    } else if (t instanceof VoidType) {
+      tag = BinaryFormat.TYPE_VOID;
+    } else if (t instanceof ArrayType) {
+      tag = BinaryFormat.TYPE_ARRAY;
+      extra = ((ArrayType) t).getExtent();
+      parts.add(type(((ArrayType) t).getBase()));
+    } else if (t instanceof FuncType) {
+      tag = BinaryFormat.TYPE_FUNC;
+      parts.add(type(((FuncType) t).getRet()));
+      for (Type arg : ((FuncType) t).getArgs())
+        parts.add(type(arg));
+    } else if (t instanceof TypeList) {
+      tag = BinaryFormat.TYPE_LIST;
+      for (Type element : (TypeList) t)
+        parts.add(type(element));
+    } else if (t instanceof ErrorType) {
+      tag = BinaryFormat.TYPE_ERROR;
+      extra = string(((ErrorType) t).getMessage());
+    } else {
+      throw new IllegalArgumentException("cannot encode type " + t);
+    }
+    index = typeIndex.size();
+    typeIndex.put(key, index);
+    types.writeVarint(tag);
+    types.writeSigned(extra);
+    types.writeVarint(parts.size());
+    for (int part : parts)
+      types.writeVarint(part);
+    return index + 1;
+  }
+
+  /**
+   * Returns the reference of {@code s}, 0 for null.
+   */
+  int symbol(Symbol s) {
+    if (s == null)
+      return 0;
+    Integer index = symbolIndex.get(s);
+    if (index == null) {
+      int name = string(s.getName());
+      int type = type(s.getType());
+      index = symbolIndex.size();
+      symbolIndex.put(s, index);
+      symbols.writeVarint(name);
+      symbols.writeVarint(type);
+    }
+    return index + 1;
+  }
+
+  void finish(OutputStream out) throws IOException {
+    var header = new Bytes();
+    header.writeBytes(BinaryFormat.MAGIC);
+    header.writeByte(kind);
+    header.writeVarint(BinaryFormat.VERSION);
+    header.writeVarint(stringIndex.size());
+    header.writeTo(out);
+    strings.writeTo(out);
+    var count = new Bytes();
+    count.writeVarint(typeIndex.size());
+    count.writeTo(out);
+    types.writeTo(out);
+    count = new Bytes();
+    count.writeVarint(symbolIndex.size());
+    count.writeTo(out);
+    symbols.writeTo(out);
+    body.writeTo(out);
+    out.flush();
+  }
+}
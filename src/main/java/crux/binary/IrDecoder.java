@@ -0,0 +1,179 @@
+package crux.binary;
+
+import crux.ast.SymbolTable.Symbol;
+import crux.ast.types.FuncType;
+import crux.ast.types.Type;
+import crux.ir.*;
+import crux.ir.insts.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads a {@link Program} that was written by {@link IrEncoder}. The instructions of a function are
+ * created first and linked afterwards, since the edges may point forward.
+ */
+public final class IrDecoder {
+  private final Decoder decoder;
+  private final Program program = new Program();
+  private Variable[] variables;
+
+  private IrDecoder(Decoder decoder) {
+    this.decoder = decoder;
+  }
+
+  /**
+   * Reads the program from {@code data}, which may be a memory mapped file, starting at its
+   * position.
+   */
+  public static Program read(ByteBuffer data) throws IOException {
+    try {
+      var reader = new IrDecoder(new Decoder(data, BinaryFormat.KIND_IR));
+      reader.program();
+      return reader.program;
+    } catch (RuntimeException e) {
+      throw new IOException("malformed binary IR", e);
+    }
+  }
+
+  private void program() throws IOException {
+    for (int count = decoder.readInt(); count > 0; count--) {
+      Symbol symbol = decoder.symbol(decoder.readInt());
+      var numElement = IntegerConstant.get(program, decoder.readSigned());
+      program.addGlobalVar(new GlobalDecl(symbol, numElement));
+    }
+    for (int count = decoder.readInt(); count > 0; count--)
+      program.addFunction(function());
+  }
+
+  private Function function() throws IOException {
+    String name = decoder.string(decoder.readInt());
+    var f = new Function(name, (FuncType) decoder.type(decoder.readInt()));
+    f.setNumTempVars(decoder.readInt());
+    f.setNumTempAddressVars(decoder.readInt());
+
+    variables = new Variable[decoder.readInt()];
+    for (int k = 0; k < variables.length; k++) {
+      int kind = decoder.readInt();
+      String varName = decoder.string(decoder.readInt());
+      Type type = decoder.type(decoder.readInt());
+      // The constructors add the prefix of the variable kind to the name
+      if (kind == IrEncoder.VAR_ADDRESS)
+        variables[k] = varName.isEmpty() ? new AddressVar(type)
+            : new AddressVar(type, varName.substring(1));
+      else
+        variables[k] = varName.isEmpty() ? new LocalVar(type)
+            : new LocalVar(type, varName.substring(1));
+    }
+    var args = new ArrayList<LocalVar>();
+    int numArgs = decoder.readInt();
+    for (int k = 0; k < numArgs; k++)
+      args.add((LocalVar) variables[k]);
+    f.setArguments(args);
+
+    var insts = new Instruction[decoder.readInt()];
+    var nexts = new int[insts.length][];
+    var phiPreds = new int[insts.length][];
+    var phiOperands = new ArrayList<List<Value>>();
+    for (int k = 0; k < insts.length; k++) {
+      int opcode = decoder.readInt();
+      Symbol symbol = null;
+      int extra = 0;
+      int[] preds = null;
+      if (opcode == IrEncoder.ADDRESS_AT || opcode == IrEncoder.CALL) {
+        symbol = decoder.symbol(decoder.readInt());
+      } else if (opcode == IrEncoder.BINARY_OPERATOR || opcode == IrEncoder.COMPARE) {
+        extra = decoder.readInt();
+      } else if (opcode == IrEncoder.PHI) {
+        preds = new int[decoder.readInt()];
+        for (int j = 0; j < preds.length; j++)
+          preds[j] = decoder.readInt();
+      }
+      int dstRef = decoder.readInt();
+      Variable dst = dstRef == 0 ? null : variables[dstRef - 1];
+      var operands = new ArrayList<Value>();
+      for (int count = decoder.readInt(); count > 0; count--)
+        operands.add(value(decoder.readVarint()));
+      nexts[k] = new int[decoder.readInt()];
+      for (int j = 0; j < nexts[k].length; j++)
+        nexts[k][j] = decoder.readInt();
+
+      insts[k] = instruction(opcode, dst, operands, symbol, extra);
+      if (preds != null) {
+        phiPreds[k] = preds;
+        phiOperands.add(operands);
+      }
+    }
+
+    int phi = 0;
+    for (int k = 0; k < insts.length; k++) {
+      for (int j = 0; j < nexts[k].length; j++)
+        insts[k].setNext(j, nexts[k][j] == 0 ? null : insts[nexts[k][j] - 1]);
+      if (phiPreds[k] != null) {
+        var operands = phiOperands.get(phi++);
+        var phiInst = (PhiInst) insts[k];
+        for (int j = 0; j < phiPreds[k].length; j++)
+          phiInst.setIncoming(insts[phiPreds[k][j] - 1], (LocalVar) operands.get(j));
+      }
+    }
+    if (insts.length > 0)
+      f.setStart(insts[0]);
+    return f;
+  }
+
+  private Value value(long encoded) throws IOException {
+    long payload = encoded >>> 2;
+    switch ((int) (encoded & 3)) {
+      case IrEncoder.VALUE_VARIABLE:
+        if (payload >= variables.length)
+          throw new IOException("variable index out of range");
+        return variables[(int) payload];
+      case IrEncoder.VALUE_INTEGER:
+        return IntegerConstant.get(program, (payload >>> 1) ^ -(payload & 1));
+      case IrEncoder.VALUE_BOOLEAN:
+        return BooleanConstant.get(program, payload != 0);
+      default:
+        return null;
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private static Instruction instruction(int opcode, Variable dst, List<Value> operands,
+      Symbol symbol, int extra) throws IOException {
+    switch (opcode) {
+      case IrEncoder.ADDRESS_AT:
+        return operands.isEmpty() ? new AddressAt((AddressVar) dst, symbol)
+            : new AddressAt((AddressVar) dst, symbol, (LocalVar) operands.get(0));
+      case IrEncoder.BINARY_OPERATOR:
+        return new BinaryOperator(BinaryOperator.Op.values()[extra], (LocalVar) dst,
+            (LocalVar) operands.get(0), (LocalVar) operands.get(1));
+      case IrEncoder.CALL: {
+        var params = (List<LocalVar>) (List<?>) operands;
+        return dst == null ? new CallInst(symbol, params)
+            : new CallInst((LocalVar) dst, symbol, params);
+      }
+      case IrEncoder.COMPARE:
+        return new CompareInst((LocalVar) dst, CompareInst.Predicate.values()[extra],
+            (LocalVar) operands.get(0), (LocalVar) operands.get(1));
+      case IrEncoder.COPY:
+        return new CopyInst((LocalVar) dst, operands.get(0));
+      case IrEncoder.JUMP:
+        return new JumpInst((LocalVar) operands.get(0));
+      case IrEncoder.LOAD:
+        return new LoadInst((LocalVar) dst, (AddressVar) operands.get(0));
+      case IrEncoder.NOP:
+        return new NopInst();
+      case IrEncoder.PHI:
+        return new PhiInst((LocalVar) dst, List.of(), List.of());
+      case IrEncoder.RETURN:
+        return new ReturnInst((LocalVar) operands.get(0));
+      case IrEncoder.STORE:
+        return new StoreInst((LocalVar) operands.get(0), (AddressVar) operands.get(1));
+      case IrEncoder.UNARY_NOT:
+        return new UnaryNotInst((LocalVar) dst, (LocalVar) operands.get(0));
+    }
+    throw new IOException(String.format("unknown opcode %d", opcode));
+  }
+}
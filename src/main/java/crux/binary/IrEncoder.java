@@ -0,0 +1,210 @@
+package crux.binary;
+
+import crux.ir.*;
+import crux.ir.insts.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.*;
+
+/**
+ * Writes a {@link Program} in the {@link BinaryFormat}. The body holds the globals and then every
+ * function with its variable table and its instructions. The instructions of a function are
+ * numbered, starting with the start instruction, and each one is written as its opcode, its own
+ * fields, its destination, its operands and the numbers of its successors, so the edges of the
+ * instruction graph become lists of indices.
+ * <p>
+ * Operands are a single varint each: a variable index, an integer or a boolean constant, with the
+ * kind in the two lowest bits.
+ */
+public final class IrEncoder extends InstVisitor {
+  static final int ADDRESS_AT = 0;
+  static final int BINARY_OPERATOR = 1;
+  static final int CALL = 2;
+  static final int COMPARE = 3;
+  static final int COPY = 4;
+  static final int JUMP = 5;
+  static final int LOAD = 6;
+  static final int NOP = 7;
+  static final int PHI = 8;
+  static final int RETURN = 9;
+  static final int STORE = 10;
+  static final int UNARY_NOT = 11;
+
+  static final int VALUE_VARIABLE = 0;
+  static final int VALUE_INTEGER = 1;
+  static final int VALUE_BOOLEAN = 2;
+  static final int VALUE_NULL = 3;
+
+  static final int VAR_LOCAL = 0;
+  static final int VAR_ADDRESS = 1;
+
+  private final Encoder encoder = new Encoder(BinaryFormat.KIND_IR);
+  private final Encoder.Bytes body = encoder.body;
+  private IdentityHashMap<Variable, Integer> variables;
+  private IdentityHashMap<Instruction, Integer> instructions;
+
+  private IrEncoder() {}
+
+  public static void write(Program p, OutputStream out) throws IOException {
+    var writer = new IrEncoder();
+    writer.program(p);
+    writer.encoder.finish(out);
+  }
+
+  private void program(Program p) {
+    var globals = new ArrayList<GlobalDecl>();
+    p.getGlobals().forEachRemaining(globals::add);
+    body.writeVarint(globals.size());
+    for (GlobalDecl g : globals) {
+      body.writeVarint(encoder.symbol(g.getSymbol()));
+      body.writeSigned(g.getNumElement().getValue());
+    }
+
+    var functions = new ArrayList<Function>();
+    p.getFunctions().forEachRemaining(functions::add);
+    body.writeVarint(functions.size());
+    for (Function f : functions)
+      function(f);
+  }
+
+  private void function(Function f) {
+    body.writeVarint(encoder.string(f.getName()));
+    body.writeVarint(encoder.type(f.getFuncType()));
+    body.writeVarint(f.getNumTempVars());
+    body.writeVarint(f.getNumTempAddressVars());
+
+    // Number all instructions, also the ones that only a return points to
+    var order = new ArrayList<Instruction>();
+    instructions = new IdentityHashMap<>();
+    var stack = new ArrayDeque<Instruction>();
+    if (f.getStart() != null)
+      stack.push(f.getStart());
+    while (!stack.isEmpty()) {
+      Instruction i = stack.pop();
+      if (instructions.containsKey(i))
+        continue;
+      instructions.put(i, order.size());
+      order.add(i);
+      for (int k = i.numNext() - 1; k >= 0; k--) {
+        if (i.getNext(k) != null && !instructions.containsKey(i.getNext(k)))
+          stack.push(i.getNext(k));
+      }
+    }
+
+    // The variable table, arguments first
+    variables = new IdentityHashMap<>();
+    var vars = new ArrayList<Variable>();
+    var args = f.getArguments();
+    for (Variable arg : args)
+      addVariable(arg, vars);
+    for (Instruction i : order) {
+      if (i.getDestination() != null)
+        addVariable(i.getDestination(), vars);
+      for (Value v : i.getOperands()) {
+        if (v instanceof Variable)
+          addVariable((Variable) v, vars);
+      }
+    }
+    body.writeVarint(vars.size());
+    for (Variable v : vars) {
+      body.writeVarint(v instanceof AddressVar ? VAR_ADDRESS : VAR_LOCAL);
+      body.writeVarint(encoder.string(v.getName()));
+      body.writeVarint(encoder.type(v.getType()));
+    }
+    body.writeVarint(args.size());
+
+    body.writeVarint(order.size());
+    for (Instruction i : order) {
+      i.accept(this);
+      body.writeVarint(i.getDestination() == null ? 0 : variables.get(i.getDestination()) + 1L);
+      body.writeVarint(i.getOperands().size());
+      for (Value v : i.getOperands())
+        value(v);
+      body.writeVarint(i.numNext());
+      for (int k = 0; k < i.numNext(); k++)
+        instruction(i.getNext(k));
+    }
+  }
+
+  private void addVariable(Variable v, ArrayList<Variable> vars) {
+    if (!variables.containsKey(v)) {
+      variables.put(v, vars.size());
+      vars.add(v);
+    }
+  }
+
+  private void value(Value v) {
+    if (v instanceof Variable)
+      body.writeVarint(((long) variables.get(v) << 2) | VALUE_VARIABLE);
+    else if (v instanceof IntegerConstant)
+      body.writeVarint(zigzag(((IntegerConstant) v).getValue()) << 2 | VALUE_INTEGER);
+    else if (v instanceof BooleanConstant)
+      body.writeVarint((((BooleanConstant) v).getValue() ? 1L : 0L) << 2 | VALUE_BOOLEAN);
+    else
+      body.writeVarint(VALUE_NULL);
+  }
+
+  private static long zigzag(long value) {
+    return (value << 1) ^ (value >> 63);
+  }
+
+  private void instruction(Instruction i) {
+    body.writeVarint(i == null ? 0 : instructions.get(i) + 1L);
+  }
+
+  public void visit(AddressAt i) {
+    body.writeVarint(ADDRESS_AT);
+    body.writeVarint(encoder.symbol(i.getBase()));
+  }
+
+  public void visit(BinaryOperator i) {
+    body.writeVarint(BINARY_OPERATOR);
+    body.writeVarint(i.getOperator().ordinal());
+  }
+
+  public void visit(CompareInst i) {
+    body.writeVarint(COMPARE);
+    body.writeVarint(i.getPredicate().ordinal());
+  }
+
+  public void visit(CopyInst i) {
+    body.writeVarint(COPY);
+  }
+
+  public void visit(JumpInst i) {
+    body.writeVarint(JUMP);
+  }
+
+  public void visit(LoadInst i) {
+    body.writeVarint(LOAD);
+  }
+
+  public void visit(NopInst i) {
+    body.writeVarint(NOP);
+  }
+
+  public void visit(PhiInst i) {
+    body.writeVarint(PHI);
+    body.writeVarint(i.numIncoming());
+    for (int k = 0; k < i.numIncoming(); k++)
+      instruction(i.getPredecessor(k));
+  }
+
+  public void visit(StoreInst i) {
+    body.writeVarint(STORE);
+  }
+
+  public void visit(ReturnInst i) {
+    body.writeVarint(RETURN);
+  }
+
+  public void visit(CallInst i) {
+    body.writeVarint(CALL);
+    body.writeVarint(encoder.symbol(i.getCallee()));
+  }
+
+  public void visit(UnaryNotInst i) {
+    body.writeVarint(UNARY_NOT);
+  }
+}
@@ -0,0 +1,82 @@
+package crux.ir;
+
+import java.util.*;
+
+/**
+ * A basic block of a {@link ControlFlowGraph}: a sequence of instructions that is always executed
+ * from the first to the last one. Only the last instruction can have more than one successor and
+ * only the first one can have more than one predecessor.
+ * <p>
+ * The successors are in the order of the edges of the last instruction, so for a block that ends
+ * with a {@link crux.ir.insts.JumpInst} the false successor comes before the true one. A block that
+ * is reached on both edges of a jump has it only once as a predecessor.
+ */
+public final class BasicBlock {
+  private static final BasicBlock[] NONE = new BasicBlock[0];
+
+  private final int index;
+  private final Instruction[] insts;
+  BasicBlock[] preds = NONE;
+  BasicBlock[] succs = NONE;
+
+  BasicBlock(int index, Instruction[] insts) {
+    this.index = index;
+    this.insts = insts;
+  }
+
+  /**
+   * Returns the number of the block in reverse post order, the entry block has number 0.
+   */
+  public int getIndex() {
+    return index;
+  }
+
+  public int size() {
+    return insts.length;
+  }
+
+  public Instruction get(int k) {
+    return insts[k];
+  }
+
+  public Instruction first() {
+    return insts[0];
+  }
+
+  public Instruction last() {
+    return insts[insts.length - 1];
+  }
+
+  public List<Instruction> getInstructions() {
+    return Collections.unmodifiableList(Arrays.asList(insts));
+  }
+
+  public int numPredecessors() {
+    return preds.length;
+  }
+
+  public BasicBlock getPredecessor(int k) {
+    return preds[k];
+  }
+
+  public List<BasicBlock> getPredecessors() {
+    return Collections.unmodifiableList(Arrays.asList(preds));
+  }
+
+  public int numSuccessors() {
+    return succs.length;
+  }
+
+  public BasicBlock getSuccessor(int k) {
+    return succs[k];
+  }
+
+  public List<BasicBlock> getSuccessors() {
+    return Collections.unmodifiableList(Arrays.asList(succs));
+  }
+
+  @Override
+  public String toString() {
+    return "B" + index;
+  }
+}
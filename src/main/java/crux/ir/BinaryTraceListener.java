@@ -0,0 +1,139 @@
+package crux.ir;
+
+import crux.ir.insts.CallInst;
+import crux.printing.IRValueFormatter;
+
+import java.io.*;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+
+/**
+ * Writes a compact binary trace of the execution, meant for long runs where the text output of
+ * {@link DebugListener} would be too large. The trace starts with the magic {@code "CRUXTRACE"} and a
+ * version byte, followed by records that start with a one byte tag:
+ *
+ * <pre>
+ * 'F' int id, utf name             defines a function (or built-in) id
+ * 'D' int id, int function, utf    defines an instruction id and its text
+ * 'I' int id                       instruction executed
+ * 'C' int function                 call entered
+ * 'R' int function                 call returned
+ * 'r' long address, long value     memory read
+ * 'w' long address, long value     memory written
+ * </pre>
+ *
+ * Ids are defined the first time they are used.
+ */
+public final class BinaryTraceListener implements ExecutionListener, Closeable {
+  static final int VERSION = 1;
+
+  private final DataOutputStream out;
+  private final IdentityHashMap<Instruction, Integer> instructionIds = new IdentityHashMap<>();
+  private final HashMap<String, Integer> functionIds = new HashMap<>();
+  private final IRValueFormatter formatter = new IRValueFormatter();
+
+  public BinaryTraceListener(OutputStream os) {
+    out = new DataOutputStream(new BufferedOutputStream(os, 1 << 16));
+    try {
+      out.writeBytes("CRUXTRACE");
+      out.writeByte(VERSION);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private int functionId(String name) throws IOException {
+    Integer id = functionIds.get(name);
+    if (id == null) {
+      id = functionIds.size();
+      functionIds.put(name, id);
+      out.writeByte('F');
+      out.writeInt(id);
+      out.writeUTF(name);
+    }
+    return id;
+  }
+
+  private int instructionId(Instruction i, Frame frame) throws IOException {
+    Integer id = instructionIds.get(i);
+    if (id == null) {
+      id = instructionIds.size();
+      instructionIds.put(i, id);
+      int function = functionId(frame.getFunction().getName());
+      out.writeByte('D');
+      out.writeInt(id);
+      out.writeInt(function);
+      out.writeUTF(i.format(formatter));
+    }
+    return id;
+  }
+
+  @Override
+  public void instructionExecuted(Instruction i, Frame frame) {
+    try {
+      int id = instructionId(i, frame);
+      out.writeByte('I');
+      out.writeInt(id);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  @Override
+  public void callEntered(CallInst call, Function callee, Object[] args) {
+    try {
+      int id = functionId(call.getCallee().getName());
+      out.writeByte('C');
+      out.writeInt(id);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  @Override
+  public void callReturned(Function f, Object value) {
+    try {
+      int id = functionId(f.getName());
+      out.writeByte('R');
+      out.writeInt(id);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  @Override
+  public void memoryRead(long address, long value) {
+    try {
+      out.writeByte('r');
+      out.writeLong(address);
+      out.writeLong(value);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  @Override
+  public void memoryWritten(long address, long value) {
+    try {
+      out.writeByte('w');
+      out.writeLong(address);
+      out.writeLong(value);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  @Override
+  public void executionFinished() {
+    try {
+      close();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    out.close();
+  }
+}
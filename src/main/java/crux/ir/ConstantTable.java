@@ -0,0 +1,63 @@
+package crux.ir;
+
+/**
+ * Interns the constants of one {@link Program}, so that they are released together with it. The
+ * integers are kept in an open addressing table keyed by the primitive value, with linear probing.
+ * All methods are synchronized, so a program may be lowered or optimized from several threads.
+ */
+final class ConstantTable {
+  private long[] keys = new long[16];
+  private IntegerConstant[] integers = new IntegerConstant[16];
+  private int size;
+  private BooleanConstant falseConstant;
+  private BooleanConstant trueConstant;
+
+  synchronized IntegerConstant integer(long value) {
+    int mask = keys.length - 1;
+    for (int k = slot(value, mask); ; k = (k + 1) & mask) {
+      if (integers[k] == null) {
+        var constant = new IntegerConstant(value);
+        keys[k] = value;
+        integers[k] = constant;
+        if (++size * 4 > keys.length * 3)
+          grow();
+        return constant;
+      }
+      if (keys[k] == value)
+        return integers[k];
+    }
+  }
+
+  synchronized BooleanConstant bool(boolean value) {
+    if (value) {
+      if (trueConstant == null)
+        trueConstant = new BooleanConstant(true);
+      return trueConstant;
+    }
+    if (falseConstant == null)
+      falseConstant = new BooleanConstant(false);
+    return falseConstant;
+  }
+
+  private void grow() {
+    var oldKeys = keys;
+    var oldIntegers = integers;
+    keys = new long[oldKeys.length * 2];
+    integers = new IntegerConstant[oldKeys.length * 2];
+    int mask = keys.length - 1;
+    for (int j = 0; j < oldKeys.length; j++) {
+      if (oldIntegers[j] == null)
+        continue;
+      int k = slot(oldKeys[j], mask);
+      while (integers[k] != null)
+        k = (k + 1) & mask;
+      keys[k] = oldKeys[j];
+      integers[k] = oldIntegers[j];
+    }
+  }
+
+  private static int slot(long value, int mask) {
+    // Fibonacci hashing spreads small and strided values over the whole table
+    return (int) ((value * 0x9E3779B97F4A7C15L) >>> 40) & mask;
+  }
+}
@@ -0,0 +1,243 @@
+package crux.ir;
+
+import crux.ir.insts.JumpInst;
+import crux.ir.insts.NopInst;
+import crux.ir.insts.PhiInst;
+import crux.ir.insts.ReturnInst;
+
+import java.util.*;
+
+/**
+ * A basic block view of the instruction graph of a {@link Function}. The view is a snapshot of the
+ * graph that starts at {@link Function#getStart()}, it has to be built again after the control flow
+ * changes.
+ * <p>
+ * A block starts at the start of the function, at jump targets and at instructions with more than
+ * one predecessor, and it ends at jumps, returns and before the next block. The successors of a
+ * {@link ReturnInst} are ignored, since they are never executed. Only blocks that are reachable from
+ * the start are included, numbered in reverse post order, so the entry block comes first and every
+ * block comes before its successors unless the edge goes back to a loop header.
+ */
+public final class ControlFlowGraph {
+  private final Function function;
+  private final BasicBlock[] blocks;
+  private final HashMap<Instruction, BasicBlock> blockOf = new HashMap<>();
+  private int numInstructions;
+
+  public ControlFlowGraph(Function f) {
+    function = f;
+    var start = f.getStart();
+    if (start == null) {
+      blocks = new BasicBlock[0];
+      return;
+    }
+
+    // Count the incoming edges of every reachable instruction
+    var predCount = new HashMap<Instruction, Integer>();
+    var leaders = new HashSet<Instruction>();
+    leaders.add(start);
+    for (Instruction i : reachable(f)) {
+      for (Instruction s : successors(i)) {
+        predCount.merge(s, 1, Integer::sum);
+        if (i instanceof JumpInst)
+          leaders.add(s);
+      }
+    }
+    for (var e : predCount.entrySet()) {
+      if (e.getValue() > 1)
+        leaders.add(e.getKey());
+    }
+
+    // Form the blocks, a block ends before the next leader
+    var heads = new HashMap<Instruction, Instruction[]>();
+    var insts = new ArrayList<Instruction>();
+    for (Instruction leader : leaders) {
+      insts.clear();
+      Instruction i = leader;
+      while (true) {
+        insts.add(i);
+        if (i instanceof JumpInst || i instanceof ReturnInst)
+          break;
+        Instruction n = i.getNext(0);
+        if (n == null || leaders.contains(n))
+          break;
+        i = n;
+      }
+      heads.put(leader, insts.toArray(new Instruction[0]));
+    }
+
+    // Number the blocks in reverse post order
+    var postorder = new ArrayList<Instruction>();
+    var visited = new HashSet<Instruction>();
+    var stack = new ArrayDeque<Instruction>();
+    var edge = new ArrayDeque<Integer>();
+    stack.push(start);
+    edge.push(0);
+    visited.add(start);
+    while (!stack.isEmpty()) {
+      var body = heads.get(stack.peek());
+      var succs = successors(body[body.length - 1]);
+      int k = edge.pop();
+      if (k < succs.size()) {
+        edge.push(k + 1);
+        Instruction s = succs.get(k);
+        if (visited.add(s)) {
+          stack.push(s);
+          edge.push(0);
+        }
+      } else {
+        postorder.add(stack.pop());
+      }
+    }
+    blocks = new BasicBlock[postorder.size()];
+    for (int k = 0; k < blocks.length; k++) {
+      var b = new BasicBlock(k, heads.get(postorder.get(blocks.length - 1 - k)));
+      for (int j = 0; j < b.size(); j++)
+        blockOf.put(b.get(j), b);
+      numInstructions += b.size();
+      blocks[k] = b;
+    }
+
+    // Link the blocks, without duplicate edges
+    var preds = new ArrayList<ArrayList<BasicBlock>>();
+    for (int k = 0; k < blocks.length; k++)
+      preds.add(new ArrayList<>(2));
+    for (BasicBlock b : blocks) {
+      var succs = successors(b.last());
+      var linked = new ArrayList<BasicBlock>(succs.size());
+      for (Instruction s : succs) {
+        BasicBlock sb = blockOf.get(s);
+        if (!linked.contains(sb)) {
+          linked.add(sb);
+          preds.get(sb.getIndex()).add(b);
+        }
+      }
+      b.succs = linked.toArray(b.succs);
+    }
+    for (BasicBlock b : blocks)
+      b.preds = preds.get(b.getIndex()).toArray(b.preds);
+  }
+
+  public Function getFunction() {
+    return function;
+  }
+
+  /**
+   * Returns the block that contains the start of the function, or null if the function has no body.
+   */
+  public BasicBlock getEntry() {
+    return blocks.length == 0 ? null : blocks[0];
+  }
+
+  public int numBlocks() {
+    return blocks.length;
+  }
+
+  /**
+   * Returns the block with the number {@code index} in reverse post order.
+   */
+  public BasicBlock getBlock(int index) {
+    return blocks[index];
+  }
+
+  /**
+   * Returns the blocks in reverse post order.
+   */
+  public List<BasicBlock> getBlocks() {
+    return Collections.unmodifiableList(Arrays.asList(blocks));
+  }
+
+  /**
+   * Returns the block that contains {@code i}, or null if it is not reachable.
+   */
+  public BasicBlock blockOf(Instruction i) {
+    return blockOf.get(i);
+  }
+
+  /**
+   * Returns the number of reachable instructions.
+   */
+  public int numInstructions() {
+    return numInstructions;
+  }
+
+  /**
+   * Returns the successors that can actually be executed after {@code i}.
+   */
+  public static List<Instruction> successors(Instruction i) {
+    if (i instanceof ReturnInst)
+      return List.of();
+    var result = new ArrayList<Instruction>(2);
+    for (int k = 0; k < i.numNext(); k++) {
+      if (i.getNext(k) != null)
+        result.add(i.getNext(k));
+    }
+    return result;
+  }
+
+  /**
+   * Returns all instructions of {@code f} that are reachable from the start, in depth first order.
+   */
+  public static List<Instruction> reachable(Function f) {
+    var result = new ArrayList<Instruction>();
+    if (f.getStart() == null)
+      return result;
+    var visited = new HashSet<Instruction>();
+    var stack = new ArrayDeque<Instruction>();
+    stack.push(f.getStart());
+    visited.add(f.getStart());
+    while (!stack.isEmpty()) {
+      Instruction i = stack.pop();
+      result.add(i);
+      var succs = successors(i);
+      for (int k = succs.size() - 1; k >= 0; k--) {
+        if (visited.add(succs.get(k)))
+          stack.push(succs.get(k));
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Removes the {@link NopInst}s from the instruction graph of {@code f}, the edges into a nop go to
+   * its successor instead. A nop stays if it ends a void function, loops to itself or is followed by
+   * phis (the phis refer to it as a predecessor), and the start stays a nop if removing it would make
+   * the entry a merge point. Returns the number of removed nops.
+   */
+  public static int removeNops(Function f) {
+    // The predecessors of every instruction, once for every edge
+    var preds = new HashMap<Instruction, ArrayList<Instruction>>();
+    var nops = new ArrayList<Instruction>();
+    for (Instruction i : reachable(f)) {
+      preds.computeIfAbsent(i, k -> new ArrayList<>());
+      if (i instanceof NopInst)
+        nops.add(i);
+      for (Instruction s : successors(i))
+        preds.computeIfAbsent(s, k -> new ArrayList<>()).add(i);
+    }
+
+    int removed = 0;
+    for (Instruction nop : nops) {
+      Instruction s = nop.getNext(0);
+      if (s == null || s == nop || s instanceof PhiInst)
+        continue;
+      var nopPreds = preds.get(nop);
+      var sPreds = preds.get(s);
+      if (f.getStart() == nop) {
+        if (sPreds.size() > 1 || !nopPreds.isEmpty())
+          continue;
+        f.setStart(s);
+      }
+      for (Instruction p : nopPreds) {
+        for (int k = 0; k < p.numNext(); k++) {
+          if (p.getNext(k) == nop)
+            p.setNext(k, s);
+        }
+      }
+      sPreds.remove(nop);
+      sPreds.addAll(nopPreds);
+      removed++;
+    }
+    return removed;
+  }
+}
@@ -0,0 +1,84 @@
+package crux.ir;
+
+import crux.ir.insts.*;
+
+import java.io.PrintStream;
+import java.util.Arrays;
+
+/**
+ * Prints a human readable line for every executed instruction, which is the output of
+ * {@code --debug-emulator}.
+ */
+public final class DebugListener extends InstVisitor implements ExecutionListener {
+  private final PrintStream out;
+  private Frame frame;
+  //The operands of the last binary operator or comparison, read before it wrote its destination
+  private Object left;
+  private Object right;
+
+  public DebugListener(PrintStream out) {
+    this.out = out;
+  }
+
+  @Override
+  public void instructionExecuted(Instruction i, Frame frame) {
+    this.frame = frame;
+    i.accept(this);
+  }
+
+  @Override
+  public void operandsRead(Instruction i, Object left, Object right) {
+    this.left = left;
+    this.right = right;
+  }
+
+  @Override
+  public void callEntered(CallInst call, Function callee, Object[] args) {
+    out.println("Calling " + call.getCallee().getName() + " with " + Arrays.toString(args));
+  }
+
+  private Object value(Variable v) {
+    return frame.getValue(v);
+  }
+
+  public void visit(AddressAt i) {
+    out.println("AddressAt: " + i.getDst() + " = " + value(i.getDst()));
+  }
+
+  public void visit(BinaryOperator i) {
+    out.println("BinaryOperator: " + i.getDst() + "=" + left + i.getOperator() + right);
+  }
+
+  public void visit(CompareInst i) {
+    out.println("CompareInst: " + i.getDst() + "=" + left + i.getPredicate() + right);
+  }
+
+  public void visit(CopyInst i) {
+    out.println("CopyInst: " + i.getDstVar() + "=" + value(i.getDstVar()));
+  }
+
+  public void visit(JumpInst i) {
+    out.println("Jump: " + i.getPredicate() + "=" + value(i.getPredicate()));
+  }
+
+  public void visit(LoadInst i) {
+    out.println("LoadInst: " + i.getDst() + "=" + value(i.getDst()));
+  }
+
+  public void visit(NopInst i) {
+    out.println("Nop:");
+  }
+
+  public void visit(StoreInst i) {
+    out.println(
+        "StoreInst: *" + value(i.getDestAddress()) + "=" + value(i.getSrcValue()));
+  }
+
+  public void visit(ReturnInst i) {
+    out.println("ReturnInst: " + value(i.getReturnValue()));
+  }
+
+  public void visit(UnaryNotInst i) {
+    out.println("UnaryNotInst: " + value(i.getDst()));
+  }
+}
@@ -9,11 +9,17 @@ import crux.ast.types.*;
 public class Emulator {
   HashMap<String, Function> functions = new HashMap<>();
   Stack<CallContext> stack = new Stack<>();
-  HashMap<Long, Long> globalMap = new HashMap<>();
-  HashMap<Symbol, Long> offsetMap = new HashMap<>();
+  GlobalMemory memory;
 
   BufferedReader br;
   PrintStream out;
+  ExecutionListener listener;
+  /**
+   * Prints every executed instruction to the output of emulators created while it is set.
+   *
+   * @deprecated attach a {@link DebugListener} with {@link #addListener} instead.
+   */
+  @Deprecated
   public static boolean DEBUG = false;
 
   public Emulator(Program p, InputStream emulatorInput, OutputStream emulatorOutput) {
@@ -24,11 +30,19 @@ public class Emulator {
       Function f = func_it.next();
       functions.put(f.getName(), f);
     }
-    long offset = 0;
-    for (Iterator<GlobalDecl> glob_it = p.getGlobals(); glob_it.hasNext();) {
-      GlobalDecl g = glob_it.next();
-      offsetMap.put(g.getSymbol(), offset);
-      offset += ((IntegerConstant) g.getNumElement()).getValue() * 8;
+    memory = new GlobalMemory(p);
+    if (DEBUG)
+      addListener(new DebugListener(out));
+  }
+
+  /**
+   * Attaches a listener that is notified about every step of the execution.
+   */
+  public void addListener(ExecutionListener l) {
+    if (listener == null) {
+      listener = l;
+    } else {
+      listener = new ListenerList(listener, l);
     }
   }
 
@@ -41,18 +55,62 @@ public class Emulator {
       if (c.pc == null) {
         // Handle implicit return from void function
         stack.pop();
+        if (listener != null)
+          listener.callReturned(c.f, null);
       } else {
         c.pc.accept(c);
       }
     }
+    if (listener != null)
+      listener.executionFinished();
   }
 
-  void debug(String msg) {
-    if (DEBUG)
-      out.println(msg);
+  private static final class ListenerList implements ExecutionListener {
+    private final ExecutionListener first;
+    private final ExecutionListener second;
+
+    ListenerList(ExecutionListener first, ExecutionListener second) {
+      this.first = first;
+      this.second = second;
+    }
+
+    public void instructionExecuted(Instruction i, Frame frame) {
+      first.instructionExecuted(i, frame);
+      second.instructionExecuted(i, frame);
+    }
+
+    public void operandsRead(Instruction i, Object left, Object right) {
+      first.operandsRead(i, left, right);
+      second.operandsRead(i, left, right);
+    }
+
+    public void callEntered(CallInst call, Function callee, Object[] args) {
+      first.callEntered(call, callee, args);
+      second.callEntered(call, callee, args);
+    }
+
+    public void callReturned(Function f, Object value) {
+      first.callReturned(f, value);
+      second.callReturned(f, value);
+    }
+
+    public void memoryRead(long address, long value) {
+      first.memoryRead(address, value);
+      second.memoryRead(address, value);
+    }
+
+    public void memoryWritten(long address, long value) {
+      first.memoryWritten(address, value);
+      second.memoryWritten(address, value);
+    }
+
+    public void executionFinished() {
+      first.executionFinished();
+      second.executionFinished();
+    }
   }
 
-  class CallContext extends InstVisitor {
+  class CallContext extends InstVisitor implements ExecutionListener.Frame {
     Function f;
     Instruction pc;
     HashMap<Variable, Object> localMap;
@@ -71,15 +129,28 @@ public class Emulator {
       this.retval = retval;
     }
 
+    public Function getFunction() {
+      return f;
+    }
+
+    public Object getValue(Variable v) {
+      return localMap.get(v);
+    }
+
+    private void executed(Instruction i) {
+      if (listener != null)
+        listener.instructionExecuted(i, this);
+    }
+
     public void visit(AddressAt i) {
       Symbol base = i.getBase();
-      long address = offsetMap.get(base);
+      long address = memory.getOffset(base);
       Value v = i.getOffset();
       if (v != null) {
         address += 8 * ((Long) localMap.get(v));
       }
       localMap.put(i.getDst(), address);
-      debug("AddressAt: " + i.getDst() + " = " + address);
+      executed(i);
       pc = pc.getNext(0);
     }
 
@@ -101,8 +172,10 @@ public class Emulator {
           result = ((Long) left) / ((Long) right);
           break;
       }
+      if (listener != null)
+        listener.operandsRead(i, left, right);
       localMap.put(i.getDst(), result);
-      debug("BinaryOperator: " + i.getDst() + "=" + left + i.getOperator() + right);
+      executed(i);
       pc = pc.getNext(0);
     }
 
@@ -130,8 +203,10 @@ public class Emulator {
           result = !left.equals(right);
           break;
       }
+      if (listener != null)
+        listener.operandsRead(i, left, right);
       localMap.put(i.getDst(), result);
-      debug("CompareInst: " + i.getDst() + "=" + left + i.getPredicate() + right);
+      executed(i);
       pc = pc.getNext(0);
     }
 
@@ -146,41 +221,42 @@ public class Emulator {
         val = localMap.get(srcval);
       }
 
-      debug("CopyInst: " + i.getDstVar() + "=" + val);
       localMap.put(i.getDstVar(), val);
+      executed(i);
       pc = pc.getNext(0);
     }
 
     public void visit(JumpInst i) {
       Boolean pred = (Boolean) localMap.get(i.getPredicate());
-      debug("Jump: " + i.getPredicate() + "=" + pred);
+      executed(i);
       pc = pred ? pc.getNext(1) : pc.getNext(0);
     }
 
     public void visit(LoadInst i) {
       AddressVar var = i.getSrcAddress();
-      Long address = (Long) localMap.get(var);
-      Long value = globalMap.get(address);
-      if (value == null) {
+      long address = (Long) localMap.get(var);
+      if (!memory.isInitialized(address)) {
         out.println("Reading from uninitialized memory");
-        value = Long.valueOf(0);
       }
+      long value = memory.load(address);
+      if (listener != null)
+        listener.memoryRead(address, value);
 
       Object val;
       if (var.getType() instanceof IntType) {
-        val = value;
+        val = Long.valueOf(value);
       } else {
         val = Boolean.valueOf(value != 0);
       }
 
-      debug("LoadInst: " + i.getDst() + "=" + val);
       localMap.put(i.getDst(), val);
+      executed(i);
       pc = pc.getNext(0);
     }
 
     public void visit(NopInst i) {
       // Do nothing
-      debug("Nop:");
+      executed(i);
       pc = pc.getNext(0);
     }
 
@@ -189,21 +265,24 @@ public class Emulator {
       Object val = localMap.get(srcval);
       AddressVar dst = i.getDestAddress();
       Long address = (Long) localMap.get(dst);
-      debug("StoreInst: *" + address + "=" + val);
 
-      if (val instanceof Long) {
-        globalMap.put(address, (Long) val);
-      } else if (val instanceof Boolean) {
-        globalMap.put(address, ((Boolean) val) ? Long.valueOf(1) : Long.valueOf(0));
+      if (val instanceof Long || val instanceof Boolean) {
+        long value = val instanceof Long ? (Long) val : ((Boolean) val) ? 1 : 0;
+        memory.store(address, value);
+        if (listener != null)
+          listener.memoryWritten(address, value);
       }
+      executed(i);
       pc = pc.getNext(0);
     }
 
     public void visit(ReturnInst i) {
       Object val = i.getReturnValue() != null ? localMap.get(i.getReturnValue()) : null;
-      debug("ReturnInst: " + val);
+      executed(i);
       // Remove ourselves from the stack
       stack.pop();
+      if (listener != null)
+        listener.callReturned(f, val);
       // Return value to caller
       if (!stack.isEmpty()) {
         CallContext caller = stack.peek();
@@ -221,7 +300,8 @@ public class Emulator {
 
       Symbol varCallee = i.getCallee();
       String fName = varCallee.getName();
-      debug("Calling " + fName + " with " + Arrays.toString(args));
+      if (listener != null)
+        listener.callEntered(i, functions.get(fName), args);
 
       if (fName.equals("readInt")) {
         try {
@@ -253,6 +333,7 @@ public class Emulator {
         CallContext callee = new CallContext(f, args, (LocalVar) i.getDst());
         stack.push(callee);
       }
+      executed(i);
       pc = pc.getNext(0);
     }
 
@@ -260,7 +341,7 @@ public class Emulator {
       Object left = localMap.get(i.getInner());
       Object result = !((Boolean) left);
       localMap.put(i.getDst(), result);
-      debug("UnaryNotInst: " + result);
+      executed(i);
       pc = pc.getNext(0);
     }
   }
@@ -0,0 +1,58 @@
+package crux.ir;
+
+import crux.ir.insts.CallInst;
+
+/**
+ * Receives execution events from the {@link Emulator}. All methods do nothing by default, so a
+ * listener only implements the events it is interested in. The emulator only calls into listeners
+ * that have been attached with {@link Emulator#addListener}, so running without listeners costs
+ * nothing beyond a null check per event.
+ */
+public interface ExecutionListener {
+  /**
+   * The state of one active call, which can be used to look at the values of variables.
+   */
+  interface Frame {
+    Function getFunction();
+
+    /**
+     * Returns the current value of {@code v} ({@link Long} or {@link Boolean}), or null if it has not
+     * been assigned yet.
+     */
+    Object getValue(Variable v);
+  }
+
+  /**
+   * Called after {@code i} has been executed in {@code frame}. For a {@link CallInst} of a function
+   * defined in the program this happens after the callee has been entered, but before its first
+   * instruction is executed.
+   */
+  default void instructionExecuted(Instruction i, Frame frame) {}
+
+  /**
+   * Called for a {@link crux.ir.insts.BinaryOperator} or a {@link crux.ir.insts.CompareInst}
+   * before it writes its destination, with the values of its operands. The destination may be one
+   * of the operands, so the frame no longer has them once the instruction has executed.
+   */
+  default void operandsRead(Instruction i, Object left, Object right) {}
+
+  /**
+   * Called before {@code call} is executed, for built-in functions as well. {@code callee} is null
+   * for built-in functions.
+   */
+  default void callEntered(CallInst call, Function callee, Object[] args) {}
+
+  /**
+   * Called when {@code f} returns, {@code value} is null if there is no return value.
+   */
+  default void callReturned(Function f, Object value) {}
+
+  default void memoryRead(long address, long value) {}
+
+  default void memoryWritten(long address, long value) {}
+
+  /**
+   * Called once when the program has terminated.
+   */
+  default void executionFinished() {}
+}
@@ -59,6 +59,14 @@ public final class Function implements Formattable, java.io.Serializable {
     return mTempVarCounter;
   }
 
+  /**
+   * Sets the number of temporaries that were created, e.g. when a serialized function is read, so new
+   * temporaries get fresh names.
+   */
+  public void setNumTempVars(int count) {
+    mTempVarCounter = count;
+  }
+
   public AddressVar getTempAddressVar(Type type) {
     var name = String.format("av%d", mTempAddressVarCounter++);
     return new AddressVar(type, name);
@@ -68,6 +76,10 @@ public final class Function implements Formattable, java.io.Serializable {
     return mTempAddressVarCounter;
   }
 
+  public void setNumTempAddressVars(int count) {
+    mTempAddressVarCounter = count;
+  }
+
   public Instruction getStart() {
     return startInstruction;
   }
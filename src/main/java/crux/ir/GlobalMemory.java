@@ -0,0 +1,83 @@
+package crux.ir;
+
+import crux.ast.SymbolTable.Symbol;
+
+import java.util.HashMap;
+import java.util.Iterator;
+
+/**
+ * The global data segment of a program, as seen by the emulators. Every {@link GlobalDecl} gets a
+ * contiguous range of 8 byte words in declaration order, so addresses are byte offsets into one flat
+ * {@code long[]}. A bitmap records which words have been written, which is what the emulators use to
+ * report reads from uninitialized memory.
+ * <p>
+ * Addresses outside of the declared globals (e.g. an out of bounds array index) are kept in a sparse
+ * overflow map, so that they behave exactly like in-bounds memory that nobody declared.
+ */
+public final class GlobalMemory {
+  private final HashMap<Symbol, Long> offsetMap = new HashMap<>();
+  private final long[] words;
+  private final long[] initialized;
+  private HashMap<Long, Long> overflow;
+
+  public GlobalMemory(Program p) {
+    long offset = 0;
+    for (Iterator<GlobalDecl> glob_it = p.getGlobals(); glob_it.hasNext();) {
+      GlobalDecl g = glob_it.next();
+      offsetMap.put(g.getSymbol(), offset);
+      offset += g.getNumElement().getValue() * 8;
+    }
+    int numWords = Math.toIntExact(offset / 8);
+    words = new long[numWords];
+    initialized = new long[(numWords + 63) >>> 6];
+  }
+
+  /**
+   * Returns the byte address of the first element of the global {@code symbol}.
+   */
+  public long getOffset(Symbol symbol) {
+    return offsetMap.get(symbol);
+  }
+
+  /**
+   * Returns the size of the declared global segment in bytes.
+   */
+  public long getSize() {
+    return (long) words.length * 8;
+  }
+
+  public boolean isInitialized(long address) {
+    long index = address >> 3;
+    if (index >= 0 && index < words.length) {
+      return (initialized[(int) (index >>> 6)] & (1L << index)) != 0;
+    }
+    return overflow != null && overflow.containsKey(address);
+  }
+
+  /**
+   * Returns the value stored at {@code address}, or 0 if nothing has been stored there yet.
+   */
+  public long load(long address) {
+    long index = address >> 3;
+    if (index >= 0 && index < words.length) {
+      return words[(int) index];
+    }
+    if (overflow == null) {
+      return 0;
+    }
+    return overflow.getOrDefault(address, 0L);
+  }
+
+  public void store(long address, long value) {
+    long index = address >> 3;
+    if (index >= 0 && index < words.length) {
+      words[(int) index] = value;
+      initialized[(int) (index >>> 6)] |= 1L << index;
+      return;
+    }
+    if (overflow == null) {
+      overflow = new HashMap<>();
+    }
+    overflow.put(address, value);
+  }
+}
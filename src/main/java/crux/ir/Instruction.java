@@ -1,5 +1,6 @@
 package crux.ir;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Vector;
 import crux.ir.insts.InstVisitor;
@@ -30,6 +31,44 @@ public abstract class Instruction implements Formattable, java.io.Serializable {
 
   public abstract void accept(InstVisitor v);
 
+  /**
+   * Returns the destination variable, or null if the instruction does not define a variable.
+   */
+  public Variable getDestination() {
+    return mDestVar;
+  }
+
+  public void setDestination(Variable destVar) {
+    mDestVar = destVar;
+  }
+
+  /**
+   * Returns an unmodifiable view of the operands, in the order of the instruction's getters.
+   */
+  public List<Value> getOperands() {
+    return mOperands;
+  }
+
+  public void setOperand(int i, Value value) {
+    var operands = new ArrayList<>(mOperands);
+    operands.set(i, value);
+    mOperands = List.copyOf(operands);
+  }
+
+  /**
+   * Replaces every use of {@code from} by {@code to}. Returns true if there was such a use.
+   */
+  public boolean replaceOperand(Value from, Value to) {
+    boolean replaced = false;
+    for (int i = 0; i < mOperands.size(); i++) {
+      if (mOperands.get(i) == from) {
+        setOperand(i, to);
+        replaced = true;
+      }
+    }
+    return replaced;
+  }
+
   public Instruction getNext(int i) {
     if (i >= numNext())
       return null;
@@ -41,6 +80,13 @@ public abstract class Instruction implements Formattable, java.io.Serializable {
     return next.size();
   }
 
+  /**
+   * Removes all outgoing edges.
+   */
+  public void clearNext() {
+    next.clear();
+  }
+
   public void setNext(int i, Instruction inst) {
     if (next.size() <= i)
       next.setSize(i + 1);
@@ -1,7 +1,6 @@
 package crux.ir;
 
 import crux.ast.types.IntType;
-import java.util.HashMap;
 
 /**
  * A constant integer, e.g. an array offset (like the 2 in a[2]). This is equivalent to
@@ -11,7 +10,7 @@ public final class IntegerConstant extends Constant implements java.io.Serializa
   static final long serialVersionUID = 12022L;
   private long mValue;
 
-  private IntegerConstant(Program ctx, long val) {
+  IntegerConstant(long val) {
     super(new IntType());
     mValue = val;
   }
@@ -21,7 +20,6 @@ public final class IntegerConstant extends Constant implements java.io.Serializa
   }
 
   public static IntegerConstant get(Program ctx, long value) {
-    var currentMap = mIntConstantPool.computeIfAbsent(ctx, p -> new HashMap<>());
-    return currentMap.computeIfAbsent(value, p -> new IntegerConstant(ctx, value));
+    return ctx.getConstants().integer(value);
   }
 }
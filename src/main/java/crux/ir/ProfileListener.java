@@ -0,0 +1,295 @@
+package crux.ir;
+
+import crux.ir.insts.CallInst;
+import crux.ir.insts.JumpInst;
+import crux.printing.IRValueFormatter;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Counts what the {@link Emulator} executes and writes a profile when the program has terminated,
+ * which is the output of {@code --profile-emulator}:
+ * <ul>
+ * <li>the executions of every instruction, and how often each {@link JumpInst} was taken,
+ * <li>the calls, own instructions and instructions including callees of every function,
+ * <li>the same totals for every call edge from a caller to a callee.
+ * </ul>
+ * The report prints the {@code top} entries of each table. The inclusive totals of a function or a
+ * call edge count its outermost active call only, so the levels of a recursion are not added up.
+ * The collapsed stacks, one line {@code main;f;g count} with the instructions executed in each call
+ * stack, can be read by flame graph tools.
+ * <p>
+ * The counts are kept in a calling context tree, so an executed instruction only costs an identity
+ * hash lookup and a few increments. A call of a function that is already active continues in the
+ * node of its outermost call, which folds a recursion into one call stack and keeps the tree as
+ * small as the call graph, however deep the recursion is.
+ */
+public final class ProfileListener implements ExecutionListener {
+  /**
+   * A call stack, a node of the calling context tree.
+   */
+  private static final class Node {
+    final String name;
+    final HashMap<String, Node> children = new HashMap<>();
+    long self;
+
+    Node(String name) {
+      this.name = name;
+    }
+
+    Node child(String name) {
+      return children.computeIfAbsent(name, Node::new);
+    }
+  }
+
+  private static final class Counter {
+    final Instruction instruction;
+    final String function;
+    long count;
+    long taken;
+
+    Counter(Instruction instruction, String function) {
+      this.instruction = instruction;
+      this.function = function;
+    }
+  }
+
+  private static final class Totals {
+    long calls;
+    long self;
+    long inclusive;
+    //The number of active calls, only the outermost one adds to the inclusive total
+    int active;
+  }
+
+  /**
+   * An active call, with the number of instructions executed before it.
+   */
+  private static final class Call {
+    final Node node;
+    final Totals function;
+    final Totals edge;
+    final long start;
+
+    Call(Node node, Totals function, Totals edge, long start) {
+      this.node = node;
+      this.function = function;
+      this.edge = edge;
+      this.start = start;
+    }
+  }
+
+  private final PrintStream report;
+  private final Writer collapsed;
+  private final int top;
+  private final Node root = new Node("");
+  private final IdentityHashMap<Instruction, Counter> counters = new IdentityHashMap<>();
+  //The counters in the order in which the instructions were first executed
+  private final ArrayList<Counter> order = new ArrayList<>();
+  private final HashMap<String, Totals> functions = new HashMap<>();
+  //The totals of the call edges by caller and callee
+  private final HashMap<String, HashMap<String, Totals>> edges = new HashMap<>();
+  //The node of the outermost call of every active function
+  private final HashMap<String, Node> activeNodes = new HashMap<>();
+  private final ArrayDeque<Call> stack = new ArrayDeque<>();
+  private Call call = null;
+  private long executed = 0;
+
+  /**
+   * Prints the report to {@code report} and writes the collapsed stacks to {@code collapsed}, if
+   * it is not null.
+   */
+  public ProfileListener(PrintStream report, Writer collapsed, int top) {
+    this.report = report;
+    this.collapsed = collapsed;
+    this.top = top;
+  }
+
+  @Override
+  public void instructionExecuted(Instruction i, Frame frame) {
+    if (call == null)
+      enter(frame.getFunction().getName());
+    // A call is counted in callEntered, for the caller
+    if (i instanceof CallInst)
+      return;
+    var counter = count(i);
+    if (i instanceof JumpInst
+        && Boolean.TRUE.equals(frame.getValue(((JumpInst) i).getPredicate())))
+      counter.taken++;
+  }
+
+  private Counter count(Instruction i) {
+    var counter = counters.get(i);
+    if (counter == null) {
+      counter = new Counter(i, call.node.name);
+      counters.put(i, counter);
+      order.add(counter);
+    }
+    counter.count++;
+    call.node.self++;
+    call.function.self++;
+    if (call.edge != null)
+      call.edge.self++;
+    executed++;
+    return counter;
+  }
+
+  @Override
+  public void callEntered(CallInst call, Function callee, Object[] args) {
+    // The program starts in main, which may begin with a call
+    if (this.call == null)
+      enter("main");
+    count(call);
+    if (callee == null) {
+      // Built-in functions execute no instructions
+      String name = call.getCallee().getName();
+      totals(name).calls++;
+      edge(this.call.node.name, name).calls++;
+    } else {
+      enter(callee.getName());
+    }
+  }
+
+  private Totals totals(String function) {
+    return functions.computeIfAbsent(function, f -> new Totals());
+  }
+
+  private Totals edge(String caller, String callee) {
+    return edges.computeIfAbsent(caller, c -> new HashMap<>())
+        .computeIfAbsent(callee, c -> new Totals());
+  }
+
+  private void enter(String name) {
+    var function = totals(name);
+    Totals edge = null;
+    Node node = activeNodes.get(name);
+    if (call != null) {
+      edge = edge(call.node.name, name);
+      edge.calls++;
+      edge.active++;
+      stack.push(call);
+    }
+    if (node == null) {
+      node = (call == null ? root : call.node).child(name);
+      activeNodes.put(name, node);
+    }
+    function.calls++;
+    function.active++;
+    call = new Call(node, function, edge, executed);
+  }
+
+  @Override
+  public void callReturned(Function f, Object value) {
+    long inclusive = executed - call.start;
+    if (--call.function.active == 0) {
+      call.function.inclusive += inclusive;
+      activeNodes.remove(call.node.name);
+    }
+    if (call.edge != null && --call.edge.active == 0)
+      call.edge.inclusive += inclusive;
+    call = stack.isEmpty() ? null : stack.pop();
+  }
+
+  @Override
+  public void executionFinished() {
+    // Calls that are still active when the program ends are closed
+    while (call != null)
+      callReturned(null, null);
+    printReport();
+    if (collapsed != null) {
+      try {
+        writeCollapsed();
+        collapsed.flush();
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+  }
+
+  private void printReport() {
+    var edges = new TreeMap<String, Totals>();
+    for (var caller : this.edges.entrySet()) {
+      for (var callee : caller.getValue().entrySet())
+        edges.put(caller.getKey() + " -> " + callee.getKey(), callee.getValue());
+    }
+    report.printf("%d instructions executed%n", executed);
+
+    report.printf("%nfunctions by own instructions%n");
+    report.printf("%-24s %10s %14s %7s %14s%n", "function", "calls", "self", "self %",
+        "inclusive");
+    var byFunction = new ArrayList<>(new TreeMap<>(functions).entrySet());
+    byFunction.sort(Comparator.comparingLong(e -> -e.getValue().self));
+    for (var e : byFunction.subList(0, Math.min(top, byFunction.size()))) {
+      var t = e.getValue();
+      report.printf("%-24s %10d %14d %7.2f %14d%n", e.getKey(), t.calls, t.self, percent(t.self),
+          t.inclusive);
+    }
+
+    report.printf("%ncall edges by inclusive instructions%n");
+    report.printf("%-32s %10s %14s %14s%n", "caller -> callee", "calls", "exclusive",
+        "inclusive");
+    var byEdge = new ArrayList<>(edges.entrySet());
+    byEdge.sort(Comparator.comparingLong(e -> -e.getValue().inclusive));
+    for (var e : byEdge.subList(0, Math.min(top, byEdge.size()))) {
+      var t = e.getValue();
+      report.printf("%-32s %10d %14d %14d%n", e.getKey(), t.calls, t.self, t.inclusive);
+    }
+
+    var formatter = formatter();
+    report.printf("%ninstructions by executions%n");
+    report.printf("%-16s %14s %7s  %s%n", "function", "count", "%", "instruction");
+    var byCount = new ArrayList<>(order);
+    byCount.sort(Comparator.comparingLong(c -> -c.count));
+    for (var c : byCount.subList(0, Math.min(top, byCount.size()))) {
+      report.printf("%-16s %14d %7.2f  %s%n", c.function, c.count, percent(c.count),
+          c.instruction.format(formatter));
+    }
+
+    report.printf("%nbranches by executions%n");
+    report.printf("%-16s %14s %14s  %s%n", "function", "taken", "not taken", "instruction");
+    int branches = 0;
+    for (var c : byCount) {
+      if (!(c.instruction instanceof JumpInst))
+        continue;
+      if (branches++ == top)
+        break;
+      report.printf("%-16s %14d %14d  %s%n", c.function, c.taken, c.count - c.taken,
+          c.instruction.format(formatter));
+    }
+  }
+
+  /**
+   * Returns a formatter that gives every unnamed variable the same name wherever it is printed.
+   */
+  private static java.util.function.Function<Value, String> formatter() {
+    var names = new IdentityHashMap<Value, String>();
+    var formatter = new IRValueFormatter();
+    return v -> names.computeIfAbsent(v, formatter::apply);
+  }
+
+  private double percent(long count) {
+    return executed == 0 ? 0 : 100.0 * count / executed;
+  }
+
+  /**
+   * Writes a line for every node with instructions of its own. The tree is as deep as the longest
+   * chain of calls of different functions, so it is walked without recursion.
+   */
+  private void writeCollapsed() throws IOException {
+    var work = new ArrayDeque<Node>(root.children.values());
+    var paths = new ArrayDeque<String>();
+    for (var node : work)
+      paths.add(node.name);
+    while (!work.isEmpty()) {
+      var node = work.pop();
+      String path = paths.pop();
+      if (node.self > 0)
+        collapsed.write(path + " " + node.self + "\n");
+      for (var child : node.children.values()) {
+        work.push(child);
+        paths.push(path + ";" + child.name);
+      }
+    }
+  }
+}
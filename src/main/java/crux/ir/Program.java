@@ -12,6 +12,8 @@ public final class Program implements Formattable, java.io.Serializable {
   static final long serialVersionUID = 12022L;
   private List<Function> mFunctions;
   private List<GlobalDecl> mGlobalVars;
+  // Not serialized, a program that is read back interns its constants anew
+  private transient volatile ConstantTable mConstants;
 
   private static final int PROGRAM_FORMAT_INDENT = 2;
 
@@ -36,6 +38,21 @@ public final class Program implements Formattable, java.io.Serializable {
     return mFunctions.iterator();
   }
 
+  /**
+   * Returns the table that interns the constants of this program, see {@link IntegerConstant#get}.
+   */
+  ConstantTable getConstants() {
+    var constants = mConstants;
+    if (constants == null) {
+      synchronized (this) {
+        constants = mConstants;
+        if (constants == null)
+          mConstants = constants = new ConstantTable();
+      }
+    }
+    return constants;
+  }
+
   @Override
   public String format(java.util.function.Function<Value, String> valueFormatter) {
     var builder = new StringBuilder();
@@ -0,0 +1,285 @@
+package crux.ir.bytecode;
+
+import crux.ir.*;
+import crux.ir.insts.*;
+
+import java.util.*;
+
+/**
+ * Flattens the instruction graph of each {@link Function} into register bytecode. Every variable is
+ * assigned a dense frame slot (the arguments first), constants go into a per function constant pool
+ * and the control flow edges become code offsets. The basic blocks of the {@link ControlFlowGraph}
+ * are laid out in reverse post order, so a {@link Opcodes#GOTO} is only needed where a block does not
+ * fall through into the next one.
+ */
+final class BytecodeCompiler extends InstVisitor {
+  private static final Set<String> BUILTINS =
+      Set.of("readInt", "readChar", "printBool", "printInt", "printChar", "println");
+
+  private final GlobalMemory memory;
+  private final HashMap<String, Integer> functionIndex = new HashMap<>();
+
+  private int[] code;
+  private int size;
+  private HashMap<Variable, Integer> slots;
+  private HashMap<Long, Integer> constantIndex;
+  private ArrayList<Long> constants;
+  private HashMap<Instruction, Integer> offsets;
+  private ArrayList<Integer> fixupPositions;
+  private ArrayList<Instruction> fixupTargets;
+
+  BytecodeCompiler(GlobalMemory memory) {
+    this.memory = memory;
+  }
+
+  /**
+   * Compiles all functions of {@code p}. The position of a function in the returned array is the
+   * index that {@link Opcodes#CALL} refers to.
+   */
+  BytecodeFunction[] compile(Program p) {
+    ArrayList<Function> functions = new ArrayList<>();
+    for (Iterator<Function> func_it = p.getFunctions(); func_it.hasNext();) {
+      Function f = func_it.next();
+      functionIndex.put(f.getName(), functions.size());
+      functions.add(f);
+    }
+    BytecodeFunction[] result = new BytecodeFunction[functions.size()];
+    for (int i = 0; i < result.length; i++) {
+      result[i] = compile(functions.get(i));
+    }
+    return result;
+  }
+
+  int getFunctionIndex(String name) {
+    Integer index = functionIndex.get(name);
+    return index != null ? index : -1;
+  }
+
+  private BytecodeFunction compile(Function f) {
+    code = new int[64];
+    size = 0;
+    slots = new HashMap<>();
+    constantIndex = new HashMap<>();
+    constants = new ArrayList<>();
+    offsets = new HashMap<>();
+    fixupPositions = new ArrayList<>();
+    fixupTargets = new ArrayList<>();
+
+    List<LocalVar> args = f.getArguments();
+    for (LocalVar arg : args) {
+      slot(arg);
+    }
+
+    var graph = new ControlFlowGraph(f);
+    if (graph.numBlocks() == 0)
+      emit(Opcodes.RETURN_VOID);
+    for (int k = 0; k < graph.numBlocks(); k++) {
+      BasicBlock b = graph.getBlock(k);
+      offsets.put(b.first(), size);
+      for (int j = 0; j < b.size(); j++)
+        b.get(j).accept(this);
+      if (b.last() instanceof ReturnInst)
+        continue;
+      Instruction next = b.last().getNext(0);
+      if (next == null) {
+        // Implicit return at the end of a void function
+        emit(Opcodes.RETURN_VOID);
+      } else if (k + 1 == graph.numBlocks() || graph.getBlock(k + 1).first() != next) {
+        emitJump(Opcodes.GOTO, next);
+      }
+    }
+
+    for (int j = 0; j < fixupPositions.size(); j++) {
+      code[fixupPositions.get(j)] = offsets.get(fixupTargets.get(j));
+    }
+
+    long[] pool = new long[constants.size()];
+    for (int j = 0; j < pool.length; j++) {
+      pool[j] = constants.get(j);
+    }
+    return new BytecodeFunction(f.getName(), Arrays.copyOf(code, size), pool, args.size(),
+        slots.size());
+  }
+
+  private int slot(Variable v) {
+    Integer slot = slots.get(v);
+    if (slot == null) {
+      slot = slots.size();
+      slots.put(v, slot);
+    }
+    return slot;
+  }
+
+  private int constant(long value) {
+    Integer index = constantIndex.get(value);
+    if (index == null) {
+      index = constants.size();
+      constants.add(value);
+      constantIndex.put(value, index);
+    }
+    return index;
+  }
+
+  private void emit(int value) {
+    if (size == code.length) {
+      code = Arrays.copyOf(code, size * 2);
+    }
+    code[size++] = value;
+  }
+
+  private void emit(int opcode, int a) {
+    emit(opcode);
+    emit(a);
+  }
+
+  private void emit(int opcode, int a, int b) {
+    emit(opcode);
+    emit(a);
+    emit(b);
+  }
+
+  private void emit(int opcode, int a, int b, int c) {
+    emit(opcode);
+    emit(a);
+    emit(b);
+    emit(c);
+  }
+
+  private void emitJump(int opcode, Instruction target) {
+    emit(opcode);
+    fixupPositions.add(size);
+    fixupTargets.add(target);
+    emit(-1);
+  }
+
+  public void visit(AddressAt i) {
+    int base = constant(memory.getOffset(i.getBase()));
+    if (i.getOffset() != null) {
+      emit(Opcodes.ADDR_INDEX, slot(i.getDst()), base, slot(i.getOffset()));
+    } else {
+      emit(Opcodes.ADDR, slot(i.getDst()), base);
+    }
+  }
+
+  public void visit(BinaryOperator i) {
+    int opcode = 0;
+    switch (i.getOperator()) {
+      case Add:
+        opcode = Opcodes.ADD;
+        break;
+      case Sub:
+        opcode = Opcodes.SUB;
+        break;
+      case Mul:
+        opcode = Opcodes.MUL;
+        break;
+      case Div:
+        opcode = Opcodes.DIV;
+        break;
+    }
+    emit(opcode, slot(i.getDst()), slot(i.getLeftOperand()), slot(i.getRightOperand()));
+  }
+
+  public void visit(CompareInst i) {
+    int opcode = 0;
+    switch (i.getPredicate()) {
+      case GE:
+        opcode = Opcodes.CMP_GE;
+        break;
+      case GT:
+        opcode = Opcodes.CMP_GT;
+        break;
+      case LE:
+        opcode = Opcodes.CMP_LE;
+        break;
+      case LT:
+        opcode = Opcodes.CMP_LT;
+        break;
+      case EQ:
+        opcode = Opcodes.CMP_EQ;
+        break;
+      case NE:
+        opcode = Opcodes.CMP_NE;
+        break;
+    }
+    emit(opcode, slot(i.getDst()), slot(i.getLeftOperand()), slot(i.getRightOperand()));
+  }
+
+  public void visit(CopyInst i) {
+    Value src = i.getSrcValue();
+    if (src instanceof IntegerConstant) {
+      emit(Opcodes.CONST, slot(i.getDstVar()), constant(((IntegerConstant) src).getValue()));
+    } else if (src instanceof BooleanConstant) {
+      emit(Opcodes.CONST, slot(i.getDstVar()), constant(((BooleanConstant) src).getValue() ? 1 : 0));
+    } else {
+      emit(Opcodes.MOV, slot(i.getDstVar()), slot((Variable) src));
+    }
+  }
+
+  public void visit(JumpInst i) {
+    emit(Opcodes.JUMP_TRUE);
+    emit(slot(i.getPredicate()));
+    fixupPositions.add(size);
+    fixupTargets.add(i.getNext(1));
+    emit(-1);
+  }
+
+  public void visit(LoadInst i) {
+    emit(Opcodes.LOAD, slot(i.getDst()), slot(i.getSrcAddress()));
+  }
+
+  public void visit(NopInst i) {
+    // Nops take no space
+  }
+
+  public void visit(StoreInst i) {
+    emit(Opcodes.STORE, slot(i.getSrcValue()), slot(i.getDestAddress()));
+  }
+
+  public void visit(ReturnInst i) {
+    emit(Opcodes.RETURN, slot(i.getReturnValue()));
+  }
+
+  public void visit(CallInst i) {
+    String name = i.getCallee().getName();
+    List<LocalVar> params = i.getParams();
+    if (BUILTINS.contains(name)) {
+      switch (name) {
+        case "readInt":
+          emit(Opcodes.READ_INT, slot(i.getDst()));
+          break;
+        case "readChar":
+          emit(Opcodes.READ_CHAR, slot(i.getDst()));
+          break;
+        case "printBool":
+          emit(Opcodes.PRINT_BOOL, slot(params.get(0)));
+          break;
+        case "printInt":
+          emit(Opcodes.PRINT_INT, slot(params.get(0)));
+          break;
+        case "printChar":
+          emit(Opcodes.PRINT_CHAR, slot(params.get(0)));
+          break;
+        case "println":
+          emit(Opcodes.PRINTLN);
+          break;
+      }
+      return;
+    }
+
+    int index = getFunctionIndex(name);
+    if (index < 0)
+      throw new Error("Call to undefined function " + name);
+    emit(Opcodes.CALL);
+    emit(index);
+    emit(i.getDst() != null ? slot(i.getDst()) : -1);
+    emit(params.size());
+    for (LocalVar param : params) {
+      emit(slot(param));
+    }
+  }
+
+  public void visit(UnaryNotInst i) {
+    emit(Opcodes.NOT, slot(i.getDst()), slot(i.getInner()));
+  }
+}
@@ -0,0 +1,242 @@
+package crux.ir.bytecode;
+
+import crux.ir.GlobalMemory;
+import crux.ir.Program;
+
+import java.io.*;
+import java.util.Arrays;
+
+/**
+ * An emulator that executes the register bytecode produced by {@link BytecodeCompiler} instead of
+ * visiting the instruction graph. All values are kept unboxed: integers as they are, booleans as 0
+ * or 1. The frames of all active calls live in one contiguous {@code long[]}, each frame starting at
+ * its base pointer, and the call stack is an {@code int[]}, so deeply recursive programs do not
+ * depend on the size of the Java stack.
+ * <p>
+ * The observable behavior (output, input handling and diagnostics) is the same as the one of
+ * {@link crux.ir.Emulator}.
+ */
+public final class BytecodeEmulator {
+  private static final int FRAME_INFO = 4;
+
+  private final BytecodeFunction[] functions;
+  private final int mainIndex;
+  private final GlobalMemory memory;
+  private final BufferedReader br;
+  private final PrintStream out;
+
+  public BytecodeEmulator(Program p, InputStream emulatorInput, OutputStream emulatorOutput) {
+    this(p, new GlobalMemory(p), new BufferedReader(new InputStreamReader(emulatorInput)),
+        new PrintStream(emulatorOutput));
+  }
+
+  /**
+   * Creates an emulator that shares the global memory, the input and the output with another one,
+   * e.g. the {@link crux.ir.jvm.JvmEmulator} for the functions it cannot compile.
+   */
+  public BytecodeEmulator(Program p, GlobalMemory memory, BufferedReader br, PrintStream out) {
+    this.br = br;
+    this.out = out;
+    this.memory = memory;
+    BytecodeCompiler compiler = new BytecodeCompiler(memory);
+    functions = compiler.compile(p);
+    mainIndex = compiler.getFunctionIndex("main");
+  }
+
+  public void run() {
+    execute(mainIndex, new long[0]);
+  }
+
+  /**
+   * Calls {@code function} with {@code args} and returns its result, or 0 for a void function.
+   */
+  public long call(String function, long[] args) {
+    for (int k = 0; k < functions.length; k++) {
+      if (functions[k].name.equals(function))
+        return execute(k, args);
+    }
+    throw new Error("Call to undefined function " + function);
+  }
+
+  private long execute(int fnIndex, long[] args) {
+    BytecodeFunction fn = functions[fnIndex];
+    int[] code = fn.code;
+    long[] constants = fn.constants;
+    long[] regs = new long[Math.max(1024, fn.numSlots)];
+    System.arraycopy(args, 0, regs, 0, args.length);
+    // (function index, return pc, base pointer, result slot) of every caller
+    int[] frames = new int[FRAME_INFO * 64];
+    int depth = 0;
+    int pc = 0;
+    int bp = 0;
+
+    while (true) {
+      switch (code[pc]) {
+        case Opcodes.CONST:
+          regs[bp + code[pc + 1]] = constants[code[pc + 2]];
+          pc += 3;
+          break;
+        case Opcodes.MOV:
+          regs[bp + code[pc + 1]] = regs[bp + code[pc + 2]];
+          pc += 3;
+          break;
+        case Opcodes.ADD:
+          regs[bp + code[pc + 1]] = regs[bp + code[pc + 2]] + regs[bp + code[pc + 3]];
+          pc += 4;
+          break;
+        case Opcodes.SUB:
+          regs[bp + code[pc + 1]] = regs[bp + code[pc + 2]] - regs[bp + code[pc + 3]];
+          pc += 4;
+          break;
+        case Opcodes.MUL:
+          regs[bp + code[pc + 1]] = regs[bp + code[pc + 2]] * regs[bp + code[pc + 3]];
+          pc += 4;
+          break;
+        case Opcodes.DIV:
+          regs[bp + code[pc + 1]] = regs[bp + code[pc + 2]] / regs[bp + code[pc + 3]];
+          pc += 4;
+          break;
+        case Opcodes.CMP_GE:
+          regs[bp + code[pc + 1]] = regs[bp + code[pc + 2]] >= regs[bp + code[pc + 3]] ? 1 : 0;
+          pc += 4;
+          break;
+        case Opcodes.CMP_GT:
+          regs[bp + code[pc + 1]] = regs[bp + code[pc + 2]] > regs[bp + code[pc + 3]] ? 1 : 0;
+          pc += 4;
+          break;
+        case Opcodes.CMP_LE:
+          regs[bp + code[pc + 1]] = regs[bp + code[pc + 2]] <= regs[bp + code[pc + 3]] ? 1 : 0;
+          pc += 4;
+          break;
+        case Opcodes.CMP_LT:
+          regs[bp + code[pc + 1]] = regs[bp + code[pc + 2]] < regs[bp + code[pc + 3]] ? 1 : 0;
+          pc += 4;
+          break;
+        case Opcodes.CMP_EQ:
+          regs[bp + code[pc + 1]] = regs[bp + code[pc + 2]] == regs[bp + code[pc + 3]] ? 1 : 0;
+          pc += 4;
+          break;
+        case Opcodes.CMP_NE:
+          regs[bp + code[pc + 1]] = regs[bp + code[pc + 2]] != regs[bp + code[pc + 3]] ? 1 : 0;
+          pc += 4;
+          break;
+        case Opcodes.NOT:
+          regs[bp + code[pc + 1]] = regs[bp + code[pc + 2]] == 0 ? 1 : 0;
+          pc += 3;
+          break;
+        case Opcodes.ADDR:
+          regs[bp + code[pc + 1]] = constants[code[pc + 2]];
+          pc += 3;
+          break;
+        case Opcodes.ADDR_INDEX:
+          regs[bp + code[pc + 1]] = constants[code[pc + 2]] + 8 * regs[bp + code[pc + 3]];
+          pc += 4;
+          break;
+        case Opcodes.LOAD: {
+          long address = regs[bp + code[pc + 2]];
+          if (!memory.isInitialized(address))
+            out.println("Reading from uninitialized memory");
+          regs[bp + code[pc + 1]] = memory.load(address);
+          pc += 3;
+          break;
+        }
+        case Opcodes.STORE:
+          memory.store(regs[bp + code[pc + 2]], regs[bp + code[pc + 1]]);
+          pc += 3;
+          break;
+        case Opcodes.GOTO:
+          pc = code[pc + 1];
+          break;
+        case Opcodes.JUMP_TRUE:
+          pc = regs[bp + code[pc + 1]] != 0 ? code[pc + 2] : pc + 3;
+          break;
+        case Opcodes.CALL: {
+          int calleeIndex = code[pc + 1];
+          BytecodeFunction callee = functions[calleeIndex];
+          int argc = code[pc + 3];
+          int calleeBp = bp + fn.numSlots;
+          int calleeEnd = calleeBp + callee.numSlots;
+          if (calleeEnd > regs.length)
+            regs = Arrays.copyOf(regs, Math.max(regs.length * 2, calleeEnd));
+          for (int j = 0; j < argc; j++) {
+            regs[calleeBp + j] = regs[bp + code[pc + 4 + j]];
+          }
+          Arrays.fill(regs, calleeBp + argc, calleeEnd, 0);
+
+          if (frames.length < FRAME_INFO * (depth + 1))
+            frames = Arrays.copyOf(frames, frames.length * 2);
+          int frame = FRAME_INFO * depth++;
+          frames[frame] = fnIndex;
+          frames[frame + 1] = pc + 4 + argc;
+          frames[frame + 2] = bp;
+          frames[frame + 3] = code[pc + 2];
+
+          fnIndex = calleeIndex;
+          fn = callee;
+          code = fn.code;
+          constants = fn.constants;
+          bp = calleeBp;
+          pc = 0;
+          break;
+        }
+        case Opcodes.RETURN:
+        case Opcodes.RETURN_VOID: {
+          boolean hasValue = code[pc] == Opcodes.RETURN;
+          long value = hasValue ? regs[bp + code[pc + 1]] : 0;
+          if (depth == 0)
+            return value;
+          int frame = FRAME_INFO * --depth;
+          fnIndex = frames[frame];
+          fn = functions[fnIndex];
+          code = fn.code;
+          constants = fn.constants;
+          pc = frames[frame + 1];
+          bp = frames[frame + 2];
+          int dst = frames[frame + 3];
+          if (hasValue && dst >= 0)
+            regs[bp + dst] = value;
+          break;
+        }
+        case Opcodes.READ_INT:
+          try {
+            out.print("int?");
+            String line = br.readLine();
+            regs[bp + code[pc + 1]] = Long.valueOf(line);
+          } catch (IOException e) {
+            throw new Error("Error in inputting Integer.");
+          }
+          pc += 2;
+          break;
+        case Opcodes.READ_CHAR:
+          try {
+            int val = br.read();
+            if (val == -1)
+              throw new Error("Reading past end of stream.");
+            regs[bp + code[pc + 1]] = val;
+          } catch (IOException e) {
+            throw new Error("Error in inputting Integer.");
+          }
+          pc += 2;
+          break;
+        case Opcodes.PRINT_BOOL:
+          out.print(regs[bp + code[pc + 1]] != 0);
+          pc += 2;
+          break;
+        case Opcodes.PRINT_INT:
+          out.print(regs[bp + code[pc + 1]]);
+          pc += 2;
+          break;
+        case Opcodes.PRINT_CHAR:
+          out.print((char) regs[bp + code[pc + 1]]);
+          pc += 2;
+          break;
+        case Opcodes.PRINTLN:
+          out.println("");
+          pc += 1;
+          break;
+        default:
+          throw new Error("Invalid opcode " + code[pc] + " in " + fn.name);
+      }
+    }
+  }
+}
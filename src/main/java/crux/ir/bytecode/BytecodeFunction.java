@@ -0,0 +1,21 @@
+package crux.ir.bytecode;
+
+/**
+ * A {@link crux.ir.Function} flattened into register bytecode. Every variable of the function owns
+ * one slot of the frame, the arguments occupy slots {@code 0..numArgs-1}.
+ */
+final class BytecodeFunction {
+  final String name;
+  final int[] code;
+  final long[] constants;
+  final int numArgs;
+  final int numSlots;
+
+  BytecodeFunction(String name, int[] code, long[] constants, int numArgs, int numSlots) {
+    this.name = name;
+    this.code = code;
+    this.constants = constants;
+    this.numArgs = numArgs;
+    this.numSlots = numSlots;
+  }
+}
@@ -0,0 +1,58 @@
+package crux.ir.bytecode;
+
+/**
+ * Opcodes of the register bytecode. Every instruction is an opcode followed by a fixed number of int
+ * operands (except {@link #CALL}, which is followed by its argument count and the argument slots).
+ * Operands are either frame slots, indices into the constant pool of the function, code offsets, or
+ * function indices.
+ */
+final class Opcodes {
+  /** {@code dst, constIndex}: dst = constants[constIndex] */
+  static final int CONST = 0;
+  /** {@code dst, src}: dst = src */
+  static final int MOV = 1;
+  /** {@code dst, lhs, rhs} */
+  static final int ADD = 2;
+  static final int SUB = 3;
+  static final int MUL = 4;
+  static final int DIV = 5;
+  /** {@code dst, lhs, rhs}: dst = lhs op rhs ? 1 : 0 */
+  static final int CMP_GE = 6;
+  static final int CMP_GT = 7;
+  static final int CMP_LE = 8;
+  static final int CMP_LT = 9;
+  static final int CMP_EQ = 10;
+  static final int CMP_NE = 11;
+  /** {@code dst, src}: dst = src == 0 ? 1 : 0 */
+  static final int NOT = 12;
+  /** {@code dst, constIndex}: dst = address of a global without offset */
+  static final int ADDR = 13;
+  /** {@code dst, constIndex, offset}: dst = address of a global + 8 * offset */
+  static final int ADDR_INDEX = 14;
+  /** {@code dst, address} */
+  static final int LOAD = 15;
+  /** {@code src, address} */
+  static final int STORE = 16;
+  /** {@code target} */
+  static final int GOTO = 17;
+  /** {@code predicate, target}: jump to target if the predicate is true */
+  static final int JUMP_TRUE = 18;
+  /** {@code functionIndex, dst, argc, arg0, ..., argN}: dst is -1 for calls without a result */
+  static final int CALL = 19;
+  /** {@code src} */
+  static final int RETURN = 20;
+  /** No operands, leaves a function without a result. */
+  static final int RETURN_VOID = 21;
+  /** {@code dst} */
+  static final int READ_INT = 22;
+  /** {@code dst} */
+  static final int READ_CHAR = 23;
+  /** {@code src} */
+  static final int PRINT_BOOL = 24;
+  static final int PRINT_INT = 25;
+  static final int PRINT_CHAR = 26;
+  /** No operands. */
+  static final int PRINTLN = 27;
+
+  private Opcodes() {}
+}
@@ -0,0 +1,96 @@
+package crux.ir.insts;
+
+import crux.ir.Instruction;
+import crux.ir.LocalVar;
+import crux.ir.Value;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Selects a value depending on the edge the control flow came from. Phi instructions only exist
+ * while a function is in SSA form (see {@link crux.ir.opt.SsaBuilder}). They are always at the start
+ * of a basic block, and each operand belongs to the predecessor at the same index, which is the last
+ * instruction of the predecessor block.
+ * <p>
+ * All phis at the start of a block are evaluated at the same time, when the block is entered.
+ * <p>
+ * Operation (pseudo-code): {@code destVar = operand[index of the predecessor we came from]}
+ */
+public final class PhiInst extends Instruction implements java.io.Serializable {
+  static final long serialVersionUID = 12022L;
+  private final ArrayList<Instruction> mPredecessors;
+
+  public PhiInst(LocalVar destVar, List<LocalVar> operands, List<Instruction> predecessors) {
+    super(destVar, List.copyOf(operands));
+    mPredecessors = new ArrayList<>(predecessors);
+  }
+
+  public LocalVar getDst() {
+    return (LocalVar) mDestVar;
+  }
+
+  public int numIncoming() {
+    return mPredecessors.size();
+  }
+
+  public Instruction getPredecessor(int i) {
+    return mPredecessors.get(i);
+  }
+
+  public LocalVar getIncoming(int i) {
+    return (LocalVar) mOperands.get(i);
+  }
+
+  /**
+   * Returns the value for the edge coming from {@code pred}, or null if there is none.
+   */
+  public LocalVar getIncoming(Instruction pred) {
+    int i = mPredecessors.indexOf(pred);
+    return i >= 0 ? getIncoming(i) : null;
+  }
+
+  public void setIncoming(Instruction pred, LocalVar value) {
+    int i = mPredecessors.indexOf(pred);
+    if (i >= 0) {
+      setOperand(i, value);
+    } else {
+      mPredecessors.add(pred);
+      var operands = new ArrayList<>(mOperands);
+      operands.add(value);
+      mOperands = List.copyOf(operands);
+    }
+  }
+
+  public void replacePredecessor(Instruction from, Instruction to) {
+    int i = mPredecessors.indexOf(from);
+    if (i >= 0)
+      mPredecessors.set(i, to);
+  }
+
+  public void removeIncoming(Instruction pred) {
+    int i = mPredecessors.indexOf(pred);
+    if (i < 0)
+      return;
+    mPredecessors.remove(i);
+    var operands = new ArrayList<>(mOperands);
+    operands.remove(i);
+    mOperands = List.copyOf(operands);
+  }
+
+  @Override
+  public void accept(InstVisitor v) {
+    v.visit(this);
+  }
+
+  @Override
+  public String format(Function<Value, String> valueFormatter) {
+    var destVar = valueFormatter.apply(mDestVar);
+    var incoming = new ArrayList<String>();
+    for (Value v : mOperands) {
+      incoming.add(valueFormatter.apply(v));
+    }
+    return String.format("%s = phi [%s]", destVar, String.join(", ", incoming));
+  }
+}
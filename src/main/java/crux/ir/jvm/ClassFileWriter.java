@@ -0,0 +1,163 @@
+package crux.ir.jvm;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * A minimal writer for JVM class files. It only supports what {@link JvmCompiler} needs: a public
+ * final class without fields, extending {@link Object}, with public static methods. The class
+ * files use version 49 so that they do not need a StackMapTable and are verified by type
+ * inference instead.
+ */
+final class ClassFileWriter {
+  private static final int VERSION = 49;
+
+  private static final int CONSTANT_UTF8 = 1;
+  private static final int CONSTANT_LONG = 5;
+  private static final int CONSTANT_CLASS = 7;
+  private static final int CONSTANT_STRING = 8;
+  private static final int CONSTANT_METHODREF = 10;
+  private static final int CONSTANT_NAME_AND_TYPE = 12;
+
+  private final ByteArrayOutputStream pool = new ByteArrayOutputStream();
+  private final DataOutputStream poolOut = new DataOutputStream(pool);
+  private final HashMap<String, Integer> poolIndex = new HashMap<>();
+  private int poolCount = 1;
+
+  private final int thisClass;
+  private final int superClass;
+  private final ArrayList<byte[]> methods = new ArrayList<>();
+
+  ClassFileWriter(String internalName) {
+    thisClass = classRef(internalName);
+    superClass = classRef("java/lang/Object");
+  }
+
+  int getThisClass() {
+    return thisClass;
+  }
+
+  int utf8(String value) {
+    return constant("U" + value, 1, out -> {
+      out.writeByte(CONSTANT_UTF8);
+      out.writeUTF(value);
+    });
+  }
+
+  int longConstant(long value) {
+    return constant("J" + value, 2, out -> {
+      out.writeByte(CONSTANT_LONG);
+      out.writeLong(value);
+    });
+  }
+
+  int stringConstant(String value) {
+    int utf8 = utf8(value);
+    return constant("S" + value, 1, out -> {
+      out.writeByte(CONSTANT_STRING);
+      out.writeShort(utf8);
+    });
+  }
+
+  int classRef(String internalName) {
+    int name = utf8(internalName);
+    return constant("C" + internalName, 1, out -> {
+      out.writeByte(CONSTANT_CLASS);
+      out.writeShort(name);
+    });
+  }
+
+  int methodRef(String owner, String name, String descriptor) {
+    int ownerIndex = classRef(owner);
+    int nameIndex = utf8(name);
+    int descriptorIndex = utf8(descriptor);
+    int nameAndType = constant("N" + name + ":" + descriptor, 1, out -> {
+      out.writeByte(CONSTANT_NAME_AND_TYPE);
+      out.writeShort(nameIndex);
+      out.writeShort(descriptorIndex);
+    });
+    return constant("M" + owner + "." + name + ":" + descriptor, 1, out -> {
+      out.writeByte(CONSTANT_METHODREF);
+      out.writeShort(ownerIndex);
+      out.writeShort(nameAndType);
+    });
+  }
+
+  /**
+   * Adds a public static method with the given code.
+   */
+  void addMethod(String name, String descriptor, int maxStack, int maxLocals, byte[] code) {
+    int nameIndex = utf8(name);
+    int descriptorIndex = utf8(descriptor);
+    int codeAttribute = utf8("Code");
+    try {
+      var bytes = new ByteArrayOutputStream();
+      var out = new DataOutputStream(bytes);
+      out.writeShort(0x0009); // ACC_PUBLIC | ACC_STATIC
+      out.writeShort(nameIndex);
+      out.writeShort(descriptorIndex);
+      out.writeShort(1);
+      out.writeShort(codeAttribute);
+      out.writeInt(2 + 2 + 4 + code.length + 2 + 2);
+      out.writeShort(maxStack);
+      out.writeShort(maxLocals);
+      out.writeInt(code.length);
+      out.write(code);
+      out.writeShort(0); // exception table
+      out.writeShort(0); // attributes
+      methods.add(bytes.toByteArray());
+    } catch (IOException e) {
+      throw new Error(e);
+    }
+  }
+
+  byte[] toByteArray() {
+    if (poolCount > 0xFFFF)
+      throw new JvmLimitException("the program has too many constants for a JVM class");
+    try {
+      var bytes = new ByteArrayOutputStream();
+      var out = new DataOutputStream(bytes);
+      out.writeInt(0xCAFEBABE);
+      out.writeShort(0);
+      out.writeShort(VERSION);
+      out.writeShort(poolCount);
+      poolOut.flush();
+      pool.writeTo(out);
+      out.writeShort(0x0031); // ACC_PUBLIC | ACC_FINAL | ACC_SUPER
+      out.writeShort(thisClass);
+      out.writeShort(superClass);
+      out.writeShort(0); // interfaces
+      out.writeShort(0); // fields
+      out.writeShort(methods.size());
+      for (byte[] method : methods) {
+        out.write(method);
+      }
+      out.writeShort(0); // attributes
+      return bytes.toByteArray();
+    } catch (IOException e) {
+      throw new Error(e);
+    }
+  }
+
+  private interface EntryWriter {
+    void write(DataOutputStream out) throws IOException;
+  }
+
+  private int constant(String key, int size, EntryWriter writer) {
+    Integer index = poolIndex.get(key);
+    if (index != null)
+      return index;
+    index = poolCount;
+    try {
+      writer.write(poolOut);
+    } catch (IOException e) {
+      throw new Error(e);
+    }
+    poolCount += size;
+    poolIndex.put(key, index);
+    return index;
+  }
+}
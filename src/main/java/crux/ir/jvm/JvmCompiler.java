@@ -0,0 +1,463 @@
+package crux.ir.jvm;
+
+import crux.ir.*;
+import crux.ir.insts.*;
+
+import java.util.*;
+
+/**
+ * Translates a {@link Program} into a JVM class with one public static method per {@link Function}.
+ * Every method takes the {@link JvmRuntime} as first argument followed by the Crux arguments, all
+ * variables are {@code long} locals (booleans are 0 or 1) and every method returns a {@code long}
+ * (0 for void functions). Calls between Crux functions are direct {@code invokestatic}s, so the JIT
+ * can compile and inline them like any other Java code.
+ * <p>
+ * A function that does not fit into the limits of a JVM method (code size, number of locals, branch
+ * distances, arguments) is run by the {@link crux.ir.bytecode.BytecodeEmulator} instead, through
+ * {@link JvmRuntime#interpret}, see {@link #getInterpreted}. Throws {@link JvmLimitException} if the
+ * class as a whole does not fit.
+ */
+final class JvmCompiler extends InstVisitor {
+  static final String CLASS_NAME = "CruxProgram";
+  private static final String RUNTIME = "crux/ir/jvm/JvmRuntime";
+  private static final Set<String> BUILTINS =
+      Set.of("readInt", "readChar", "printBool", "printInt", "printChar", "println");
+
+  private static final int LCONST_0 = 0x09;
+  private static final int LCONST_1 = 0x0a;
+  private static final int ICONST_0 = 0x03;
+  private static final int ICONST_3 = 0x06;
+  private static final int BIPUSH = 0x10;
+  private static final int SIPUSH = 0x11;
+  private static final int LDC_W = 0x13;
+  private static final int LDC2_W = 0x14;
+  private static final int LLOAD = 0x16;
+  private static final int ALOAD_0 = 0x2a;
+  private static final int LSTORE = 0x37;
+  private static final int LASTORE = 0x50;
+  private static final int POP2 = 0x58;
+  private static final int DUP = 0x59;
+  private static final int LADD = 0x61;
+  private static final int LSUB = 0x65;
+  private static final int LMUL = 0x69;
+  private static final int LDIV = 0x6d;
+  private static final int LSHL = 0x79;
+  private static final int LXOR = 0x83;
+  private static final int L2I = 0x88;
+  private static final int LCMP = 0x94;
+  private static final int IFEQ = 0x99;
+  private static final int IFNE = 0x9a;
+  private static final int IFLT = 0x9b;
+  private static final int IFGE = 0x9c;
+  private static final int IFGT = 0x9d;
+  private static final int IFLE = 0x9e;
+  private static final int GOTO = 0xa7;
+  private static final int LRETURN = 0xad;
+  private static final int INVOKEVIRTUAL = 0xb6;
+  private static final int INVOKESTATIC = 0xb8;
+  private static final int NEWARRAY = 0xbc;
+  private static final int WIDE = 0xc4;
+  private static final int T_LONG = 11;
+
+  private final GlobalMemory memory;
+  private final ClassFileWriter classFile = new ClassFileWriter(CLASS_NAME);
+  private final HashMap<String, Function> functions = new HashMap<>();
+  private final LinkedHashMap<String, String> interpreted = new LinkedHashMap<>();
+
+  private byte[] code;
+  private int size;
+  private int maxStack;
+  private HashMap<Variable, Integer> locals;
+  private HashMap<Instruction, Integer> offsets;
+  private ArrayList<Integer> fixupOpcodes;
+  private ArrayList<Instruction> fixupTargets;
+  private ArrayDeque<Instruction> pending;
+  private boolean terminated;
+
+  JvmCompiler(GlobalMemory memory) {
+    this.memory = memory;
+  }
+
+  static String descriptor(Function f) {
+    return "(L" + RUNTIME + ";" + "J".repeat(f.getArguments().size()) + ")J";
+  }
+
+  byte[] compile(Program p) {
+    for (Iterator<Function> func_it = p.getFunctions(); func_it.hasNext();) {
+      Function f = func_it.next();
+      functions.put(f.getName(), f);
+      if (hasTooManyArguments(f))
+        interpreted.put(f.getName(), "function " + f.getName() + " has too many arguments");
+    }
+    for (Iterator<Function> func_it = p.getFunctions(); func_it.hasNext();) {
+      Function f = func_it.next();
+      if (interpreted.containsKey(f.getName()))
+        continue;
+      try {
+        compile(f);
+      } catch (JvmLimitException e) {
+        interpreted.put(f.getName(), e.getMessage());
+        compileInterpreted(f);
+      }
+    }
+    return classFile.toByteArray();
+  }
+
+  /**
+   * Returns the functions that do not fit into a JVM method, with the limit that each of them
+   * exceeds.
+   */
+  Map<String, String> getInterpreted() {
+    return interpreted;
+  }
+
+  /**
+   * Returns true if the arguments of {@code f} do not fit into the 255 slots of a JVM method
+   * descriptor, so {@code f} has no method at all and is called through the runtime.
+   */
+  private static boolean hasTooManyArguments(Function f) {
+    return 1 + 2 * f.getArguments().size() > 255;
+  }
+
+  private void compile(Function f) {
+    code = new byte[256];
+    size = 0;
+    maxStack = 6;
+    locals = new HashMap<>();
+    offsets = new HashMap<>();
+    fixupOpcodes = new ArrayList<>();
+    fixupTargets = new ArrayList<>();
+    pending = new ArrayDeque<>();
+
+    List<LocalVar> args = f.getArguments();
+    for (LocalVar arg : args) {
+      local(arg);
+    }
+
+    if (f.getStart() != null)
+      pending.push(f.getStart());
+    else
+      emitVoidReturn();
+    while (!pending.isEmpty()) {
+      Instruction i = pending.pop();
+      if (offsets.containsKey(i))
+        continue;
+      terminated = false;
+      while (i != null && !offsets.containsKey(i)) {
+        offsets.put(i, size);
+        i.accept(this);
+        if (terminated)
+          break;
+        i = i.getNext(0);
+      }
+      if (terminated)
+        continue;
+      if (i == null)
+        emitVoidReturn();
+      else
+        emitBranch(GOTO, i);
+    }
+
+    for (int j = 0; j < fixupOpcodes.size(); j++) {
+      int opcode = fixupOpcodes.get(j);
+      int offset = offsets.get(fixupTargets.get(j)) - opcode;
+      if (offset < Short.MIN_VALUE || offset > Short.MAX_VALUE)
+        throw new JvmLimitException("function " + f.getName() + " has a branch too far");
+      code[opcode + 1] = (byte) (offset >> 8);
+      code[opcode + 2] = (byte) offset;
+    }
+    byte[] body = Arrays.copyOf(code, size);
+
+    // All locals that are not arguments start out as 0, so that the verifier can prove that every
+    // local is initialized on every path. Branch offsets are relative and stay valid.
+    code = new byte[16];
+    size = 0;
+    for (Map.Entry<Variable, Integer> local : locals.entrySet()) {
+      if (local.getValue() > 2 * args.size()) {
+        emit(LCONST_0);
+        emitLocal(LSTORE, local.getValue());
+      }
+    }
+    int maxLocals = 1 + 2 * locals.size();
+    if (size + body.length > 0xFFFF || maxLocals > 0xFFFF)
+      throw new JvmLimitException("function " + f.getName() + " is too large");
+    byte[] method = Arrays.copyOf(code, size + body.length);
+    System.arraycopy(body, 0, method, size, body.length);
+
+    classFile.addMethod(f.getName(), descriptor(f), maxStack, maxLocals, method);
+  }
+
+  /**
+   * Compiles {@code f} into a method that runs it in the bytecode engine.
+   */
+  private void compileInterpreted(Function f) {
+    code = new byte[64];
+    size = 0;
+    maxStack = 0;
+    var args = new ArrayList<Integer>();
+    for (int k = 0; k < f.getArguments().size(); k++)
+      args.add(1 + 2 * k);
+    emitInterpret(f.getName(), args);
+    emit(LRETURN);
+    classFile.addMethod(f.getName(), descriptor(f), maxStack, 1 + 2 * args.size(),
+        Arrays.copyOf(code, size));
+  }
+
+  private int local(Variable v) {
+    Integer index = locals.get(v);
+    if (index == null) {
+      index = 1 + 2 * locals.size();
+      locals.put(v, index);
+    }
+    return index;
+  }
+
+  private void emit(int b) {
+    if (size == code.length)
+      code = Arrays.copyOf(code, size * 2);
+    code[size++] = (byte) b;
+  }
+
+  private void emitShort(int s) {
+    emit(s >> 8);
+    emit(s);
+  }
+
+  private void emitLocal(int opcode, int index) {
+    if (index > 255) {
+      emit(WIDE);
+      emit(opcode);
+      emitShort(index);
+    } else {
+      emit(opcode);
+      emit(index);
+    }
+  }
+
+  private void emitLoad(Variable v) {
+    emitLocal(LLOAD, local(v));
+  }
+
+  private void emitStore(Variable v) {
+    emitLocal(LSTORE, local(v));
+  }
+
+  private void emitLong(long value) {
+    if (value == 0) {
+      emit(LCONST_0);
+    } else if (value == 1) {
+      emit(LCONST_1);
+    } else {
+      emit(LDC2_W);
+      emitShort(classFile.longConstant(value));
+    }
+  }
+
+  private void emitInt(int value) {
+    if (value <= 5) {
+      emit(ICONST_0 + value);
+    } else if (value <= Byte.MAX_VALUE) {
+      emit(BIPUSH);
+      emit(value);
+    } else {
+      emit(SIPUSH);
+      emitShort(value);
+    }
+  }
+
+  /**
+   * Calls {@code function} in the bytecode engine with the values of the locals {@code args},
+   * which leaves its result on the stack.
+   */
+  private void emitInterpret(String function, List<Integer> args) {
+    emit(ALOAD_0);
+    emit(LDC_W);
+    emitShort(classFile.stringConstant(function));
+    emitInt(args.size());
+    emit(NEWARRAY);
+    emit(T_LONG);
+    for (int k = 0; k < args.size(); k++) {
+      emit(DUP);
+      emitInt(k);
+      emitLocal(LLOAD, args.get(k));
+      emit(LASTORE);
+    }
+    emitRuntimeCall("interpret", "(Ljava/lang/String;[J)J");
+    // runtime, name, array, array, index and a long
+    maxStack = Math.max(maxStack, 7);
+  }
+
+  private void emitBranch(int opcode, Instruction target) {
+    fixupOpcodes.add(size);
+    fixupTargets.add(target);
+    emit(opcode);
+    emitShort(0);
+    pending.push(target);
+  }
+
+  private void emitVoidReturn() {
+    emit(LCONST_0);
+    emit(LRETURN);
+  }
+
+  private void emitRuntimeCall(String name, String descriptor) {
+    emit(INVOKEVIRTUAL);
+    emitShort(classFile.methodRef(RUNTIME, name, descriptor));
+  }
+
+  public void visit(AddressAt i) {
+    emitLong(memory.getOffset(i.getBase()));
+    if (i.getOffset() != null) {
+      emitLoad(i.getOffset());
+      emit(ICONST_3);
+      emit(LSHL);
+      emit(LADD);
+    }
+    emitStore(i.getDst());
+  }
+
+  public void visit(BinaryOperator i) {
+    emitLoad(i.getLeftOperand());
+    emitLoad(i.getRightOperand());
+    switch (i.getOperator()) {
+      case Add:
+        emit(LADD);
+        break;
+      case Sub:
+        emit(LSUB);
+        break;
+      case Mul:
+        emit(LMUL);
+        break;
+      case Div:
+        emit(LDIV);
+        break;
+    }
+    emitStore(i.getDst());
+  }
+
+  public void visit(CompareInst i) {
+    emitLoad(i.getLeftOperand());
+    emitLoad(i.getRightOperand());
+    emit(LCMP);
+    switch (i.getPredicate()) {
+      case GE:
+        emit(IFGE);
+        break;
+      case GT:
+        emit(IFGT);
+        break;
+      case LE:
+        emit(IFLE);
+        break;
+      case LT:
+        emit(IFLT);
+        break;
+      case EQ:
+        emit(IFEQ);
+        break;
+      case NE:
+        emit(IFNE);
+        break;
+    }
+    // if<cond> +7; lconst_0; goto +4; lconst_1
+    emitShort(7);
+    emit(LCONST_0);
+    emit(GOTO);
+    emitShort(4);
+    emit(LCONST_1);
+    emitStore(i.getDst());
+  }
+
+  public void visit(CopyInst i) {
+    Value src = i.getSrcValue();
+    if (src instanceof IntegerConstant) {
+      emitLong(((IntegerConstant) src).getValue());
+    } else if (src instanceof BooleanConstant) {
+      emitLong(((BooleanConstant) src).getValue() ? 1 : 0);
+    } else {
+      emitLoad((Variable) src);
+    }
+    emitStore(i.getDstVar());
+  }
+
+  public void visit(JumpInst i) {
+    emitLoad(i.getPredicate());
+    emit(L2I);
+    emitBranch(IFNE, i.getNext(1));
+  }
+
+  public void visit(LoadInst i) {
+    emit(ALOAD_0);
+    emitLoad(i.getSrcAddress());
+    emitRuntimeCall("load", "(J)J");
+    emitStore(i.getDst());
+  }
+
+  public void visit(NopInst i) {
+    // Nops take no space, the offset of a nop is the offset of its successor
+  }
+
+  public void visit(StoreInst i) {
+    emit(ALOAD_0);
+    emitLoad(i.getDestAddress());
+    emitLoad(i.getSrcValue());
+    emitRuntimeCall("store", "(JJ)V");
+  }
+
+  public void visit(ReturnInst i) {
+    emitLoad(i.getReturnValue());
+    emit(LRETURN);
+    terminated = true;
+  }
+
+  public void visit(CallInst i) {
+    String name = i.getCallee().getName();
+    List<LocalVar> params = i.getParams();
+    Function target = functions.get(name);
+    if (target != null && hasTooManyArguments(target)) {
+      var args = new ArrayList<Integer>();
+      for (LocalVar param : params)
+        args.add(local(param));
+      emitInterpret(name, args);
+      if (i.getDst() != null)
+        emitStore(i.getDst());
+      else
+        emit(POP2);
+      return;
+    }
+
+    emit(ALOAD_0);
+    for (LocalVar param : params) {
+      emitLoad(param);
+    }
+    maxStack = Math.max(maxStack, 1 + 2 * params.size());
+
+    boolean hasResult;
+    if (BUILTINS.contains(name)) {
+      hasResult = name.startsWith("read");
+      emitRuntimeCall(name, "(" + "J".repeat(params.size()) + ")" + (hasResult ? "J" : "V"));
+    } else {
+      Function callee = functions.get(name);
+      if (callee == null)
+        throw new Error("Call to undefined function " + name);
+      hasResult = true;
+      emit(INVOKESTATIC);
+      emitShort(classFile.methodRef(CLASS_NAME, name, descriptor(callee)));
+    }
+
+    if (hasResult) {
+      if (i.getDst() != null)
+        emitStore(i.getDst());
+      else
+        emit(POP2);
+    }
+  }
+
+  public void visit(UnaryNotInst i) {
+    emit(LCONST_1);
+    emitLoad(i.getInner());
+    emit(LXOR);
+    emitStore(i.getDst());
+  }
+}
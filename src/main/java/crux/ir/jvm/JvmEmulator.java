@@ -0,0 +1,126 @@
+package crux.ir.jvm;
+
+import crux.ir.GlobalMemory;
+import crux.ir.Program;
+import crux.ir.bytecode.BytecodeEmulator;
+
+import java.io.*;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An emulator that compiles the IR into a JVM class (see {@link JvmCompiler}), loads it with its own
+ * class loader and runs it, so hot Crux code ends up being compiled by the JIT. The global segment is
+ * the same {@link GlobalMemory} used by the other emulators, accessed through {@link JvmRuntime}.
+ * <p>
+ * The program runs on a separate thread with a large stack, since Crux calls become Java calls. A
+ * function that does not fit into a JVM method is run by the {@link BytecodeEmulator}, and only if
+ * the class itself does not fit, e.g. it has too many constants, the whole program is. Both are
+ * reported by {@link #getFallbacks}.
+ */
+public final class JvmEmulator {
+  private static final long STACK_SIZE = 1L << 30;
+
+  private final Class<?> programClass;
+  private final JvmRuntime runtime;
+  private final BytecodeEmulator fallback;
+  private final List<String> fallbacks = new ArrayList<>();
+
+  static final class ProgramClassLoader extends ClassLoader {
+    ProgramClassLoader(ClassLoader parent) {
+      super(parent);
+    }
+
+    Class<?> define(String name, byte[] bytes) {
+      return defineClass(name, bytes, 0, bytes.length);
+    }
+  }
+
+  public JvmEmulator(Program p, InputStream emulatorInput, OutputStream emulatorOutput) {
+    GlobalMemory memory = new GlobalMemory(p);
+    byte[] classBytes;
+    try {
+      var compiler = new JvmCompiler(memory);
+      classBytes = compiler.compile(p);
+      for (var e : compiler.getInterpreted().entrySet())
+        fallbacks.add(e.getValue() + ", it runs in the bytecode emulator");
+    } catch (JvmLimitException e) {
+      classBytes = null;
+      fallbacks.add(e.getMessage() + ", the program runs in the bytecode emulator");
+    }
+
+    if (classBytes == null) {
+      programClass = null;
+      runtime = null;
+      fallback = new BytecodeEmulator(p, emulatorInput, emulatorOutput);
+    } else {
+      var loader = new ProgramClassLoader(JvmRuntime.class.getClassLoader());
+      programClass = loader.define(JvmCompiler.CLASS_NAME, classBytes);
+      runtime = new JvmRuntime(p, memory, new BufferedReader(new InputStreamReader(emulatorInput)),
+          new PrintStream(emulatorOutput));
+      fallback = null;
+    }
+  }
+
+  /**
+   * Returns true if the program is executed as generated JVM code, false if it uses the bytecode
+   * fallback.
+   */
+  public boolean isCompiled() {
+    return programClass != null;
+  }
+
+  /**
+   * Returns why a function, or the whole program, is not run as JVM code, one message for each.
+   */
+  public List<String> getFallbacks() {
+    return fallbacks;
+  }
+
+  public void run() {
+    if (fallback != null) {
+      fallback.run();
+      return;
+    }
+
+    Method main = null;
+    for (Method m : programClass.getMethods()) {
+      if (m.getName().equals("main") && m.getDeclaringClass() == programClass)
+        main = m;
+    }
+    Object[] args = new Object[main.getParameterCount()];
+    args[0] = runtime;
+    for (int i = 1; i < args.length; i++) {
+      args[i] = 0L;
+    }
+
+    Method entry = main;
+    Throwable[] failure = new Throwable[1];
+    Thread thread = new Thread(null, () -> {
+      try {
+        entry.invoke(null, args);
+      } catch (InvocationTargetException e) {
+        failure[0] = e.getCause();
+      } catch (Throwable e) {
+        failure[0] = e;
+      }
+    }, "crux-jvm-emulator", STACK_SIZE);
+    thread.start();
+    try {
+      thread.join();
+    } catch (InterruptedException e) {
+      thread.interrupt();
+      Thread.currentThread().interrupt();
+      return;
+    }
+
+    if (failure[0] instanceof RuntimeException)
+      throw (RuntimeException) failure[0];
+    if (failure[0] instanceof Error)
+      throw (Error) failure[0];
+    if (failure[0] != null)
+      throw new RuntimeException(failure[0]);
+  }
+}
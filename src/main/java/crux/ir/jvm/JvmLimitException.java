@@ -0,0 +1,13 @@
+package crux.ir.jvm;
+
+/**
+ * Thrown by {@link JvmCompiler} when a function or the whole program exceeds a limit of the JVM
+ * class file format, e.g. the 64 KB of code of a method.
+ */
+final class JvmLimitException extends RuntimeException {
+  private static final long serialVersionUID = 1L;
+
+  JvmLimitException(String message) {
+    super(message);
+  }
+}
@@ -0,0 +1,83 @@
+package crux.ir.jvm;
+
+import crux.ir.GlobalMemory;
+import crux.ir.Program;
+import crux.ir.bytecode.BytecodeEmulator;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintStream;
+
+/**
+ * The runtime that the generated classes of {@link JvmEmulator} call into for memory accesses and
+ * the built-in functions. It is passed as the first argument to every generated method. The methods
+ * are small enough to be inlined by the JIT. The functions that do not fit into a JVM method are
+ * run by a {@link BytecodeEmulator} that shares the memory, the input and the output.
+ */
+public final class JvmRuntime {
+  private final Program program;
+  private final GlobalMemory memory;
+  private final BufferedReader br;
+  private final PrintStream out;
+  private BytecodeEmulator interpreter = null;
+
+  JvmRuntime(Program program, GlobalMemory memory, BufferedReader br, PrintStream out) {
+    this.program = program;
+    this.memory = memory;
+    this.br = br;
+    this.out = out;
+  }
+
+  public long interpret(String function, long[] args) {
+    if (interpreter == null)
+      interpreter = new BytecodeEmulator(program, memory, br, out);
+    return interpreter.call(function, args);
+  }
+
+  public long load(long address) {
+    if (!memory.isInitialized(address))
+      out.println("Reading from uninitialized memory");
+    return memory.load(address);
+  }
+
+  public void store(long address, long value) {
+    memory.store(address, value);
+  }
+
+  public long readInt() {
+    try {
+      out.print("int?");
+      String line = br.readLine();
+      return Long.valueOf(line);
+    } catch (IOException e) {
+      throw new Error("Error in inputting Integer.");
+    }
+  }
+
+  public long readChar() {
+    try {
+      int val = br.read();
+      if (val == -1)
+        throw new Error("Reading past end of stream.");
+      return val;
+    } catch (IOException e) {
+      throw new Error("Error in inputting Integer.");
+    }
+  }
+
+  public void printBool(long value) {
+    out.print(value != 0);
+  }
+
+  public void printInt(long value) {
+    out.print(value);
+  }
+
+  public void printChar(long value) {
+    out.print((char) value);
+  }
+
+  public void println() {
+    out.println("");
+  }
+}
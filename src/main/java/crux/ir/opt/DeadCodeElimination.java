@@ -0,0 +1,122 @@
+package crux.ir.opt;
+
+import crux.ir.*;
+import crux.ir.insts.*;
+
+import java.util.*;
+
+/**
+ * Removes the instructions whose results are never used, e.g. the copies and loads that the
+ * lowering of variable accesses leaves behind. In SSA form every variable has a single definition,
+ * so the instructions that are needed are found by starting from those with a side effect (stores,
+ * calls, returns and jumps) and following the definitions of their operands. Everything else is
+ * dead, including cycles of phis that only feed each other.
+ * <p>
+ * A division stays unless its divisor is a non-zero constant, since a division by zero still has
+ * to fail at run time. Dead instructions become nops, and the nops and the jumps that became empty
+ * are removed as in {@link NopElimination}, which makes the predicates of those jumps dead in turn.
+ */
+public final class DeadCodeElimination implements Pass {
+  @Override
+  public String getName() {
+    return "dce";
+  }
+
+  @Override
+  public boolean run(Function f, Program p) {
+    if (f.getStart() == null)
+      return false;
+    boolean changed = sweep(f);
+    for (;;) {
+      changed |= ControlFlowGraph.removeNops(f) > 0;
+      if (!NopElimination.foldJumps(f))
+        return changed;
+      changed = true;
+      sweep(f);
+    }
+  }
+
+  /**
+   * Replaces the dead instructions by nops and removes the dead phis. Returns true if there were
+   * any.
+   */
+  private static boolean sweep(Function f) {
+    var instructions = ControlFlowGraph.reachable(f);
+    var definitions = new HashMap<Variable, Instruction>();
+    for (Instruction i : instructions) {
+      if (i.getDestination() != null)
+        definitions.put(i.getDestination(), i);
+    }
+
+    var live = new HashSet<Instruction>();
+    var work = new ArrayDeque<Instruction>();
+    for (Instruction i : instructions) {
+      if (hasSideEffect(i, definitions) && live.add(i))
+        work.add(i);
+    }
+    while (!work.isEmpty()) {
+      for (Value v : work.poll().getOperands()) {
+        var definition = definitions.get(v);
+        if (definition != null && live.add(definition))
+          work.add(definition);
+      }
+    }
+
+    boolean changed = false;
+    var preds = Edits.predecessors(f);
+    // Dead phis are dropped from the chain of phis at the start of their block
+    var heads = new LinkedHashSet<Instruction>();
+    for (Instruction i : instructions) {
+      if (i instanceof PhiInst)
+        continue;
+      for (Instruction s : ControlFlowGraph.successors(i)) {
+        if (s instanceof PhiInst)
+          heads.add(s);
+      }
+    }
+    for (Instruction head : heads) {
+      var sequence = new ArrayList<Instruction>();
+      Instruction body = head;
+      for (; body instanceof PhiInst; body = body.getNext(0)) {
+        if (live.contains(body))
+          sequence.add(body);
+      }
+      if (sequence.size() == countPhis(head))
+        continue;
+      for (int k = 0; k < sequence.size(); k++)
+        sequence.get(k).setNext(0, k + 1 < sequence.size() ? sequence.get(k + 1) : body);
+      Instruction first = sequence.isEmpty() ? body : sequence.get(0);
+      if (first != head) {
+        var headPreds = preds.remove(head);
+        for (Instruction pred : headPreds) {
+          for (int k = 0; k < pred.numNext(); k++) {
+            if (pred.getNext(k) == head)
+              pred.setNext(k, first);
+          }
+        }
+        preds.computeIfAbsent(first, k -> new ArrayList<>()).addAll(headPreds);
+      }
+      changed = true;
+    }
+
+    for (Instruction i : instructions) {
+      if (i instanceof PhiInst || i instanceof NopInst || live.contains(i))
+        continue;
+      Edits.replace(f, preds, i, new NopInst());
+      changed = true;
+    }
+    return changed;
+  }
+
+  private static int countPhis(Instruction head) {
+    int count = 0;
+    for (Instruction i = head; i instanceof PhiInst; i = i.getNext(0))
+      count++;
+    return count;
+  }
+
+  private static boolean hasSideEffect(Instruction i, HashMap<Variable, Instruction> definitions) {
+    return i instanceof StoreInst || i instanceof CallInst || i instanceof ReturnInst
+        || i instanceof JumpInst || Edits.mayTrap(i, definitions);
+  }
+}
@@ -0,0 +1,147 @@
+package crux.ir.opt;
+
+import crux.ir.BasicBlock;
+import crux.ir.ControlFlowGraph;
+
+import java.util.*;
+
+/**
+ * The dominator tree and the dominance frontiers of a {@link ControlFlowGraph}, computed with the
+ * iterative algorithm of Cooper, Harvey and Kennedy ("A Simple, Fast Dominance Algorithm").
+ */
+final class DominatorTree {
+  private final ControlFlowGraph graph;
+  private final BasicBlock[] idom;
+  private final ArrayList<ArrayList<BasicBlock>> children = new ArrayList<>();
+  private final int[] preorder;
+  private final int[] postorder;
+  private ArrayList<HashSet<BasicBlock>> frontiers;
+
+  DominatorTree(ControlFlowGraph graph) {
+    this.graph = graph;
+    int n = graph.numBlocks();
+    idom = new BasicBlock[n];
+    preorder = new int[n];
+    postorder = new int[n];
+    if (n == 0)
+      return;
+
+    // Blocks are numbered in reverse post order, so the entry has the smallest number
+    BasicBlock entry = graph.getEntry();
+    idom[entry.getIndex()] = entry;
+    boolean changed = true;
+    while (changed) {
+      changed = false;
+      for (int k = 1; k < n; k++) {
+        BasicBlock b = graph.getBlock(k);
+        BasicBlock newIdom = null;
+        for (BasicBlock p : b.getPredecessors()) {
+          if (idom[p.getIndex()] == null)
+            continue;
+          newIdom = newIdom == null ? p : intersect(p, newIdom);
+        }
+        if (idom[k] != newIdom) {
+          idom[k] = newIdom;
+          changed = true;
+        }
+      }
+    }
+
+    for (int k = 0; k < n; k++)
+      children.add(new ArrayList<>());
+    for (int k = 1; k < n; k++)
+      children.get(idom[k].getIndex()).add(graph.getBlock(k));
+    number(entry);
+  }
+
+  private BasicBlock intersect(BasicBlock a, BasicBlock b) {
+    while (a != b) {
+      while (a.getIndex() > b.getIndex())
+        a = idom[a.getIndex()];
+      while (b.getIndex() > a.getIndex())
+        b = idom[b.getIndex()];
+    }
+    return a;
+  }
+
+  /**
+   * Numbers the tree in pre and post order, which makes dominance queries constant time.
+   */
+  private void number(BasicBlock entry) {
+    int counter = 0;
+    var stack = new ArrayDeque<BasicBlock>();
+    var next = new ArrayDeque<Integer>();
+    stack.push(entry);
+    next.push(0);
+    preorder[entry.getIndex()] = counter++;
+    while (!stack.isEmpty()) {
+      BasicBlock b = stack.peek();
+      int k = next.pop();
+      var kids = children.get(b.getIndex());
+      if (k < kids.size()) {
+        next.push(k + 1);
+        BasicBlock c = kids.get(k);
+        preorder[c.getIndex()] = counter++;
+        stack.push(c);
+        next.push(0);
+      } else {
+        postorder[b.getIndex()] = counter++;
+        stack.pop();
+      }
+    }
+  }
+
+  ControlFlowGraph getGraph() {
+    return graph;
+  }
+
+  /**
+   * Returns the immediate dominator of {@code b}, or null for the entry block.
+   */
+  BasicBlock idom(BasicBlock b) {
+    return b.getIndex() == 0 ? null : idom[b.getIndex()];
+  }
+
+  List<BasicBlock> children(BasicBlock b) {
+    return children.get(b.getIndex());
+  }
+
+  /**
+   * Returns true if {@code a} dominates {@code b}. Every block dominates itself.
+   */
+  boolean dominates(BasicBlock a, BasicBlock b) {
+    return preorder[a.getIndex()] <= preorder[b.getIndex()] && postorder[b.getIndex()] <= postorder[a.getIndex()];
+  }
+
+  /**
+   * Returns the dominance frontier of {@code b}, the blocks where the dominance of {@code b} ends.
+   */
+  Set<BasicBlock> frontier(BasicBlock b) {
+    if (frontiers == null) {
+      frontiers = new ArrayList<>();
+      for (int k = 0; k < graph.numBlocks(); k++)
+        frontiers.add(new HashSet<>());
+      for (BasicBlock join : graph.getBlocks()) {
+        if (join.numPredecessors() < 2)
+          continue;
+        for (BasicBlock p : join.getPredecessors()) {
+          BasicBlock runner = p;
+          while (runner != idom[join.getIndex()]) {
+            frontiers.get(runner.getIndex()).add(join);
+            runner = idom[runner.getIndex()];
+          }
+        }
+      }
+    }
+    return frontiers.get(b.getIndex());
+  }
+
+  /**
+   * Returns the blocks of the tree in pre order, so every block comes after its dominator.
+   */
+  List<BasicBlock> preorder() {
+    var result = new ArrayList<>(graph.getBlocks());
+    result.sort(Comparator.comparingInt(b -> preorder[b.getIndex()]));
+    return result;
+  }
+}
@@ -0,0 +1,149 @@
+package crux.ir.opt;
+
+import crux.ir.BasicBlock;
+import crux.ir.ControlFlowGraph;
+import crux.ir.Function;
+import crux.ir.Instruction;
+import crux.ir.IntegerConstant;
+import crux.ir.LocalVar;
+import crux.ir.Variable;
+import crux.ir.insts.BinaryOperator;
+import crux.ir.insts.CopyInst;
+import crux.ir.insts.PhiInst;
+
+import java.util.*;
+
+/**
+ * Changes to the instruction graph that several passes need.
+ */
+final class Edits {
+  private Edits() {}
+
+  /**
+   * Returns the predecessors of every reachable instruction.
+   */
+  static HashMap<Instruction, ArrayList<Instruction>> predecessors(Function f) {
+    var preds = new HashMap<Instruction, ArrayList<Instruction>>();
+    for (Instruction i : ControlFlowGraph.reachable(f)) {
+      preds.computeIfAbsent(i, k -> new ArrayList<>());
+      for (Instruction s : ControlFlowGraph.successors(i))
+        preds.computeIfAbsent(s, k -> new ArrayList<>()).add(i);
+    }
+    return preds;
+  }
+
+  /**
+   * Returns true if {@code i} can fail at run time, which is a division unless its divisor is a
+   * copy of a non-zero constant. {@code definitions} maps the variables to their definitions.
+   */
+  static boolean mayTrap(Instruction i, Map<Variable, Instruction> definitions) {
+    if (!(i instanceof BinaryOperator)
+        || ((BinaryOperator) i).getOperator() != BinaryOperator.Op.Div)
+      return false;
+    var divisor = definitions.get(((BinaryOperator) i).getRightOperand());
+    return !(divisor instanceof CopyInst)
+        || !(((CopyInst) divisor).getSrcValue() instanceof IntegerConstant)
+        || ((IntegerConstant) ((CopyInst) divisor).getSrcValue()).getValue() == 0;
+  }
+
+  /**
+   * Puts {@code replacement} in the place of {@code old}. The replacement takes over the edges of
+   * {@code old} and the phis of the successors refer to it instead. {@code preds} is updated.
+   */
+  static void replace(Function f, HashMap<Instruction, ArrayList<Instruction>> preds, Instruction old,
+      Instruction replacement) {
+    var oldPreds = preds.remove(old);
+    for (Instruction p : oldPreds) {
+      for (int k = 0; k < p.numNext(); k++) {
+        if (p.getNext(k) == old)
+          p.setNext(k, replacement);
+      }
+    }
+    preds.put(replacement, oldPreds);
+    if (f.getStart() == old)
+      f.setStart(replacement);
+    for (int k = 0; k < old.numNext(); k++)
+      replacement.setNext(k, old.getNext(k));
+    for (Instruction s : ControlFlowGraph.successors(old)) {
+      var sPreds = preds.get(s);
+      sPreds.replaceAll(p -> p == old ? replacement : p);
+      for (Instruction i = s; i instanceof PhiInst; i = i.getNext(0))
+        ((PhiInst) i).replacePredecessor(old, replacement);
+    }
+  }
+
+  /**
+   * Removes the phi operands of edges that no longer exist. The phis of blocks with a single
+   * predecessor are turned into copies. Returns true if something changed.
+   */
+  static boolean prunePhis(Function f) {
+    boolean changed = false;
+    var graph = new ControlFlowGraph(f);
+    for (Instruction i : ControlFlowGraph.reachable(f)) {
+      if (!(i instanceof PhiInst) || graph.blockOf(i) == null
+          || isLeadingPhi(graph.blockOf(i), i))
+        continue;
+      // A phi in the middle of a block, its block merged with the single predecessor
+      changed |= phisToCopies(f, i, predecessors(f));
+      graph = new ControlFlowGraph(f);
+    }
+    for (BasicBlock b : graph.getBlocks()) {
+      if (!(b.first() instanceof PhiInst))
+        continue;
+      var live = new HashSet<Instruction>();
+      for (BasicBlock p : b.getPredecessors())
+        live.add(p.last());
+      for (Instruction i = b.first(); i instanceof PhiInst; i = i.getNext(0)) {
+        var phi = (PhiInst) i;
+        for (int k = phi.numIncoming() - 1; k >= 0; k--) {
+          if (!live.contains(phi.getPredecessor(k))) {
+            phi.removeIncoming(phi.getPredecessor(k));
+            changed = true;
+          }
+        }
+      }
+      if (b.numPredecessors() == 1)
+        changed |= phisToCopies(f, b.first(), predecessors(f));
+    }
+    return changed;
+  }
+
+  private static boolean isLeadingPhi(BasicBlock b, Instruction phi) {
+    for (Instruction i : b.getInstructions()) {
+      if (i == phi)
+        return true;
+      if (!(i instanceof PhiInst))
+        break;
+    }
+    return false;
+  }
+
+  /**
+   * Replaces the chain of phis starting at {@code head}, which has a single predecessor, by copies.
+   */
+  private static boolean phisToCopies(Function f, Instruction head,
+      HashMap<Instruction, ArrayList<Instruction>> preds) {
+    Instruction pred = preds.get(head).get(0);
+    Instruction body = head;
+    var copies = new ArrayList<Instruction>();
+    while (body instanceof PhiInst) {
+      var phi = (PhiInst) body;
+      LocalVar src = phi.getIncoming(pred);
+      if (src == null)
+        src = phi.numIncoming() == 1 ? phi.getIncoming(0) : phi.getDst();
+      copies.add(new CopyInst(phi.getDst(), src));
+      body = body.getNext(0);
+    }
+    for (int k = 0; k < copies.size(); k++)
+      copies.get(k).setNext(0, k + 1 < copies.size() ? copies.get(k + 1) : body);
+    for (Instruction p : preds.get(head)) {
+      for (int k = 0; k < p.numNext(); k++) {
+        if (p.getNext(k) == head)
+          p.setNext(k, copies.get(0));
+      }
+    }
+    if (f.getStart() == head)
+      f.setStart(copies.get(0));
+    return true;
+  }
+}
@@ -0,0 +1,275 @@
+package crux.ir.opt;
+
+import crux.ir.*;
+import crux.ir.insts.*;
+
+import java.io.PrintStream;
+import java.util.*;
+
+/**
+ * Replaces calls of small functions by a copy of their body. The arguments are copied into fresh
+ * variables of the caller, and every return becomes a copy of the return value into the destination
+ * of the call followed by the instruction after the call.
+ * <p>
+ * A callee is inlined if it has at most {@link #SMALL_SIZE} instructions, or at most
+ * {@link #SINGLE_CALL_SIZE} if it is called only once in the program. Both limits double for
+ * every loop around the call, up to two loops, and a caller does not grow beyond
+ * {@link #MAX_CALLER_SIZE}.
+ * Functions that are part of a cycle of calls are never inlined, and the body that is inlined is
+ * the one before the pass ran on the caller, so the pass always ends.
+ */
+public final class Inliner extends InstVisitor implements Pass {
+  static final int SMALL_SIZE = 16;
+  static final int SINGLE_CALL_SIZE = 120;
+  static final int MAX_CALLER_SIZE = 4000;
+
+  private final ArrayList<String> inlined = new ArrayList<>();
+  private Program program;
+  private final HashMap<String, Function> functions = new HashMap<>();
+  private final HashMap<String, Integer> callCounts = new HashMap<>();
+  private final HashSet<String> recursive = new HashSet<>();
+
+  //The state of the copy of a callee
+  private final HashMap<Variable, Variable> vars = new HashMap<>();
+  private Function caller;
+  private String prefix;
+  private CallInst call;
+  private Instruction copy;
+
+  @Override
+  public String getName() {
+    return "inline";
+  }
+
+  @Override
+  public boolean requiresSsa() {
+    return false;
+  }
+
+  @Override
+  public boolean run(Function f, Program p) {
+    if (program != p)
+      analyze(p);
+    if (f.getStart() == null)
+      return false;
+
+    var graph = new ControlFlowGraph(f);
+    var loops = new LoopNest(graph, new DominatorTree(graph));
+    int size = size(f);
+    var sites = new ArrayList<CallInst>();
+    var depths = new ArrayList<Integer>();
+    for (BasicBlock b : graph.getBlocks()) {
+      for (Instruction i : b.getInstructions()) {
+        if (i instanceof CallInst) {
+          sites.add((CallInst) i);
+          depths.add(Math.min(loops.depth(b), 2));
+        }
+      }
+    }
+
+    boolean changed = false;
+    for (int k = 0; k < sites.size(); k++) {
+      var site = sites.get(k);
+      var name = site.getCallee().getName();
+      var callee = functions.get(name);
+      if (callee == null || callee == f || recursive.contains(name) || callee.getStart() == null)
+        continue;
+      int calleeSize = size(callee);
+      int limit = (callCounts.get(name) == 1 ? SINGLE_CALL_SIZE : SMALL_SIZE) << depths.get(k);
+      if (calleeSize > limit || size + calleeSize > MAX_CALLER_SIZE)
+        continue;
+      inline(f, site, callee);
+      size += calleeSize;
+      changed = true;
+      inlined.add(String.format("%s into %s (%d instructions, loop depth %d)", name, f.getName(),
+          calleeSize, depths.get(k)));
+    }
+    return changed;
+  }
+
+  /**
+   * Prints the calls that were inlined.
+   */
+  @Override
+  public void printReport(PrintStream out) {
+    for (String line : inlined)
+      out.println("  inlined " + line);
+  }
+
+  /**
+   * Finds the functions of the program, the number of calls of each, and the functions that can
+   * call themselves.
+   */
+  private void analyze(Program p) {
+    program = p;
+    functions.clear();
+    callCounts.clear();
+    recursive.clear();
+    for (var it = p.getFunctions(); it.hasNext();) {
+      var f = it.next();
+      functions.put(f.getName(), f);
+    }
+    var callees = new HashMap<String, HashSet<String>>();
+    for (var f : functions.values()) {
+      var names = new HashSet<String>();
+      for (Instruction i : ControlFlowGraph.reachable(f)) {
+        if (i instanceof CallInst) {
+          var name = ((CallInst) i).getCallee().getName();
+          callCounts.merge(name, 1, Integer::sum);
+          if (functions.containsKey(name))
+            names.add(name);
+        }
+      }
+      callees.put(f.getName(), names);
+    }
+    for (var name : functions.keySet()) {
+      var visited = new HashSet<String>();
+      var stack = new ArrayDeque<>(callees.get(name));
+      while (!stack.isEmpty()) {
+        var callee = stack.pop();
+        if (callee.equals(name)) {
+          recursive.add(name);
+          break;
+        }
+        if (visited.add(callee))
+          stack.addAll(callees.get(callee));
+      }
+    }
+  }
+
+  /**
+   * Returns the number of instructions of {@code f} without the nops, which cost nothing.
+   */
+  private static int size(Function f) {
+    int size = 0;
+    for (Instruction i : ControlFlowGraph.reachable(f)) {
+      if (!(i instanceof NopInst))
+        size++;
+    }
+    return size;
+  }
+
+  private void inline(Function f, CallInst site, Function callee) {
+    caller = f;
+    prefix = callee.getName() + "_";
+    call = site;
+    vars.clear();
+    Instruction after = site.getNext(0);
+
+    var copies = new HashMap<Instruction, Instruction>();
+    var body = ControlFlowGraph.reachable(callee);
+    for (Instruction i : body) {
+      i.accept(this);
+      copies.put(i, copy);
+    }
+    for (Instruction i : body) {
+      var c = copies.get(i);
+      if (i instanceof ReturnInst || i.numNext() == 0) {
+        if (after != null)
+          c.setNext(0, after);
+        continue;
+      }
+      for (int k = 0; k < i.numNext(); k++) {
+        if (i.getNext(k) != null)
+          c.setNext(k, copies.get(i.getNext(k)));
+      }
+    }
+
+    //The head takes the place of the call, followed by the copies of the arguments
+    var head = new NopInst();
+    Edits.replace(f, Edits.predecessors(f), site, head);
+    Instruction last = head;
+    var args = callee.getArguments();
+    var params = site.getParams();
+    for (int k = 0; k < args.size(); k++) {
+      var argCopy = new CopyInst((LocalVar) map(args.get(k)), params.get(k));
+      last.setNext(0, argCopy);
+      last = argCopy;
+    }
+    last.setNext(0, copies.get(callee.getStart()));
+  }
+
+  private Value map(Value v) {
+    if (v instanceof LocalVar)
+      return vars.computeIfAbsent((Variable) v, k -> caller.getTempVar(v.getType(), prefix));
+    if (v instanceof AddressVar)
+      return vars.computeIfAbsent((Variable) v, k -> caller.getTempAddressVar(v.getType()));
+    return v;
+  }
+
+  private LocalVar local(Value v) {
+    return (LocalVar) map(v);
+  }
+
+  private AddressVar address(Value v) {
+    return (AddressVar) map(v);
+  }
+
+  @Override
+  public void visit(AddressAt i) {
+    copy = i.getOffset() == null ? new AddressAt(address(i.getDst()), i.getBase())
+        : new AddressAt(address(i.getDst()), i.getBase(), local(i.getOffset()));
+  }
+
+  @Override
+  public void visit(BinaryOperator i) {
+    copy = new BinaryOperator(i.getOperator(), local(i.getDst()), local(i.getLeftOperand()),
+        local(i.getRightOperand()));
+  }
+
+  @Override
+  public void visit(CompareInst i) {
+    copy = new CompareInst(local(i.getDst()), i.getPredicate(), local(i.getLeftOperand()),
+        local(i.getRightOperand()));
+  }
+
+  @Override
+  public void visit(CopyInst i) {
+    copy = new CopyInst(local(i.getDstVar()), map(i.getSrcValue()));
+  }
+
+  @Override
+  public void visit(JumpInst i) {
+    copy = new JumpInst(local(i.getPredicate()));
+  }
+
+  @Override
+  public void visit(LoadInst i) {
+    copy = new LoadInst(local(i.getDst()), address(i.getSrcAddress()));
+  }
+
+  @Override
+  public void visit(NopInst i) {
+    copy = new NopInst();
+  }
+
+  @Override
+  public void visit(StoreInst i) {
+    copy = new StoreInst(local(i.getSrcValue()), address(i.getDestAddress()));
+  }
+
+  @Override
+  public void visit(UnaryNotInst i) {
+    copy = new UnaryNotInst(local(i.getDst()), local(i.getInner()));
+  }
+
+  @Override
+  public void visit(CallInst i) {
+    var params = new ArrayList<LocalVar>();
+    for (LocalVar param : i.getParams())
+      params.add(local(param));
+    copy = i.getDst() == null ? new CallInst(i.getCallee(), params)
+        : new CallInst(local(i.getDst()), i.getCallee(), params);
+  }
+
+  @Override
+  public void visit(ReturnInst i) {
+    copy = call.getDst() == null ? new NopInst()
+        : new CopyInst(call.getDst(), local(i.getReturnValue()));
+  }
+
+  @Override
+  public void visit(PhiInst i) {
+    throw new IllegalStateException("cannot inline a function in SSA form");
+  }
+}
@@ -0,0 +1,174 @@
+package crux.ir.opt;
+
+import crux.ast.SymbolTable.Symbol;
+import crux.ir.*;
+import crux.ir.insts.*;
+
+import java.util.*;
+
+/**
+ * Moves the instructions that compute the same value in every iteration of a loop in front of the
+ * loop, see {@link LoopNest}. An instruction is invariant if its operands are defined outside of
+ * the loop or by invariant instructions. Inner loops are handled first, so an instruction can move
+ * out of several loops.
+ * <p>
+ * Hoisted instructions run even if the loop ends before it reaches them, so only instructions that
+ * cannot fail move: no divisions by a variable. A load only moves if no call and no store to the
+ * same global is in the loop, and if its block dominates every exit of the loop, so the loop reads
+ * the address at least once whenever it runs. The instructions are placed on the single edge from
+ * outside the loop into its header; loops that are entered from several places are left alone.
+ */
+public final class LoopInvariantCodeMotion implements Pass {
+  @Override
+  public String getName() {
+    return "licm";
+  }
+
+  @Override
+  public boolean run(Function f, Program p) {
+    if (f.getStart() == null)
+      return false;
+    boolean changed = false;
+    // The graph changes with every loop that is hoisted from, so it is built again
+    while (hoistOne(f))
+      changed = true;
+    return changed;
+  }
+
+  private static boolean hoistOne(Function f) {
+    var graph = new ControlFlowGraph(f);
+    var dom = new DominatorTree(graph);
+    var loops = new LoopNest(graph, dom);
+    if (loops.getLoops().isEmpty())
+      return false;
+    var definitions = new HashMap<Variable, Instruction>();
+    for (Instruction i : ControlFlowGraph.reachable(f)) {
+      if (i.getDestination() != null)
+        definitions.put(i.getDestination(), i);
+    }
+    for (var loop : loops.getLoops()) {
+      var hoisted = invariants(dom, loop, definitions);
+      if (!hoisted.isEmpty() && hoist(f, loop, hoisted))
+        return true;
+    }
+    return false;
+  }
+
+  /**
+   * Returns the invariant instructions of {@code loop}, each after the invariants it uses.
+   */
+  private static List<Instruction> invariants(DominatorTree dom, LoopNest.Loop loop,
+      Map<Variable, Instruction> definitions) {
+    var blocks = new ArrayList<>(loop.blocks);
+    blocks.sort(Comparator.comparingInt(BasicBlock::getIndex));
+    var variant = new HashSet<Variable>();
+    var storedBases = new HashSet<Symbol>();
+    boolean storesAnywhere = false;
+    for (BasicBlock b : blocks) {
+      for (Instruction i : b.getInstructions()) {
+        if (i.getDestination() != null)
+          variant.add(i.getDestination());
+        if (i instanceof CallInst) {
+          storesAnywhere = true;
+        } else if (i instanceof StoreInst) {
+          var address = definitions.get(((StoreInst) i).getDestAddress());
+          if (address instanceof AddressAt)
+            storedBases.add(((AddressAt) address).getBase());
+          else
+            storesAnywhere = true;
+        }
+      }
+    }
+    var exits = new ArrayList<BasicBlock>();
+    for (BasicBlock b : blocks) {
+      for (BasicBlock s : b.getSuccessors()) {
+        if (!loop.blocks.contains(s)) {
+          exits.add(b);
+          break;
+        }
+      }
+    }
+
+    var hoisted = new ArrayList<Instruction>();
+    boolean changed = true;
+    while (changed) {
+      changed = false;
+      for (BasicBlock b : blocks) {
+        for (Instruction i : b.getInstructions()) {
+          if (!variant.contains(i.getDestination()) || !movable(i, definitions))
+            continue;
+          boolean invariant = true;
+          for (Value v : i.getOperands())
+            invariant &= !variant.contains(v);
+          if (!invariant)
+            continue;
+          if (i instanceof LoadInst) {
+            var address = definitions.get(((LoadInst) i).getSrcAddress());
+            if (storesAnywhere || !(address instanceof AddressAt)
+                || storedBases.contains(((AddressAt) address).getBase()))
+              continue;
+            boolean dominatesExits = true;
+            for (BasicBlock exit : exits)
+              dominatesExits &= dom.dominates(b, exit);
+            if (!dominatesExits)
+              continue;
+          }
+          variant.remove(i.getDestination());
+          hoisted.add(i);
+          changed = true;
+        }
+      }
+    }
+    return hoisted;
+  }
+
+  private static boolean movable(Instruction i, Map<Variable, Instruction> definitions) {
+    if (i instanceof BinaryOperator)
+      return !Edits.mayTrap(i, definitions);
+    return i instanceof CompareInst || i instanceof UnaryNotInst || i instanceof AddressAt
+        || i instanceof CopyInst || i instanceof LoadInst;
+  }
+
+  /**
+   * Moves {@code hoisted} to the edge into the header of {@code loop}. Returns false if the loop
+   * has no single such edge.
+   */
+  private static boolean hoist(Function f, LoopNest.Loop loop, List<Instruction> hoisted) {
+    BasicBlock outside = null;
+    for (BasicBlock p : loop.header.getPredecessors()) {
+      if (loop.blocks.contains(p))
+        continue;
+      if (outside != null)
+        return false;
+      outside = p;
+    }
+    if (outside == null)
+      return false;
+    Instruction entry = outside.last();
+    Instruction header = loop.header.first();
+    int edge = -1;
+    for (Instruction s : ControlFlowGraph.successors(entry)) {
+      if (s == header) {
+        if (edge >= 0)
+          return false;
+        edge = entry.getNext(0) == header ? 0 : 1;
+      }
+    }
+
+    var preds = Edits.predecessors(f);
+    for (Instruction i : hoisted) {
+      Edits.replace(f, preds, i, new NopInst());
+      i.clearNext();
+    }
+    // The header is a nop now if its first instruction moved
+    header = entry.getNext(edge);
+    entry.setNext(edge, hoisted.get(0));
+    for (int k = 0; k + 1 < hoisted.size(); k++)
+      hoisted.get(k).setNext(0, hoisted.get(k + 1));
+    Instruction last = hoisted.get(hoisted.size() - 1);
+    last.setNext(0, header);
+    for (Instruction i = header; i instanceof PhiInst; i = i.getNext(0))
+      ((PhiInst) i).replacePredecessor(entry, last);
+    return true;
+  }
+}
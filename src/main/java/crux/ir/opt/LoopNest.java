@@ -0,0 +1,75 @@
+package crux.ir.opt;
+
+import crux.ir.BasicBlock;
+import crux.ir.ControlFlowGraph;
+
+import java.util.*;
+
+/**
+ * The natural loops of a {@link ControlFlowGraph}. Every edge to a block that dominates its source
+ * is a back edge, and the loop of the edge is the header and the blocks that reach the source
+ * without passing the header. Loops with the same header are merged.
+ */
+final class LoopNest {
+  static final class Loop {
+    final BasicBlock header;
+    final HashSet<BasicBlock> blocks = new HashSet<>();
+    Loop parent;
+
+    Loop(BasicBlock header) {
+      this.header = header;
+      blocks.add(header);
+    }
+  }
+
+  private final ArrayList<Loop> loops = new ArrayList<>();
+  private final int[] depth;
+
+  LoopNest(ControlFlowGraph graph, DominatorTree dom) {
+    depth = new int[graph.numBlocks()];
+    var byHeader = new HashMap<BasicBlock, Loop>();
+    for (BasicBlock b : graph.getBlocks()) {
+      for (BasicBlock h : b.getSuccessors()) {
+        if (!dom.dominates(h, b))
+          continue;
+        var loop = byHeader.computeIfAbsent(h, Loop::new);
+        var stack = new ArrayDeque<BasicBlock>();
+        if (loop.blocks.add(b))
+          stack.push(b);
+        while (!stack.isEmpty()) {
+          for (BasicBlock p : stack.pop().getPredecessors()) {
+            if (loop.blocks.add(p))
+              stack.push(p);
+          }
+        }
+      }
+    }
+    loops.addAll(byHeader.values());
+    // A loop is smaller than the loops around it
+    loops.sort(Comparator.comparingInt((Loop l) -> l.blocks.size())
+        .thenComparingInt(l -> l.header.getIndex()));
+    for (int k = 0; k < loops.size(); k++) {
+      var loop = loops.get(k);
+      for (int j = k + 1; j < loops.size() && loop.parent == null; j++) {
+        if (loops.get(j).blocks.contains(loop.header))
+          loop.parent = loops.get(j);
+      }
+      for (BasicBlock b : loop.blocks)
+        depth[b.getIndex()]++;
+    }
+  }
+
+  /**
+   * Returns the loops, inner loops before the loops around them.
+   */
+  List<Loop> getLoops() {
+    return Collections.unmodifiableList(loops);
+  }
+
+  /**
+   * Returns the number of loops that contain {@code b}.
+   */
+  int depth(BasicBlock b) {
+    return depth[b.getIndex()];
+  }
+}
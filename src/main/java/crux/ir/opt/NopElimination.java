@@ -0,0 +1,52 @@
+package crux.ir.opt;
+
+import crux.ir.ControlFlowGraph;
+import crux.ir.Function;
+import crux.ir.Program;
+import crux.ir.Instruction;
+import crux.ir.insts.JumpInst;
+import crux.ir.insts.NopInst;
+
+/**
+ * Removes the {@link NopInst}s that glue the lowered statements together and that {@link Sccp} leaves
+ * behind for constant jumps, see {@link ControlFlowGraph#removeNops(Function)}. Fewer nops make for
+ * fewer and longer basic blocks.
+ * <p>
+ * A jump whose edges both go to the same instruction, e.g. after the branches of an {@code if} lost
+ * all their instructions, becomes a nop as well.
+ */
+public final class NopElimination implements Pass {
+  @Override
+  public String getName() {
+    return "remove-nops";
+  }
+
+  @Override
+  public boolean run(Function f, Program p) {
+    boolean changed = ControlFlowGraph.removeNops(f) > 0;
+    while (foldJumps(f)) {
+      ControlFlowGraph.removeNops(f);
+      changed = true;
+    }
+    return changed;
+  }
+
+  /**
+   * Replaces the jumps whose edges go to the same instruction by nops. Returns true if there were
+   * any.
+   */
+  static boolean foldJumps(Function f) {
+    boolean changed = false;
+    var preds = Edits.predecessors(f);
+    for (Instruction i : ControlFlowGraph.reachable(f)) {
+      if (!(i instanceof JumpInst) || i.getNext(0) != i.getNext(1))
+        continue;
+      var nop = new NopInst();
+      Edits.replace(f, preds, i, nop);
+      nop.clearNext();
+      nop.setNext(0, i.getNext(0));
+      changed = true;
+    }
+    return changed;
+  }
+}
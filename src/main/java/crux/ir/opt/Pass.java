@@ -0,0 +1,37 @@
+package crux.ir.opt;
+
+import crux.ir.Function;
+import crux.ir.Program;
+
+import java.io.PrintStream;
+
+/**
+ * A transformation or analysis of the IR that runs on one function at a time. Passes are run by the
+ * {@link PassManager}, which converts the function into or out of SSA form as needed before the
+ * pass runs.
+ */
+public interface Pass {
+  /**
+   * The name of the pass in a pass list, e.g. {@code --passes verify-ssa}.
+   */
+  String getName();
+
+  /**
+   * Returns true if the pass expects the function in SSA form, false if it expects the function
+   * without phis.
+   */
+  default boolean requiresSsa() {
+    return true;
+  }
+
+  /**
+   * Runs the pass on {@code f}, which is part of {@code p}. Returns true if the function changed.
+   */
+  boolean run(Function f, Program p);
+
+  /**
+   * Prints what the pass did, after the statistics line of the pass, see
+   * {@link PassManager#setStatsOutput}.
+   */
+  default void printReport(PrintStream out) {}
+}
@@ -0,0 +1,152 @@
+package crux.ir.opt;
+
+import crux.ir.ControlFlowGraph;
+import crux.ir.Function;
+import crux.ir.Program;
+
+import java.io.PrintStream;
+import java.util.*;
+import java.util.function.Supplier;
+
+/**
+ * Runs an ordered list of {@link Pass}es over every function of a program. Before a pass runs, the
+ * function is converted into SSA form or out of it, depending on {@link Pass#requiresSsa()}, and at
+ * the end every function is converted out of SSA form again, so the code generator and the
+ * emulators never see phis.
+ * <p>
+ * If a statistics stream is set, a line with the time, the number of changed functions and the
+ * number of instructions after the pass is printed for every pass, including the SSA conversions.
+ */
+public final class PassManager {
+  private static final Map<String, Supplier<Pass>> registry = new LinkedHashMap<>();
+
+  static {
+    register(SsaVerifier::new);
+    register(Inliner::new);
+    register(Sccp::new);
+    register(ValueNumbering::new);
+    register(LoopInvariantCodeMotion::new);
+    register(DeadCodeElimination::new);
+    register(NopElimination::new);
+  }
+
+  private static void register(Supplier<Pass> factory) {
+    registry.put(factory.get().getName(), factory);
+  }
+
+  /**
+   * The passes that {@code -O} runs.
+   */
+  public static final String DEFAULT_PASSES = "inline,sccp,gvn,licm,dce,remove-nops";
+
+  private final ArrayList<Pass> passes = new ArrayList<>();
+  private PrintStream statsOut;
+
+  /**
+   * Returns the names of all passes that can be used in a pass list.
+   */
+  public static Set<String> getPassNames() {
+    return Collections.unmodifiableSet(registry.keySet());
+  }
+
+  /**
+   * Creates a pass manager from a comma separated list of pass names, e.g.
+   * {@code "verify-ssa,verify-ssa"}.
+   */
+  public static PassManager parse(String passList) {
+    var pm = new PassManager();
+    for (String name : passList.split(",")) {
+      name = name.trim();
+      if (name.isEmpty())
+        continue;
+      var factory = registry.get(name);
+      if (factory == null)
+        throw new IllegalArgumentException(String.format("unknown pass '%s', known passes: %s",
+            name, String.join(", ", registry.keySet())));
+      pm.add(factory.get());
+    }
+    return pm;
+  }
+
+  public PassManager add(Pass pass) {
+    passes.add(pass);
+    return this;
+  }
+
+  public List<Pass> getPasses() {
+    return Collections.unmodifiableList(passes);
+  }
+
+  public void setStatsOutput(PrintStream out) {
+    statsOut = out;
+  }
+
+  public void run(Program p) {
+    var functions = new ArrayList<Function>();
+    for (var it = p.getFunctions(); it.hasNext();)
+      functions.add(it.next());
+
+    var inSsa = new HashSet<Function>();
+    if (statsOut != null) {
+      statsOut.printf("%-20s %10s %8s %12s%n", "pass", "time(ms)", "changed", "instructions");
+      statsOut.printf("%-20s %10s %8s %12d%n", "(input)", "", "", countInstructions(functions));
+    }
+    for (Pass pass : passes) {
+      var toConvert = new ArrayList<Function>();
+      for (Function f : functions) {
+        if (pass.requiresSsa() != inSsa.contains(f))
+          toConvert.add(f);
+      }
+      if (!toConvert.isEmpty()) {
+        if (pass.requiresSsa())
+          toSsa(toConvert, inSsa, functions);
+        else
+          fromSsa(toConvert, inSsa, functions);
+      }
+
+      long start = System.nanoTime();
+      int changed = 0;
+      for (Function f : functions) {
+        if (pass.run(f, p))
+          changed++;
+      }
+      report(pass.getName(), start, changed, functions);
+      if (statsOut != null)
+        pass.printReport(statsOut);
+    }
+    if (!inSsa.isEmpty())
+      fromSsa(new ArrayList<>(inSsa), inSsa, functions);
+  }
+
+  private void toSsa(List<Function> toConvert, Set<Function> inSsa, List<Function> functions) {
+    long start = System.nanoTime();
+    for (Function f : toConvert) {
+      SsaBuilder.toSsa(f);
+      inSsa.add(f);
+    }
+    report("(to-ssa)", start, toConvert.size(), functions);
+  }
+
+  private void fromSsa(List<Function> toConvert, Set<Function> inSsa, List<Function> functions) {
+    long start = System.nanoTime();
+    for (Function f : toConvert) {
+      SsaDestruction.fromSsa(f);
+      inSsa.remove(f);
+    }
+    report("(from-ssa)", start, toConvert.size(), functions);
+  }
+
+  private void report(String name, long start, int changed, List<Function> functions) {
+    if (statsOut == null)
+      return;
+    double ms = (System.nanoTime() - start) / 1e6;
+    statsOut.printf("%-20s %10.3f %8d %12d%n", name, ms, changed, countInstructions(functions));
+  }
+
+  private static int countInstructions(List<Function> functions) {
+    int count = 0;
+    for (Function f : functions)
+      count += ControlFlowGraph.reachable(f).size();
+    return count;
+  }
+}
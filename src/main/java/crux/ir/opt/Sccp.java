@@ -0,0 +1,330 @@
+package crux.ir.opt;
+
+import crux.ir.*;
+import crux.ir.insts.*;
+
+import java.util.*;
+
+/**
+ * Sparse conditional constant propagation (Wegman and Zadeck). The pass finds the variables that
+ * have a constant value and the edges that can be executed at the same time, so constants that only
+ * reach a merge through edges that are never taken are still found.
+ * <p>
+ * Instructions that compute a constant are replaced by a copy of the constant, jumps on a constant
+ * become nops with a single edge, and the code that can no longer be reached disappears with them.
+ * A division by zero is never folded, so it still happens at run time.
+ */
+public final class Sccp extends InstVisitor implements Pass {
+  /** The lattice value of a variable that has not been assigned yet. */
+  private static final Object TOP = new Object();
+  /** The lattice value of a variable that is not constant. */
+  private static final Object BOTTOM = new Object();
+
+  private final HashMap<LocalVar, Object> values = new HashMap<>();
+  private final HashMap<LocalVar, ArrayList<Instruction>> uses = new HashMap<>();
+  private final HashSet<LocalVar> assigned = new HashSet<>();
+  private final HashSet<Instruction> executable = new HashSet<>();
+  private final HashMap<Instruction, Integer> executableEdges = new HashMap<>();
+  private final HashMap<PhiInst, Instruction> phiHead = new HashMap<>();
+  private final ArrayDeque<Instruction> flowWork = new ArrayDeque<>();
+  private final ArrayDeque<Instruction> ssaWork = new ArrayDeque<>();
+
+  @Override
+  public String getName() {
+    return "sccp";
+  }
+
+  @Override
+  public boolean run(Function f, Program p) {
+    if (f.getStart() == null)
+      return false;
+    values.clear();
+    uses.clear();
+    assigned.clear();
+    executable.clear();
+    executableEdges.clear();
+    phiHead.clear();
+
+    var instructions = ControlFlowGraph.reachable(f);
+    for (Instruction i : instructions) {
+      for (Value v : i.getOperands()) {
+        if (v instanceof LocalVar)
+          uses.computeIfAbsent((LocalVar) v, k -> new ArrayList<>()).add(i);
+      }
+      if (i.getDestination() instanceof LocalVar)
+        assigned.add((LocalVar) i.getDestination());
+      if (!(i instanceof PhiInst)) {
+        for (Instruction s : ControlFlowGraph.successors(i)) {
+          for (Instruction h = s; h instanceof PhiInst; h = h.getNext(0))
+            phiHead.put((PhiInst) h, s);
+        }
+      }
+    }
+
+    flowWork.add(f.getStart());
+    executable.add(f.getStart());
+    while (!flowWork.isEmpty() || !ssaWork.isEmpty()) {
+      while (!flowWork.isEmpty())
+        flowWork.poll().accept(this);
+      while (!ssaWork.isEmpty()) {
+        Instruction i = ssaWork.poll();
+        if (executable.contains(i))
+          i.accept(this);
+      }
+    }
+    return rewrite(f, p, instructions);
+  }
+
+  private Object value(Value v) {
+    if (v instanceof IntegerConstant)
+      return ((IntegerConstant) v).getValue();
+    if (v instanceof BooleanConstant)
+      return ((BooleanConstant) v).getValue();
+    if (!assigned.contains(v))
+      return BOTTOM;
+    return values.getOrDefault(v, TOP);
+  }
+
+  private static Object meet(Object a, Object b) {
+    if (a == TOP)
+      return b;
+    if (b == TOP)
+      return a;
+    if (a == BOTTOM || b == BOTTOM || !a.equals(b))
+      return BOTTOM;
+    return a;
+  }
+
+  private void setValue(Variable v, Object value) {
+    if (!(v instanceof LocalVar))
+      return;
+    var old = values.getOrDefault(v, TOP);
+    var lowered = meet(old, value);
+    if (lowered == old || lowered.equals(old))
+      return;
+    values.put((LocalVar) v, lowered);
+    ssaWork.addAll(uses.getOrDefault(v, new ArrayList<>()));
+  }
+
+  private void markEdge(Instruction from, int k) {
+    int mask = executableEdges.getOrDefault(from, 0);
+    if ((mask & (1 << k)) != 0)
+      return;
+    executableEdges.put(from, mask | (1 << k));
+    Instruction to = from.getNext(k);
+    if (to == null)
+      return;
+    if (executable.add(to)) {
+      flowWork.add(to);
+    } else if (to instanceof PhiInst) {
+      // A new edge into a block that is already executable changes the values of its phis
+      for (Instruction i = to; i instanceof PhiInst; i = i.getNext(0))
+        flowWork.add(i);
+    }
+  }
+
+  private boolean isEdgeExecutable(Instruction from, Instruction to) {
+    int mask = executableEdges.getOrDefault(from, 0);
+    for (int k = 0; k < from.numNext(); k++) {
+      if (from.getNext(k) == to && (mask & (1 << k)) != 0)
+        return true;
+    }
+    return false;
+  }
+
+  private void fallThrough(Instruction i) {
+    markEdge(i, 0);
+  }
+
+  private static Object fold(BinaryOperator.Op op, long l, long r) {
+    switch (op) {
+      case Add:
+        return l + r;
+      case Sub:
+        return l - r;
+      case Mul:
+        return l * r;
+      case Div:
+        return r == 0 ? BOTTOM : l / r;
+    }
+    return BOTTOM;
+  }
+
+  private static Object fold(CompareInst.Predicate predicate, long l, long r) {
+    switch (predicate) {
+      case GE:
+        return l >= r;
+      case GT:
+        return l > r;
+      case LE:
+        return l <= r;
+      case LT:
+        return l < r;
+      case EQ:
+        return l == r;
+      case NE:
+        return l != r;
+    }
+    return BOTTOM;
+  }
+
+  public void visit(AddressAt i) {
+    fallThrough(i);
+  }
+
+  public void visit(BinaryOperator i) {
+    var l = value(i.getLeftOperand());
+    var r = value(i.getRightOperand());
+    if (l == BOTTOM || r == BOTTOM)
+      setValue(i.getDst(), BOTTOM);
+    else if (l != TOP && r != TOP)
+      setValue(i.getDst(), fold(i.getOperator(), (Long) l, (Long) r));
+    fallThrough(i);
+  }
+
+  public void visit(CompareInst i) {
+    var l = value(i.getLeftOperand());
+    var r = value(i.getRightOperand());
+    if (l == BOTTOM || r == BOTTOM)
+      setValue(i.getDst(), BOTTOM);
+    else if (l != TOP && r != TOP)
+      setValue(i.getDst(), fold(i.getPredicate(), (Long) l, (Long) r));
+    fallThrough(i);
+  }
+
+  public void visit(CopyInst i) {
+    var v = value(i.getSrcValue());
+    if (v != TOP)
+      setValue(i.getDstVar(), v);
+    fallThrough(i);
+  }
+
+  public void visit(JumpInst i) {
+    var v = value(i.getPredicate());
+    if (v == BOTTOM) {
+      markEdge(i, 0);
+      markEdge(i, 1);
+    } else if (v != TOP) {
+      markEdge(i, (Boolean) v ? 1 : 0);
+    }
+  }
+
+  public void visit(LoadInst i) {
+    setValue(i.getDst(), BOTTOM);
+    fallThrough(i);
+  }
+
+  public void visit(NopInst i) {
+    fallThrough(i);
+  }
+
+  public void visit(PhiInst i) {
+    Instruction head = phiHead.get(i);
+    Object v = TOP;
+    for (int k = 0; k < i.numIncoming(); k++) {
+      if (head != null && isEdgeExecutable(i.getPredecessor(k), head))
+        v = meet(v, value(i.getIncoming(k)));
+    }
+    if (v != TOP)
+      setValue(i.getDst(), v);
+    fallThrough(i);
+  }
+
+  public void visit(StoreInst i) {
+    fallThrough(i);
+  }
+
+  public void visit(ReturnInst i) {}
+
+  public void visit(CallInst i) {
+    if (i.getDst() != null)
+      setValue(i.getDst(), BOTTOM);
+    fallThrough(i);
+  }
+
+  public void visit(UnaryNotInst i) {
+    var v = value(i.getInner());
+    if (v == BOTTOM)
+      setValue(i.getDst(), BOTTOM);
+    else if (v != TOP)
+      setValue(i.getDst(), !(Boolean) v);
+    fallThrough(i);
+  }
+
+  private static Value constant(Program p, Object v) {
+    if (v instanceof Long)
+      return IntegerConstant.get(p, (Long) v);
+    return BooleanConstant.get(p, (Boolean) v);
+  }
+
+  private boolean rewrite(Function f, Program p, List<Instruction> instructions) {
+    boolean changed = false;
+    var preds = Edits.predecessors(f);
+
+    // Phis with a constant value become copies after the remaining phis of their block
+    var heads = new LinkedHashSet<Instruction>();
+    for (Instruction i : instructions) {
+      if (i instanceof PhiInst && executable.contains(i) && isConstant(i.getDestination()))
+        heads.add(phiHead.get(i));
+    }
+    for (Instruction head : heads) {
+      var sequence = new ArrayList<Instruction>();
+      var copies = new ArrayList<Instruction>();
+      Instruction body = head;
+      for (; body instanceof PhiInst; body = body.getNext(0)) {
+        var dst = (LocalVar) body.getDestination();
+        if (isConstant(dst))
+          copies.add(new CopyInst(dst, constant(p, value(dst))));
+        else
+          sequence.add(body);
+      }
+      sequence.addAll(copies);
+      for (int k = 0; k < sequence.size(); k++)
+        sequence.get(k).setNext(0, k + 1 < sequence.size() ? sequence.get(k + 1) : body);
+      Instruction first = sequence.get(0);
+      if (first != head) {
+        var headPreds = preds.remove(head);
+        for (Instruction pred : headPreds) {
+          for (int k = 0; k < pred.numNext(); k++) {
+            if (pred.getNext(k) == head)
+              pred.setNext(k, first);
+          }
+        }
+        preds.put(first, headPreds);
+      }
+      changed = true;
+    }
+
+    for (Instruction i : instructions) {
+      if (!executable.contains(i))
+        continue;
+      if (i instanceof JumpInst) {
+        var v = value(((JumpInst) i).getPredicate());
+        if (v == TOP || v == BOTTOM)
+          continue;
+        var nop = new NopInst();
+        Edits.replace(f, preds, i, nop);
+        nop.clearNext();
+        nop.setNext(0, i.getNext((Boolean) v ? 1 : 0));
+        changed = true;
+      } else if (i instanceof CopyInst || i instanceof BinaryOperator || i instanceof CompareInst
+          || i instanceof UnaryNotInst) {
+        if (!isConstant(i.getDestination()))
+          continue;
+        if (i instanceof CopyInst && ((CopyInst) i).getSrcValue() instanceof Constant)
+          continue;
+        var dst = (LocalVar) i.getDestination();
+        Edits.replace(f, preds, i, new CopyInst(dst, constant(p, value(dst))));
+        changed = true;
+      }
+    }
+    if (changed)
+      Edits.prunePhis(f);
+    return changed;
+  }
+
+  private boolean isConstant(Variable v) {
+    var value = value(v);
+    return value != TOP && value != BOTTOM;
+  }
+}
@@ -0,0 +1,187 @@
+package crux.ir.opt;
+
+import crux.ir.BasicBlock;
+import crux.ir.ControlFlowGraph;
+import crux.ir.Function;
+import crux.ir.Instruction;
+import crux.ir.LocalVar;
+import crux.ir.Value;
+import crux.ir.insts.NopInst;
+import crux.ir.insts.PhiInst;
+import crux.ir.insts.ReturnInst;
+
+import java.util.*;
+
+/**
+ * Converts a function into SSA form, so that every {@link LocalVar} is assigned by exactly one
+ * instruction. Phi instructions are placed at the iterated dominance frontiers of the assignments
+ * of every variable that is live across blocks ("semi-pruned" SSA), then the variables are renamed
+ * in a walk over the dominator tree. Arguments keep their variable as the first version.
+ * <p>
+ * {@link SsaDestruction} converts the function back.
+ */
+public final class SsaBuilder {
+  private final Function function;
+  private ControlFlowGraph graph;
+  private DominatorTree domTree;
+  private final HashMap<PhiInst, LocalVar> phiVars = new HashMap<>();
+  private final HashMap<BasicBlock, ArrayList<PhiInst>> phis = new HashMap<>();
+  private final HashMap<LocalVar, ArrayDeque<LocalVar>> versions = new HashMap<>();
+
+  private SsaBuilder(Function f) {
+    function = f;
+  }
+
+  public static void toSsa(Function f) {
+    if (f.getStart() == null)
+      return;
+    new SsaBuilder(f).build();
+  }
+
+  private void build() {
+    // The successors of a return are never executed, drop them so they do not look like edges
+    for (Instruction i : ControlFlowGraph.reachable(function)) {
+      if (i instanceof ReturnInst)
+        i.clearNext();
+    }
+    graph = new ControlFlowGraph(function);
+    if (!graph.getEntry().getPredecessors().isEmpty()) {
+      // The entry block must not have predecessors, otherwise there is no place for its phis
+      var entry = new NopInst();
+      entry.setNext(0, function.getStart());
+      function.setStart(entry);
+      graph = new ControlFlowGraph(function);
+    }
+    domTree = new DominatorTree(graph);
+    placePhis();
+    rename();
+  }
+
+  private static LocalVar definedVar(Instruction i) {
+    return i.getDestination() instanceof LocalVar ? (LocalVar) i.getDestination() : null;
+  }
+
+  private void placePhis() {
+    // Find the variables that are used before they are assigned in some block
+    var liveIn = new LinkedHashSet<LocalVar>();
+    var defSites = new HashMap<LocalVar, LinkedHashSet<BasicBlock>>();
+    for (LocalVar arg : function.getArguments())
+      defSites.computeIfAbsent(arg, v -> new LinkedHashSet<>()).add(graph.getEntry());
+    for (BasicBlock b : graph.getBlocks()) {
+      var defined = new HashSet<LocalVar>();
+      for (Instruction i : b.getInstructions()) {
+        for (Value v : i.getOperands()) {
+          if (v instanceof LocalVar && !defined.contains(v))
+            liveIn.add((LocalVar) v);
+        }
+        LocalVar dst = definedVar(i);
+        if (dst != null) {
+          defined.add(dst);
+          defSites.computeIfAbsent(dst, v -> new LinkedHashSet<>()).add(b);
+        }
+      }
+    }
+
+    for (LocalVar v : liveIn) {
+      var sites = defSites.get(v);
+      if (sites == null)
+        continue;
+      var hasPhi = new HashSet<BasicBlock>();
+      var worklist = new ArrayDeque<>(sites);
+      while (!worklist.isEmpty()) {
+        BasicBlock b = worklist.poll();
+        for (BasicBlock join : domTree.frontier(b)) {
+          if (hasPhi.add(join)) {
+            var phi = new PhiInst(v, List.of(), List.of());
+            phiVars.put(phi, v);
+            phis.computeIfAbsent(join, k -> new ArrayList<>()).add(phi);
+            if (!sites.contains(join))
+              worklist.add(join);
+          }
+        }
+      }
+    }
+
+    // Link the phis in front of the first instruction of their block
+    for (var e : phis.entrySet()) {
+      BasicBlock b = e.getKey();
+      var blockPhis = e.getValue();
+      Instruction leader = b.first();
+      for (int k = 0; k < blockPhis.size(); k++)
+        blockPhis.get(k).setNext(0, k + 1 < blockPhis.size() ? blockPhis.get(k + 1) : leader);
+      for (BasicBlock p : b.getPredecessors()) {
+        Instruction last = p.last();
+        for (int k = 0; k < last.numNext(); k++) {
+          if (last.getNext(k) == leader)
+            last.setNext(k, blockPhis.get(0));
+        }
+      }
+    }
+  }
+
+  private LocalVar current(LocalVar v) {
+    var stack = versions.get(v);
+    // A variable without a reaching assignment keeps its name, it is never assigned in SSA form
+    return stack == null || stack.isEmpty() ? v : stack.peek();
+  }
+
+  private LocalVar newVersion(LocalVar v, ArrayList<LocalVar> pushed) {
+    LocalVar version = function.getTempVar(v.getType());
+    versions.computeIfAbsent(v, k -> new ArrayDeque<>()).push(version);
+    pushed.add(v);
+    return version;
+  }
+
+  private void rename() {
+    for (LocalVar arg : function.getArguments())
+      versions.computeIfAbsent(arg, k -> new ArrayDeque<>()).push(arg);
+
+    // Walk the dominator tree, popping the versions of a block after its subtree is done
+    var stack = new ArrayDeque<BasicBlock>();
+    var pushedStack = new ArrayDeque<ArrayList<LocalVar>>();
+    var next = new ArrayDeque<Integer>();
+    stack.push(graph.getEntry());
+    pushedStack.push(renameBlock(graph.getEntry()));
+    next.push(0);
+    while (!stack.isEmpty()) {
+      BasicBlock b = stack.peek();
+      int k = next.pop();
+      var kids = domTree.children(b);
+      if (k < kids.size()) {
+        next.push(k + 1);
+        BasicBlock c = kids.get(k);
+        stack.push(c);
+        pushedStack.push(renameBlock(c));
+        next.push(0);
+      } else {
+        stack.pop();
+        for (LocalVar v : pushedStack.pop())
+          versions.get(v).pop();
+      }
+    }
+  }
+
+  private ArrayList<LocalVar> renameBlock(BasicBlock b) {
+    var pushed = new ArrayList<LocalVar>();
+    for (PhiInst phi : phis.getOrDefault(b, new ArrayList<>()))
+      phi.setDestination(newVersion(phiVars.get(phi), pushed));
+    for (Instruction i : b.getInstructions()) {
+      var operands = i.getOperands();
+      for (int k = 0; k < operands.size(); k++) {
+        if (operands.get(k) instanceof LocalVar) {
+          LocalVar use = current((LocalVar) operands.get(k));
+          if (use != operands.get(k))
+            i.setOperand(k, use);
+        }
+      }
+      LocalVar dst = definedVar(i);
+      if (dst != null)
+        i.setDestination(newVersion(dst, pushed));
+    }
+    for (BasicBlock s : b.getSuccessors()) {
+      for (PhiInst phi : phis.getOrDefault(s, new ArrayList<>()))
+        phi.setIncoming(b.last(), current(phiVars.get(phi)));
+    }
+    return pushed;
+  }
+}
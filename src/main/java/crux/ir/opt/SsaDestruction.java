@@ -0,0 +1,89 @@
+package crux.ir.opt;
+
+import crux.ir.BasicBlock;
+import crux.ir.ControlFlowGraph;
+import crux.ir.Function;
+import crux.ir.Instruction;
+import crux.ir.LocalVar;
+import crux.ir.insts.CopyInst;
+import crux.ir.insts.PhiInst;
+
+import java.util.*;
+
+/**
+ * Converts a function out of SSA form. The phis of a block are replaced by copies on every incoming
+ * edge, so each edge gets its own chain of copies between the predecessor and the block. Since all
+ * phis of a block are evaluated at the same time, copies whose source is overwritten by an earlier
+ * copy of the same edge go through a fresh temporary.
+ */
+public final class SsaDestruction {
+  private SsaDestruction() {}
+
+  public static void fromSsa(Function f) {
+    if (f.getStart() == null)
+      return;
+    var graph = new ControlFlowGraph(f);
+    for (BasicBlock b : graph.getBlocks()) {
+      var phis = new ArrayList<PhiInst>();
+      for (Instruction i : b.getInstructions()) {
+        if (!(i instanceof PhiInst))
+          break;
+        phis.add((PhiInst) i);
+      }
+      if (phis.isEmpty())
+        continue;
+      Instruction body = phis.get(phis.size() - 1).getNext(0);
+      for (BasicBlock p : b.getPredecessors()) {
+        Instruction last = p.last();
+        Instruction copies = edgeCopies(f, phis, last, body);
+        for (int k = 0; k < last.numNext(); k++) {
+          if (last.getNext(k) == phis.get(0))
+            last.setNext(k, copies);
+        }
+      }
+      if (f.getStart() == phis.get(0))
+        f.setStart(body);
+    }
+  }
+
+  /**
+   * Returns the first instruction of the copies for the edge from {@code pred}, which continue with
+   * {@code body}.
+   */
+  private static Instruction edgeCopies(Function f, List<PhiInst> phis, Instruction pred,
+      Instruction body) {
+    var dsts = new ArrayList<LocalVar>();
+    var srcs = new ArrayList<LocalVar>();
+    for (PhiInst phi : phis) {
+      LocalVar src = phi.getIncoming(pred);
+      if (src != null && src != phi.getDst()) {
+        dsts.add(phi.getDst());
+        srcs.add(src);
+      }
+    }
+
+    // Save the sources that are overwritten by the copies first
+    var copies = new ArrayList<Instruction>();
+    var overwritten = new HashSet<>(dsts);
+    for (int k = 0; k < srcs.size(); k++) {
+      LocalVar src = srcs.get(k);
+      if (overwritten.contains(src)) {
+        LocalVar temp = f.getTempVar(src.getType());
+        copies.add(new CopyInst(temp, src));
+        for (int j = k; j < srcs.size(); j++) {
+          if (srcs.get(j) == src)
+            srcs.set(j, temp);
+        }
+      }
+    }
+    for (int k = 0; k < dsts.size(); k++)
+      copies.add(new CopyInst(dsts.get(k), srcs.get(k)));
+
+    Instruction first = body;
+    for (int k = copies.size() - 1; k >= 0; k--) {
+      copies.get(k).setNext(0, first);
+      first = copies.get(k);
+    }
+    return first;
+  }
+}
@@ -0,0 +1,103 @@
+package crux.ir.opt;
+
+import crux.ir.BasicBlock;
+import crux.ir.ControlFlowGraph;
+import crux.ir.Function;
+import crux.ir.Instruction;
+import crux.ir.LocalVar;
+import crux.ir.Program;
+import crux.ir.Value;
+import crux.ir.insts.PhiInst;
+import crux.printing.IRValueFormatter;
+
+import java.util.*;
+
+/**
+ * Checks that a function is in valid SSA form and throws an {@link IllegalStateException} if it is
+ * not. Every variable must be assigned at most once, phis must be at the start of their block with
+ * one operand per predecessor, and every assignment must dominate the uses of the variable. Variables
+ * that are never assigned are allowed, they stand for an undefined value.
+ */
+public final class SsaVerifier implements Pass {
+  @Override
+  public String getName() {
+    return "verify-ssa";
+  }
+
+  @Override
+  public boolean run(Function f, Program p) {
+    var graph = new ControlFlowGraph(f);
+    if (graph.numBlocks() == 0)
+      return false;
+    var domTree = new DominatorTree(graph);
+
+    // Find the assignment of every variable, arguments are assigned before the entry block
+    var defBlock = new HashMap<LocalVar, BasicBlock>();
+    var defIndex = new HashMap<LocalVar, Integer>();
+    for (LocalVar arg : f.getArguments()) {
+      defBlock.put(arg, graph.getEntry());
+      defIndex.put(arg, -1);
+    }
+    for (BasicBlock b : graph.getBlocks()) {
+      boolean inPhis = true;
+      for (int k = 0; k < b.size(); k++) {
+        Instruction i = b.get(k);
+        if (i instanceof PhiInst) {
+          if (!inPhis)
+            fail(f, i, "phi is not at the start of its block");
+          checkPhi(f, (PhiInst) i, b);
+        } else {
+          inPhis = false;
+        }
+        if (i.getDestination() instanceof LocalVar) {
+          var dst = (LocalVar) i.getDestination();
+          if (defBlock.containsKey(dst))
+            fail(f, i, dst + " is assigned more than once");
+          defBlock.put(dst, b);
+          defIndex.put(dst, k);
+        }
+      }
+    }
+
+    for (BasicBlock b : graph.getBlocks()) {
+      for (int k = 0; k < b.size(); k++) {
+        Instruction i = b.get(k);
+        var operands = i.getOperands();
+        for (int j = 0; j < operands.size(); j++) {
+          Value v = operands.get(j);
+          if (!(v instanceof LocalVar) || !defBlock.containsKey(v))
+            continue;
+          // The operands of a phi are used at the end of the predecessor
+          BasicBlock useBlock = b;
+          int useIndex = k;
+          if (i instanceof PhiInst) {
+            useBlock = graph.blockOf(((PhiInst) i).getPredecessor(j));
+            useIndex = useBlock.size();
+          }
+          BasicBlock d = defBlock.get(v);
+          boolean dominated = d == useBlock ? defIndex.get(v) < useIndex
+              : domTree.dominates(d, useBlock);
+          if (!dominated)
+            fail(f, i, "the assignment of " + v + " does not dominate its use");
+        }
+      }
+    }
+    return false;
+  }
+
+  private static void checkPhi(Function f, PhiInst phi, BasicBlock b) {
+    var preds = new HashSet<Instruction>();
+    for (BasicBlock p : b.getPredecessors())
+      preds.add(p.last());
+    var incoming = new HashSet<Instruction>();
+    for (int k = 0; k < phi.numIncoming(); k++)
+      incoming.add(phi.getPredecessor(k));
+    if (!preds.equals(incoming) || phi.numIncoming() != preds.size())
+      fail(f, phi, "phi operands do not match the predecessors of its block");
+  }
+
+  private static void fail(Function f, Instruction i, String message) {
+    throw new IllegalStateException(String.format("invalid SSA in function %s at '%s': %s",
+        f.getName(), i.format(new IRValueFormatter()), message));
+  }
+}
@@ -0,0 +1,158 @@
+package crux.ir.opt;
+
+import crux.ir.*;
+import crux.ir.insts.*;
+
+import java.util.*;
+
+/**
+ * Global value numbering over the dominator tree. An arithmetic operation, comparison, negation or
+ * address computation that computes the same value as one in a dominating block, or earlier in the
+ * same block, is removed and its uses refer to the earlier result. Operands have the same value if
+ * they are copies of the same variable or constant.
+ * <p>
+ * Loads are only reused within a block, and only until the next store or call, since memory has no
+ * SSA form that would tell whether a path from a dominating block stores to the same address.
+ */
+public final class ValueNumbering implements Pass {
+  private final HashMap<Variable, Object> numbers = new HashMap<>();
+  //The order in which the value numbers were first seen, which orders commutative operands
+  private final HashMap<Object, Integer> ranks = new HashMap<>();
+  private final HashMap<List<Object>, Variable> available = new HashMap<>();
+  private final HashMap<Variable, Variable> replacements = new HashMap<>();
+  private final ArrayList<Instruction> redundant = new ArrayList<>();
+
+  @Override
+  public String getName() {
+    return "gvn";
+  }
+
+  @Override
+  public boolean run(Function f, Program p) {
+    if (f.getStart() == null)
+      return false;
+    numbers.clear();
+    ranks.clear();
+    available.clear();
+    replacements.clear();
+    redundant.clear();
+
+    var graph = new ControlFlowGraph(f);
+    var dom = new DominatorTree(graph);
+    // A block is pushed to be entered, and then again as null to leave its scope
+    var stack = new ArrayDeque<Optional<BasicBlock>>();
+    var scopes = new ArrayDeque<ArrayList<List<Object>>>();
+    stack.push(Optional.of(graph.getEntry()));
+    while (!stack.isEmpty()) {
+      var next = stack.pop();
+      if (next.isEmpty()) {
+        for (var key : scopes.pop())
+          available.remove(key);
+        continue;
+      }
+      var b = next.get();
+      var scope = new ArrayList<List<Object>>();
+      number(b, scope);
+      scopes.push(scope);
+      stack.push(Optional.empty());
+      for (BasicBlock child : dom.children(b))
+        stack.push(Optional.of(child));
+    }
+    if (redundant.isEmpty())
+      return false;
+
+    for (Instruction i : ControlFlowGraph.reachable(f)) {
+      for (Value v : i.getOperands()) {
+        var leader = replacements.get(v);
+        if (leader != null)
+          i.replaceOperand(v, leader);
+      }
+    }
+    var preds = Edits.predecessors(f);
+    for (Instruction i : redundant)
+      Edits.replace(f, preds, i, new NopInst());
+    return true;
+  }
+
+  private void number(BasicBlock b, List<List<Object>> scope) {
+    var loads = new HashMap<Object, Variable>();
+    for (Instruction i : b.getInstructions()) {
+      if (i instanceof StoreInst || i instanceof CallInst) {
+        loads.clear();
+        continue;
+      }
+      if (i instanceof LoadInst) {
+        var dst = i.getDestination();
+        var address = number(((LoadInst) i).getSrcAddress());
+        var leader = loads.get(address);
+        if (leader != null) {
+          replace(i, leader);
+        } else {
+          loads.put(address, dst);
+          numbers.put(dst, dst);
+        }
+        continue;
+      }
+      if (i instanceof CopyInst) {
+        numbers.put(i.getDestination(), number(((CopyInst) i).getSrcValue()));
+        continue;
+      }
+      var key = key(i);
+      if (key == null)
+        continue;
+      var leader = available.get(key);
+      if (leader != null) {
+        replace(i, leader);
+      } else {
+        available.put(key, i.getDestination());
+        scope.add(key);
+        numbers.put(i.getDestination(), i.getDestination());
+      }
+    }
+  }
+
+  private void replace(Instruction i, Variable leader) {
+    replacements.put(i.getDestination(), leader);
+    numbers.put(i.getDestination(), number(leader));
+    redundant.add(i);
+  }
+
+  /**
+   * Returns the value number of {@code v}, the variable or constant that it is a copy of.
+   */
+  private Object number(Value v) {
+    var n = numbers.get(v);
+    return n != null ? n : v;
+  }
+
+  private int rank(Object number) {
+    return ranks.computeIfAbsent(number, n -> ranks.size());
+  }
+
+  /**
+   * Returns the key of the value that {@code i} computes, or null if it is not numbered.
+   */
+  private List<Object> key(Instruction i) {
+    if (i instanceof BinaryOperator) {
+      var op = ((BinaryOperator) i).getOperator();
+      Object lhs = number(((BinaryOperator) i).getLeftOperand());
+      Object rhs = number(((BinaryOperator) i).getRightOperand());
+      if ((op == BinaryOperator.Op.Add || op == BinaryOperator.Op.Mul) && rank(lhs) > rank(rhs))
+        return List.of(op, rhs, lhs);
+      return List.of(op, lhs, rhs);
+    }
+    if (i instanceof CompareInst) {
+      var compare = (CompareInst) i;
+      return List.of(compare.getPredicate(), number(compare.getLeftOperand()),
+          number(compare.getRightOperand()));
+    }
+    if (i instanceof UnaryNotInst)
+      return List.of(UnaryNotInst.class, number(((UnaryNotInst) i).getInner()));
+    if (i instanceof AddressAt) {
+      var address = (AddressAt) i;
+      return address.getOffset() == null ? List.of(address.getBase())
+          : List.of(address.getBase(), number(address.getOffset()));
+    }
+    return null;
+  }
+}
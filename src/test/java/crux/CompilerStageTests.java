@@ -1,13 +1,45 @@
 package crux;
 
+import crux.ast.types.BoolType;
+import crux.ast.types.FuncType;
+import crux.ast.types.IntType;
+import crux.ast.types.TypeList;
+import crux.ast.types.VoidType;
+import crux.backend.AsmInst;
+import crux.backend.CodeGen;
+import crux.backend.Opcode;
+import crux.backend.Operand;
+import crux.backend.Peephole;
+import crux.backend.Register;
+import crux.binary.IrDecoder;
+import crux.ir.DebugListener;
+import crux.ir.Emulator;
+import crux.ir.Function;
+import crux.ir.IntegerConstant;
+import crux.ir.Program;
+import crux.ir.insts.BinaryOperator;
+import crux.ir.insts.CompareInst;
+import crux.ir.insts.CopyInst;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.DynamicTest;
+import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.TestFactory;
 
 import java.io.*;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import java.util.concurrent.ExecutorService;
@@ -27,10 +59,21 @@ final class CompilerStageTests {
    */
   private final String[] TEST_TO_RUN = {"stage5"};
 
+  /**
+   * Set this to false to skip the tests of the emulator engines, the optimizer, the compile cache,
+   * the compile server and the other features that run the IR tests in other ways. They do not
+   * depend on TEST_TO_RUN, so they run while stage4 is off.
+   */
+  private final boolean RUN_FEATURE_TESTS = true;
+
   private boolean skipStage(String stageName) {
     return List.of(TEST_TO_RUN).stream().noneMatch(s -> s.toLowerCase().equals(stageName));
   }
 
+  private boolean skipFeatures() {
+    return !RUN_FEATURE_TESTS;
+  }
+
   static String sanitize(String str) {
     return str.replace("\r", "");
   }
@@ -91,6 +134,37 @@ final class CompilerStageTests {
     }));
   }
 
+  /**
+   * Parses programs with syntax errors, on which SLL prediction fails. The parser must fall back to
+   * LL and report the errors that LL reports on its own. It runs with every stage, since all of them
+   * parse.
+   */
+  @TestFactory
+  Stream<DynamicTest> parseFallback() {
+    var programs = List.of("void main() { int a }", "void main( {", "int x = ;",
+        "void main() { printInt(1 + ); }");
+    return programs.stream().map(program -> dynamicTest(program, () -> {
+      var llErr = new ByteArrayOutputStream();
+      var ll = new Driver(new PrintStream(new ByteArrayOutputStream()), new PrintStream(llErr));
+      ll.setParseMode(Driver.ParseMode.LL);
+      ll.enablePrintParseTree();
+      ll.setInputStream(new ByteArrayInputStream(program.getBytes(StandardCharsets.UTF_8)));
+      Assertions.assertEquals(State.Error, ll.run());
+
+      long fallbacks = Driver.getLLFallbackCount();
+      var err = new ByteArrayOutputStream();
+      var driver = new Driver(new PrintStream(new ByteArrayOutputStream()), new PrintStream(err));
+      driver.enablePrintParseTree();
+      driver.setInputStream(new ByteArrayInputStream(program.getBytes(StandardCharsets.UTF_8)));
+      Assertions.assertEquals(State.Error, driver.run());
+      Assertions.assertTrue(Driver.getLLFallbackCount() > fallbacks,
+          "The parser did not fall back to LL.");
+      Assertions.assertFalse(llErr.toString().isEmpty());
+      Assertions.assertEquals(llErr.toString(), err.toString(),
+          "The errors after the fallback differ from those of LL.");
+    }));
+  }
+
   @TestFactory
   Stream<DynamicTest> ast() throws IOException {
     if (skipStage("stage2")) {
@@ -233,6 +307,687 @@ final class CompilerStageTests {
     }));
   }
 
+  @TestFactory
+  Stream<DynamicTest> emulateIRBytecode() throws IOException {
+    return emulateIRWith("bytecode", Driver::enableBytecodeEmulator);
+  }
+
+  @TestFactory
+  Stream<DynamicTest> emulateIRJvm() throws IOException {
+    return emulateIRWith("JVM", Driver::enableJvmEmulator);
+  }
+
+  @TestFactory
+  Stream<DynamicTest> emulateIRSsa() throws IOException {
+    return emulateIRWith("SSA round trip", driver -> {
+      driver.enableEmulator();
+      driver.setPasses("verify-ssa");
+    });
+  }
+
+  /**
+   * Runs the IR tests with the default optimization passes, which must not change their output and
+   * must not execute more instructions than the unoptimized IR.
+   */
+  @TestFactory
+  Stream<DynamicTest> emulateIROptimized() throws IOException {
+    if (skipFeatures()) {
+      return Stream.empty();
+    }
+
+    var tests = getTests("ir");
+    return tests.stream().map(test -> dynamicTest(test.in, () -> {
+      var plain = profile(test, "plain", driver -> {});
+      var optimized = profile(test, "optimized", Driver::enableOptimization);
+      Assertions.assertEquals(sanitize(readResourceToString(test.out)).trim(),
+          sanitize(optimized.a).trim(),
+          String.format("Optimized IR for program %s differs from expected output.", test.in));
+      Assertions.assertTrue(executed(optimized.b) <= executed(plain.b),
+          String.format("Optimized IR for program %s executes %d instead of %d instructions.",
+              test.in, executed(optimized.b), executed(plain.b)));
+    }));
+  }
+
+  /**
+   * Runs the IR tests with inlining, which must not change their output and must not make more
+   * calls than the IR without it.
+   */
+  @TestFactory
+  Stream<DynamicTest> emulateIRInlined() throws IOException {
+    if (skipFeatures()) {
+      return Stream.empty();
+    }
+
+    var tests = getTests("ir");
+    return tests.stream().map(test -> dynamicTest(test.in, () -> {
+      var plain = profile(test, "plain", driver -> {});
+      var inlined = profile(test, "inlined", driver -> driver.setPasses("inline,verify-ssa"));
+      Assertions.assertEquals(sanitize(readResourceToString(test.out)).trim(),
+          sanitize(inlined.a).trim(),
+          String.format("Inlined IR for program %s differs from expected output.", test.in));
+      Assertions.assertTrue(calls(inlined.b) <= calls(plain.b),
+          String.format("Inlined IR for program %s makes %d instead of %d calls.", test.in,
+              calls(inlined.b), calls(plain.b)));
+    }));
+  }
+
+  /**
+   * Runs an IR test in the profiler, and returns its output and the profile.
+   */
+  private StringPair profile(InOut test, String name, Consumer<Driver> configure)
+      throws IOException {
+    var loader = getClass().getClassLoader();
+    var outputDirectory = new File("target/profile");
+    outputDirectory.mkdirs();
+    var collapsed = new File(outputDirectory,
+        new File(test.in).getName().replace(".crx", "-" + name + ".folded"));
+    var outStream = new ByteArrayOutputStream();
+    var reportStream = new ByteArrayOutputStream();
+    var driver = new Driver(new PrintStream(outStream), new PrintStream(reportStream));
+    configure.accept(driver);
+    driver.setEmulatorProfileFile(collapsed.getPath());
+    driver.setEmulatorProfileTop(Integer.MAX_VALUE);
+    driver.setEmulatorInput(loader.getResourceAsStream(test.input));
+    driver.setInputStream(loader.getResourceAsStream(test.in));
+    driver.run();
+    return new StringPair(outStream.toString(), reportStream.toString());
+  }
+
+  /**
+   * Returns the number of executed instructions in a profile.
+   */
+  private static long executed(String profile) {
+    return Long.parseLong(profile.substring(0, profile.indexOf(' ')));
+  }
+
+  /**
+   * Returns the number of calls in a profile, from its table of functions.
+   */
+  private static long calls(String profile) {
+    var lines = profile.lines().collect(Collectors.toList());
+    long calls = 0;
+    for (int k = lines.indexOf("functions by own instructions") + 2; k < lines.size()
+        && !lines.get(k).isEmpty(); k++)
+      calls += Long.parseLong(lines.get(k).trim().split(" +")[1]);
+    return calls;
+  }
+
+  /**
+   * Runs the IR tests with the profiler, which must not change their output and must attribute
+   * every executed instruction to a call stack, with recursive calls folded.
+   */
+  @TestFactory
+  Stream<DynamicTest> emulateIRProfiled() throws IOException {
+    if (skipFeatures()) {
+      return Stream.empty();
+    }
+
+    var tests = getTests("ir");
+    var loader = getClass().getClassLoader();
+    var outputDirectory = new File("target/profile");
+    outputDirectory.mkdirs();
+
+    return tests.stream().map(test -> dynamicTest(test.in, () -> {
+      var name = new File(test.in).getName().replace(".crx", "");
+      var collapsed = new File(outputDirectory, name + ".folded").toPath();
+      var outStream = new ByteArrayOutputStream();
+      var reportStream = new ByteArrayOutputStream();
+      var driver = new Driver(new PrintStream(outStream), new PrintStream(reportStream));
+      driver.setEmulatorProfileFile(collapsed.toString());
+      driver.setEmulatorInput(loader.getResourceAsStream(test.input));
+      driver.setInputStream(loader.getResourceAsStream(test.in));
+      driver.run();
+
+      Assertions.assertEquals(sanitize(readResourceToString(test.out)).trim(),
+          sanitize(outStream.toString()).trim(),
+          String.format("Profiled IR for program %s differs from expected output.", test.in));
+      long total = 0;
+      for (var line : Files.readAllLines(collapsed)) {
+        total += Long.parseLong(line.substring(line.lastIndexOf(' ') + 1));
+        var frames = List.of(line.substring(0, line.lastIndexOf(' ')).split(";"));
+        Assertions.assertEquals(frames.size(), Set.copyOf(frames).size(),
+            String.format("Profile of program %s does not fold the recursion in %s.", test.in,
+                line));
+      }
+      Assertions.assertTrue(reportStream.toString().startsWith(total + " instructions executed"),
+          String.format("Profile of program %s does not add up to %d.", test.in, total));
+    }));
+  }
+
+  /**
+   * Writes the typed AST and the IR of the IR tests in the binary format, reads both back and runs
+   * them in the emulator.
+   */
+  @TestFactory
+  Stream<DynamicTest> emulateIRBinary() throws IOException {
+    if (skipFeatures()) {
+      return Stream.empty();
+    }
+
+    var tests = getTests("ir");
+    return tests.stream().map(test -> dynamicTest(test.in, () -> {
+      ExecutorService executor = Executors.newSingleThreadExecutor();
+      Future<List<StringPair>> future = executor.submit(new Callable<List<StringPair>>() {
+        public List<StringPair> call() throws IOException {
+          var loader = getClass().getClassLoader();
+          var expectedOutput = readResourceToString(test.out);
+
+          var writer = new Driver(new PrintStream(new ByteArrayOutputStream()),
+              new PrintStream(new ByteArrayOutputStream()));
+          var outputDirectory = new File("target/binary");
+          outputDirectory.mkdirs();
+          writer.enableBinarySerialize();
+          writer.setOutputDirectory(outputDirectory.getPath());
+          writer.setInputStream(loader.getResourceAsStream(test.in));
+          writer.run();
+
+          var astOutStream = new ByteArrayOutputStream();
+          var astPrintStream = new PrintStream(astOutStream);
+          var driver = new Driver(astPrintStream, astPrintStream);
+          driver.enableEmulator();
+          driver.setEmulatorInput(loader.getResourceAsStream(test.input));
+          try (var ast = new FileInputStream(new File(outputDirectory, "typedast.bin"))) {
+            driver.readASTTYPE(ast);
+          }
+          driver.run();
+
+          var irOutStream = new ByteArrayOutputStream();
+          try (var ir = new FileInputStream(new File(outputDirectory, "ir.bin"))) {
+            var channel = ir.getChannel();
+            var program =
+                IrDecoder.read(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+            new Emulator(program, loader.getResourceAsStream(test.input), irOutStream).run();
+          }
+
+          return List.of(new StringPair(expectedOutput, astOutStream.toString()),
+              new StringPair(expectedOutput, irOutStream.toString()));
+        }
+      });
+      List<StringPair> sps = null;
+      try {
+        sps = future.get(TIMEOUT, TimeUnit.SECONDS);
+      } catch (TimeoutException e) {
+        future.cancel(true);
+      }
+      if (sps == null) {
+        Assertions.fail(String.format("Timeout for binary IR for program %s.", test.in));
+      } else {
+        Assertions.assertEquals(sanitize(sps.get(0).a).trim(), sanitize(sps.get(0).b).trim(),
+            String.format("Binary AST for program %s differs from expected output.", test.in));
+        Assertions.assertEquals(sanitize(sps.get(1).a).trim(), sanitize(sps.get(1).b).trim(),
+            String.format("Binary IR for program %s differs from expected output.", test.in));
+      }
+    }));
+  }
+
+  /**
+   * Runs the IR tests twice with a new compile cache. The first run misses and stores the IR, the
+   * second one starts from the cached IR.
+   */
+  @TestFactory
+  Stream<DynamicTest> emulateIRCached() throws IOException {
+    if (skipFeatures()) {
+      return Stream.empty();
+    }
+
+    var tests = getTests("ir");
+    var cacheDirectory = new File("target/cache-ir");
+    cacheDirectory.mkdirs();
+    return tests.stream().map(test -> dynamicTest(test.in, () -> {
+      var loader = getClass().getClassLoader();
+      var expectedOutput = readResourceToString(test.out);
+      var cache = Files.createTempDirectory(cacheDirectory.toPath(), "test").toString();
+      long[] before = cacheCounts();
+      for (int run = 0; run < 2; run++) {
+        var outStream = new ByteArrayOutputStream();
+        var outPrintStream = new PrintStream(outStream);
+        var driver = new Driver(outPrintStream, outPrintStream);
+        driver.enableEmulator();
+        driver.enableOptimization();
+        driver.setCacheDirectory(cache);
+        driver.setEmulatorInput(loader.getResourceAsStream(test.input));
+        driver.setInputStream(loader.getResourceAsStream(test.in));
+        driver.run();
+        Assertions.assertEquals(sanitize(expectedOutput).trim(), sanitize(outStream.toString())
+            .trim(), String.format("Cached IR for program %s differs from expected output in "
+                + "run %d.", test.in, run + 1));
+
+        long[] after = cacheCounts();
+        //lookups, IR hits, misses
+        long[] expected = run == 0 ? new long[] {1, 0, 1} : new long[] {1, 1, 0};
+        for (int k = 0; k < expected.length; k++) {
+          Assertions.assertEquals(expected[k], after[k] - before[k], String.format(
+              "Cache statistics of program %s differ in run %d.", test.in, run + 1));
+        }
+        before = after;
+      }
+    }));
+  }
+
+  /**
+   * Returns the lookups, IR hits and misses of the compile caches in this JVM.
+   */
+  private static long[] cacheCounts() {
+    var stats = new ByteArrayOutputStream();
+    CompileCache.printStats(new PrintStream(stats));
+    var matcher = Pattern.compile("cache lookups (\\d+) hits \\d+ \\(assembly \\d+ ir (\\d+) "
+        + "typed ast \\d+\\) misses (\\d+)").matcher(stats.toString());
+    Assertions.assertTrue(matcher.find(), "Unexpected cache statistics: " + stats);
+    return new long[] {Long.parseLong(matcher.group(1)), Long.parseLong(matcher.group(2)),
+        Long.parseLong(matcher.group(3))};
+  }
+
+  /**
+   * Sends all IR tests to one compile server, which runs them concurrently.
+   */
+  @TestFactory
+  Stream<DynamicTest> emulateIRServer() throws IOException {
+    if (skipFeatures()) {
+      return Stream.empty();
+    }
+
+    var tests = getTests("ir");
+    var loader = getClass().getClassLoader();
+    var requests = new ByteArrayOutputStream();
+    var requestStream = new DataOutputStream(requests);
+    for (int id = 0; id < tests.size(); id++) {
+      var test = tests.get(id);
+      try (var in = loader.getResourceAsStream(test.in);
+          var input = loader.getResourceAsStream(test.input)) {
+        CompileServer.writeJob(requestStream, id, new String[] {"--emulator"}, in.readAllBytes(),
+            input.readAllBytes());
+      }
+    }
+
+    var server = new CompileServer(4);
+    var responses = new ByteArrayOutputStream();
+    server.serve(new ByteArrayInputStream(requests.toByteArray()), responses);
+    server.shutdown();
+
+    var outputs = new String[tests.size()];
+    var responseStream = new DataInputStream(new ByteArrayInputStream(responses.toByteArray()));
+    for (int k = 0; k < tests.size(); k++) {
+      var response = CompileServer.Response.read(responseStream);
+      outputs[response.id] = new String(response.out, StandardCharsets.UTF_8);
+    }
+    return tests.stream().map(test -> dynamicTest(test.in, () -> {
+      var expectedOutput = readResourceToString(test.out);
+      Assertions.assertEquals(sanitize(expectedOutput).trim(),
+          sanitize(outputs[tests.indexOf(test)]).trim(),
+          String.format("Server IR for program %s differs from expected output.", test.in));
+    }));
+  }
+
+  /**
+   * Evicts from a cache with entries that disappear between the listing and reading their
+   * attributes, as when another compiler evicts them, which must not stop the eviction.
+   */
+  @Test
+  public void cacheEvictVanishedEntries() throws IOException {
+    var directory = new File("target/cache-evict").toPath();
+    if (Files.exists(directory)) {
+      try (var files = Files.list(directory)) {
+        for (var file : (Iterable<Path>) files::iterator)
+          Files.delete(file);
+      }
+    }
+    Files.createDirectories(directory);
+    var old = directory.resolve("old.ir");
+    var recent = directory.resolve("recent.ir");
+    Files.write(old, new byte[100]);
+    Files.write(recent, new byte[100]);
+    Files.setLastModifiedTime(old, FileTime.fromMillis(1000));
+    // Dangling links have no attributes, like entries deleted since the listing
+    Files.createSymbolicLink(directory.resolve("a-vanished.ir"), directory.resolve("missing"));
+    Files.createSymbolicLink(directory.resolve("b-vanished.tmp"), directory.resolve("missing"));
+
+    new CompileCache(directory.toString(), 150).evict();
+    Assertions.assertFalse(Files.exists(old), "The least recently used entry was not evicted.");
+    Assertions.assertTrue(Files.exists(recent));
+  }
+
+  /**
+   * Measures overlapping stages, whose peak heap is unknown since the peak usage of the JVM is
+   * shared, while a stage measured alone has one.
+   */
+  @Test
+  public void statsPeakHeap() {
+    var outer = new CompileStats.Probe(true);
+    var inner = new CompileStats.Probe(true);
+    Assertions.assertEquals(-1, inner.stop("inner").peakHeapBytes);
+    Assertions.assertEquals(-1, outer.stop("outer").peakHeapBytes);
+    Assertions.assertEquals(-1, new CompileStats.Probe(false).stop("event").peakHeapBytes);
+    Assertions.assertTrue(new CompileStats.Probe(true).stop("alone").peakHeapBytes > 0);
+  }
+
+  /**
+   * Sends the compile server a job that throws an {@link Error}, which must get a crash response
+   * while the next job still runs.
+   */
+  @TestFactory
+  Stream<DynamicTest> emulateIRServerCrash() {
+    if (skipFeatures()) {
+      return Stream.empty();
+    }
+
+    return Stream.of(dynamicTest("crash", () -> {
+      var requests = new ByteArrayOutputStream();
+      var requestStream = new DataOutputStream(requests);
+      // Reading past the end of the input throws an Error in the emulator
+      CompileServer.writeJob(requestStream, 0, new String[] {"--emulator"},
+          "void main() { printChar(readChar()); }".getBytes(StandardCharsets.UTF_8), new byte[0]);
+      CompileServer.writeJob(requestStream, 1, new String[] {"--emulator"},
+          "void main() { printInt(1); }".getBytes(StandardCharsets.UTF_8), new byte[0]);
+
+      var server = new CompileServer(1);
+      var responses = new ByteArrayOutputStream();
+      Assertions.assertTimeoutPreemptively(Duration.ofSeconds(TIMEOUT),
+          () -> server.serve(new ByteArrayInputStream(requests.toByteArray()), responses));
+      server.shutdown();
+
+      var responseStream = new DataInputStream(new ByteArrayInputStream(responses.toByteArray()));
+      var statuses = new byte[2];
+      for (int k = 0; k < statuses.length; k++) {
+        var response = CompileServer.Response.read(responseStream);
+        statuses[response.id] = response.status;
+      }
+      Assertions.assertEquals(CompileServer.CRASH, statuses[0]);
+      Assertions.assertEquals(CompileServer.SUCCESS, statuses[1]);
+    }));
+  }
+
+  /**
+   * Numbers the commutative operations of a program with their operands in both orders, which must
+   * leave one of each.
+   */
+  @TestFactory
+  Stream<DynamicTest> optimizeCommutative() {
+    if (skipFeatures()) {
+      return Stream.empty();
+    }
+
+    var program = String.join("\n", "void main() {", "  int a; int b;",
+        "  a = readInt(); b = readInt();", "  printInt(a * b);", "  printInt(b * a);",
+        "  printInt(a + b);", "  printInt(b + a);", "}");
+    return Stream.of(dynamicTest("commutative", () -> {
+      var outStream = new ByteArrayOutputStream();
+      var driver = new Driver(new PrintStream(outStream), new PrintStream(outStream));
+      driver.enablePrintIR();
+      driver.setPasses("gvn");
+      driver.setInputStream(new ByteArrayInputStream(program.getBytes(StandardCharsets.UTF_8)));
+      Assertions.assertEquals(State.Finished, driver.run(), outStream.toString());
+      var ir = outStream.toString();
+      Assertions.assertEquals(1, Pattern.compile(" \\* ").matcher(ir).results().count(), ir);
+      Assertions.assertEquals(1, Pattern.compile(" \\+ ").matcher(ir).results().count(), ir);
+    }));
+  }
+
+  private static final Pattern DEBUG_INSTRUCTION = Pattern.compile("(AddressAt|BinaryOperator"
+      + "|CompareInst|CopyInst|Jump|LoadInst|Nop|StoreInst|ReturnInst|UnaryNotInst):");
+
+  /**
+   * Runs an IR test with {@code --debug-emulator}, whose output must be that of the emulator before
+   * it had listeners, and a program that overwrites an operand, whose debug output must show the
+   * operands as they were read.
+   */
+  @TestFactory
+  Stream<DynamicTest> emulateIRDebug() {
+    if (skipFeatures()) {
+      return Stream.empty();
+    }
+
+    var golden = dynamicTest("crux/stages/ir/test26.crx", () -> {
+      var loader = getClass().getClassLoader();
+      var outStream = new ByteArrayOutputStream();
+      var driver = new Driver(new PrintStream(outStream), new PrintStream(outStream));
+      driver.enableDebugEmulator();
+      driver.setEmulatorInput(loader.getResourceAsStream("crux/stages/ir/test26.in"));
+      driver.setInputStream(loader.getResourceAsStream("crux/stages/ir/test26.crx"));
+      driver.run();
+      Assertions.assertEquals(readResourceToString("crux/debug/test26.out"), outStream.toString(),
+          "Debug output of the emulator differs from the baseline.");
+    });
+
+    var operands = dynamicTest("overwritten operands", () -> {
+      // x = 5; one = 1; x = x + one; b = x > one
+      var p = new Program();
+      var main = new Function("main", new FuncType(new TypeList(), new VoidType()));
+      var x = main.getTempVar(new IntType());
+      var one = main.getTempVar(new IntType());
+      var b = main.getTempVar(new BoolType());
+      var insts = List.of(new CopyInst(x, IntegerConstant.get(p, 5)),
+          new CopyInst(one, IntegerConstant.get(p, 1)),
+          new BinaryOperator(BinaryOperator.Op.Add, x, x, one),
+          new CompareInst(one, CompareInst.Predicate.LT, one, x));
+      for (int k = 1; k < insts.size(); k++)
+        insts.get(k - 1).setNext(0, insts.get(k));
+      main.setStart(insts.get(0));
+      p.addFunction(main);
+
+      var outStream = new ByteArrayOutputStream();
+      var emulator = new Emulator(p, new ByteArrayInputStream(new byte[0]), outStream);
+      emulator.addListener(new DebugListener(new PrintStream(outStream, true)));
+      emulator.run();
+      var lines = outStream.toString().split("\n");
+      Assertions.assertEquals(x + "=5Add1", lines[2].substring("BinaryOperator: ".length()));
+      Assertions.assertEquals(one + "=1LT6", lines[3].substring("CompareInst: ".length()));
+    });
+    return Stream.of(golden, operands);
+  }
+
+  /**
+   * Runs an IR test with a binary trace, whose records must match the lines of the debug output of
+   * the same run.
+   */
+  @TestFactory
+  Stream<DynamicTest> emulateIRTrace() {
+    if (skipFeatures()) {
+      return Stream.empty();
+    }
+
+    return Stream.of(dynamicTest("crux/stages/ir/test26.crx", () -> {
+      var loader = getClass().getClassLoader();
+      var traceFile = new File("target/trace/test26.trace");
+      traceFile.getParentFile().mkdirs();
+      var driver = new Driver(new PrintStream(new ByteArrayOutputStream()),
+          new PrintStream(new ByteArrayOutputStream()));
+      driver.setEmulatorTraceFile(traceFile.getPath());
+      driver.setEmulatorInput(loader.getResourceAsStream("crux/stages/ir/test26.in"));
+      driver.setInputStream(loader.getResourceAsStream("crux/stages/ir/test26.crx"));
+      driver.run();
+
+      var debug = readResourceToString("crux/debug/test26.out");
+      long instructions = DEBUG_INSTRUCTION.matcher(debug).results().count();
+      long calls = Pattern.compile("Calling ").matcher(debug).results().count();
+      long loads = Pattern.compile("LoadInst:").matcher(debug).results().count();
+      long stores = Pattern.compile("StoreInst:").matcher(debug).results().count();
+
+      var counts = new HashMap<Character, Long>();
+      var functions = new ArrayList<String>();
+      var definitions = new ArrayList<String>();
+      try (var in = new DataInputStream(new BufferedInputStream(new FileInputStream(traceFile)))) {
+        var magic = new byte[9];
+        in.readFully(magic);
+        Assertions.assertEquals("CRUXTRACE", new String(magic, StandardCharsets.US_ASCII));
+        Assertions.assertEquals(1, in.readByte());
+        int tag;
+        while ((tag = in.read()) >= 0) {
+          counts.merge((char) tag, 1L, Long::sum);
+          switch (tag) {
+            case 'F':
+              Assertions.assertEquals(functions.size(), in.readInt());
+              functions.add(in.readUTF());
+              break;
+            case 'D':
+              Assertions.assertEquals(definitions.size(), in.readInt());
+              Assertions.assertTrue(in.readInt() < functions.size());
+              definitions.add(in.readUTF());
+              break;
+            case 'I':
+              Assertions.assertTrue(in.readInt() < definitions.size());
+              break;
+            case 'C':
+            case 'R':
+              Assertions.assertTrue(in.readInt() < functions.size());
+              break;
+            case 'r':
+            case 'w':
+              Assertions.assertTrue(in.readLong() >= 0);
+              in.readLong();
+              break;
+            default:
+              Assertions.fail("Unknown trace record " + (char) tag);
+          }
+        }
+      }
+      // Every call instruction is executed as well
+      Assertions.assertEquals(instructions + calls, (long) counts.getOrDefault('I', 0L));
+      Assertions.assertEquals(calls, (long) counts.getOrDefault('C', 0L));
+      Assertions.assertEquals(loads, (long) counts.getOrDefault('r', 0L));
+      Assertions.assertEquals(stores, (long) counts.getOrDefault('w', 0L));
+      Assertions.assertTrue(functions.contains("main"));
+      Assertions.assertTrue(counts.getOrDefault('R', 0L) > 0);
+    }));
+  }
+
+  /**
+   * Runs a program that reads uninitialized globals and indexes an array out of bounds in every
+   * emulator engine, which must share the layout and the diagnostics of {@link
+   * crux.ir.GlobalMemory}.
+   */
+  @TestFactory
+  Stream<DynamicTest> emulateIRMemory() {
+    if (skipFeatures()) {
+      return Stream.empty();
+    }
+
+    var program = String.join("\n", "int a[4];", "int g;", "void main() {", "  int m;",
+        "  m = 0 - 1;", "  a[1] = 7;", "  printInt(a[1]);", "  printInt(a[2]);", "  printInt(g);",
+        "  a[4] = 5;", "  printInt(g);", "  a[6] = 9;", "  printInt(a[6]);", "  a[m] = 3;",
+        "  printInt(a[m]);", "}");
+    var uninitialized = "Reading from uninitialized memory\n";
+    var expectedOutput = "7" + uninitialized + "0" + uninitialized + "0593";
+    Map<String, Consumer<Driver>> engines = Map.of("interpreter", Driver::enableEmulator,
+        "bytecode", Driver::enableBytecodeEmulator, "JVM", Driver::enableJvmEmulator);
+
+    return engines.entrySet().stream().map(engine -> dynamicTest(engine.getKey(), () -> {
+      var outStream = new ByteArrayOutputStream();
+      var outPrintStream = new PrintStream(outStream);
+      var driver = new Driver(outPrintStream, outPrintStream);
+      engine.getValue().accept(driver);
+      driver.setEmulatorInput(new ByteArrayInputStream(new byte[0]));
+      driver.setInputStream(new ByteArrayInputStream(program.getBytes(StandardCharsets.UTF_8)));
+      driver.run();
+      Assertions.assertEquals(expectedOutput, sanitize(outStream.toString()),
+          String.format("Global memory of the %s engine differs.", engine.getKey()));
+    }));
+  }
+
+  /**
+   * Runs a program with functions that do not fit into a JVM method on the JVM engine. They must be
+   * reported and run by the bytecode emulator, with the output of the default emulator.
+   */
+  @TestFactory
+  Stream<DynamicTest> emulateIRJvmLimits() {
+    if (skipFeatures()) {
+      return Stream.empty();
+    }
+
+    var program = new StringBuilder("int g;\n");
+    var params = new ArrayList<String>();
+    for (int k = 0; k < 130; k++)
+      params.add("int a" + k);
+    program.append("int wide(").append(String.join(", ", params)).append(") {\n  return 0");
+    for (int k = 0; k < 130; k++)
+      program.append(" + a").append(k).append(" * ").append(k % 7);
+    program.append(";\n}\n");
+    program.append("int large(int x) {\n  int c;\n  c = 0;\n");
+    for (int k = 0; k < 8000; k++) {
+      program.append(String.format("  if (x < %d) { c = c + x; } else { c = c - %d; }%n", k % 97,
+          k % 13));
+    }
+    program.append("  g = c;\n  return c;\n}\n");
+    var args = new ArrayList<String>();
+    for (int k = 0; k < 130; k++)
+      args.add(Integer.toString(k));
+    program.append("void main() {\n  printInt(wide(").append(String.join(", ", args))
+        .append("));\n  printInt(large(readInt()));\n  printInt(g);\n}\n");
+    byte[] source = program.toString().getBytes(StandardCharsets.UTF_8);
+    byte[] input = "42\n".getBytes(StandardCharsets.UTF_8);
+
+    return Stream.of(dynamicTest("limits", () -> {
+      var expectedStream = new ByteArrayOutputStream();
+      var expected = new Driver(new PrintStream(expectedStream), new PrintStream(expectedStream));
+      expected.enableEmulator();
+      expected.setEmulatorInput(new ByteArrayInputStream(input));
+      expected.setInputStream(new ByteArrayInputStream(source));
+      expected.run();
+
+      var outStream = new ByteArrayOutputStream();
+      var errStream = new ByteArrayOutputStream();
+      var driver = new Driver(new PrintStream(outStream), new PrintStream(errStream));
+      driver.enableJvmEmulator();
+      driver.setEmulatorInput(new ByteArrayInputStream(input));
+      driver.setInputStream(new ByteArrayInputStream(source));
+      driver.run();
+      Assertions.assertEquals(expectedStream.toString(), outStream.toString(),
+          "The JVM engine differs for functions that do not fit into a JVM method.");
+      var warnings = errStream.toString();
+      Assertions.assertTrue(warnings.contains("warning: function wide has too many arguments"),
+          warnings);
+      Assertions.assertTrue(warnings.contains("warning: function large "), warnings);
+      Assertions.assertFalse(warnings.contains("main"), warnings);
+    }));
+  }
+
+  /**
+   * Runs the IR tests with an alternative emulator engine, which must produce the same output as the
+   * default emulator.
+   */
+  private Stream<DynamicTest> emulateIRWith(String engine, Consumer<Driver> enableEngine)
+      throws IOException {
+    if (skipFeatures()) {
+      return Stream.empty();
+    }
+
+    var tests = getTests("ir");
+    return tests.stream().map(test -> dynamicTest(test.in, () -> {
+      ExecutorService executor = Executors.newSingleThreadExecutor();
+      Future<StringPair> future = executor.submit(new Callable<StringPair>() {
+        public StringPair call() throws IOException {
+          var loader = getClass().getClassLoader();
+          var in = loader.getResourceAsStream(test.in);
+          var input = loader.getResourceAsStream(test.input);
+
+          var outStream = new ByteArrayOutputStream();
+          var outPrintStream = new PrintStream(outStream);
+          var driver = new Driver(outPrintStream, outPrintStream);
+          enableEngine.accept(driver);
+          driver.setEmulatorInput(input);
+          driver.setInputStream(in);
+          driver.run();
+
+          var actualOutput = outStream.toString();
+          var expectedOutput = readResourceToString(test.out);
+
+          return new StringPair(expectedOutput, actualOutput);
+        }
+      });
+      StringPair sp = null;
+      try {
+        sp = future.get(TIMEOUT, TimeUnit.SECONDS);
+      } catch (TimeoutException e) {
+        future.cancel(true);
+      }
+      if (sp == null) {
+        Assertions.fail(String.format("Timeout for %s IR for program %s.", engine, test.in));
+      } else {
+        Assertions.assertEquals(sanitize(sp.a).trim(), sanitize(sp.b).trim(), String
+            .format("%s IR for program %s differs from expected output.", engine, test.in));
+      }
+    }));
+  }
+
   @TestFactory
   Stream<DynamicTest> codegen() throws IOException {
     if (skipStage("stage5")) {
@@ -301,6 +1056,417 @@ final class CompilerStageTests {
     }));
   }
 
+  /**
+   * Runs a batch in which one input crashes the emulator, which must fail alone while the other
+   * input still runs.
+   */
+  @TestFactory
+  Stream<DynamicTest> emulateIRBatchCrash() throws IOException {
+    if (skipFeatures()) {
+      return Stream.empty();
+    }
+
+    var directory = new File("target/batch-crash");
+    directory.mkdirs();
+    var bad = new File(directory, "bad.crx");
+    var good = new File(directory, "good.crx");
+    // Reading past the end of the input throws an Error in the emulator
+    Files.writeString(bad.toPath(), "void main() { printChar(readChar()); }");
+    Files.writeString(good.toPath(), "void main() { printInt(1); }");
+    var outputDirectory = new File(directory, "out");
+
+    return Stream.of(dynamicTest("crash", () -> {
+      var results = new BatchCompiler(List.of("--emulator"), outputDirectory.getPath(), 2)
+          .compile(List.of(bad.getPath(), good.getPath()));
+      Assertions.assertEquals(State.Error, results.get(0).state);
+      Assertions.assertTrue(results.get(0).errors.contains("Reading past end of stream"),
+          results.get(0).errors);
+      Assertions.assertEquals(State.Finished, results.get(1).state, results.get(1).errors);
+      var report = new ByteArrayOutputStream();
+      Assertions.assertFalse(BatchCompiler.report(results, new PrintStream(report)));
+      Assertions.assertTrue(report.toString().contains("1 of 2 files compiled, 1 failed"),
+          report.toString());
+    }));
+  }
+
+  /**
+   * Compiles the CodeGen tests as one batch and runs the assembly of each one.
+   */
+  @TestFactory
+  Stream<DynamicTest> codegenBatch() throws IOException {
+    if (skipStage("stage5")) {
+      return Stream.empty();
+    }
+
+    var tests = getTests("codegen");
+    var loader = getClass().getClassLoader();
+    var inputs = tests.stream().map(test -> loader.getResource(test.in).getPath())
+        .collect(Collectors.toList());
+    var outputDirectory = new File("target/batch");
+    // One output file for all inputs is rejected
+    Assertions.assertThrows(IllegalArgumentException.class,
+        () -> new BatchCompiler(List.of("-o", "out.s"), outputDirectory.getPath(), 4));
+    var results = new BatchCompiler(List.of(), outputDirectory.getPath(), 4).compile(inputs);
+    Runtime runtime = Runtime.getRuntime();
+
+    return tests.stream().map(test -> dynamicTest(test.in, () -> {
+      var result = results.get(tests.indexOf(test));
+      Assertions.assertEquals(State.Finished, result.state,
+          String.format("Batch for program %s failed: %s", test.in, result.errors));
+
+      var file = new File(outputDirectory, result.file.replace(".crx", "")).getPath();
+      Process build = runtime.exec(String.format(
+          "gcc %s/a.s src/runtime/runtime.c -o %s/autotest.bin", file, file));
+      if (build.waitFor() != 0)
+        throw new Error("Assembling and linking failed");
+      Process run = runtime.exec(file + "/autotest.bin");
+      try (var input = loader.getResourceAsStream(test.input);
+          var runinput = run.getOutputStream()) {
+        input.transferTo(runinput);
+      }
+      var actualOutput = new String(run.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+      Assertions.assertEquals(sanitize(readResourceToString(test.out)).trim(),
+          sanitize(actualOutput).trim(),
+          String.format("Batch CodeGen for program %s differs from expected output.", test.in));
+    }));
+  }
+
+  /**
+   * Writes the CodeGen tests as ELF objects instead of assembly, and links and runs them.
+   */
+  @TestFactory
+  Stream<DynamicTest> codegenObject() throws IOException {
+    if (skipStage("stage5")) {
+      return Stream.empty();
+    }
+
+    var tests = getTests("codegen");
+    var loader = getClass().getClassLoader();
+    var outputDirectory = new File("target/object");
+    outputDirectory.mkdirs();
+    Runtime runtime = Runtime.getRuntime();
+
+    return tests.stream().map(test -> dynamicTest(test.in, () -> {
+      var name = new File(test.in).getName().replace(".crx", "");
+      var object = new File(outputDirectory, name + ".o").getPath();
+      var binary = new File(outputDirectory, name + ".bin").getPath();
+      var driver = new Driver();
+      driver.enableObjectOutput();
+      driver.setAssemblyFile(object);
+      driver.setInputStream(loader.getResourceAsStream(test.in));
+      Assertions.assertEquals(State.Finished, driver.run());
+
+      Process build = runtime.exec(String.format(
+          "gcc %s src/runtime/runtime.c -o %s", object, binary));
+      if (build.waitFor() != 0)
+        throw new Error("Linking failed");
+      Process run = runtime.exec(binary);
+      try (var input = loader.getResourceAsStream(test.input);
+          var runinput = run.getOutputStream()) {
+        input.transferTo(runinput);
+      }
+      var actualOutput = new String(run.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+      Assertions.assertEquals(sanitize(readResourceToString(test.out)).trim(),
+          sanitize(actualOutput).trim(),
+          String.format("Object CodeGen for program %s differs from expected output.", test.in));
+    }));
+  }
+
+  /**
+   * Generates the assembly of a program that is several times larger than the buffer of the
+   * printer into a file name, a path, a stream and memory, which must all have the bytes of the
+   * {@code a.s} that the driver writes.
+   */
+  @TestFactory
+  Stream<DynamicTest> codegenPrinter() throws IOException {
+    if (skipStage("stage5")) {
+      return Stream.empty();
+    }
+
+    var program = new StringBuilder("void main() {\n  int a; int b;\n  a = readInt(); b = 0;\n");
+    for (int k = 0; k < 2000; k++)
+      program.append(String.format("  b = b * 3 + a - %d;%n", k % 13));
+    program.append("  printInt(b);\n}\n");
+    var outputDirectory = new File("target/printer");
+    outputDirectory.mkdirs();
+    var driver = new Driver(new PrintStream(new ByteArrayOutputStream()),
+        new PrintStream(new ByteArrayOutputStream()));
+    driver.enableBinarySerialize();
+    driver.setOutputDirectory(outputDirectory.getPath());
+    driver.setInputStream(
+        new ByteArrayInputStream(program.toString().getBytes(StandardCharsets.UTF_8)));
+    Assertions.assertEquals(State.Finished, driver.run());
+    byte[] expected = Files.readAllBytes(new File(outputDirectory, "a.s").toPath());
+    Assertions.assertTrue(expected.length > 4 * (1 << 16),
+        String.format("The assembly has only %d bytes.", expected.length));
+
+    var irFile = new File(outputDirectory, "ir.bin");
+    Map<String, java.util.function.Function<Program, byte[]>> sinks = Map.of(
+        "file name", p -> {
+          var file = new File(outputDirectory, "name.s");
+          new CodeGen(p, file.getPath()).genCode();
+          return readAllBytes(file);
+        },
+        "path", p -> {
+          var file = new File(outputDirectory, "path.s");
+          new CodeGen(p, file.toPath()).genCode();
+          return readAllBytes(file);
+        },
+        "stream", p -> {
+          var file = new File(outputDirectory, "stream.s");
+          try {
+            new CodeGen(p, new FileOutputStream(file)).genCode();
+          } catch (FileNotFoundException e) {
+            throw new UncheckedIOException(e);
+          }
+          return readAllBytes(file);
+        },
+        "memory", p -> {
+          var bytes = new ByteArrayOutputStream();
+          new CodeGen(p, bytes).genCode();
+          return bytes.toByteArray();
+        });
+    return sinks.entrySet().stream().map(sink -> dynamicTest(sink.getKey(), () -> {
+      Program p;
+      try (var ir = new FileInputStream(irFile)) {
+        var channel = ir.getChannel();
+        p = IrDecoder.read(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+      }
+      Assertions.assertArrayEquals(expected, sink.getValue().apply(p),
+          String.format("The assembly written to a %s differs from a.s.", sink.getKey()));
+    }));
+  }
+
+  private static byte[] readAllBytes(File file) {
+    try {
+      return Files.readAllBytes(file.toPath());
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Runs the peephole optimizer on {@code code} of a function that returns a value. The rewritten
+   * code must be {@code expected}, and the rules must have applied as often as in {@code hits}, and
+   * the others not at all.
+   */
+  private static DynamicTest peephole(String name, List<AsmInst> code, List<AsmInst> expected,
+      Map<String, Integer> hits) {
+    return dynamicTest(name, () -> {
+      var peephole = new Peephole();
+      var actual = peephole.run(code, true);
+      Assertions.assertEquals(expected.stream().map(AsmInst::toString).collect(Collectors.toList()),
+          actual.stream().map(AsmInst::toString).collect(Collectors.toList()));
+      for (var hit : peephole.getHits().entrySet()) {
+        Assertions.assertEquals(hits.getOrDefault(hit.getKey(), 0), hit.getValue(),
+            String.format("Hits of %s", hit.getKey()));
+      }
+    });
+  }
+
+  /**
+   * Checks every rule of the peephole optimizer on its own, where it applies and where it must not.
+   */
+  @TestFactory
+  Stream<DynamicTest> codegenPeephole() {
+    if (skipStage("stage5")) {
+      return Stream.empty();
+    }
+
+    var slot = Operand.mem(-8, Register.RBP);
+    var other = Operand.mem(-16, Register.RBP);
+    var zero = Operand.imm(0);
+    var one = Operand.imm(1);
+    var l1 = Operand.sym(".L1");
+    var l2 = Operand.sym(".L2");
+    var ret = AsmInst.of(Opcode.RET);
+    var movRaxRbx = AsmInst.of(Opcode.MOVQ, Register.RAX, Register.RBX);
+    var store = AsmInst.of(Opcode.MOVQ, Register.RAX, slot);
+    var compare = AsmInst.of(Opcode.CMPQ, Register.RSI, Register.RDI);
+    var setl = AsmInst.of(Opcode.SETL, Register.AL);
+    var extend = AsmInst.of(Opcode.MOVZBQ, Register.AL, Register.RAX);
+    var save = AsmInst.of(Opcode.MOVQ, Register.RAX, Register.R10);
+    var test = AsmInst.of(Opcode.CMPQ, one, Register.R10);
+    var label1 = AsmInst.label(".L1");
+    var label2 = AsmInst.label(".L2");
+    var setOne = AsmInst.of(Opcode.MOVQ, Operand.imm(1), Register.RAX);
+    var setTwo = AsmInst.of(Opcode.MOVQ, Operand.imm(2), Register.RAX);
+
+    return Stream.of(
+        peephole("self-move", List.of(AsmInst.of(Opcode.MOVQ, Register.RAX, Register.RAX), ret),
+            List.of(ret), Map.of("self-move", 1)),
+        peephole("self-move other register", List.of(movRaxRbx, ret), List.of(movRaxRbx, ret),
+            Map.of()),
+        peephole("store-load",
+            List.of(store, AsmInst.comment("load"), AsmInst.of(Opcode.MOVQ, slot, Register.RBX),
+                ret),
+            List.of(store, AsmInst.comment("load"), movRaxRbx, ret), Map.of("store-load", 1)),
+        peephole("store-load same register",
+            List.of(store, AsmInst.of(Opcode.MOVQ, slot, Register.RAX), ret), List.of(store, ret),
+            Map.of("store-load", 1)),
+        peephole("store-load other slot",
+            List.of(store, AsmInst.of(Opcode.MOVQ, other, Register.RBX), ret),
+            List.of(store, AsmInst.of(Opcode.MOVQ, other, Register.RBX), ret), Map.of()),
+        peephole("store-load after an instruction",
+            List.of(store, AsmInst.of(Opcode.ADDQ, one, slot),
+                AsmInst.of(Opcode.MOVQ, slot, Register.RBX), ret),
+            List.of(store, AsmInst.of(Opcode.ADDQ, one, slot),
+                AsmInst.of(Opcode.MOVQ, slot, Register.RBX), ret),
+            Map.of()),
+        peephole("zero-xor", List.of(AsmInst.of(Opcode.MOVQ, zero, Register.RAX), ret),
+            List.of(AsmInst.of(Opcode.XORQ, Register.RAX, Register.RAX), ret),
+            Map.of("zero-xor", 1)),
+        peephole("zero-xor before a flags read",
+            List.of(compare, AsmInst.of(Opcode.MOVQ, zero, Register.RAX), AsmInst.of(Opcode.JL, l1),
+                ret, label1, ret),
+            List.of(compare, AsmInst.of(Opcode.MOVQ, zero, Register.RAX), AsmInst.of(Opcode.JL, l1),
+                ret, label1, ret),
+            Map.of()),
+        peephole("zero-xor to memory", List.of(AsmInst.of(Opcode.MOVQ, zero, slot), ret),
+            List.of(AsmInst.of(Opcode.MOVQ, zero, slot), ret), Map.of()),
+        peephole("branch-fusion and dead-setup",
+            List.of(compare, setl, extend, save, test, AsmInst.of(Opcode.JE, l1), setOne, ret,
+                label1, setTwo, ret),
+            List.of(compare, AsmInst.of(Opcode.JL, l1), setOne, ret, label1, setTwo, ret),
+            Map.of("branch-fusion", 1, "dead-setup", 1)),
+        peephole("branch-fusion with a live boolean",
+            List.of(compare, setl, extend, save, test, AsmInst.of(Opcode.JE, l1), setOne, ret,
+                label1, AsmInst.of(Opcode.MOVQ, Register.R10, Register.RAX), ret),
+            List.of(compare, setl, extend, save, AsmInst.of(Opcode.JL, l1), setOne, ret, label1,
+                AsmInst.of(Opcode.MOVQ, Register.R10, Register.RAX), ret),
+            Map.of("branch-fusion", 1)),
+        peephole("branch-fusion of another boolean",
+            List.of(compare, setl, extend, save, AsmInst.of(Opcode.CMPQ, one, Register.R11),
+                AsmInst.of(Opcode.JE, l1), setOne, ret, label1, setTwo, ret),
+            List.of(compare, setl, extend, save, AsmInst.of(Opcode.CMPQ, one, Register.R11),
+                AsmInst.of(Opcode.JE, l1), setOne, ret, label1, setTwo, ret),
+            Map.of()),
+        peephole("jump-to-jump",
+            List.of(AsmInst.of(Opcode.JE, l1), ret, label1, AsmInst.of(Opcode.JMP, l2),
+                AsmInst.label(".L3"), ret, label2, AsmInst.of(Opcode.LEAVE), ret),
+            List.of(AsmInst.of(Opcode.JE, l2), ret, label1, AsmInst.of(Opcode.JMP, l2),
+                AsmInst.label(".L3"), ret, label2, AsmInst.of(Opcode.LEAVE), ret),
+            Map.of("jump-to-jump", 1)),
+        peephole("jump-to-jump cycle",
+            List.of(AsmInst.of(Opcode.JE, l1), ret, label1, AsmInst.of(Opcode.JMP, l1)),
+            List.of(AsmInst.of(Opcode.JE, l1), ret, label1, AsmInst.of(Opcode.JMP, l1)),
+            Map.of()),
+        peephole("jump-to-next",
+            List.of(AsmInst.of(Opcode.JMP, l1), label2, label1, ret),
+            List.of(label2, label1, ret), Map.of("jump-to-next", 1)),
+        peephole("jump-to-next over an instruction",
+            List.of(AsmInst.of(Opcode.JMP, l1), label2, ret, label1, ret),
+            List.of(AsmInst.of(Opcode.JMP, l1), label2, ret, label1, ret), Map.of()));
+  }
+
+  /**
+   * Compiles the CodeGen tests with a compile cache, first with the peephole optimizer and then
+   * without it, which must not return the assembly cached for the other setting. The optimizer
+   * must report hits exactly when it changed the assembly.
+   */
+  @TestFactory
+  Stream<DynamicTest> codegenCached() throws IOException {
+    if (skipStage("stage5")) {
+      return Stream.empty();
+    }
+
+    var tests = getTests("codegen");
+    var loader = getClass().getClassLoader();
+    var outputDirectory = new File("target/cached");
+    outputDirectory.mkdirs();
+
+    return tests.stream().map(test -> dynamicTest(test.in, () -> {
+      var name = new File(test.in).getName().replace(".crx", "");
+      var assembly = new ArrayList<String>();
+      var peepholeStats = new ByteArrayOutputStream();
+      for (var setting : List.of("peephole", "cached", "uncached")) {
+        var file = new File(outputDirectory, name + "-" + setting + ".s");
+        var driver = new Driver(System.out, new PrintStream(peepholeStats));
+        if (setting.equals("peephole"))
+          driver.enablePeepholeStats();
+        else
+          driver.disablePeephole();
+        if (!setting.equals("uncached"))
+          driver.setCacheDirectory("target/cache");
+        driver.setAssemblyFile(file.getPath());
+        driver.setInputStream(loader.getResourceAsStream(test.in));
+        Assertions.assertEquals(State.Finished, driver.run());
+        assembly.add(Files.readString(file.toPath()));
+      }
+      Assertions.assertEquals(assembly.get(2), assembly.get(1),
+          String.format("Cached assembly of program %s without peephole optimization differs.",
+              test.in));
+      long hits = 0;
+      for (var line : peepholeStats.toString().lines().collect(Collectors.toList()))
+        hits += Long.parseLong(line.substring(line.lastIndexOf(' ') + 1));
+      Assertions.assertEquals(hits > 0, !assembly.get(0).equals(assembly.get(2)),
+          String.format("Peephole hits of program %s do not match its assembly:%n%s", test.in,
+              peepholeStats));
+    }));
+  }
+
+  /**
+   * Compiles a generated program with one long function of thousands of blocks and variables, with
+   * and without optimization, which must run in time and produce the output of the emulator.
+   */
+  @TestFactory
+  Stream<DynamicTest> codegenLarge() {
+    if (skipStage("stage5")) {
+      return Stream.empty();
+    }
+
+    var program = new StringBuilder("void main() {\n  int a; int b; int c;\n");
+    program.append("  a = readInt(); b = readInt(); c = 0;\n");
+    for (int k = 0; k < 10000; k++) {
+      if (k % 5 == 0) {
+        program.append(String.format("  if (a < %d) { c = c + a * b; } else { c = c - b; }%n",
+            k % 97));
+      } else {
+        program.append(String.format("  a = a + %d; b = b * 3 + c; c = c + b - a;%n", k % 13));
+      }
+    }
+    program.append("  printInt(c);\n}\n");
+    byte[] source = program.toString().getBytes(StandardCharsets.UTF_8);
+    byte[] input = "3\n5\n".getBytes(StandardCharsets.UTF_8);
+    var outputDirectory = new File("target/large");
+    outputDirectory.mkdirs();
+    Runtime runtime = Runtime.getRuntime();
+
+    var emulatorStream = new ByteArrayOutputStream();
+    var emulator = new Driver(new PrintStream(emulatorStream), new PrintStream(emulatorStream));
+    emulator.enableEmulator();
+    emulator.setEmulatorInput(new ByteArrayInputStream(input));
+    emulator.setInputStream(new ByteArrayInputStream(source));
+    emulator.run();
+    var expectedOutput = emulatorStream.toString();
+
+    return Stream.of("", "-O").map(flag -> dynamicTest("large" + flag, () -> {
+      var assembly = new File(outputDirectory, "large" + flag + ".s").getPath();
+      var binary = new File(outputDirectory, "large" + flag + ".bin").getPath();
+      var driver = new Driver();
+      if (!flag.isEmpty())
+        driver.enableOptimization();
+      driver.setAssemblyFile(assembly);
+      driver.setInputStream(new ByteArrayInputStream(source));
+      var state = Assertions.assertTimeoutPreemptively(Duration.ofSeconds(TIMEOUT), driver::run,
+          String.format("Timeout for CodeGen of the large program with '%s'.", flag));
+      Assertions.assertEquals(State.Finished, state);
+
+      Process build = runtime.exec(String.format(
+          "gcc %s src/runtime/runtime.c -o %s", assembly, binary));
+      if (build.waitFor() != 0)
+        throw new Error("Assembling and linking failed");
+      Process run = runtime.exec(binary);
+      try (var runinput = run.getOutputStream()) {
+        runinput.write(input);
+      }
+      var actualOutput = new String(run.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+      Assertions.assertEquals(sanitize(expectedOutput).trim(), sanitize(actualOutput).trim(),
+          String.format("CodeGen of the large program with '%s' differs from the emulator.",
+              flag));
+    }));
+  }
+
   private List<InOut> getTests(String stageName) throws IOException {
     var loader = getClass().getClassLoader();
     var folder = String.format("crux/stages/%s", stageName);